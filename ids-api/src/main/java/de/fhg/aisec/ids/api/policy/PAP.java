@@ -20,7 +20,10 @@
 package de.fhg.aisec.ids.api.policy;
 
 import de.fhg.aisec.ids.api.router.RouteVerificationProof;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -52,4 +55,25 @@ public interface PAP {
 
   @Nullable
   RouteVerificationProof verifyRoute(@NonNull String routeId);
+
+  /**
+   * Verifies several routes against the active policy. Implementations may verify independent
+   * routes in parallel, the default implementation verifies one route after another.
+   *
+   * @param routeIds Ids of the routes to verify
+   * @return The proofs by route id, in the order of the given ids, or null if routes cannot be
+   *     verified
+   */
+  @Nullable
+  default Map<String, RouteVerificationProof> verifyRoutes(@NonNull Collection<String> routeIds) {
+    Map<String, RouteVerificationProof> proofs = new LinkedHashMap<>();
+    for (String routeId : routeIds) {
+      RouteVerificationProof proof = verifyRoute(routeId);
+      if (proof == null) {
+        return null;
+      }
+      proofs.put(routeId, proof);
+    }
+    return proofs;
+  }
 }
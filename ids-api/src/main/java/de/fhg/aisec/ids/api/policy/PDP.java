@@ -41,6 +41,20 @@ public interface PDP {
    */
   PolicyDecision requestDecision(DecisionRequest req);
 
+  /**
+   * Returns the policy decision for a request if it is available without evaluating the policy,
+   * e.g. from a cache of previous decisions.
+   *
+   * <p>This allows PEPs to defer only the expensive decisions to other threads.
+   *
+   * @param req The decision request, wrapping relevant data for policy decision
+   * @return The policy decision, or null if it must be requested using <code>requestDecision
+   *     </code>
+   */
+  default PolicyDecision requestCachedDecision(DecisionRequest req) {
+    return null;
+  }
+
   /** Removes all data from PDP-internal caches. Future decisions will possibly take more time. */
   void clearAllCaches();
 
@@ -57,4 +71,18 @@ public interface PDP {
    * @return The label transformations to apply to the Exchange
    */
   TransformationDecision requestTranformations(ServiceNode lastServiceNode);
+
+  /**
+   * Returns the label transformations for a node if they are available without evaluating the
+   * policy, e.g. from a cache of previous transformations.
+   *
+   * <p>This allows PEPs to defer only the expensive evaluations to other threads.
+   *
+   * @param lastServiceNode The last Processor the message exchange has processed
+   * @return The label transformations, or null if they must be requested using <code>
+   *     requestTranformations</code>
+   */
+  default TransformationDecision requestCachedTransformations(ServiceNode lastServiceNode) {
+    return null;
+  }
 }
@@ -29,16 +29,21 @@ import de.fhg.aisec.ids.messages.Idscp.Error;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
@@ -46,6 +51,7 @@ import java.util.Base64;
 import java.util.List;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
@@ -58,19 +64,35 @@ public class RemoteAttestationHandler {
   static String lastError = "";
   // used to count messages between ids connector and attestation repository
   private static long privateID = new java.util.Random().nextLong();
+  // trust anchor of the TPM certificates, shared by all handlers
+  private static final RootCertificateFile DEFAULT_ROOT_CERTIFICATE =
+      new RootCertificateFile(FileSystems.getDefault().getPath("etc", "rootca-cert.pem"));
+  // shared by all repository requests, such that kept-alive connections can be reused
+  private static SSLSocketFactory repositorySocketFactory;
+  private static final ThreadLocal<MessageDigest> SHA1_DIGEST =
+      ThreadLocal.withInitial(
+          () -> {
+            try {
+              return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+              throw new IllegalStateException("SHA-1 is not supported", e);
+            }
+          });
   boolean mySuccess = false;
   boolean yourSuccess = false;
   Tpm2dSocket tpm2dSocket;
+  private final RootCertificateFile rootCertificate;
 
   RemoteAttestationHandler() {
-    // Tpm2dSocket used to communicate with local TPM2d
-    try {
-      String host = System.getenv("TPM_HOST") != null ? System.getenv("TPM_HOST") : "localhost";
-      tpm2dSocket = new Tpm2dSocket(host);
-    } catch (IOException e) {
-      lastError = "Could not create Tpm2dSocket. No TPM present?";
-      LOG.warn(lastError);
-    }
+    this(DEFAULT_ROOT_CERTIFICATE);
+  }
+
+  /** @param rootCertificate The trust anchor of the TPM certificates */
+  RemoteAttestationHandler(RootCertificateFile rootCertificate) {
+    // Tpm2dSocket used to communicate with local TPM2d, connections are opened on demand
+    String host = System.getenv("TPM_HOST") != null ? System.getenv("TPM_HOST") : "localhost";
+    tpm2dSocket = new Tpm2dSocket(host);
+    this.rootCertificate = rootCertificate;
   }
 
   public RatResult handleAttestationResult(@NonNull AttestationResult result) {
@@ -138,8 +160,9 @@ public class RemoteAttestationHandler {
    * @return The new nonce, updated with the given certificate using SHA-1
    */
   static byte[] calculateHash(byte[] nonce, @Nullable Certificate certificate) {
+    MessageDigest digest = SHA1_DIGEST.get();
+    digest.reset();
     try {
-      MessageDigest digest = MessageDigest.getInstance("SHA-1");
       digest.update(nonce);
       if (certificate != null) {
         digest.update(certificate.getEncoded());
@@ -174,19 +197,8 @@ public class RemoteAttestationHandler {
 
       // Load trust anchor certificate
       final X509Certificate rootCertificate;
-      Path rootCertPath = FileSystems.getDefault().getPath("etc", "rootca-cert.pem");
-      try (BufferedReader reader =
-          Files.newBufferedReader(rootCertPath, StandardCharsets.US_ASCII)) {
-        StringBuilder builder = new StringBuilder();
-        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-          if (!line.startsWith("-")) {
-            builder.append(line.trim());
-          }
-        }
-        byte[] rootCertBytes = Base64.getDecoder().decode(builder.toString());
-        rootCertificate =
-            (X509Certificate)
-                certFactory.generateCertificate(new ByteArrayInputStream(rootCertBytes));
+      try {
+        rootCertificate = this.rootCertificate.get();
       } catch (Exception e) {
         LOG.error("Error parsing root certificate", e);
         return false;
@@ -271,6 +283,16 @@ public class RemoteAttestationHandler {
     }
   }
 
+  private static synchronized SSLSocketFactory getRepositorySocketFactory()
+      throws GeneralSecurityException {
+    if (repositorySocketFactory == null) {
+      SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+      sslContext.init(null, null, null);
+      repositorySocketFactory = sslContext.getSocketFactory();
+    }
+    return repositorySocketFactory;
+  }
+
   static MessageLite sendError(long id, @Nullable String error) {
     if (error == null) {
       error = "";
@@ -285,9 +307,7 @@ public class RemoteAttestationHandler {
   private static ConnectorMessage readRepositoryResponse(@NonNull ConnectorMessage msg, URL adr)
       throws IOException, GeneralSecurityException {
     HttpsURLConnection urlc = (HttpsURLConnection) adr.openConnection();
-    SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-    sslContext.init(null, null, null);
-    urlc.setSSLSocketFactory(sslContext.getSocketFactory());
+    urlc.setSSLSocketFactory(getRepositorySocketFactory());
     urlc.setUseCaches(false);
     urlc.setDoInput(true);
     urlc.setDoOutput(true);
@@ -295,8 +315,60 @@ public class RemoteAttestationHandler {
     urlc.setRequestProperty("Accept", "application/x-protobuf");
     urlc.setRequestProperty("Content-Type", "application/x-protobuf");
     urlc.setRequestProperty("User-Agent", "IDS-Connector");
-    urlc.setRequestProperty("Content-length", String.valueOf(msg.toByteArray().length));
-    msg.writeTo(urlc.getOutputStream());
-    return ConnectorMessage.newBuilder().mergeFrom(urlc.getInputStream()).build();
+    byte[] body = msg.toByteArray();
+    urlc.setRequestProperty("Content-length", String.valueOf(body.length));
+    try (OutputStream out = urlc.getOutputStream()) {
+      out.write(body);
+    }
+    // read the response completely and close it, such that the connection can be kept alive
+    try (InputStream in = urlc.getInputStream()) {
+      return ConnectorMessage.newBuilder().mergeFrom(in).build();
+    }
+  }
+
+  /**
+   * The trust anchor of the TPM certificates in a PEM file. The certificate is parsed once and
+   * reloaded when the file has been modified.
+   */
+  static final class RootCertificateFile {
+    private final Path path;
+    private volatile LoadedCertificate loaded;
+
+    RootCertificateFile(Path path) {
+      this.path = path;
+    }
+
+    X509Certificate get() throws IOException, CertificateException {
+      FileTime lastModified = Files.getLastModifiedTime(path);
+      LoadedCertificate cached = loaded;
+      if (cached != null && cached.lastModified.equals(lastModified)) {
+        return cached.certificate;
+      }
+      StringBuilder builder = new StringBuilder();
+      try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          if (!line.startsWith("-")) {
+            builder.append(line.trim());
+          }
+        }
+      }
+      byte[] rootCertBytes = Base64.getDecoder().decode(builder.toString());
+      X509Certificate certificate =
+          (X509Certificate)
+              CertificateFactory.getInstance("X.509")
+                  .generateCertificate(new ByteArrayInputStream(rootCertBytes));
+      loaded = new LoadedCertificate(lastModified, certificate);
+      return certificate;
+    }
+  }
+
+  private static final class LoadedCertificate {
+    private final FileTime lastModified;
+    private final X509Certificate certificate;
+
+    private LoadedCertificate(FileTime lastModified, X509Certificate certificate) {
+      this.lastModified = lastModified;
+      this.certificate = certificate;
+    }
   }
 }
@@ -19,32 +19,27 @@
  */
 package de.fhg.aisec.ids.comm.ws.protocol.rat;
 
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d.TPM2dConnectionPool;
 import de.fhg.aisec.ids.messages.AttestationProtos.RemoteToTpm2d;
 import de.fhg.aisec.ids.messages.AttestationProtos.Tpm2dToRemote;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.Socket;
 
-public class Tpm2dSocket extends Socket {
+/**
+ * Client for the local tpm2d. Requests are sent via the tpm2d connection pool of IDSCP2, which
+ * keeps the connections to tpm2d open for subsequent attestations.
+ */
+public class Tpm2dSocket {
 
-  private final DataInputStream is;
-  private final DataOutputStream os;
+  private final String host;
 
-  public Tpm2dSocket(String host) throws IOException {
-    super(host, 9505);
-    is = new DataInputStream(this.getInputStream());
-    os = new DataOutputStream(this.getOutputStream());
+  public Tpm2dSocket(String host) {
+    this.host = host;
   }
 
   public Tpm2dToRemote requestAttestation(RemoteToTpm2d request) throws IOException {
-    // Write attestation request message
-    byte[] requestBytes = request.toByteArray();
-    os.writeInt(requestBytes.length);
-    os.write(requestBytes);
-    // Read attestation result message
-    byte[] resultBytes = new byte[is.readInt()];
-    is.readFully(resultBytes);
+    byte[] resultBytes =
+        TPM2dConnectionPool.getInstance()
+            .request(host, TPM2dConnectionPool.DEFAULT_PORT, request.toByteArray());
     return Tpm2dToRemote.parseFrom(resultBytes);
   }
 }
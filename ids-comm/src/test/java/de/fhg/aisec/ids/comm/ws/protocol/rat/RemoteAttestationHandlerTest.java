@@ -0,0 +1,179 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-comm
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.comm.ws.protocol.rat;
+
+import static org.junit.Assert.*;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.comm.ws.protocol.rat.RemoteAttestationHandler.RootCertificateFile;
+import de.fhg.aisec.ids.messages.AttestationProtos.IdsAttestationType;
+import de.fhg.aisec.ids.messages.Idscp.AttestationResponse;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RemoteAttestationHandlerTest {
+
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final byte[] NONCE = new byte[20];
+  private static final Path JSSE = FileSystems.getDefault().getPath("src/test/resources/jsse");
+
+  // the client certificate of the test keystores acts as TPM certificate, signed by the sub CA
+  private static X509Certificate subCa;
+  private static X509Certificate rootCa;
+  private static AttestationResponse response;
+
+  private static KeyStore keyStore(String name) throws Exception {
+    KeyStore ks = KeyStore.getInstance("JKS");
+    try (InputStream in = Files.newInputStream(JSSE.resolve(name))) {
+      ks.load(in, "password".toCharArray());
+    }
+    return ks;
+  }
+
+  private static void writePem(Path path, Certificate certificate) throws Exception {
+    String pem =
+        "-----BEGIN CERTIFICATE-----\n"
+            + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII))
+                .encodeToString(certificate.getEncoded())
+            + "\n-----END CERTIFICATE-----\n";
+    Files.write(path, pem.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /** Encodes a TPMS_ATTEST structure of a quote without PCRs in the TPM wire format. */
+  private static byte[] quote(byte[] extraData) {
+    return ByteBuffer.allocate(41 + extraData.length)
+        .putInt(0xff544347) // TPM_GENERATED_VALUE
+        .putShort((short) 0x8018) // TPM_ST_ATTEST_QUOTE
+        .putShort((short) 0) // qualifiedSigner
+        .putShort((short) extraData.length)
+        .put(extraData)
+        .put(new byte[17]) // clockInfo
+        .putLong(0) // firmwareVersion
+        .putInt(0) // pcrSelect
+        .putShort((short) 0) // pcrDigest
+        .array();
+  }
+
+  /** Encodes a TPMT_SIGNATURE structure with an RSASSA SHA-256 signature. */
+  private static byte[] signature(byte[] sig) {
+    return ByteBuffer.allocate(6 + sig.length)
+        .putShort((short) 0x0014) // TPM_ALG_RSASSA
+        .putShort((short) 0x000b) // TPM_ALG_SHA256
+        .putShort((short) sig.length)
+        .put(sig)
+        .array();
+  }
+
+  /** Creates a quote of the nonce, signed with the key of the TPM certificate. */
+  @BeforeClass
+  public static void setUp() throws Exception {
+    KeyStore trustStore = keyStore("client-truststore.jks");
+    subCa = (X509Certificate) trustStore.getCertificate("subca");
+    rootCa = (X509Certificate) trustStore.getCertificate("ca");
+    KeyStore ks = keyStore("client-keystore.jks");
+
+    byte[] quoted = quote(RemoteAttestationHandler.calculateHash(NONCE, null));
+    Signature sig = Signature.getInstance("SHA256withRSA");
+    sig.initSign((PrivateKey) ks.getKey("1", "password".toCharArray()));
+    sig.update(quoted);
+    response =
+        AttestationResponse.newBuilder()
+            .setAtype(IdsAttestationType.BASIC)
+            .setCertificate(ByteString.copyFrom(ks.getCertificate("1").getEncoded()))
+            .setSignature(ByteString.copyFrom(signature(sig.sign())))
+            .setQuoted(ByteString.copyFrom(quoted))
+            .build();
+  }
+
+  @Test
+  public void testSignatureIsCheckedAgainstRootCertificate() throws Exception {
+    Path rootCert = tmp.newFile().toPath();
+    writePem(rootCert, subCa);
+    RemoteAttestationHandler handler =
+        new RemoteAttestationHandler(new RootCertificateFile(rootCert));
+    byte[] hash = RemoteAttestationHandler.calculateHash(NONCE, null);
+    assertTrue(handler.checkSignature(response, hash));
+    assertFalse(handler.checkSignature(response, RemoteAttestationHandler.calculateHash(
+        new byte[] {1}, null)));
+  }
+
+  @Test
+  public void testRootCertificateIsCachedUntilModified() throws Exception {
+    Path rootCert = tmp.newFile().toPath();
+    writePem(rootCert, subCa);
+    RootCertificateFile file = new RootCertificateFile(rootCert);
+    X509Certificate root = file.get();
+    assertEquals(subCa, root);
+    // the file is not parsed again while it is unmodified
+    assertSame(root, file.get());
+
+    // a new modification time invalidates the cached certificate, even with the same content
+    FileTime modified = Files.getLastModifiedTime(rootCert);
+    Files.setLastModifiedTime(
+        rootCert, FileTime.fromMillis(modified.toMillis() + TimeUnit.SECONDS.toMillis(10)));
+    X509Certificate reloaded = file.get();
+    assertNotSame(root, reloaded);
+    assertEquals(root, reloaded);
+    assertSame(reloaded, file.get());
+  }
+
+  @Test
+  public void testModifiedRootCertificateIsUsed() throws Exception {
+    Path rootCert = tmp.newFile().toPath();
+    writePem(rootCert, subCa);
+    RemoteAttestationHandler handler =
+        new RemoteAttestationHandler(new RootCertificateFile(rootCert));
+    byte[] hash = RemoteAttestationHandler.calculateHash(NONCE, null);
+    assertTrue(handler.checkSignature(response, hash));
+
+    // the TPM certificate is not signed by the new trust anchor
+    FileTime modified = Files.getLastModifiedTime(rootCert);
+    writePem(rootCert, rootCa);
+    Files.setLastModifiedTime(
+        rootCert, FileTime.fromMillis(modified.toMillis() + TimeUnit.SECONDS.toMillis(10)));
+    assertFalse(handler.checkSignature(response, hash));
+  }
+
+  @Test
+  public void testHashIsIndependentOfPreviousCalls() {
+    byte[] nonce = {1, 2, 3};
+    byte[] hash = RemoteAttestationHandler.calculateHash(nonce, null);
+    RemoteAttestationHandler.calculateHash(new byte[] {4, 5, 6}, null);
+    assertArrayEquals(hash, RemoteAttestationHandler.calculateHash(nonce, null));
+    assertEquals(20, hash.length);
+  }
+}
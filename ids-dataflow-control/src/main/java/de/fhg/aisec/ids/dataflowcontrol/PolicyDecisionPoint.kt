@@ -25,7 +25,9 @@ import de.fhg.aisec.ids.api.policy.*
 import de.fhg.aisec.ids.api.policy.PolicyDecision.Decision
 import de.fhg.aisec.ids.api.router.RouteManager
 import de.fhg.aisec.ids.api.router.RouteVerificationProof
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionSolution
 import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconEngine
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconPolicy
 import de.fhg.aisec.ids.dataflowcontrol.lucon.TuPrologHelper.escape
 import de.fhg.aisec.ids.dataflowcontrol.lucon.TuPrologHelper.listStream
 import org.osgi.service.component.ComponentContext
@@ -33,8 +35,11 @@ import org.osgi.service.component.annotations.*
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.util.*
+import java.util.concurrent.Callable
 import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * servicefactory=false is the default and actually not required. But we want to make clear that
@@ -44,11 +49,19 @@ import java.util.concurrent.TimeUnit
  * @author Julian Schuette (julian.schuette@aisec.fraunhofer.de)
  */
 @Component(immediate = true, name = "ids-dataflow-control")
-class PolicyDecisionPoint : PDP, PAP {
+class PolicyDecisionPoint internal constructor(
+        /**
+         * Whether decisions use the compiled rules of the policy. Otherwise, all rules are
+         * evaluated by Prolog queries, which yields the same decisions.
+         */
+        private val useCompiledPolicy: Boolean
+) : PDP, PAP {
 
-    // Convenience val for this thread's LuconEngine instance
+    constructor() : this(true)
+
+    // Convenience val for this thread's LuconEngine instance with the current policy
     private val engine: LuconEngine
-        get() = threadEngine.get()
+        get() = engineFor(LuconEngine.currentPolicy)
 
     @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
     @Volatile
@@ -57,24 +70,68 @@ class PolicyDecisionPoint : PDP, PAP {
     private val transformationCache = CacheBuilder.newBuilder()
             .maximumSize(10000)
             .expireAfterAccess(1, TimeUnit.DAYS)
-            .build<ServiceNode, TransformationDecision>()
+            .build<TransformationKey, TransformationDecision>()
+
+    /** Key of the transformation cache, transformations depend on the policy version. */
+    private data class TransformationKey(val node: ServiceNode, val policyVersion: Long)
+
+    /**
+     * Key of the decision cache. A decision only depends on the policy, the nodes and the labels
+     * of the message, which are copied into the key.
+     */
+    private data class DecisionKey(
+            val from: ServiceNode,
+            val to: ServiceNode,
+            val labels: Set<String>,
+            val policyVersion: Long)
+
+    private val decisionCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build<DecisionKey, PolicyDecision>()
+
+    /**
+     * Key of the verification cache. A proof only depends on the route, represented as Prolog, and
+     * the policy.
+     */
+    private data class VerificationKey(
+            val routeId: String,
+            val routePl: String,
+            val policyVersion: Long)
+
+    private val verificationCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build<VerificationKey, RouteVerificationProof>()
+
+    // Verifies independent routes in parallel, each thread with its own LuconEngine
+    private val verificationThreadCount = AtomicInteger()
+    private val verificationExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors()) { r ->
+        Thread(r, "RouteVerification-" + verificationThreadCount.incrementAndGet()).apply {
+            isDaemon = true
+        }
+    }
 
     /**
      * Creates a query to retrieve policy decision from Prolog knowledge base.
      *
      * @param target The target node of the transformation
-     * @param properties The exchange properties
+     * @param labels The labels of the message
+     * @param rules The rules to query, or null for all rules
      */
-    private fun createDecisionQuery(
-            target: ServiceNode, properties: MutableMap<String, Any>): String {
+    private fun createDecisionQuery(target: ServiceNode, labels: Set<String>,
+                                    rules: List<String>? = null): String {
         val sb = StringBuilder()
+        // Assert labels for the duration of this query, must be done before receives_label(X).
+        // They are asserted once for all rules, such that each rule sees exactly these labels.
+        labels.forEach { k -> sb.append("assert(label(").append(k).append(")), ") }
+        if (rules != null) {
+            sb.append("member(X, [").append(rules.joinToString(", ")).append("]), ")
+        }
         sb.append("rule(X), has_target(X, T), ")
         sb.append("has_endpoint(T, EP), ")
         sb.append("regex_match(EP, ").append(escape(target.endpoint)).append("), ")
-        // Assert labels for the duration of this query, must be done before receives_label(X)
-        @Suppress("UNCHECKED_CAST")
-        val labels = properties.computeIfAbsent(PDP.LABELS_KEY) { HashSet<String>() } as Set<String>
-        labels.forEach { k -> sb.append("assert(label(").append(k).append(")), ") }
         sb.append("receives_label(X), ")
         sb.append("rule_priority(X, P), ")
         // Removed due to unclear relevance
@@ -89,12 +146,7 @@ class PolicyDecisionPoint : PDP, PAP {
 //            sb.append("(").append(capProp.joinToString(", ")).append("), ")
 //        }
         sb.append("(has_decision(X, D) ; (has_obligation(X, _O), has_alternativedecision(_O, Alt), ")
-        sb.append("requires_prerequisite(_O, A)))")
-        if (labels.isNotEmpty()) {
-            // Cleanup prolog VM for next run
-            sb.append(", retractall(label(_))")
-        }
-        sb.append(".")
+        sb.append("requires_prerequisite(_O, A))).")
         return sb.toString()
     }
 
@@ -142,6 +194,11 @@ class PolicyDecisionPoint : PDP, PAP {
         loadPolicies()
     }
 
+    @Deactivate
+    private fun deactivate() {
+        verificationExecutor.shutdown()
+    }
+
     fun loadPolicies() {
         // Try to load existing policies from deploy dir at activation
         val dir = File(System.getProperty("karaf.base") + File.separator + "deploy")
@@ -165,10 +222,21 @@ class PolicyDecisionPoint : PDP, PAP {
         }
     }
 
+    /**
+     * Returns this thread's LuconEngine after loading the given policy into it, if the engine
+     * still uses a previous policy.
+     */
+    private fun engineFor(policy: LuconPolicy): LuconEngine {
+        val engine = threadEngine.get()
+        engine.loadPolicy(policy)
+        return engine
+    }
+
     override fun requestTranformations(lastServiceNode: ServiceNode): TransformationDecision {
+        val policy = LuconEngine.currentPolicy
         try {
             return transformationCache.get(
-                    lastServiceNode
+                    TransformationKey(lastServiceNode, policy.version)
             ) {
                 // Query prolog for labels to remove or add from message
                 val query = this.createTransformationQuery(lastServiceNode)
@@ -178,7 +246,7 @@ class PolicyDecisionPoint : PDP, PAP {
 
                 val result = TransformationDecision()
                 try {
-                    val solveInfo = this.engine.query(query, true)
+                    val solveInfo = engineFor(policy).query(query, true)
                     if (solveInfo.isNotEmpty()) {
                         // Get solutions, convert label variables to string and collect in sets
                         val labelsToAdd = result.labelsToAdd
@@ -214,133 +282,179 @@ class PolicyDecisionPoint : PDP, PAP {
 
     }
 
+    override fun requestCachedTransformations(lastServiceNode: ServiceNode): TransformationDecision? {
+        return transformationCache.getIfPresent(
+                TransformationKey(lastServiceNode, LuconEngine.currentPolicy.version))
+    }
+
     override fun requestDecision(req: DecisionRequest): PolicyDecision {
-        val dec = PolicyDecision()
         if (LOG.isTraceEnabled) {
             LOG.trace("Decision requested " + req.from.endpoint + " -> " + req.to.endpoint)
         }
 
+        // The decision is computed with this policy, even if a new one is published meanwhile
+        val policy = LuconEngine.currentPolicy
+        val key = decisionKey(req, policy)
+        decisionCache.getIfPresent(key)?.let { return copyOf(it) }
+
+        val dec = PolicyDecision()
+        if (queryDecision(policy, req.to, key.labels, dec)) {
+            // Callers get their own copies, such that they cannot modify the cached decision
+            decisionCache.put(key, copyOf(dec))
+        }
+        return dec
+    }
+
+    override fun requestCachedDecision(req: DecisionRequest): PolicyDecision? {
+        return decisionCache.getIfPresent(decisionKey(req, LuconEngine.currentPolicy))?.let { copyOf(it) }
+    }
+
+    private fun decisionKey(req: DecisionRequest, policy: LuconPolicy): DecisionKey {
+        @Suppress("UNCHECKED_CAST")
+        val labels = req.properties.computeIfAbsent(PDP.LABELS_KEY) { HashSet<String>() } as Set<String>
+        return DecisionKey(req.from, req.to, labels.toSet(), policy.version)
+    }
+
+    /**
+     * Computes a policy decision, using the compiled rules of the policy and Prolog queries for
+     * all other rules.
+     *
+     * @param policy The policy to use
+     * @param target The target node of the message
+     * @param labels The labels of the message
+     * @param dec The decision to fill in
+     * @return false if the query failed, the decision must not be cached then
+     */
+    private fun queryDecision(policy: LuconPolicy, target: ServiceNode, labels: Set<String>,
+                              dec: PolicyDecision): Boolean {
         try {
-            // Query Prolog engine for a policy decision
             val startTime = System.nanoTime()
-            val query = this.createDecisionQuery(req.to, req.properties)
-            if (LOG.isTraceEnabled) {
-                LOG.trace("Decision query: {}", query)
+            val compiledSolutions = if (useCompiledPolicy) {
+                policy.compiled.solutions(target.endpoint, labels) { rules ->
+                    querySolutions(policy, createDecisionQuery(target, labels, rules), labels)
+                }
+            } else {
+                null
             }
-            val solveInfo = this.engine.query(query, true)
+            val solutions = compiledSolutions
+                    ?: querySolutions(policy, createDecisionQuery(target, labels), labels)
             val time = System.nanoTime() - startTime
             if (LOG.isTraceEnabled) {
                 LOG.trace("Decision query took {} ms", time / 1e6f)
             }
 
             // If there is no matching rule, deny by default
-            if (solveInfo.isEmpty()) {
+            if (solutions.isEmpty()) {
                 if (LOG.isDebugEnabled) {
                     LOG.debug("No policy decision found. Returning " + dec.decision.toString())
                 }
                 dec.reason = "No matching rule"
-                return dec
+                return true
             }
 
-            // Include only solveInfos with highest priority
+            // Include only solutions with highest priority
             var maxPrio = Integer.MIN_VALUE
-            val applicableSolveInfos = ArrayList<SolveInfo>()
-            for (si in solveInfo) {
+            val applicableSolutions = ArrayList<DecisionSolution>()
+            for (s in solutions) {
                 try {
-                    val priority = Integer.parseInt(si.getVarValue("P").term.toString())
+                    val priority = Integer.parseInt(s.priority)
                     if (priority > maxPrio) {
                         maxPrio = priority
-                        applicableSolveInfos.clear()
+                        applicableSolutions.clear()
                     }
                     if (priority == maxPrio) {
-                        applicableSolveInfos.add(si)
+                        applicableSolutions.add(s)
                     }
                 } catch (e: NumberFormatException) {
-                    LOG.warn("Invalid rule priority: " + si.getVarValue("P"), e)
-                } catch (e: NullPointerException) {
-                    LOG.warn("Invalid rule priority: " + si.getVarValue("P"), e)
+                    LOG.warn("Invalid rule priority: " + s.priority, e)
                 }
-
             }
 
             // Just for debugging
             if (LOG.isDebugEnabled) {
-                debug(applicableSolveInfos)
+                debug(applicableSolutions)
             }
 
             // Collect obligations
             val obligations = LinkedList<Obligation>()
-            applicableSolveInfos.forEach { s ->
-                try {
-                    val rule = s.getVarValue("X")
-                    val decision = s.getVarValue("D")
-                    if (decision !is Var) {
-                        val decString = decision.term.toString()
-                        if ("drop" == decString) {
-                            dec.reason = rule.term.toString()
-                        } else if ("allow" == decString) {
-                            dec.reason = rule.term.toString()
-                            dec.decision = Decision.ALLOW
-                        }
+            applicableSolutions.forEach { s ->
+                if (s.decision != null) {
+                    if ("drop" == s.decision) {
+                        dec.reason = s.rule
+                    } else if ("allow" == s.decision) {
+                        dec.reason = s.rule
+                        dec.decision = Decision.ALLOW
                     }
-                    val action = s.getVarValue("A")
-                    val altDecision = s.getVarValue("Alt")
-                    if (action !is Var) {
-                        val o = Obligation()
-                        o.action = action.term.toString()
-                        if (altDecision !is Var) {
-                            val altDecString = altDecision.term.toString()
-                            if ("drop" == altDecString) {
-                                o.alternativeDecision = Decision.DENY
-                            } else if ("allow" == altDecString) {
-                                o.alternativeDecision = Decision.ALLOW
-                            }
-                        }
-                        obligations.add(o)
+                }
+                if (s.action != null) {
+                    val o = Obligation()
+                    o.action = s.action
+                    if ("drop" == s.alternativeDecision) {
+                        o.alternativeDecision = Decision.DENY
+                    } else if ("allow" == s.alternativeDecision) {
+                        o.alternativeDecision = Decision.ALLOW
                     }
-                } catch (e: NoSolutionException) {
-                    LOG.warn("Unexpected: solution variable not present: " + e.message)
-                    dec.reason = "Solution variable not present"
+                    obligations.add(o)
                 }
             }
             dec.obligations = obligations
         } catch (e: NoMoreSolutionException) {
             LOG.error(e.message, e)
             dec.reason = "Error: " + e.message
+            return false
         } catch (e: MalformedGoalException) {
             LOG.error(e.message, e)
             dec.reason = "Error: " + e.message
+            return false
         } catch (e: NoSolutionException) {
             LOG.error(e.message, e)
             dec.reason = "Error: " + e.message
+            return false
         }
 
-        return dec
+        return true
     }
 
     /**
-     * Just for debugging: Print query solution to DEBUG out.
+     * Runs a decision query on this thread's Prolog engine.
      *
-     * @param solveInfo A list of Prolog solutions
+     * @param policy The policy to query
+     * @param query The decision query
+     * @param labels The labels that are asserted by the query
+     * @return The solutions of the query
      */
-    private fun debug(solveInfo: List<SolveInfo>) {
-        if (!LOG.isTraceEnabled) {
-            return
+    private fun querySolutions(policy: LuconPolicy, query: String,
+                               labels: Set<String>): List<DecisionSolution> {
+        if (LOG.isTraceEnabled) {
+            LOG.trace("Decision query: {}", query)
         }
+        val engine = engineFor(policy)
         try {
-            for (i in solveInfo) {
-                if (i.isSuccess) {
-                    val vars = i.bindingVars
-                    LOG.trace(vars.joinToString(", ") { v ->
-                        String.format("%s: %s (%s)", v.name, v.term,
-                                if (v.isBound) "bound" else "unbound")
-                    })
-                }
+            return engine.query(query, true).map { s ->
+                // Unbound variables of the query are null
+                fun value(name: String) =
+                        s.getVarValue(name)?.let { if (it is Var) null else it.term.toString() }
+                DecisionSolution(s.getVarValue("X").term.toString(),
+                        value("P"), value("D"), value("A"), value("Alt"))
+            }
+        } finally {
+            if (labels.isNotEmpty()) {
+                // Cleanup prolog VM for next run
+                engine.query("retractall(label(_)).", false)
             }
-        } catch (nse: NoSolutionException) {
-            LOG.trace("No solution found", nse)
         }
+    }
 
+    /**
+     * Just for debugging: Print query solutions to DEBUG out.
+     *
+     * @param solutions A list of decision query solutions
+     */
+    private fun debug(solutions: List<DecisionSolution>) {
+        if (!LOG.isTraceEnabled) {
+            return
+        }
+        solutions.forEach { LOG.trace(it.toString()) }
     }
 
     override fun clearAllCaches() {
@@ -352,14 +466,20 @@ class PolicyDecisionPoint : PDP, PAP {
             LOG.warn("Prolog cache_clear(_) failed", pe)
         }
 
-        // clear transformation cache
+        // clear transformation, decision and verification caches
         transformationCache.invalidateAll()
+        decisionCache.invalidateAll()
+        verificationCache.invalidateAll()
     }
 
     override fun loadPolicy(theory: String?) {
-        // Load policy into engine, possibly overwriting the existing one.
-        this.engine.loadPolicy(theory ?: "")
-        LuconEngine.setDefaultPolicy(theory ?: "")
+        // Load policy into this thread's engine, possibly overwriting the existing one,
+        // and publish it to the engines of all threads
+        threadEngine.get().publishPolicy(theory ?: "")
+        // Decisions of the previous policy are not used anymore, even if they are still cached
+        transformationCache.invalidateAll()
+        decisionCache.invalidateAll()
+        verificationCache.invalidateAll()
     }
 
     override fun listRules(): List<String> {
@@ -383,9 +503,42 @@ class PolicyDecisionPoint : PDP, PAP {
             return null
         }
 
-        val routePl = rm.getRouteAsProlog(routeId)
+        return verify(rm, routeId)
+    }
 
-        return engine.proofInvalidRoute(routeId, routePl)
+    override fun verifyRoutes(routeIds: Collection<String>): Map<String, RouteVerificationProof>? {
+        val rm = this.routeManager
+        if (rm == null) {
+            LOG.warn("No RouteManager. Cannot verify Camel routes $routeIds")
+            return null
+        }
+
+        val proofs = routeIds.associateWith {
+            verificationExecutor.submit(Callable { verify(rm, it) })
+        }
+        return proofs.mapValues {
+            try {
+                it.value.get()
+            } catch (ee: ExecutionException) {
+                throw ee.cause ?: ee
+            }
+        }
+    }
+
+    /**
+     * Verifies a route, unless it has already been verified against the current policy in its
+     * current definition.
+     */
+    private fun verify(rm: RouteManager, routeId: String): RouteVerificationProof {
+        val policy = LuconEngine.currentPolicy
+        val routePl = rm.getRouteAsProlog(routeId)
+        try {
+            return verificationCache.get(VerificationKey(routeId, routePl, policy.version)) {
+                engineFor(policy).proofInvalidRoute(routeId, routePl)
+            }
+        } catch (ee: ExecutionException) {
+            throw ee.cause ?: ee
+        }
     }
 
     companion object {
@@ -394,5 +547,11 @@ class PolicyDecisionPoint : PDP, PAP {
 
         // Each thread creates a LuconEngine instance to prevent concurrency issues
         val threadEngine: ThreadLocal<LuconEngine> = ThreadLocal.withInitial { LuconEngine(System.out) }
+
+        private fun copyOf(dec: PolicyDecision) = PolicyDecision().apply {
+            reason = dec.reason
+            decision = dec.decision
+            obligations = dec.obligations.map { Obligation(it.action, it.alternativeDecision) }
+        }
     }
 }
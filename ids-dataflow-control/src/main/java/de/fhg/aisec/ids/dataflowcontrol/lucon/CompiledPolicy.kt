@@ -0,0 +1,378 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.Struct
+import alice.tuprolog.Term
+import com.google.common.cache.CacheBuilder
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * In-memory index of the rules of a LUCON policy, which answers policy decision queries without
+ * the Prolog engine.
+ *
+ *
+ * Rules of a subset of LUCON are compiled: their has_target, has_endpoint, rule_priority,
+ * has_decision, has_obligation, has_alternativedecision and requires_prerequisite clauses are
+ * ground facts, and their receives_label clauses are facts or combine ground label(L) goals with
+ * ",", ";" and "\+". The labels of these clauses are numbered, such that each receives_label
+ * clause becomes a disjunction of label bitsets. The endpoint regexes of the targets are compiled
+ * once. Solutions of all other rules are queried from the Prolog engine.
+ *
+ *
+ * Solutions are returned in the order and multiplicity of the Prolog decision query, such that
+ * both yield identical decisions.
+ */
+class CompiledPolicy private constructor(
+        // false if the rules of the policy cannot be enumerated, all decisions use Prolog then
+        private val indexed: Boolean,
+        // names of all rules, in the order of the policy
+        private val rules: List<String>,
+        private val compiledRules: Map<String, CompiledRule>,
+        // bit numbers of the labels in receives_label clauses
+        private val labelBits: Map<String, Int>) {
+
+    /** Rules outside of the compiled subset, which are evaluated by the Prolog engine */
+    val fallbackRules: List<String> = rules.filter { it !in compiledRules }
+
+    // number of matching endpoints of the compiled rules, by target endpoint
+    private val endpointMatches = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build<String, IntArray>()
+
+    /**
+     * A compiled rule.
+     *
+     * @param index Number of the rule in the endpoint matches
+     * @param endpoints Endpoint regexes of all targets, in the order of the decision query
+     * @param conditions Label conditions of the receives_label clauses
+     * @param solutions Solutions of the rule for one matching endpoint and label condition
+     */
+    private class CompiledRule(
+            val index: Int,
+            val endpoints: List<Pattern>,
+            val conditions: List<LabelCondition>,
+            val solutions: List<DecisionSolution>)
+
+    /** A conjunction of labels that must be present and labels that must be absent. */
+    private class LabelCondition(
+            private val required: LongArray,
+            private val forbidden: LongArray) {
+        fun matches(labels: LongArray): Boolean {
+            for (i in labels.indices) {
+                if (required[i] and labels[i].inv() != 0L || forbidden[i] and labels[i] != 0L) {
+                    return false
+                }
+            }
+            return true
+        }
+    }
+
+    /**
+     * Returns the solutions of the decision query for a target endpoint and the labels of a
+     * message, or null if the request has to be answered by the Prolog engine.
+     *
+     * @param endpoint The endpoint of the target node
+     * @param labels The labels of the message
+     * @param fallback Queries the solutions of the given rules from the Prolog engine
+     * @return The solutions in the order of the decision query
+     */
+    fun solutions(endpoint: String?,
+                  labels: Collection<String>,
+                  fallback: (List<String>) -> List<DecisionSolution>): List<DecisionSolution>? {
+        if (!indexed || compiledRules.isEmpty() && rules.isNotEmpty()
+                || endpoint == null || !isPlain(endpoint)) {
+            return null
+        }
+        val labelSet = LongArray((labelBits.size + 63) / 64)
+        for (label in labels) {
+            val bit = labelBits[labelTerm(label) ?: return null] ?: continue
+            labelSet[bit ushr 6] = labelSet[bit ushr 6] or (1L shl bit)
+        }
+        val matches = endpointMatches.get(endpoint) {
+            val counts = IntArray(compiledRules.size)
+            compiledRules.values.forEach { rule ->
+                counts[rule.index] = rule.endpoints.count { it.matcher(endpoint).matches() }
+            }
+            counts
+        }
+        val fallbackSolutions = if (fallbackRules.isEmpty()) {
+            emptyMap<String, List<DecisionSolution>>()
+        } else {
+            fallback(fallbackRules).groupBy { it.rule }
+        }
+
+        val result = ArrayList<DecisionSolution>()
+        for (name in rules) {
+            val rule = compiledRules[name]
+            if (rule == null) {
+                fallbackSolutions[name]?.let { result.addAll(it) }
+            } else {
+                // The rule is solved once per matching endpoint and label condition
+                repeat(matches[rule.index] * rule.conditions.count { it.matches(labelSet) }) {
+                    result.addAll(rule.solutions)
+                }
+            }
+        }
+        return result
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(CompiledPolicy::class.java)
+        private const val MAX_CONDITIONS = 256
+        private val ATOM = Pattern.compile("[a-z][a-zA-Z0-9_]*")
+
+        // label terms of message labels, as parsed by the decision query
+        private val labelTerms = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterAccess(1, TimeUnit.DAYS)
+                .build<String, Optional<String>>()
+
+        /** The policy without rules */
+        @JvmField
+        val EMPTY = CompiledPolicy(true, emptyList(), emptyMap(), emptyMap())
+
+        private val PROLOG_ONLY = CompiledPolicy(false, emptyList(), emptyMap(), emptyMap())
+
+        /**
+         * Compiles the policy that is loaded into a LuconEngine.
+         *
+         * @param engine The engine with the policy
+         * @return The compiled policy
+         */
+        fun compile(engine: LuconEngine): CompiledPolicy {
+            return try {
+                compileRules(engine)
+            } catch (e: Exception) {
+                LOG.warn("Policy could not be compiled, using Prolog queries only", e)
+                PROLOG_ONLY
+            }
+        }
+
+        private fun compileRules(engine: LuconEngine): CompiledPolicy {
+            val rules = ArrayList<String>()
+            for ((args, body) in clauses(engine, "rule", 1)) {
+                val rule = args[0].toString()
+                if (!args[0].isGround || !isTrue(body) || rule in rules) {
+                    return PROLOG_ONLY
+                }
+                rules.add(rule)
+            }
+
+            // Rules, services and obligations with clauses outside of the subset
+            val unsupported = HashSet<String>()
+            val targets = facts(engine, "has_target", unsupported) ?: return PROLOG_ONLY
+            val endpoints = facts(engine, "has_endpoint", unsupported) ?: return PROLOG_ONLY
+            val priorities = facts(engine, "rule_priority", unsupported) ?: return PROLOG_ONLY
+            val decisions = facts(engine, "has_decision", unsupported) ?: return PROLOG_ONLY
+            val obligations = facts(engine, "has_obligation", unsupported) ?: return PROLOG_ONLY
+            val alternatives =
+                    facts(engine, "has_alternativedecision", unsupported) ?: return PROLOG_ONLY
+            val prerequisites =
+                    facts(engine, "requires_prerequisite", unsupported) ?: return PROLOG_ONLY
+
+            val labelBits = LinkedHashMap<String, Int>()
+            val receives = HashMap<String, MutableList<Pair<Set<Int>, Set<Int>>>>()
+            for ((args, body) in clauses(engine, "receives_label", 1)) {
+                if (!args[0].isGround) {
+                    return PROLOG_ONLY
+                }
+                val rule = args[0].toString()
+                val conditions = conditions(body, labelBits)
+                val ruleConditions = receives.getOrPut(rule) { ArrayList() }
+                if (conditions == null || ruleConditions.size + conditions.size > MAX_CONDITIONS) {
+                    unsupported.add(rule)
+                } else {
+                    ruleConditions.addAll(conditions)
+                }
+            }
+
+            val words = (labelBits.size + 63) / 64
+            val compiledRules = HashMap<String, CompiledRule>()
+            for (rule in rules) {
+                val ruleTargets = targets[rule].orEmpty().map { it[1].toString() }
+                val ruleObligations = obligations[rule].orEmpty().map { it[1].toString() }
+                if (rule in unsupported || ruleTargets.any { it in unsupported }
+                        || ruleObligations.any { it in unsupported }) {
+                    continue
+                }
+                val patterns = try {
+                    ruleTargets.flatMap { t ->
+                        endpoints[t].orEmpty().mapNotNull { pattern(it[1]) }
+                    }
+                } catch (e: PatternSyntaxException) {
+                    // regex_match fails with an error, which is left to the Prolog engine
+                    continue
+                }
+                val solutions = ArrayList<DecisionSolution>()
+                for (p in priorities[rule].orEmpty()) {
+                    val priority = p[1].toString()
+                    for (d in decisions[rule].orEmpty()) {
+                        solutions.add(DecisionSolution(rule, priority, d[1].toString(), null, null))
+                    }
+                    for (o in ruleObligations) {
+                        for (alt in alternatives[o].orEmpty()) {
+                            for (a in prerequisites[o].orEmpty()) {
+                                solutions.add(DecisionSolution(
+                                        rule, priority, null, a[1].toString(), alt[1].toString()))
+                            }
+                        }
+                    }
+                }
+                val conditions = receives[rule].orEmpty()
+                        .filter { (required, forbidden) -> required.none { it in forbidden } }
+                        .map { (required, forbidden) ->
+                            LabelCondition(bitset(required, words), bitset(forbidden, words))
+                        }
+                compiledRules[rule] =
+                        CompiledRule(compiledRules.size, patterns, conditions, solutions)
+            }
+            LOG.debug("Compiled {} of {} policy rules", compiledRules.size, rules.size)
+            return CompiledPolicy(true, rules, compiledRules, labelBits)
+        }
+
+        /** Returns the head arguments and the bodies of the clauses of a predicate. */
+        private fun clauses(engine: LuconEngine, name: String, arity: Int)
+                : List<Pair<List<Term>, Term>> {
+            val args = (0 until arity).map { "A$it" }
+            val query = "catch(clause($name(${args.joinToString(", ")}), B), _, fail)."
+            return engine.query(query, true).map { s ->
+                Pair(args.map { s.getVarValue(it).term }, s.getVarValue("B").term)
+            }
+        }
+
+        /**
+         * Returns the arguments of the ground facts of a binary predicate by their first argument.
+         * The first arguments of other clauses are added to the unsupported keys. Returns null if
+         * a clause applies to arbitrary first arguments.
+         */
+        private fun facts(engine: LuconEngine, name: String, unsupported: MutableSet<String>)
+                : Map<String, List<List<Term>>>? {
+            val result = HashMap<String, MutableList<List<Term>>>()
+            for ((args, body) in clauses(engine, name, 2)) {
+                if (!args[0].isGround) {
+                    return null
+                }
+                val key = args[0].toString()
+                if (isTrue(body) && args[1].isGround) {
+                    result.getOrPut(key) { ArrayList() }.add(args)
+                } else {
+                    unsupported.add(key)
+                }
+            }
+            return result
+        }
+
+        private fun isTrue(body: Term) = body is Struct && body.name == "true" && body.arity == 0
+
+        /**
+         * Compiles a receives_label body into a disjunction of label conditions with the same
+         * number of solutions, or returns null if the body is outside of the subset.
+         */
+        private fun conditions(body: Term, labelBits: MutableMap<String, Int>)
+                : List<Pair<Set<Int>, Set<Int>>>? {
+            val t = body.term as? Struct ?: return null
+            return when {
+                isTrue(t) -> listOf(Pair(emptySet(), emptySet()))
+                t.name == "label" && t.arity == 1 ->
+                    labelBit(t.getArg(0), labelBits)?.let { listOf(Pair(setOf(it), emptySet())) }
+                t.name == "\\+" && t.arity == 1 -> {
+                    val goal = t.getArg(0).term as? Struct ?: return null
+                    if (goal.name != "label" || goal.arity != 1) {
+                        return null
+                    }
+                    labelBit(goal.getArg(0), labelBits)?.let { listOf(Pair(emptySet(), setOf(it))) }
+                }
+                t.name == "," && t.arity == 2 -> {
+                    val left = conditions(t.getArg(0), labelBits) ?: return null
+                    val right = conditions(t.getArg(1), labelBits) ?: return null
+                    if (left.size * right.size > MAX_CONDITIONS) {
+                        return null
+                    }
+                    left.flatMap { l ->
+                        right.map { r -> Pair(l.first + r.first, l.second + r.second) }
+                    }
+                }
+                t.name == ";" && t.arity == 2 -> {
+                    val left = conditions(t.getArg(0), labelBits) ?: return null
+                    val right = conditions(t.getArg(1), labelBits) ?: return null
+                    if (left.size + right.size > MAX_CONDITIONS) null else left + right
+                }
+                else -> null
+            }
+        }
+
+        private fun labelBit(label: Term, labelBits: MutableMap<String, Int>): Int? {
+            val t = label.term
+            return if (t.isGround) labelBits.getOrPut(t.toString()) { labelBits.size } else null
+        }
+
+        private fun bitset(bits: Set<Int>, words: Int): LongArray {
+            val result = LongArray(words)
+            bits.forEach { result[it ushr 6] = result[it ushr 6] or (1L shl it) }
+            return result
+        }
+
+        /** Compiles an endpoint regex like regex_match/2, null if it never matches */
+        private fun pattern(regex: Term): Pattern? {
+            val t = regex.term
+            if ((!t.isAtom || t.isList) && t !is alice.tuprolog.Number) {
+                return null
+            }
+            return Pattern.compile(TuPrologHelper.unquote(t.toString()))
+        }
+
+        /**
+         * Returns true if the quoted endpoint in the decision query is read as the endpoint
+         * itself by regex_match/2.
+         */
+        private fun isPlain(endpoint: String): Boolean {
+            return endpoint != "[]" && endpoint.all { it in ' '..'~' && it != '\'' && it != '\\' }
+        }
+
+        /**
+         * Returns the label term that the decision query asserts for a message label, or null if
+         * it is not a ground term.
+         */
+        private fun labelTerm(label: String): String? {
+            if (ATOM.matcher(label).matches()) {
+                return label
+            }
+            return labelTerms.get(label) {
+                try {
+                    // The label is inserted into the query as it is
+                    val t = Term.createTerm("label($label)")
+                    if (t is Struct && t.name == "label" && t.arity == 1 && t.getArg(0).isGround) {
+                        Optional.of(t.getArg(0).term.toString())
+                    } else {
+                        Optional.empty<String>()
+                    }
+                } catch (e: Exception) {
+                    Optional.empty<String>()
+                }
+            }.orElse(null)
+        }
+    }
+}
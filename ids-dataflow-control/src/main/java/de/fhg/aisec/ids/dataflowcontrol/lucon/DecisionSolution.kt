@@ -0,0 +1,37 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+/**
+ * A solution of the policy decision query: a rule that applies to a message, its priority and
+ * either a decision or an obligation of the rule.
+ *
+ * @param rule The rule
+ * @param priority The priority of the rule, or null if it is not bound
+ * @param decision The decision of the rule, or null for obligations
+ * @param action The action required by an obligation, or null for decisions
+ * @param alternativeDecision The decision if the obligation cannot be fulfilled, or null
+ */
+data class DecisionSolution(
+        val rule: String,
+        val priority: String?,
+        val decision: String?,
+        val action: String?,
+        val alternativeDecision: String?)
@@ -49,6 +49,10 @@ class LuconEngine
 (out: OutputStream?) {
     private val p: Prolog = Prolog()
 
+    /** Version of the shared policy that is loaded into this engine, or -1 for other theories */
+    var policyVersion = -1L
+        private set
+
     val theory: String
         get() {
             val t = p.theory
@@ -63,7 +67,7 @@ class LuconEngine
 
     init {
         try {
-            p.theory = Theory(defaultPolicy)
+            loadPolicy(currentPolicy)
         } catch (e: Exception) {
             LOG.error("Error loading default policy", e)
         }
@@ -130,9 +134,46 @@ class LuconEngine
     fun loadPolicy(theory: String) {
         val t = Theory(theory)
         LOG.debug("Loading theory:\n$t")
+        // A failed load leaves the engine with a partial theory
+        policyVersion = -1
         p.theory = t
     }
 
+    /**
+     * Loads the given shared policy, unless this engine has already loaded it.
+     *
+     * @param policy The policy to load
+     */
+    @Throws(InvalidTheoryException::class)
+    fun loadPolicy(policy: LuconPolicy) {
+        if (policyVersion != policy.version) {
+            loadPolicy(policy.theory)
+            policyVersion = policy.version
+        }
+    }
+
+    /**
+     * Loads a policy into this engine and publishes it as the current policy of all engines.
+     *
+     *
+     * Engines of other threads load the new policy before their next query. The policy is
+     * only published if it could be loaded into this engine, which also compiles its rules.
+     *
+     * @param theory The theory to load
+     * @return The published policy
+     */
+    @Throws(InvalidTheoryException::class)
+    fun publishPolicy(theory: String): LuconPolicy {
+        synchronized(PUBLISH_LOCK) {
+            loadPolicy(theory)
+            val policy =
+                    LuconPolicy(currentPolicy.version + 1, theory, CompiledPolicy.compile(this))
+            policyVersion = policy.version
+            currentPolicy = policy
+            return policy
+        }
+    }
+
     @Throws(MalformedGoalException::class)
     fun query(query: String?, findAll: Boolean): List<SolveInfo> {
         if (LOG.isTraceEnabled) {
@@ -221,15 +262,17 @@ class LuconEngine
 
     companion object {
         private val LOG = LoggerFactory.getLogger(LuconEngine::class.java)
-        private var defaultPolicy = ""
+        private val PUBLISH_LOCK = Any()
+
+        /** The policy of all engines, replaced as a whole when a new policy is published */
+        @Volatile
+        @JvmStatic
+        var currentPolicy = LuconPolicy(0, "", CompiledPolicy.EMPTY)
+            private set
 
         // A Prolog query to compute a path from X to Y in a graph of statements (= a route)
         private const val QUERY_ROUTE_VERIFICATION = "entrynode(X), stmt(Y), path(X, Y, T)."
         private val WARNING_FILTER = Pattern.compile("^WARNING: The predicate .* is unknown\\.$")
-
-        fun setDefaultPolicy(theory: String) {
-            defaultPolicy = theory
-        }
     }
 
 
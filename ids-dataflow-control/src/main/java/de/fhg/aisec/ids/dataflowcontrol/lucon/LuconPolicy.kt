@@ -0,0 +1,33 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+/**
+ * An immutable version of the LUCON policy that is shared by the LuconEngines of all threads.
+ *
+ * A new policy is published as a new instance with a higher version. Engines compare this version
+ * with the version of the policy they have loaded, such that each engine loads a policy at most
+ * once.
+ *
+ * @param version Version of the policy, increases with every published policy
+ * @param theory The policy as Prolog theory
+ * @param compiled The rules of the policy compiled for decisions without Prolog queries
+ */
+class LuconPolicy(val version: Long, val theory: String, val compiled: CompiledPolicy)
@@ -37,10 +37,22 @@ import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconEngine;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -150,6 +162,48 @@ public class LuconEngineTest {
           + "creates_label(sanitizedata, public).\n"
           + "removes_label(sanitizedata, private).\n";
 
+  // Policy with rules inside and outside of the compiled subset of LUCON
+  private static final String MIXED_POLICY =
+      ""
+          + "rule(denyAll).\n"
+          + "rule_priority(denyAll, 0).\n"
+          + "has_decision(denyAll, drop).\n"
+          + "receives_label(denyAll).\n"
+          + "has_target(denyAll, serviceAll).\n"
+          + "\n"
+          + "rule(privateData).\n"
+          + "rule_priority(privateData, 1).\n"
+          + "has_target(privateData, hadoop).\n"
+          + "receives_label(privateData) :- label(L), L == private.\n"
+          + "has_decision(privateData, drop).\n"
+          + "\n"
+          + "rule(publicData).\n"
+          + "rule_priority(publicData, 1).\n"
+          + "has_target(publicData, hadoop).\n"
+          + "has_target(publicData, serviceAll).\n"
+          + "receives_label(publicData) :- label(public), \\+ label(private).\n"
+          + "has_decision(publicData, allow).\n"
+          + "has_obligation(publicData, logAccess).\n"
+          + "\n"
+          + "rule(anyPurpose).\n"
+          + "rule_priority(anyPurpose, 2).\n"
+          + "has_target(anyPurpose, hadoop).\n"
+          + "receives_label(anyPurpose) :- label(purpose(green)) ; label(purpose(research)).\n"
+          + "has_decision(anyPurpose, drop).\n"
+          + "\n"
+          + "rule(researchOnly).\n"
+          + "rule_priority(researchOnly, 2).\n"
+          + "has_target(researchOnly, hadoop).\n"
+          + "receives_label(researchOnly).\n"
+          + "has_decision(researchOnly, allow) :- label(purpose(research)).\n"
+          + "\n"
+          + "service(serviceAll).\n"
+          + "has_endpoint(serviceAll, '.*').\n"
+          + "service(hadoop).\n"
+          + "has_endpoint(hadoop, \"^hdfs://.*\").\n"
+          + "has_alternativedecision(logAccess, drop).\n"
+          + "requires_prerequisite(logAccess, log(access)).\n";
+
   // Route from LUCON paper with path searching logic
   private static final String VERIFIABLE_ROUTE =
       "%\n"
@@ -313,6 +367,242 @@ public class LuconEngineTest {
     assertEquals(0, dec.getObligations().size());
   }
 
+  /** Cached decisions must not survive a policy swap and must follow the message labels. */
+  @Test
+  public void testDecisionCacheAcrossPolicySwap() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicies();
+    pdp.loadPolicy(EXTENDED_LABELS_POLICY);
+
+    Map<String, Object> attributes = new HashMap<>();
+    Set<String> labels = Sets.newHashSet("purpose(green)");
+    attributes.put(PDP.LABELS_KEY, labels);
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    ServiceNode dest = new ServiceNode("ahc://some_url", null, null);
+    DecisionRequest req = new DecisionRequest(source, dest, attributes, null);
+
+    PolicyDecision dec = pdp.requestDecision(req);
+    assertEquals(Decision.ALLOW, dec.getDecision());
+    // modifying a returned decision does not modify the cached one
+    dec.setDecision(Decision.DENY);
+    assertEquals(Decision.ALLOW, pdp.requestDecision(req).getDecision());
+
+    // the cache key contains a snapshot of the labels
+    labels.clear();
+    assertEquals(Decision.DENY, pdp.requestDecision(req).getDecision());
+    labels.add("purpose(green)");
+    assertEquals(Decision.ALLOW, pdp.requestDecision(req).getDecision());
+
+    // only the default deny rule of the example policy matches the target
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    dec = pdp.requestDecision(req);
+    assertEquals(Decision.DENY, dec.getDecision());
+    assertEquals("denyAll", dec.getReason());
+
+    pdp.loadPolicy(EXTENDED_LABELS_POLICY);
+    assertEquals(Decision.ALLOW, pdp.requestDecision(req).getDecision());
+    pdp.clearAllCaches();
+    assertEquals(Decision.ALLOW, pdp.requestDecision(req).getDecision());
+  }
+
+  /** Decisions are cached per endpoint pair and label set. */
+  @Test
+  public void testDecisionIsCachedPerEndpointsAndLabels() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicies();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    ServiceNode dest = new ServiceNode("hdfs://some_url", null, null);
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(PDP.LABELS_KEY, Sets.newHashSet("private"));
+    DecisionRequest req = new DecisionRequest(source, dest, attributes, null);
+
+    assertNull(pdp.requestCachedDecision(req));
+    PolicyDecision dec = pdp.requestDecision(req);
+    assertEquals(Decision.ALLOW, dec.getDecision());
+
+    // an equal request with its own attributes hits the cache
+    Map<String, Object> sameLabels = new HashMap<>();
+    sameLabels.put(PDP.LABELS_KEY, Sets.newHashSet("private"));
+    PolicyDecision cached =
+        pdp.requestCachedDecision(new DecisionRequest(source, dest, sameLabels, null));
+    assertNotNull(cached);
+    assertEquals(describe(dec), describe(cached));
+    // callers cannot modify the cached decision
+    cached.setDecision(Decision.DENY);
+    assertEquals(Decision.ALLOW, pdp.requestCachedDecision(req).getDecision());
+
+    Map<String, Object> otherLabels = new HashMap<>();
+    otherLabels.put(PDP.LABELS_KEY, Sets.newHashSet("public"));
+    assertNull(pdp.requestCachedDecision(new DecisionRequest(source, dest, otherLabels, null)));
+    ServiceNode otherSource = new ServiceNode("seda:other_source", null, null);
+    assertNull(pdp.requestCachedDecision(new DecisionRequest(otherSource, dest, attributes, null)));
+
+    pdp.clearAllCaches();
+    assertNull(pdp.requestCachedDecision(req));
+  }
+
+  private static String describe(PolicyDecision dec) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(dec.getDecision()).append(' ').append(dec.getReason());
+    for (Obligation o : dec.getObligations()) {
+      sb.append(' ').append(o.getAction()).append('/').append(o.getAlternativeDecision());
+    }
+    return sb.toString();
+  }
+
+  /** The compiled policy must yield the same decisions as the Prolog queries. */
+  @Test
+  public void testCompiledPolicyEquivalence() {
+    String examplePolicy =
+        new Scanner(
+                this.getClass().getClassLoader().getResourceAsStream("policy-example.pl"),
+                StandardCharsets.UTF_8.name())
+            .useDelimiter("\\A")
+            .next();
+    String[] endpoints = {
+      "hdfs://cluster", "ahc://some_url", "amqp:queue:test", "log:info", "seda:test_source"
+    };
+    String[] labels = {
+      "private", "public", "filtered", "unfiltered", "purpose(green)", "purpose(research)"
+    };
+    PolicyDecisionPoint compiled = new PolicyDecisionPoint();
+    PolicyDecisionPoint prolog = new PolicyDecisionPoint(false);
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+
+    for (String policy : new String[] {examplePolicy, EXAMPLE_POLICY, EXTENDED_LABELS_POLICY}) {
+      compiled.loadPolicy(policy);
+      // all rules of these policies are compiled
+      assertTrue(LuconEngine.getCurrentPolicy().getCompiled().getFallbackRules().isEmpty());
+      for (String endpoint : endpoints) {
+        ServiceNode dest = new ServiceNode(endpoint, null, null);
+        for (int subset = 0; subset < 1 << labels.length; subset++) {
+          Set<String> msgLabels = new HashSet<>();
+          for (int i = 0; i < labels.length; i++) {
+            if ((subset & 1 << i) != 0) {
+              msgLabels.add(labels[i]);
+            }
+          }
+          Map<String, Object> attributes = new HashMap<>();
+          attributes.put(PDP.LABELS_KEY, msgLabels);
+          DecisionRequest req = new DecisionRequest(source, dest, attributes, null);
+          assertEquals(
+              endpoint + " " + msgLabels,
+              describe(prolog.requestDecision(req)),
+              describe(compiled.requestDecision(req)));
+        }
+      }
+    }
+  }
+
+  /** Rules outside of the compiled subset are decided by Prolog queries. */
+  @Test
+  public void testCompiledPolicyWithPrologFallback() {
+    PolicyDecisionPoint compiled = new PolicyDecisionPoint();
+    PolicyDecisionPoint prolog = new PolicyDecisionPoint(false);
+    compiled.loadPolicy(MIXED_POLICY);
+    assertEquals(
+        Arrays.asList("privateData", "researchOnly"),
+        LuconEngine.getCurrentPolicy().getCompiled().getFallbackRules());
+
+    String[] labels = {"private", "public", "purpose(green)", "purpose(research)", "other"};
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    for (String endpoint : new String[] {"hdfs://cluster", "ahc://some_url"}) {
+      ServiceNode dest = new ServiceNode(endpoint, null, null);
+      for (int subset = 0; subset < 1 << labels.length; subset++) {
+        Set<String> msgLabels = new HashSet<>();
+        for (int i = 0; i < labels.length; i++) {
+          if ((subset & 1 << i) != 0) {
+            msgLabels.add(labels[i]);
+          }
+        }
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(PDP.LABELS_KEY, msgLabels);
+        DecisionRequest req = new DecisionRequest(source, dest, attributes, null);
+        assertEquals(
+            endpoint + " " + msgLabels,
+            describe(prolog.requestDecision(req)),
+            describe(compiled.requestDecision(req)));
+      }
+    }
+
+    // public data is allowed with an obligation of the compiled rule
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(PDP.LABELS_KEY, Sets.newHashSet("public"));
+    ServiceNode dest = new ServiceNode("hdfs://cluster", null, null);
+    PolicyDecision dec =
+        compiled.requestDecision(new DecisionRequest(source, dest, attributes, null));
+    assertEquals(Decision.ALLOW, dec.getDecision());
+    assertEquals("publicData", dec.getReason());
+    // one obligation per matching target of the rule
+    assertEquals(2, dec.getObligations().size());
+    assertEquals("log(access)", dec.getObligations().get(0).getAction());
+    assertEquals(Decision.DENY, dec.getObligations().get(0).getAlternativeDecision());
+
+    // research purposes are allowed by the rule that is decided by Prolog
+    attributes.put(PDP.LABELS_KEY, Sets.newHashSet("purpose(research)"));
+    dec = compiled.requestDecision(new DecisionRequest(source, dest, attributes, null));
+    assertEquals(Decision.ALLOW, dec.getDecision());
+  }
+
+  /** Decisions that are requested after a policy has been loaded use the new policy. */
+  @Test
+  public void testPolicySwapUnderConcurrentRequests() throws Exception {
+    final int threads = 4;
+    final int warmup = 100;
+    final int checked = 200;
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicies();
+    pdp.loadPolicy(EXTENDED_LABELS_POLICY);
+    ServiceNode dest = new ServiceNode("ahc://some_url", null, null);
+
+    AtomicBoolean swapped = new AtomicBoolean();
+    AtomicInteger stale = new AtomicInteger();
+    CountDownLatch running = new CountDownLatch(threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int id = t;
+        workers.add(
+            executor.submit(
+                () -> {
+                  // each worker thread queries its own engine, which has to load the new policy
+                  for (int i = 0, after = 0; after < checked; i++) {
+                    boolean requestedAfterSwap = swapped.get();
+                    Map<String, Object> attributes = new HashMap<>();
+                    attributes.put(PDP.LABELS_KEY, Sets.newHashSet("purpose(green)"));
+                    // a few distinct sources, such that decisions are queried and cached
+                    ServiceNode source =
+                        new ServiceNode("seda:source" + id + "_" + i % 50, null, null);
+                    PolicyDecision dec =
+                        pdp.requestDecision(new DecisionRequest(source, dest, attributes, null));
+                    if (requestedAfterSwap) {
+                      after++;
+                      if (dec.getDecision() != Decision.DENY) {
+                        stale.incrementAndGet();
+                      }
+                    }
+                    if (i == warmup) {
+                      running.countDown();
+                    }
+                  }
+                }));
+      }
+
+      // swap the policy while all workers request decisions
+      assertTrue(running.await(60, TimeUnit.SECONDS));
+      pdp.loadPolicy(EXAMPLE_POLICY);
+      swapped.set(true);
+      for (Future<?> worker : workers) {
+        worker.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, stale.get());
+  }
+
   /** List all rules of the currently loaded policy. */
   @Test
   public void testListRules() {
@@ -413,6 +703,50 @@ public class LuconEngineTest {
     assertNotNull(proof.getCounterExamples());
   }
 
+  @Test
+  public void testVerifyRoutesIsMemoized() throws Exception {
+    final int ROUTES = 200;
+    Map<String, String> routes = new ConcurrentHashMap<>();
+    List<String> routeIds = new ArrayList<>();
+    for (int i = 0; i < ROUTES; i++) {
+      routes.put("route" + i, VERIFIABLE_ROUTE);
+      routeIds.add("route" + i);
+    }
+    RouteManager rm = mock(RouteManager.class);
+    when(rm.getRouteAsProlog(anyString()))
+        .thenAnswer(invocation -> routes.get(invocation.<String>getArgument(0)));
+
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    Field f1 = pdp.getClass().getDeclaredField("routeManager");
+    f1.setAccessible(true);
+    f1.set(pdp, rm);
+    pdp.loadPolicy(EXAMPLE_POLICY);
+
+    Map<String, RouteVerificationProof> first = pdp.verifyRoutes(routeIds);
+    Map<String, RouteVerificationProof> second = pdp.verifyRoutes(routeIds);
+
+    assertNotNull(first);
+    assertEquals(routeIds, new ArrayList<>(first.keySet()));
+    for (String routeId : routeIds) {
+      assertEquals(routeId, first.get(routeId).getRouteId());
+      assertFalse(first.get(routeId).isValid());
+      // the memoized proof is returned without proving the route again
+      assertSame(first.get(routeId), second.get(routeId));
+    }
+
+    // only the changed route is verified again
+    routes.put("route0", VERIFIABLE_ROUTE + "\n% changed\n");
+    Map<String, RouteVerificationProof> changed = pdp.verifyRoutes(routeIds);
+    assertNotSame(first.get("route0"), changed.get("route0"));
+    assertFalse(changed.get("route0").isValid());
+    assertSame(first.get("route1"), changed.get("route1"));
+    assertSame(first.get("route1"), pdp.verifyRoute("route1"));
+
+    // a new policy invalidates all proofs
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    assertNotSame(first.get("route1"), pdp.verifyRoute("route1"));
+  }
+
   @Test
   @Ignore("Not a regular unit test; for evaluating runtime performance.")
   public void testPerformanceEvaluationScaleRules() {
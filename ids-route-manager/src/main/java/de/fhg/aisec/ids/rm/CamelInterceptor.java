@@ -19,9 +19,11 @@
  */
 package de.fhg.aisec.ids.rm;
 
+import de.fhg.aisec.ids.api.policy.ServiceNode;
 import org.apache.camel.CamelContext;
 import org.apache.camel.NamedNode;
 import org.apache.camel.Processor;
+import org.apache.camel.model.RouteDefinition;
 import org.apache.camel.spi.InterceptStrategy;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
@@ -38,6 +40,33 @@ public class CamelInterceptor implements InterceptStrategy {
       final NamedNode node,
       final Processor target,
       final Processor nextTarget) {
-    return new PolicyEnforcementPoint(context, node, target, this.rm);
+    return new PolicyEnforcementPoint(createNodeContext(node), target, this.rm);
+  }
+
+  /**
+   * Resolves the route and the endpoints of a node, which do not change during the lifetime of the
+   * wrapped processor.
+   */
+  static PolicyEnforcementPoint.NodeContext createNodeContext(NamedNode node) {
+    NamedNode routeNode = node.getParent();
+    while (routeNode != null && !(routeNode instanceof RouteDefinition)) {
+      routeNode = routeNode.getParent();
+    }
+    RouteDefinition route = (RouteDefinition) routeNode;
+
+    /*
+     * TODO:
+     * Nodes currently have no properties or capabilities. They should be retrieved from
+     * a) either the prolog knowledge base (a respective query must be created)
+     * b) or from service meta data provided by the ConnectionManagerService(?)
+     */
+    ServiceNode routeInput =
+        route != null && route.getInput() != null
+            ? new ServiceNode(route.getInput().toString(), null, null)
+            : null;
+    return new PolicyEnforcementPoint.NodeContext(
+        route != null ? route.getId() : null,
+        routeInput,
+        new ServiceNode(node.toString(), null, null));
   }
 }
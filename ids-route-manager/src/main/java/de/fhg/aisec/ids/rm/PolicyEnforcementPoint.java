@@ -21,7 +21,9 @@ package de.fhg.aisec.ids.rm;
 
 import de.fhg.aisec.ids.api.policy.*;
 import org.apache.camel.*;
-import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.spi.ReactiveExecutor;
+import org.apache.camel.support.AsyncCallbackToCompletableFutureAdapter;
+import org.apache.camel.support.AsyncProcessorConverterHelper;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,25 +31,59 @@ import org.slf4j.LoggerFactory;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PolicyEnforcementPoint implements AsyncProcessor {
   private static final Logger LOG = LoggerFactory.getLogger(PolicyEnforcementPoint.class);
-  private CamelContext ctx;
-  private NamedNode node;
-  private Processor target;
-  private RouteManagerService rm;
+  // Exchange property holding the ServiceNode of the last checked destination
+  static final String LAST_DESTINATION = "lastDestination";
+
+  private final NodeContext node;
+  private final Processor target;
+  private final AsyncProcessor asyncTarget;
+  private final RouteManagerService rm;
 
   PolicyEnforcementPoint(
-      @NonNull CamelContext ctx,
-      @NonNull NamedNode node,
-      @NonNull Processor target,
-      @NonNull RouteManagerService rm) {
-    this.ctx = ctx;
+      @NonNull NodeContext node, @NonNull Processor target, @NonNull RouteManagerService rm) {
     this.node = node;
     this.target = target;
+    this.asyncTarget = AsyncProcessorConverterHelper.convert(target);
     this.rm = rm;
   }
 
+  /**
+   * The immutable data of an intercepted node that is resolved once when the route is created,
+   * such that no endpoint strings are built per exchange.
+   */
+  static final class NodeContext {
+    private final String routeId;
+    private final ServiceNode routeInput;
+    private final ServiceNode destination;
+
+    /**
+     * @param routeId Id of the route containing the node, may be null
+     * @param routeInput Input of the route, the source of exchanges that enter the route
+     * @param destination The node itself
+     */
+    NodeContext(String routeId, ServiceNode routeInput, @NonNull ServiceNode destination) {
+      this.routeId = routeId;
+      this.routeInput = routeInput;
+      this.destination = destination;
+    }
+
+    String getRouteId() {
+      return routeId;
+    }
+
+    ServiceNode getRouteInput() {
+      return routeInput;
+    }
+
+    ServiceNode getDestination() {
+      return destination;
+    }
+  }
+
   /**
    * The method performs flow control and calls Exchange.setException() when necessary
    *
@@ -55,61 +91,105 @@ public class PolicyEnforcementPoint implements AsyncProcessor {
    * @return Whether target.process() is to be called for this exchange object
    */
   private boolean processFlowControl(Exchange exchange) {
+    PDP pdp = getPdp(exchange);
+    if (pdp == null) {
+      return false;
+    }
+    ServiceNode sourceNode = getSourceNode(exchange);
+    if (sourceNode == null) {
+      return false;
+    }
+    DecisionRequest req =
+        createDecisionRequest(exchange, sourceNode, pdp.requestTranformations(sourceNode));
+    return enforceDecision(exchange, sourceNode, pdp.requestDecision(req));
+  }
+
+  /**
+   * Checks whether the data flow of the exchange can be checked at all.
+   *
+   * @param exchange The exchange object to check
+   * @return The PDP to decide on the data flow, or null if the exchange must be blocked
+   */
+  private PDP getPdp(Exchange exchange) {
     if (exchange == null) {
       if (LOG.isWarnEnabled()) {
         LOG.warn("Cannot check data flow policy. Exchange object is null.");
       }
-      return false;
+      return null;
     }
 
     if (target == null) {
       if (LOG.isWarnEnabled()) {
         LOG.warn("Cannot check data flow policy. The target is null.");
       }
-      return false;
+      return null;
     }
 
     // Strict policy: If no PDP is available, block every checked data flow
     if (rm == null) {
       LOG.error("RouteManager is not available, aborting...");
-      return false;
+      return null;
     }
     PDP pdp = rm.getPdp();
     if (pdp == null) {
       LOG.error("PDP is not available, aborting...");
-      return false;
     }
+    return pdp;
+  }
 
-    String source = (String) exchange.getProperty("lastDestination");
-    if (source == null) {
-      var routeNode = node.getParent();
-      while (!(routeNode instanceof RouteDefinition)) {
-        routeNode = node.getParent();
+  /**
+   * Determines the source of the exchange and records this node as the source of the next check.
+   *
+   * @param exchange The exchange object to check
+   * @return The source of the exchange, or null if it is unknown
+   */
+  private ServiceNode getSourceNode(Exchange exchange) {
+    ServiceNode sourceNode = exchange.getProperty(LAST_DESTINATION, ServiceNode.class);
+    if (sourceNode == null) {
+      sourceNode = node.getRouteInput();
+      if (sourceNode == null) {
+        LOG.error(
+            "Source of {} in route {} is unknown, aborting...",
+            node.getDestination().getEndpoint(),
+            node.getRouteId());
+        return null;
       }
-      source = ((RouteDefinition) routeNode).getInput().toString();
     }
-    String destination = node.toString();
-    exchange.setProperty("lastDestination", destination);
+    ServiceNode destNode = node.getDestination();
+    exchange.setProperty(LAST_DESTINATION, destNode);
 
     if (LOG.isTraceEnabled()) {
-      LOG.trace("{} -> {}", source, destination);
+      LOG.trace("{} -> {}", sourceNode.getEndpoint(), destNode.getEndpoint());
     }
+    return sourceNode;
+  }
 
-    /*
-     * TODO:
-     * Nodes currently have no properties or capabilities. They should be retrieved from
-     * a) either the prolog knowledge base (a respective query must be created)
-     * b) or from service meta data provided by the ConnectionManagerService(?)
-     */
-    ServiceNode sourceNode = new ServiceNode(source, null, null);
-    ServiceNode destNode = new ServiceNode(destination, null, null);
-
-    // Call PDP to transform labels and decide whether to forward the Exchange
-    applyLabelTransformation(pdp.requestTranformations(sourceNode), exchange);
-    PolicyDecision decision =
-        pdp.requestDecision(
-            new DecisionRequest(sourceNode, destNode, exchange.getProperties(), null));
+  /**
+   * Transforms the labels of the exchange, as a preparation of the decision on the data flow to
+   * this node.
+   *
+   * @param exchange The exchange object to check
+   * @param sourceNode The source of the exchange
+   * @param transformations The label transformations of the PDP for the source
+   * @return The decision request
+   */
+  private DecisionRequest createDecisionRequest(
+      Exchange exchange, ServiceNode sourceNode, TransformationDecision transformations) {
+    // Transform labels before the decision whether to forward the Exchange
+    applyLabelTransformation(transformations, exchange);
+    return new DecisionRequest(sourceNode, node.getDestination(), exchange.getProperties(), null);
+  }
 
+  /**
+   * Enforces a policy decision and calls Exchange.setException() when necessary
+   *
+   * @param exchange The exchange object to check
+   * @param sourceNode The source of the exchange
+   * @param decision The decision of the PDP
+   * @return Whether target.process() is to be called for this exchange object
+   */
+  private boolean enforceDecision(
+      Exchange exchange, ServiceNode sourceNode, PolicyDecision decision) {
     switch (decision.getDecision()) {
       case ALLOW:
         // forward the Exchange
@@ -118,7 +198,10 @@ public class PolicyEnforcementPoint implements AsyncProcessor {
       default:
         if (LOG.isWarnEnabled()) {
           LOG.warn(
-              "Exchange blocked by data flow policy. Source: {}, Target: {}", sourceNode, destNode);
+              "Exchange blocked by data flow policy. Route: {}, Source: {}, Target: {}",
+              node.getRouteId(),
+              sourceNode.getEndpoint(),
+              node.getDestination().getEndpoint());
         }
         exchange.setException(new Exception("Exchange blocked by data flow policy"));
         return false;
@@ -154,28 +237,90 @@ public class PolicyEnforcementPoint implements AsyncProcessor {
     }
   }
 
+  /**
+   * Decides on the calling thread if the PDP has cached both the label transformations and the
+   * decision. Otherwise, the missing transformations and the decision are evaluated on the PDP
+   * executor, such that the calling thread is not blocked by the PDP, and the exchange is continued
+   * via the ReactiveExecutor of Camel once the decision is available.
+   */
   @Override
   public boolean process(Exchange exchange, AsyncCallback callback) {
-    if (processFlowControl(exchange)) {
-      try {
-        target.process(exchange);
+    PDP pdp;
+    ServiceNode sourceNode;
+    DecisionRequest cachedReq = null;
+    try {
+      pdp = getPdp(exchange);
+      sourceNode = pdp == null ? null : getSourceNode(exchange);
+      if (sourceNode == null) {
         callback.done(true);
         return true;
-      } catch (Exception e) {
-        LOG.error(e.getMessage(), e);
       }
+      TransformationDecision transformations = pdp.requestCachedTransformations(sourceNode);
+      if (transformations != null) {
+        cachedReq = createDecisionRequest(exchange, sourceNode, transformations);
+        PolicyDecision decision = pdp.requestCachedDecision(cachedReq);
+        if (decision != null) {
+          return proceed(exchange, sourceNode, decision, callback);
+        }
+      }
+    } catch (Exception e) {
+      exchange.setException(e);
+      callback.done(true);
+      return true;
     }
-    callback.done(false);
+
+    // the labels must only be transformed once, even if the transformations were cached
+    DecisionRequest transformedReq = cachedReq;
+    ReactiveExecutor reactiveExecutor =
+        exchange.getContext().adapt(ExtendedCamelContext.class).getReactiveExecutor();
+    CompletableFuture.supplyAsync(
+            () -> {
+              DecisionRequest req =
+                  transformedReq != null
+                      ? transformedReq
+                      : createDecisionRequest(
+                          exchange, sourceNode, pdp.requestTranformations(sourceNode));
+              return pdp.requestDecision(req);
+            },
+            rm.getPdpExecutor())
+        .whenComplete(
+            (uncachedDecision, error) ->
+                reactiveExecutor.schedule(
+                    () -> {
+                      if (error != null) {
+                        exchange.setException(
+                            error instanceof CompletionException ? error.getCause() : error);
+                        callback.done(false);
+                      } else {
+                        proceed(
+                            exchange,
+                            sourceNode,
+                            uncachedDecision,
+                            doneSync -> callback.done(false));
+                      }
+                    }));
     return false;
   }
 
+  /**
+   * Continues the exchange with the target if the decision allows the data flow.
+   *
+   * @return Whether the exchange has been completed synchronously
+   */
+  private boolean proceed(
+      Exchange exchange, ServiceNode sourceNode, PolicyDecision decision, AsyncCallback callback) {
+    if (enforceDecision(exchange, sourceNode, decision)) {
+      return asyncTarget.process(exchange, callback);
+    }
+    callback.done(true);
+    return true;
+  }
+
   @Override
   public CompletableFuture<Exchange> processAsync(Exchange exchange) {
-    try {
-      target.process(exchange);
-      return CompletableFuture.completedFuture(exchange);
-    } catch (Exception x) {
-      return CompletableFuture.failedFuture(x);
-    }
+    AsyncCallbackToCompletableFutureAdapter<Exchange> callback =
+        new AsyncCallbackToCompletableFutureAdapter<>(exchange);
+    process(exchange, callback);
+    return callback.getFuture();
   }
 }
@@ -28,7 +28,11 @@ import org.apache.camel.*;
 import org.apache.camel.impl.DefaultCamelContext;
 import org.apache.camel.management.DefaultManagementAgent;
 import org.apache.camel.model.*;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.spi.EventNotifier;
 import org.apache.camel.spi.ManagementAgent;
+import org.apache.camel.support.EventNotifierSupport;
+import org.apache.camel.support.service.ServiceHelper;
 import org.apache.camel.support.dump.RouteStatDump;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -50,6 +54,12 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -60,17 +70,76 @@ import java.util.stream.Collectors;
 @Component(immediate = true, name = "ids-routemanager")
 public class RouteManagerService implements RouteManager {
   private static final Logger LOG = LoggerFactory.getLogger(RouteManagerService.class);
+  private static final int PDP_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+  private static final int PDP_QUEUE_SIZE = 1000;
+  // Attributes of the route MBeans that are read for the RouteMetrics
+  private static final String[] METRICS_ATTRIBUTES = {
+    "RouteId",
+    "ExchangesCompleted",
+    "Redeliveries",
+    "ExchangesFailed",
+    "FailuresHandled",
+    "ExchangesInflight",
+    "MaxProcessingTime",
+    "MinProcessingTime",
+    "MeanProcessingTime"
+  };
+
+  // JAXBContexts are thread-safe but expensive to create, so the context is shared
+  private static volatile JAXBContext routeStatContext;
 
   @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
   private volatile PDP pdp;
 
   private ComponentContext ctx;
 
+  // Makes the uncached policy decisions of asynchronously routed exchanges. If all threads are
+  // busy and the queue is full, the decision is made by the calling thread, which throttles the
+  // consumers of the routes. This also applies after shutdown, such that no exchange is dropped.
+  private final AtomicInteger pdpThreadCount = new AtomicInteger();
+  private final ThreadPoolExecutor pdpExecutor =
+      new ThreadPoolExecutor(
+          PDP_THREADS,
+          PDP_THREADS,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(PDP_QUEUE_SIZE),
+          r -> {
+            Thread t = new Thread(r, "PolicyDecisionPoint-" + pdpThreadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          },
+          (r, executor) -> r.run());
+
+  // DOT and Prolog renderings of the routes by Camel context name and route id
+  private final Map<Entry<String, String>, RouteRendering> renderings = new ConcurrentHashMap<>();
+  // Notifiers invalidating the renderings by Camel context name
+  private final Map<String, EventNotifier> routeWatchers = new ConcurrentHashMap<>();
+
+  /**
+   * The renderings of a route definition. Renderings are only valid for the definition they have
+   * been created from, a saved route has a new definition.
+   */
+  private static final class RouteRendering {
+    private final RouteDefinition definition;
+    private volatile String dot;
+    private volatile String prolog;
+
+    private RouteRendering(RouteDefinition definition) {
+      this.definition = definition;
+    }
+  }
+
   @Activate
   protected void activate(ComponentContext ctx) {
     this.ctx = ctx;
   }
 
+  @Deactivate
+  protected void deactivate() {
+    pdpExecutor.shutdown();
+  }
+
   @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
   public void bindCamelContext(CamelContext cCtx) {
     try {
@@ -78,6 +147,7 @@ public class RouteManagerService implements RouteManager {
     } catch (Exception e) {
       LOG.error(e.getMessage(), e);
     }
+    watchRoutes(cCtx);
     CamelInterceptor interceptor = new CamelInterceptor(this);
     var routeController = cCtx.getRouteController();
     var ecc = cCtx.adapt(ExtendedCamelContext.class);
@@ -99,15 +169,67 @@ public class RouteManagerService implements RouteManager {
 
   @ReferenceUnbind
   public void unbindCamelContext(CamelContext cCtx) {
+    EventNotifier notifier = routeWatchers.remove(cCtx.getName());
+    if (notifier != null) {
+      cCtx.getManagementStrategy().removeEventNotifier(notifier);
+      ServiceHelper.stopService(notifier);
+    }
+    renderings.keySet().removeIf(key -> key.getKey().equals(cCtx.getName()));
     if (LOG.isDebugEnabled()) {
       LOG.debug("Unbound from CamelContext " + cCtx);
     }
   }
 
+  /** Invalidates the renderings of routes that are added to or removed from a Camel context. */
+  private void watchRoutes(CamelContext cCtx) {
+    EventNotifierSupport notifier =
+        new EventNotifierSupport() {
+          @Override
+          public boolean isEnabled(CamelEvent event) {
+            return event instanceof CamelEvent.RouteAddedEvent
+                || event instanceof CamelEvent.RouteRemovedEvent;
+          }
+
+          @Override
+          public void notify(CamelEvent event) {
+            Route route = ((CamelEvent.RouteEvent) event).getRoute();
+            invalidateRendering(cCtx, route.getId());
+          }
+        };
+    EventNotifier previous = routeWatchers.put(cCtx.getName(), notifier);
+    if (previous != null) {
+      cCtx.getManagementStrategy().removeEventNotifier(previous);
+      ServiceHelper.stopService(previous);
+    }
+    cCtx.getManagementStrategy().addEventNotifier(notifier);
+    // Notifiers only receive events once they have been started
+    try {
+      ServiceHelper.startService(notifier);
+    } catch (Exception e) {
+      LOG.error(e.getMessage(), e);
+    }
+  }
+
+  private void invalidateRendering(CamelContext cCtx, String routeId) {
+    renderings.remove(Map.entry(cCtx.getName(), routeId));
+  }
+
+  /** Returns the renderings of a route definition, which are created on demand. */
+  private RouteRendering getRendering(CamelContext cCtx, RouteDefinition rd) {
+    return renderings.compute(
+        Map.entry(cCtx.getName(), rd.getId()),
+        (key, rendering) ->
+            rendering != null && rendering.definition == rd ? rendering : new RouteRendering(rd));
+  }
+
   PDP getPdp() {
     return pdp;
   }
 
+  Executor getPdpExecutor() {
+    return pdpExecutor;
+  }
+
   @Override
   @NonNull
   public List<RouteObject> getRoutes() {
@@ -237,37 +359,105 @@ public class RouteManagerService implements RouteManager {
     Map<String, RouteMetrics> rdump = new HashMap<>();
     List<CamelContext> cCtxs = getCamelContexts();
     for (CamelContext cCtx : cCtxs) {
+      Map<String, RouteMetrics> metrics = readRouteMetrics(cCtx);
       var mcc = cCtx.adapt(ModelCamelContext.class);
       List<RouteDefinition> rds = mcc.getRouteDefinitions();
       for (RouteDefinition rd : rds) {
-        RouteStatDump stat;
-        try {
-          stat = this.getRouteStats(cCtx, rd);
-          if (stat != null) {
-            RouteMetrics m = new RouteMetrics();
-            m.setCompleted(stat.getExchangesCompleted());
-            m.setRedeliveries(stat.getRedeliveries());
-            m.setFailed(stat.getExchangesFailed());
-            m.setFailuresHandled(stat.getFailuresHandled());
-            m.setInflight(stat.getExchangesInflight());
-            m.setMaxProcessingTime(stat.getMaxProcessingTime());
-            m.setMinProcessingTime(stat.getMinProcessingTime());
-            m.setMeanProcessingTime(stat.getMeanProcessingTime());
-            rdump.put(rd.getId(), m);
-          }
-        } catch (MalformedObjectNameException
-            | AttributeNotFoundException
-            | InstanceNotFoundException
-            | MBeanException
-            | ReflectionException
-            | JAXBException e) {
-          LOG.error(e.getMessage(), e);
+        RouteMetrics m = metrics.get(rd.getId());
+        if (m == null) {
+          // Fall back to the stats dump of the route
+          m = dumpRouteMetrics(cCtx, rd);
+        }
+        if (m != null) {
+          rdump.put(rd.getId(), m);
         }
       }
     }
     return rdump;
   }
 
+  /**
+   * Reads the metrics of all routes of a Camel context from the attributes of their MBeans.
+   *
+   * @param cCtx The Camel context
+   * @return The metrics by route id, empty if the MBeans are not available
+   */
+  private Map<String, RouteMetrics> readRouteMetrics(CamelContext cCtx) {
+    Map<String, RouteMetrics> metrics = new HashMap<>();
+    ManagementAgent agent = cCtx.getManagementStrategy().getManagementAgent();
+    if (agent == null) {
+      return metrics;
+    }
+    MBeanServer mBeanServer = agent.getMBeanServer();
+    try {
+      // only the route MBeans of this context are queried, named as by the management strategy
+      String contextKey =
+          cCtx.getManagementStrategy()
+              .getManagementObjectNameStrategy()
+              .getObjectNameForCamelContext(cCtx)
+              .getKeyProperty("context");
+      Set<ObjectName> set =
+          mBeanServer.queryNames(
+              new ObjectName(
+                  agent.getMBeanObjectDomainName() + ":context=" + contextKey + ",type=routes,*"),
+              null);
+      for (ObjectName routeMBean : set) {
+        Map<String, Object> values = new HashMap<>();
+        for (Attribute attribute :
+            mBeanServer.getAttributes(routeMBean, METRICS_ATTRIBUTES).asList()) {
+          values.put(attribute.getName(), attribute.getValue());
+        }
+        // incomplete metrics are dumped instead
+        if (values.size() != METRICS_ATTRIBUTES.length) {
+          continue;
+        }
+        RouteMetrics m = new RouteMetrics();
+        m.setCompleted(((Number) values.get("ExchangesCompleted")).longValue());
+        m.setRedeliveries(((Number) values.get("Redeliveries")).longValue());
+        m.setFailed(((Number) values.get("ExchangesFailed")).longValue());
+        m.setFailuresHandled(((Number) values.get("FailuresHandled")).longValue());
+        m.setInflight(((Number) values.get("ExchangesInflight")).longValue());
+        m.setMaxProcessingTime(((Number) values.get("MaxProcessingTime")).longValue());
+        m.setMinProcessingTime(((Number) values.get("MinProcessingTime")).longValue());
+        m.setMeanProcessingTime(((Number) values.get("MeanProcessingTime")).longValue());
+        metrics.put((String) values.get("RouteId"), m);
+      }
+    } catch (MalformedObjectNameException
+        | InstanceNotFoundException
+        | ReflectionException
+        | ClassCastException e) {
+      LOG.error(e.getMessage(), e);
+    }
+    return metrics;
+  }
+
+  private RouteMetrics dumpRouteMetrics(CamelContext cCtx, RouteDefinition rd) {
+    try {
+      RouteStatDump stat = this.getRouteStats(cCtx, rd);
+      if (stat == null) {
+        return null;
+      }
+      RouteMetrics m = new RouteMetrics();
+      m.setCompleted(stat.getExchangesCompleted());
+      m.setRedeliveries(stat.getRedeliveries());
+      m.setFailed(stat.getExchangesFailed());
+      m.setFailuresHandled(stat.getFailuresHandled());
+      m.setInflight(stat.getExchangesInflight());
+      m.setMaxProcessingTime(stat.getMaxProcessingTime());
+      m.setMinProcessingTime(stat.getMinProcessingTime());
+      m.setMeanProcessingTime(stat.getMeanProcessingTime());
+      return m;
+    } catch (MalformedObjectNameException
+        | AttributeNotFoundException
+        | InstanceNotFoundException
+        | MBeanException
+        | ReflectionException
+        | JAXBException e) {
+      LOG.error(e.getMessage(), e);
+      return null;
+    }
+  }
+
   @Override
   public void delRoute(@Nullable String routeId) {
     List<CamelContext> cCtxs = getCamelContexts();
@@ -320,7 +510,7 @@ public class RouteManagerService implements RouteManager {
     return new RouteObject(
         rd.getId(),
         rd.getDescriptionText(),
-        routeToDot(rd),
+        routeToDot(cCtx, rd),
         rd.getShortName(),
         cCtx.getName(),
         cCtx.getUptimeMillis(),
@@ -333,6 +523,17 @@ public class RouteManagerService implements RouteManager {
    * @param rd The route definition to process
    * @return The string representation of the Camel route in DOT
    */
+  @NonNull
+  private String routeToDot(@NonNull CamelContext cCtx, @NonNull RouteDefinition rd) {
+    RouteRendering rendering = getRendering(cCtx, rd);
+    String dot = rendering.dot;
+    if (dot == null) {
+      dot = routeToDot(rd);
+      rendering.dot = dot;
+    }
+    return dot;
+  }
+
   @NonNull
   private String routeToDot(@NonNull RouteDefinition rd) {
     String result = "";
@@ -367,7 +568,11 @@ public class RouteManagerService implements RouteManager {
   protected RouteStatDump getRouteStats(CamelContext cCtx, RouteDefinition rd)
       throws MalformedObjectNameException, JAXBException, AttributeNotFoundException,
           InstanceNotFoundException, MBeanException, ReflectionException {
-    JAXBContext context = JAXBContext.newInstance(RouteStatDump.class);
+    JAXBContext context = routeStatContext;
+    if (context == null) {
+      context = JAXBContext.newInstance(RouteStatDump.class);
+      routeStatContext = context;
+    }
     Unmarshaller unmarshaller = context.createUnmarshaller();
     ManagementAgent agent = cCtx.getManagementStrategy().getManagementAgent();
     if (agent != null) {
@@ -415,10 +620,16 @@ public class RouteManagerService implements RouteManager {
     if (c.isPresent()) {
       try {
         RouteDefinition rd = c.get().adapt(ModelCamelContext.class).getRouteDefinition(routeId);
-        StringWriter writer = new StringWriter();
-        new PrologPrinter().printSingleRoute(writer, rd);
-        writer.flush();
-        return writer.toString();
+        RouteRendering rendering = getRendering(c.get(), rd);
+        String prolog = rendering.prolog;
+        if (prolog == null) {
+          StringWriter writer = new StringWriter();
+          new PrologPrinter().printSingleRoute(writer, rd);
+          writer.flush();
+          prolog = writer.toString();
+          rendering.prolog = prolog;
+        }
+        return prolog;
       } catch (IOException e) {
         LOG.error("Error printing route to prolog " + routeId, e);
       }
@@ -506,6 +717,7 @@ public class RouteManagerService implements RouteManager {
     }
 
     // Remove old route from CamelContext
+    invalidateRendering(cCtx, routeId);
     try {
       cCtx.removeRoute(routeId);
     } catch (Exception e) {
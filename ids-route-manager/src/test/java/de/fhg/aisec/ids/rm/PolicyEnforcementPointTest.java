@@ -0,0 +1,215 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import de.fhg.aisec.ids.api.policy.DecisionRequest;
+import de.fhg.aisec.ids.api.policy.PDP;
+import de.fhg.aisec.ids.api.policy.PolicyDecision;
+import de.fhg.aisec.ids.api.policy.ServiceNode;
+import de.fhg.aisec.ids.api.policy.TransformationDecision;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedCamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PolicyEnforcementPointTest extends CamelTestSupport {
+  private static final String TEST_MESSAGE = "Hello World!";
+  // time that the fake PDP needs for a decision or a label transformation
+  private static final long DECISION_MILLIS = 5;
+  private static final int HOPS = 10;
+
+  /**
+   * A fake PDP that denies all flows to endpoints containing "blocked", and caches its decisions
+   * and label transformations.
+   */
+  private static class FakePdp implements PDP {
+    private final Set<String> threads = ConcurrentHashMap.newKeySet();
+    private final Map<String, PolicyDecision> cache = new ConcurrentHashMap<>();
+    private final Map<ServiceNode, TransformationDecision> transformationCache =
+        new ConcurrentHashMap<>();
+    private final AtomicInteger evaluations = new AtomicInteger();
+    private final AtomicInteger transformations = new AtomicInteger();
+    private final List<DecisionRequest> requests = Collections.synchronizedList(new ArrayList<>());
+
+    private static String key(DecisionRequest req) {
+      return req.getFrom().getEndpoint() + " -> " + req.getTo().getEndpoint();
+    }
+
+    private void evaluate() {
+      threads.add(Thread.currentThread().getName());
+      try {
+        Thread.sleep(DECISION_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public PolicyDecision requestDecision(DecisionRequest req) {
+      evaluations.incrementAndGet();
+      requests.add(req);
+      evaluate();
+      PolicyDecision decision = new PolicyDecision();
+      decision.setDecision(
+          req.getTo().getEndpoint().contains("blocked")
+              ? PolicyDecision.Decision.DENY
+              : PolicyDecision.Decision.ALLOW);
+      cache.put(key(req), decision);
+      return decision;
+    }
+
+    @Override
+    public PolicyDecision requestCachedDecision(DecisionRequest req) {
+      return cache.get(key(req));
+    }
+
+    @Override
+    public void clearAllCaches() {
+      cache.clear();
+      transformationCache.clear();
+    }
+
+    @Override
+    public TransformationDecision requestTranformations(ServiceNode lastServiceNode) {
+      transformations.incrementAndGet();
+      evaluate();
+      TransformationDecision transformation = new TransformationDecision();
+      transformationCache.put(lastServiceNode, transformation);
+      return transformation;
+    }
+
+    @Override
+    public TransformationDecision requestCachedTransformations(ServiceNode lastServiceNode) {
+      return transformationCache.get(lastServiceNode);
+    }
+  }
+
+  private final FakePdp pdp = new FakePdp();
+  private final RouteManagerService rm = new RouteManagerService();
+
+  @Override
+  protected CamelContext createCamelContext() throws Exception {
+    Field field = RouteManagerService.class.getDeclaredField("pdp");
+    field.setAccessible(true);
+    field.set(rm, pdp);
+
+    CamelContext context = super.createCamelContext();
+    context.adapt(ExtendedCamelContext.class).addInterceptStrategy(new CamelInterceptor(rm));
+    return context;
+  }
+
+  @Override
+  protected RouteBuilder createRouteBuilder() {
+    return new RouteBuilder() {
+      public void configure() {
+        from("direct:allowed").routeId("allowed").to("mock:allowed");
+        from("direct:blocked").routeId("blocked").to("mock:blocked");
+        from("direct:nested")
+            .routeId("nested")
+            .filter(constant(true))
+            .to("mock:nested")
+            .end();
+        RouteDefinition hops = from("direct:hops").routeId("hops");
+        for (int i = 0; i < HOPS; i++) {
+          hops.setProperty("hop" + i, constant(i));
+        }
+      }
+    };
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    super.tearDown();
+    rm.deactivate();
+  }
+
+  @Test
+  public void testPolicyIsEnforcedAsynchronously() throws Exception {
+    getMockEndpoint("mock:allowed").expectedBodiesReceived(TEST_MESSAGE);
+    getMockEndpoint("mock:blocked").expectedMessageCount(0);
+
+    Exchange allowed = template.send("direct:allowed", e -> e.getIn().setBody(TEST_MESSAGE));
+    Exchange blocked = template.send("direct:blocked", e -> e.getIn().setBody(TEST_MESSAGE));
+
+    assertNull(allowed.getException());
+    assertNotNull(blocked.getException());
+    assertEquals("Exchange blocked by data flow policy", blocked.getException().getMessage());
+    assertMockEndpointsSatisfied();
+    // the transformations and decisions are made on the PDP executor, not on the caller's thread
+    assertEquals(2, pdp.transformations.get());
+    assertFalse(pdp.threads.isEmpty());
+    for (String thread : pdp.threads) {
+      assertTrue(thread, thread.startsWith("PolicyDecisionPoint-"));
+    }
+  }
+
+  @Test
+  public void testCachedDecisionIsMadeOnCallingThread() throws Exception {
+    List<String> threads = Collections.synchronizedList(new ArrayList<>());
+    MockEndpoint mock = getMockEndpoint("mock:allowed");
+    mock.expectedMessageCount(2);
+    mock.whenAnyExchangeReceived(e -> threads.add(Thread.currentThread().getName()));
+
+    template.sendBody("direct:allowed", TEST_MESSAGE);
+    template.sendBody("direct:allowed", TEST_MESSAGE);
+    assertMockEndpointsSatisfied();
+
+    // the policy is only evaluated for the first exchange, which continues after the decision
+    assertEquals(1, pdp.transformations.get());
+    assertEquals(1, pdp.evaluations.get());
+    assertTrue(threads.get(0), threads.get(0).startsWith("PolicyDecisionPoint-"));
+    // the cached decision does not leave the thread of the caller
+    assertEquals(Thread.currentThread().getName(), threads.get(1));
+  }
+
+  @Test
+  public void testNestedNodesAreChecked() throws Exception {
+    getMockEndpoint("mock:nested").expectedBodiesReceived(TEST_MESSAGE);
+    Exchange nested = template.send("direct:nested", e -> e.getIn().setBody(TEST_MESSAGE));
+    assertNull(nested.getException());
+    assertMockEndpointsSatisfied();
+  }
+
+  @Test
+  public void testHopsAreCheckedInOrder() throws Exception {
+    Exchange exchange = template.send("direct:hops", e -> e.getIn().setBody(TEST_MESSAGE));
+    assertNull(exchange.getException());
+    assertEquals(HOPS - 1, exchange.getProperty("hop" + (HOPS - 1)));
+
+    // every node is checked once, with the previously checked node as source
+    assertEquals(HOPS, pdp.requests.size());
+    for (int hop = 1; hop < HOPS; hop++) {
+      assertSame(pdp.requests.get(hop - 1).getTo(), pdp.requests.get(hop).getFrom());
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import de.fhg.aisec.ids.api.router.RouteMetrics;
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.ModelCamelContext;
+import org.apache.camel.support.dump.RouteStatDump;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentContext;
+
+import java.util.Map;
+
+public class RouteMetricsJmxTest extends CamelTestSupport {
+  private static final String TEST_MESSAGE = "Hello World!";
+  private static final int ROUTES = 100;
+
+  @Override
+  protected boolean useJmx() {
+    return true;
+  }
+
+  @Override
+  protected RouteBuilder createRouteBuilder() {
+    return new RouteBuilder() {
+      public void configure() {
+        for (int i = 0; i < ROUTES; i++) {
+          from("direct:many" + i).routeId("many" + i).to("mock:many");
+        }
+      }
+    };
+  }
+
+  /** Creates a component context that provides the given Camel context as OSGi service. */
+  static ComponentContext componentContext(CamelContext camelContext) throws Exception {
+    ComponentContext componentContext = mock(ComponentContext.class);
+    BundleContext bundleContext = mock(BundleContext.class);
+    ServiceReference<?> reference = mock(ServiceReference.class);
+    when(componentContext.getBundleContext()).thenReturn(bundleContext);
+    doReturn(new ServiceReference<?>[] {reference})
+        .when(bundleContext)
+        .getServiceReferences(CamelContext.class.getName(), null);
+    doReturn(camelContext).when(bundleContext).getService(reference);
+    return componentContext;
+  }
+
+  @Test
+  public void testRouteMetricsOfManyRoutes() throws Exception {
+    RouteManagerService rm = spy(new RouteManagerService());
+    rm.activate(componentContext(context));
+    for (int i = 0; i < ROUTES; i++) {
+      template.sendBody("direct:many" + i, TEST_MESSAGE);
+    }
+
+    Map<String, RouteMetrics> metrics = rm.getRouteMetrics();
+    assertEquals(ROUTES, metrics.size());
+    for (int i = 0; i < ROUTES; i++) {
+      RouteMetrics m = metrics.get("many" + i);
+      assertEquals(1L, m.getCompleted());
+      assertEquals(0L, m.getFailed());
+      assertEquals(0L, m.getInflight());
+    }
+    // the metrics have been read from JMX, not from the JAXB stats dump of each route
+    verify(rm, never()).getRouteStats(any(), any());
+
+    // the attributes match the stats dump of the route
+    RouteStatDump dump =
+        rm.getRouteStats(
+            context, context.adapt(ModelCamelContext.class).getRouteDefinition("many0"));
+    assertEquals((long) dump.getExchangesCompleted(), metrics.get("many0").getCompleted());
+    assertEquals((long) dump.getMaxProcessingTime(), metrics.get("many0").getMaxProcessingTime());
+  }
+}
@@ -0,0 +1,105 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+public class RouteRenderingTest extends CamelTestSupport {
+
+  private final RouteManagerService rm = new RouteManagerService();
+
+  @Override
+  protected RouteBuilder createRouteBuilder() {
+    return new RouteBuilder() {
+      public void configure() {
+        from("direct:input").routeId("foo").to("mock:result");
+      }
+    };
+  }
+
+  private boolean isRendered(String routeId) throws Exception {
+    Field field = RouteManagerService.class.getDeclaredField("renderings");
+    field.setAccessible(true);
+    return ((Map<?, ?>) field.get(rm)).containsKey(Map.entry(context.getName(), routeId));
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    super.tearDown();
+    rm.deactivate();
+  }
+
+  @Test
+  public void testRenderingsAreInvalidatedBySaveRoute() throws Exception {
+    rm.activate(RouteMetricsJmxTest.componentContext(context));
+    rm.bindCamelContext(context);
+
+    String prolog = rm.getRouteAsProlog("foo");
+    String dot = rm.getRoute("foo").getDot();
+    assertTrue(prolog.contains("mock:result"));
+    assertTrue(dot.contains("mock:result"));
+    // unchanged routes are not rendered again
+    assertSame(prolog, rm.getRouteAsProlog("foo"));
+    assertSame(dot, rm.getRoutes().get(0).getDot());
+
+    String xml = rm.getRouteAsString("foo");
+    assertNotNull(xml);
+    rm.saveRoute("foo", xml.replace("mock:result", "mock:edited"));
+
+    String edited = rm.getRouteAsProlog("foo");
+    assertTrue(edited.contains("mock:edited"));
+    assertFalse(edited.contains("mock:result"));
+    String editedDot = rm.getRoute("foo").getDot();
+    assertTrue(editedDot.contains("mock:edited"));
+    assertFalse(editedDot.contains("mock:result"));
+    assertSame(edited, rm.getRouteAsProlog("foo"));
+  }
+
+  @Test
+  public void testRenderingIsEvictedOnRemoveRoute() throws Exception {
+    rm.activate(RouteMetricsJmxTest.componentContext(context));
+    rm.bindCamelContext(context);
+
+    assertTrue(rm.getRouteAsProlog("foo").contains("mock:result"));
+    assertTrue(isRendered("foo"));
+    context.getRouteController().stopRoute("foo");
+    context.removeRoute("foo");
+    assertFalse(isRendered("foo"));
+  }
+
+  @Test
+  public void testUnbindRemovesNotifierAndRenderings() throws Exception {
+    int notifiers = context.getManagementStrategy().getEventNotifiers().size();
+    rm.activate(RouteMetricsJmxTest.componentContext(context));
+    rm.bindCamelContext(context);
+    assertEquals(notifiers + 1, context.getManagementStrategy().getEventNotifiers().size());
+
+    rm.getRouteAsProlog("foo");
+    assertTrue(isRendered("foo"));
+    rm.unbindCamelContext(context);
+    assertFalse(isRendered("foo"));
+    assertEquals(notifiers, context.getManagementStrategy().getEventNotifiers().size());
+  }
+}
@@ -42,6 +42,7 @@ import org.jose4j.keys.resolvers.HttpsJwksVerificationKeyResolver;
 import org.json.JSONObject;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
@@ -54,32 +55,85 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.*;
-import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 
 /**
  * Manages Dynamic Attribute Tokens.
  *
+ * <p>The key material and the HTTP client for the DAPS are kept for the lifetime of the component
+ * and are only reloaded if the key store configuration or the key store files change. The JWKS of
+ * the DAPS is cached and refreshed if a DAT is signed with an unknown key, so DATs are verified
+ * without network I/O in the common case. An acquired DAT is renewed by a scheduled task before it
+ * expires. If the renewal fails, the current DAT is kept until it expires and the renewal is
+ * retried meanwhile.
+ *
  * @author Gerd Brost (gerd.brost@aisec.fraunhofer.de)
  */
 @Component(immediate = true, name = "ids-tokenmanager")
 public class TokenManagerService implements TokenManager {
   private static final Logger LOG = LoggerFactory.getLogger(TokenManagerService.class);
 
+  /** Fraction of the validity of a DAT after which it is renewed */
+  static final double DAT_RENEWAL_THRESHOLD = 0.75;
+  /** Seconds after which a failed DAT acquisition is retried */
+  static final long DAT_RETRY_DELAY = 60;
+
   @Reference(cardinality = ReferenceCardinality.MANDATORY)
   private Settings settings = null;
-  private SSLSocketFactory sslSocketFactory = null;
+
+  private final ScheduledExecutorService renewalScheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "DAT Renewal");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private ScheduledFuture<?> scheduledRenewal = null; // guarded by this
+  private long datExpiration = 0; // guarded by this, in milliseconds since the epoch
+  private volatile DapsClient dapsClient = null;
+
+  /** Key material, HTTP client and JWT consumers for one key store configuration */
+  private static final class DapsClient {
+    private final List<Object> configuration;
+    private final Key privateKey;
+    private final X509Certificate certificate;
+    private final SSLSocketFactory sslSocketFactory;
+    private final OkHttpClient httpClient;
+    // JWT consumers by DAPS URL and audience, each of them caches the JWKS of its DAPS
+    private final Map<String, JwtConsumer> jwtConsumers = new ConcurrentHashMap<>();
+
+    private DapsClient(
+        List<Object> configuration,
+        Key privateKey,
+        X509Certificate certificate,
+        SSLSocketFactory sslSocketFactory,
+        OkHttpClient httpClient) {
+      this.configuration = configuration;
+      this.privateKey = privateKey;
+      this.certificate = certificate;
+      this.sslSocketFactory = sslSocketFactory;
+      this.httpClient = httpClient;
+    }
+  }
 
   /**
    * Method to aquire a Dynamic Attribute Token (DAT) from a Dynamic Attribute Provisioning Service
    * (DAPS)
    *
+   * <p>A successfully acquired DAT is renewed with the same parameters before it expires. If the
+   * acquisition fails, a DAT that has not expired yet is kept, otherwise the DAT is invalidated.
+   *
    * @param targetDirectory   The directory the keystore resides in
    * @param dapsUrl           The token aquiry URL (e.g., http://daps.aisec.fraunhofer.de/token
    * @param keyStoreName      Name of the keystore file (e.g., server-keystore.jks)
@@ -102,51 +156,17 @@ public class TokenManagerService implements TokenManager {
     // This is a bug in the DAPS.
     // Audience should not be set to default value "IDS_Connector"
     String targetAudience = "IDS_Connector";
-    String dynamicAttributeToken = "INVALID_TOKEN";
+    String dynamicAttributeToken = null;
     Map<String, Object> jwtClaims = null;
 
     // Try clause for setup phase (loading keys, building trust manager)
     try {
-      InputStream jksKeyStoreInputStream =
-          Files.newInputStream(targetDirectory.resolve(keyStoreName));
-      InputStream jksTrustStoreInputStream =
-          Files.newInputStream(targetDirectory.resolve(trustStoreName));
-
-      KeyStore keystore = KeyStore.getInstance("JKS");
-      KeyStore trustManagerKeyStore = KeyStore.getInstance("JKS");
-
-      LOG.info("Loading key store: " + keyStoreName);
-      LOG.info("Loading trus store: " + trustStoreName);
-      keystore.load(jksKeyStoreInputStream, keyStorePassword.toCharArray());
-      trustManagerKeyStore.load(jksTrustStoreInputStream, keyStorePassword.toCharArray());
-      java.security.cert.Certificate[] certs = trustManagerKeyStore.getCertificateChain("ca");
-      LOG.info("Cert chain: " + Arrays.toString(certs));
-
-      LOG.info("LOADED CA CERT: " + trustManagerKeyStore.getCertificate("ca"));
-      jksKeyStoreInputStream.close();
-      jksTrustStoreInputStream.close();
-
-      // get private key
-      Key privKey = keystore.getKey(keystoreAliasName, keyStorePassword.toCharArray());
-      // Get certificate of public key
-      X509Certificate cert = (X509Certificate) keystore.getCertificate(keystoreAliasName);
-
-      TrustManager[] trustManagers;
-      try {
-        TrustManagerFactory trustManagerFactory =
-            TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        trustManagerFactory.init(trustManagerKeyStore);
-        trustManagers = trustManagerFactory.getTrustManagers();
-        if (trustManagers.length != 1 || !(trustManagers[0] instanceof X509TrustManager)) {
-          throw new IllegalStateException(
-              "Unexpected default trust managers:" + Arrays.toString(trustManagers));
-        }
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(null, trustManagers, null);
-        sslSocketFactory = sslContext.getSocketFactory();
-      } catch (GeneralSecurityException e) {
-        throw new RuntimeException(e);
-      }
+      DapsClient client =
+          getDapsClient(
+              targetDirectory.resolve(keyStoreName),
+              keyStorePassword,
+              keystoreAliasName,
+              targetDirectory.resolve(trustStoreName));
 
       LOG.info("Retrieving Dynamic Attribute Token...");
 
@@ -161,8 +181,8 @@ public class TokenManagerService implements TokenManager {
               .setIssuedAt(Date.from(Instant.now()))
               .setAudience(targetAudience)
               .setNotBefore(Date.from(Instant.now()));
-      LOG.info("\tCertificate Subject: " + cert.getSubjectDN());
-      String jws = jwtb.signWith(privKey, SignatureAlgorithm.RS256).compact();
+      LOG.info("\tCertificate Subject: " + client.certificate.getSubjectDN());
+      String jws = jwtb.signWith(client.privateKey, SignatureAlgorithm.RS256).compact();
 
       // build form body to embed client assertion into post request
       RequestBody formBody =
@@ -174,39 +194,27 @@ public class TokenManagerService implements TokenManager {
               .add("scope", "ids_connector")
               .build();
 
-      OkHttpClient.Builder builder = new OkHttpClient.Builder();
-
-      // configure client with trust manager
-      OkHttpClient client =
-          builder
-              .sslSocketFactory(this.sslSocketFactory, (X509TrustManager) trustManagers[0])
-              .connectTimeout(15, TimeUnit.SECONDS)
-              .writeTimeout(15, TimeUnit.SECONDS)
-              .readTimeout(15, TimeUnit.SECONDS)
-              .build();
-
       Request request = new Request.Builder().url(dapsUrl + "/token").post(formBody).build();
-      Response jwtResponse = client.newCall(request).execute();
-      if (!jwtResponse.isSuccessful()) {
-        throw new IOException("Unexpected code " + jwtResponse);
-      }
-      var responseBody = jwtResponse.body();
-      if (responseBody == null) {
-        throw new Exception("JWT response is null.");
-      }
-      var jwtString = responseBody.string();
-      LOG.info("Response body of token request:\n{}", jwtString);
+      // the response is closed to return the connection to the pool of the client
+      try (Response jwtResponse = client.httpClient.newCall(request).execute()) {
+        if (!jwtResponse.isSuccessful()) {
+          throw new IOException("Unexpected code " + jwtResponse);
+        }
+        var responseBody = jwtResponse.body();
+        if (responseBody == null) {
+          throw new Exception("JWT response is null.");
+        }
+        var jwtString = responseBody.string();
+        LOG.info("Response body of token request:\n{}", jwtString);
 
-      JSONObject jsonObject = new JSONObject(jwtString);
-      dynamicAttributeToken = jsonObject.getString("access_token");
+        JSONObject jsonObject = new JSONObject(jwtString);
+        dynamicAttributeToken = jsonObject.getString("access_token");
+      }
 
       LOG.info("Dynamic Attribute Token: " + dynamicAttributeToken);
 
       jwtClaims = verifyJWT(dynamicAttributeToken, targetAudience, dapsUrl);
-    } catch (KeyStoreException
-        | NoSuchAlgorithmException
-        | CertificateException
-        | UnrecoverableKeyException e) {
+    } catch (GeneralSecurityException e) {
       LOG.error("Cannot acquire token:", e);
     } catch (IOException e) {
       LOG.error("Error retrieving token:", e);
@@ -214,59 +222,146 @@ public class TokenManagerService implements TokenManager {
       LOG.error("Something else went wrong:", e);
     }
 
-    settings.setDynamicAttributeToken(dynamicAttributeToken);
+    long delay = updateToken(dynamicAttributeToken, jwtClaims);
+
+    scheduleRenewal(
+        delay,
+        () ->
+            acquireToken(
+                targetDirectory,
+                dapsUrl,
+                keyStoreName,
+                keyStorePassword,
+                keystoreAliasName,
+                trustStoreName,
+                connectorUUID));
 
     return jwtClaims;
   }
 
+  /**
+   * Returns the key material and HTTP client for the given key store configuration, which are only
+   * loaded again if the configuration or the key store files have changed.
+   */
+  private synchronized DapsClient getDapsClient(
+      Path keyStorePath, String keyStorePassword, String keystoreAliasName, Path trustStorePath)
+      throws IOException, GeneralSecurityException {
+    List<Object> configuration =
+        Arrays.asList(
+            keyStorePath.toAbsolutePath(),
+            keyStorePassword,
+            keystoreAliasName,
+            trustStorePath.toAbsolutePath(),
+            Files.getLastModifiedTime(keyStorePath),
+            Files.getLastModifiedTime(trustStorePath));
+    DapsClient client = dapsClient;
+    if (client != null && client.configuration.equals(configuration)) {
+      return client;
+    }
+
+    KeyStore keystore = KeyStore.getInstance("JKS");
+    KeyStore trustManagerKeyStore = KeyStore.getInstance("JKS");
+
+    LOG.info("Loading key store: " + keyStorePath.getFileName());
+    LOG.info("Loading trus store: " + trustStorePath.getFileName());
+    try (InputStream jksKeyStoreInputStream = Files.newInputStream(keyStorePath);
+        InputStream jksTrustStoreInputStream = Files.newInputStream(trustStorePath)) {
+      keystore.load(jksKeyStoreInputStream, keyStorePassword.toCharArray());
+      trustManagerKeyStore.load(jksTrustStoreInputStream, keyStorePassword.toCharArray());
+    }
+    java.security.cert.Certificate[] certs = trustManagerKeyStore.getCertificateChain("ca");
+    LOG.info("Cert chain: " + Arrays.toString(certs));
+
+    LOG.info("LOADED CA CERT: " + trustManagerKeyStore.getCertificate("ca"));
+
+    // get private key
+    Key privKey = keystore.getKey(keystoreAliasName, keyStorePassword.toCharArray());
+    // Get certificate of public key
+    X509Certificate cert = (X509Certificate) keystore.getCertificate(keystoreAliasName);
+
+    TrustManagerFactory trustManagerFactory =
+        TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagerFactory.init(trustManagerKeyStore);
+    TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
+    if (trustManagers.length != 1 || !(trustManagers[0] instanceof X509TrustManager)) {
+      throw new IllegalStateException(
+          "Unexpected default trust managers:" + Arrays.toString(trustManagers));
+    }
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(null, trustManagers, null);
+    SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
+
+    // configure client with trust manager, the client and its connection pool are reused
+    OkHttpClient httpClient =
+        new OkHttpClient.Builder()
+            .sslSocketFactory(sslSocketFactory, (X509TrustManager) trustManagers[0])
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .writeTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(15, TimeUnit.SECONDS)
+            .build();
+
+    client = new DapsClient(configuration, privKey, cert, sslSocketFactory, httpClient);
+    dapsClient = client;
+    return client;
+  }
+
+  /**
+   * Publishes an acquired DAT with the given claims. Without claims the acquisition has failed,
+   * then the current DAT is kept until it expires.
+   *
+   * @return Milliseconds until the DAT is renewed once the renewal threshold of its validity has
+   *     been reached, or until the failed acquisition is retried
+   */
+  private synchronized long updateToken(
+      String dynamicAttributeToken, Map<String, Object> jwtClaims) {
+    long now = System.currentTimeMillis();
+    long retryDelay = TimeUnit.SECONDS.toMillis(DAT_RETRY_DELAY);
+    if (jwtClaims != null) {
+      settings.setDynamicAttributeToken(dynamicAttributeToken);
+      Object expirationTime = jwtClaims.get("exp");
+      if (!(expirationTime instanceof Number)) {
+        datExpiration = 0;
+        return retryDelay;
+      }
+      datExpiration = TimeUnit.SECONDS.toMillis(((Number) expirationTime).longValue());
+      return Math.max(1000, (long) ((datExpiration - now) * DAT_RENEWAL_THRESHOLD));
+    }
+    if (now >= datExpiration) {
+      settings.setDynamicAttributeToken("INVALID_TOKEN");
+      return retryDelay;
+    }
+    // the retry after the expiration invalidates the DAT if it fails again
+    LOG.warn("DAT renewal failed, the current DAT is kept until it expires");
+    return Math.min(retryDelay, datExpiration - now);
+  }
+
+  /** Schedules the renewal of the DAT after the given delay in milliseconds. */
+  private synchronized void scheduleRenewal(long delay, Runnable renewal) {
+    if (scheduledRenewal != null) {
+      scheduledRenewal.cancel(false);
+    }
+    if (renewalScheduler.isShutdown()) {
+      return;
+    }
+    LOG.info("Scheduling DAT renewal in {} seconds", TimeUnit.MILLISECONDS.toSeconds(delay));
+    scheduledRenewal = renewalScheduler.schedule(renewal, delay, TimeUnit.MILLISECONDS);
+  }
+
   @Override
   public Map<String, Object> verifyJWT(
       String dynamicAttributeToken,
       String targetAudience,
       String dapsUrl) throws Exception {
-    if (sslSocketFactory == null) {
+    DapsClient client = dapsClient;
+    if (client == null) {
       throw new JwtException("SSLSocketFactory is null, acquireToken() must be called first!");
     }
 
     try {
-      // The HttpsJwks retrieves and caches keys from a the given HTTPS JWKS endpoint.
-      // Because it retains the JWKs after fetching them, it can and should be reused
-      // to improve efficiency by reducing the number of outbound calls the the endpoint.
-      HttpsJwks httpsJkws = new HttpsJwks(dapsUrl + "/.well-known/jwks.json");
-      Get getInstance = new Get();
-      getInstance.setSslSocketFactory(sslSocketFactory);
-      httpsJkws.setSimpleHttpGet(getInstance);
-
-      // The HttpsJwksVerificationKeyResolver uses JWKs obtained from the HttpsJwks and will select
-      // the most appropriate one to use for verification based on the Key ID and other factors
-      // provided in the header of the JWS/JWT.
-      HttpsJwksVerificationKeyResolver httpsJwksKeyResolver =
-          new HttpsJwksVerificationKeyResolver(httpsJkws);
-
-      // Use JwtConsumerBuilder to construct an appropriate JwtConsumer, which will
-      // be used to validate and process the JWT.
-      // The specific validation requirements for a JWT are context dependent, however,
-      // it typically advisable to require a (reasonable) expiration time, a trusted issuer, and
-      // and audience that identifies your system as the intended recipient.
-      // If the JWT is encrypted too, you need only provide a decryption key or
-      // decryption key resolver to the builder.
       JwtConsumer jwtConsumer =
-          new JwtConsumerBuilder()
-              .setRequireExpirationTime() // the JWT must have an expiration time
-              .setAllowedClockSkewInSeconds(
-                  30) // allow some leeway in validating time based claims to account for clock skew
-              .setRequireSubject() // the JWT must have a subject claim
-              .setExpectedIssuer(
-                  "https://daps.aisec.fraunhofer.de") // whom the JWT needs to have been issued by
-              .setExpectedAudience(targetAudience) // to whom the JWT is intended for
-              .setVerificationKeyResolver(httpsJwksKeyResolver)
-              .setJwsAlgorithmConstraints( // only allow the expected signature algorithm(s) in the
-                  // given context
-                  new org.jose4j.jwa.AlgorithmConstraints(
-                      org.jose4j.jwa.AlgorithmConstraints.ConstraintType
-                          .WHITELIST, // which is only RS256 here
-                      AlgorithmIdentifiers.RSA_USING_SHA256))
-              .build(); // create the JwtConsumer instance
+          client.jwtConsumers.computeIfAbsent(
+              dapsUrl + '\n' + targetAudience,
+              k -> createJwtConsumer(targetAudience, dapsUrl, client.sslSocketFactory));
 
       LOG.info("Verifying JWT...");
       //  Validate the JWT and process it to the Claims
@@ -304,6 +399,47 @@ public class TokenManagerService implements TokenManager {
     }
   }
 
+  private static JwtConsumer createJwtConsumer(
+      String targetAudience, String dapsUrl, SSLSocketFactory sslSocketFactory) {
+    // The HttpsJwks retrieves and caches keys from a the given HTTPS JWKS endpoint.
+    // Because it retains the JWKs after fetching them, it can and should be reused
+    // to improve efficiency by reducing the number of outbound calls the the endpoint.
+    HttpsJwks httpsJkws = new HttpsJwks(dapsUrl + "/.well-known/jwks.json");
+    Get getInstance = new Get();
+    getInstance.setSslSocketFactory(sslSocketFactory);
+    httpsJkws.setSimpleHttpGet(getInstance);
+
+    // The HttpsJwksVerificationKeyResolver uses JWKs obtained from the HttpsJwks and will select
+    // the most appropriate one to use for verification based on the Key ID and other factors
+    // provided in the header of the JWS/JWT. If no key matches, the JWKS is fetched again.
+    HttpsJwksVerificationKeyResolver httpsJwksKeyResolver =
+        new HttpsJwksVerificationKeyResolver(httpsJkws);
+
+    // Use JwtConsumerBuilder to construct an appropriate JwtConsumer, which will
+    // be used to validate and process the JWT.
+    // The specific validation requirements for a JWT are context dependent, however,
+    // it typically advisable to require a (reasonable) expiration time, a trusted issuer, and
+    // and audience that identifies your system as the intended recipient.
+    // If the JWT is encrypted too, you need only provide a decryption key or
+    // decryption key resolver to the builder.
+    return new JwtConsumerBuilder()
+        .setRequireExpirationTime() // the JWT must have an expiration time
+        .setAllowedClockSkewInSeconds(
+            30) // allow some leeway in validating time based claims to account for clock skew
+        .setRequireSubject() // the JWT must have a subject claim
+        .setExpectedIssuer(
+            "https://daps.aisec.fraunhofer.de") // whom the JWT needs to have been issued by
+        .setExpectedAudience(targetAudience) // to whom the JWT is intended for
+        .setVerificationKeyResolver(httpsJwksKeyResolver)
+        .setJwsAlgorithmConstraints( // only allow the expected signature algorithm(s) in the
+            // given context
+            new org.jose4j.jwa.AlgorithmConstraints(
+                org.jose4j.jwa.AlgorithmConstraints.ConstraintType
+                    .WHITELIST, // which is only RS256 here
+                AlgorithmIdentifiers.RSA_USING_SHA256))
+        .build(); // create the JwtConsumer instance
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public void validateDATSecurityAttributes(Map<String, Object> claims, ConnectionSettings connectionSettings)
@@ -352,4 +488,9 @@ public class TokenManagerService implements TokenManager {
       LOG.error("Token renewal failed", e);
     }
   }
+
+  @Deactivate
+  public void deactivate() {
+    renewalScheduler.shutdownNow();
+  }
 }
@@ -0,0 +1,139 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-token-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.tokenmanager;
+
+import de.fhg.aisec.ids.api.settings.Settings;
+import de.fhg.aisec.ids.idscp2.testutil.MockDaps;
+import de.fhg.aisec.ids.idscp2.testutil.TestKeyStores;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TokenManagerServiceTest {
+
+  private static final String CONNECTOR_UUID = "edc5d7b3-a398-48f0-abb0-3751530c4fed";
+  private static final String DAPS_ISSUER = "https://daps.aisec.fraunhofer.de";
+  private static final int VERIFICATIONS = 10;
+
+  @ClassRule
+  public static TemporaryFolder tmp = new TemporaryFolder();
+
+  private MockDaps mockDaps;
+  private Settings settings;
+  private TokenManagerService tokenManager;
+
+  @Before
+  public void setUp() throws Exception {
+    TestKeyStores.create(tmp.getRoot(), "CN=" + CONNECTOR_UUID, null, "ca");
+    mockDaps = new MockDaps(CONNECTOR_UUID, DAPS_ISSUER);
+
+    settings = mock(Settings.class);
+    tokenManager = new TokenManagerService();
+    Field settingsField = TokenManagerService.class.getDeclaredField("settings");
+    settingsField.setAccessible(true);
+    settingsField.set(tokenManager, settings);
+  }
+
+  @After
+  public void tearDown() {
+    tokenManager.deactivate();
+    mockDaps.close();
+  }
+
+  private Map<String, Object> acquireToken() {
+    return tokenManager.acquireToken(tmp.getRoot().toPath(), mockDaps.getUrl(),
+        TestKeyStores.KEY_STORE, TestKeyStores.PASSWORD, TestKeyStores.KEY_ALIAS,
+        TestKeyStores.TRUST_STORE, CONNECTOR_UUID);
+  }
+
+  @Test
+  public void testDatsAreVerifiedWithCachedJwks() throws Exception {
+    Map<String, Object> claims = acquireToken();
+    assertNotNull(claims);
+    assertEquals("1", claims.get("jti"));
+    ArgumentCaptor<String> dat = ArgumentCaptor.forClass(String.class);
+    verify(settings).setDynamicAttributeToken(dat.capture());
+    assertNotEquals("INVALID_TOKEN", dat.getValue());
+    assertEquals(1, mockDaps.getJwksFetches());
+
+    // DATs of connecting peers are verified without contacting the DAPS
+    for (int i = 0; i < VERIFICATIONS; i++) {
+      assertEquals(Integer.toString(i), tokenManager.verifyJWT(
+          mockDaps.dat(Integer.toString(i)), "IDS_Connector", mockDaps.getUrl()).get("jti"));
+    }
+    assertEquals(1, mockDaps.getJwksFetches());
+
+    // a rotated DAPS key with an unknown key ID triggers a refresh of the JWKS
+    mockDaps.rotateKey("rotated");
+    tokenManager.verifyJWT(mockDaps.dat("rotated"), "IDS_Connector", mockDaps.getUrl());
+    assertEquals(2, mockDaps.getJwksFetches());
+
+    // acquiring another DAT reuses the key material and the cached JWKS
+    assertNotNull(acquireToken());
+    assertEquals(2, mockDaps.getTokenRequests());
+    assertEquals(2, mockDaps.getJwksFetches());
+  }
+
+  @Test
+  public void testDatIsRenewedBeforeExpiry() {
+    mockDaps.setDatValidity(4);
+    assertNotNull(acquireToken());
+    assertEquals(1, mockDaps.getTokenRequests());
+
+    // the renewal is scheduled after 3/4 of the validity of the DAT
+    ArgumentCaptor<String> dat = ArgumentCaptor.forClass(String.class);
+    verify(settings, timeout(10000).times(2)).setDynamicAttributeToken(dat.capture());
+    assertEquals(2, mockDaps.getTokenRequests());
+    assertNotEquals(dat.getAllValues().get(0), dat.getAllValues().get(1));
+    assertNotEquals("INVALID_TOKEN", dat.getAllValues().get(1));
+  }
+
+  @Test
+  public void testFailedRenewalKeepsValidDat() throws Exception {
+    mockDaps.setDatValidity(4);
+    assertNotNull(acquireToken());
+    long expiration = System.currentTimeMillis() + 4000;
+    mockDaps.setFailing(true);
+
+    // the renewal after 3/4 of the validity fails, the DAT is kept
+    long deadline = System.currentTimeMillis() + 10000;
+    while (mockDaps.getTokenRequests() < 2) {
+      assertTrue("DAT has not been renewed in time", System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+    ArgumentCaptor<String> dat = ArgumentCaptor.forClass(String.class);
+    verify(settings).setDynamicAttributeToken(dat.capture());
+    assertNotEquals("INVALID_TOKEN", dat.getValue());
+
+    // the renewal is retried until the DAT expires, then it is invalidated
+    verify(settings, timeout(10000)).setDynamicAttributeToken("INVALID_TOKEN");
+    assertTrue(System.currentTimeMillis() >= expiration - 1000);
+    assertTrue(mockDaps.getTokenRequests() >= 3);
+  }
+}
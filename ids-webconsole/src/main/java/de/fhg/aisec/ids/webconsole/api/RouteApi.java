@@ -31,8 +31,10 @@ import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.Authorization;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import org.checkerframework.checker.nullness.qual.NonNull;
@@ -299,7 +301,32 @@ public class RouteApi {
     if (pap == null) {
       throw new ComponentNotAvailableException();
     }
-    RouteVerificationProof rvp = pap.verifyRoute(routeId);
+    return toValidationInfo(pap.verifyRoute(routeId));
+  }
+
+  /** Validates all routes, unchanged routes are not verified again */
+  @GET
+  @Path("/validate")
+  @Produces(MediaType.APPLICATION_JSON)
+  @AuthorizationRequired
+  public Map<String, ValidationInfo> validateAll() {
+    RouteManager rm = WebConsoleComponent.getRouteManager();
+    PAP pap = WebConsoleComponent.getPolicyAdministrationPoint();
+    if (rm == null || pap == null) {
+      throw new ComponentNotAvailableException();
+    }
+    List<String> routeIds =
+        rm.getRoutes().stream().map(RouteObject::getId).collect(Collectors.toList());
+    Map<String, RouteVerificationProof> proofs = pap.verifyRoutes(routeIds);
+    if (proofs == null) {
+      throw new ComponentNotAvailableException();
+    }
+    Map<String, ValidationInfo> result = new LinkedHashMap<>();
+    proofs.forEach((routeId, rvp) -> result.put(routeId, toValidationInfo(rvp)));
+    return result;
+  }
+
+  private static ValidationInfo toValidationInfo(RouteVerificationProof rvp) {
     ValidationInfo vi = new ValidationInfo();
     vi.valid = rvp.isValid();
     if (!rvp.isValid()) {
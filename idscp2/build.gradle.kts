@@ -8,6 +8,8 @@ version = libraryVersions["idscp2"] ?: error("IDSCP2 version not specified")
 
 apply(plugin = "com.google.protobuf")
 apply(plugin = "idea")
+// shared test helpers, also used by the tests of other modules
+apply(plugin = "java-test-fixtures")
 
 val generatedProtoBaseDir = "${projectDir}/generated"
 
@@ -44,6 +46,10 @@ dependencies {
     providedByBundle("org.bitbucket.b_c", "jose4j", libraryVersions["jose4j"])
     providedByBundle("com.squareup.okhttp3", "okhttp", libraryVersions["okhttp"])
 
+    "testFixturesImplementation"("io.jsonwebtoken", "jjwt-api", libraryVersions["jsonwebtoken"])
+    "testFixturesRuntimeOnly"("io.jsonwebtoken", "jjwt-impl", libraryVersions["jsonwebtoken"])
+    "testFixturesRuntimeOnly"("io.jsonwebtoken", "jjwt-jackson", libraryVersions["jsonwebtoken"])
+
     testImplementation("junit", "junit", libraryVersions["junit4"])
     testImplementation("org.mockito", "mockito-core", libraryVersions["mockito"])
 }
@@ -28,30 +28,94 @@ import javax.net.ssl.X509ExtendedTrustManager;
 import java.io.IOException;
 import java.security.Key;
 import java.security.KeyManagementException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Default DAPS Driver Implementation for requesting valid dynamicAttributeToken and verifying DAT
+ * <p>
+ * An issued DAT is cached and renewed in the background as soon as the configured fraction of its
+ * validity has elapsed. Concurrent requests share a single DAPS request.
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 public class DefaultDapsDriver implements DapsDriver {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultDapsDriver.class);
 
+    private static final String INVALID_TOKEN = "INVALID_TOKEN";
+
+    private static final ExecutorService TOKEN_REQUEST_POOL = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "DAPS Token Request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final SSLSocketFactory sslSocketFactory; //ssl socket factory can be reused
     private final X509ExtendedTrustManager trustManager; //trust manager can be reused
+    private final OkHttpClient httpClient; //http client and its connection pool can be reused
     private final Key privateKey; //private key can be reused
     private final String connectorUUID;
     private final String dapsUrl;
     private final String targetAudience = "IDS_Connector";
+    private final double renewalThreshold;
+
+    private final HttpsJwks httpsJwks; //JWKS of the DAPS, cached and refreshed on unknown key IDs
+    private final JwtConsumer jwtConsumer; //thread-safe, can be reused
+    private final Map<String, VerifiedToken> verifiedTokens; //LRU cache of verified DATs by hash
+
+    private volatile CachedToken cachedToken = null;
+    private CompletableFuture<CachedToken> pendingRequest = null; //guarded by this
+
+    private static class CachedToken {
+        private final byte[] token;
+        private final long renewAt;
+        private final long expiresAt;
+
+        private CachedToken(byte[] token, long renewAt, long expiresAt) {
+            this.token = token;
+            this.renewAt = renewAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class VerifiedToken {
+        private final long expirationTime; //seconds since epoch
+        private final String claims;
+        private SecurityRequirements securityProfile = null;
+        private boolean securityProfileParsed = false;
+
+        private VerifiedToken(long expirationTime, String claims) {
+            this.expirationTime = expirationTime;
+            this.claims = claims;
+        }
+
+        /*
+         * Security attributes of the DAT, parsed on first use, null if they are not available
+         */
+        private synchronized SecurityRequirements getSecurityProfile() {
+            if (!securityProfileParsed) {
+                securityProfile = parseSecurityRequirements(claims);
+                securityProfileParsed = true;
+            }
+            return securityProfile;
+        }
+    }
 
     public DefaultDapsDriver(DefaultDapsDriverConfig config) {
 
         this.connectorUUID = config.getConnectorUUID();
         this.dapsUrl = config.getDapsUrl();
+        this.renewalThreshold = config.getDatRenewalThreshold();
 
         //create ssl socket factory for secure
         privateKey = PreConfiguration.getKey(
@@ -75,16 +139,112 @@ public class DefaultDapsDriver implements DapsDriver {
             LOG.error("Cannot init DefaultDapsDriver: {}", e.toString());
             throw new RuntimeException(e);
         }
+
+        httpClient = new OkHttpClient.Builder()
+                .sslSocketFactory(sslSocketFactory, trustManager)
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .writeTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(15, TimeUnit.SECONDS)
+                .build();
+
+        // Get JsonWebKey JWK from JsonWebKeyStore JWKS using DAPS JWKS endpoint
+        httpsJwks = new HttpsJwks(dapsUrl.concat("/.well-known/jwks.json"));
+        Get getInstance = new Get();
+        getInstance.setSslSocketFactory(sslSocketFactory);
+        httpsJwks.setSimpleHttpGet(getInstance);
+        httpsJwks.setDefaultCacheDuration(config.getJwksCacheTtl());
+
+        // create jwks key resolver, selects jwk based on key ID in jwt header and refreshes the
+        // JWKS if the key ID is unknown
+        HttpsJwksVerificationKeyResolver jwksKeyResolver
+                = new HttpsJwksVerificationKeyResolver(httpsJwks);
+
+        //create validation requirements
+        jwtConsumer =
+                new JwtConsumerBuilder()
+                        .setRequireExpirationTime()         // has expiration time
+                        .setAllowedClockSkewInSeconds(30)   // leeway in validation time
+                        .setRequireSubject()                // has subject
+                        .setExpectedAudience(targetAudience)
+                        .setExpectedIssuer(dapsUrl)         // e.g. https://daps.aisec.fraunhofer.de
+                        .setVerificationKeyResolver(jwksKeyResolver) //get decryption key from jwks
+                        .setJweAlgorithmConstraints(
+                                new AlgorithmConstraints(
+                                        ConstraintType.WHITELIST,
+                                        AlgorithmIdentifiers.RSA_USING_SHA256
+                                )
+                        )
+                        .build();
+
+        int verifiedTokenCacheSize = config.getVerifiedTokenCacheSize();
+        verifiedTokens = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+                return size() > verifiedTokenCacheSize;
+            }
+        };
     }
 
     /*
      * Receive the signed and valid dynamic attribute token from the DAPS
      *
+     * A cached DAT is returned while it is valid and renewed in the background once the renewal
+     * threshold has been reached. Callers only wait for the DAPS if there is no valid DAT.
+     *
      * return "INVALID_TOKEN" on failure
      */
     @Override
     public byte[] getToken() {
-        String invalidToken = "INVALID_TOKEN";
+        CachedToken token = cachedToken;
+        long now = System.currentTimeMillis();
+        if (token != null && now < token.expiresAt) {
+            if (now >= token.renewAt) {
+                LOG.debug("Renewal threshold of DAT has been reached, renew DAT in background");
+                requestToken();
+            }
+            return token.token.clone();
+        }
+
+        try {
+            token = requestToken().join();
+        } catch (CompletionException e) {
+            LOG.error("Cannot acquire DAT from DAPS: ", e.getCause());
+            token = null;
+        }
+        return token == null ? INVALID_TOKEN.getBytes() : token.token.clone();
+    }
+
+    /*
+     * Start a DAPS request, or join the one that is already in flight
+     */
+    private synchronized CompletableFuture<CachedToken> requestToken() {
+        CompletableFuture<CachedToken> request = pendingRequest;
+        CachedToken cached = cachedToken;
+        if (request == null && cached != null && System.currentTimeMillis() < cached.renewAt) {
+            // a concurrent request has been completed in the meantime
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (request == null) {
+            request = CompletableFuture.supplyAsync(this::acquireToken, TOKEN_REQUEST_POOL);
+            pendingRequest = request;
+            request.whenComplete((token, t) -> {
+                synchronized (this) {
+                    if (token != null) {
+                        cachedToken = token;
+                    }
+                    pendingRequest = null;
+                }
+            });
+        }
+        return request;
+    }
+
+    /*
+     * Request a new DAT from the DAPS
+     *
+     * return null on failure
+     */
+    private CachedToken acquireToken() {
         String token;
 
         LOG.info("Retrieving Dynamic Attribute Token from Daps ...");
@@ -100,7 +260,7 @@ public class DefaultDapsDriver implements DapsDriver {
                         .setAudience(targetAudience)
                         .signWith(privateKey, SignatureAlgorithm.RS256).compact();
 
-        //build http client and request for DAPS
+        //build request for DAPS
         RequestBody formBody =
                 new FormBody.Builder()
                         .add("grant_type", "client_credentials")
@@ -110,40 +270,31 @@ public class DefaultDapsDriver implements DapsDriver {
                         .add("scope", "ids_connector")
                         .build();
 
-        OkHttpClient client =
-                new OkHttpClient.Builder()
-                        .sslSocketFactory(sslSocketFactory, trustManager)
-                        .connectTimeout(15, TimeUnit.SECONDS)
-                        .writeTimeout(15, TimeUnit.SECONDS)
-                        .readTimeout(15, TimeUnit.SECONDS)
-                        .build();
-
         Request request =
                 new Request.Builder()
                         .url(dapsUrl.concat("/token"))
                         .post(formBody)
                         .build();
 
-        try {
-            //get http response from DAPS
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Acquire DAT from {}", dapsUrl);
-            }
-            Response response = client.newCall(request).execute();
+        //get http response from DAPS, the response is closed to return the connection to the pool
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Acquire DAT from {}", dapsUrl);
+        }
+        try (Response response = httpClient.newCall(request).execute()) {
 
             //check for valid response
             if (!response.isSuccessful()) {
                 if (LOG.isWarnEnabled()) {
                     LOG.warn("Get unsuccessful http response: {}", response.toString());
                 }
-                return invalidToken.getBytes();
+                return null;
             }
 
             if (response.body() == null) {
                 if (LOG.isWarnEnabled()) {
                     LOG.warn("Get empty DAPS response");
                 }
-                return invalidToken.getBytes();
+                return null;
             }
 
             JSONObject json = new JSONObject(response.body().string());
@@ -154,27 +305,31 @@ public class DefaultDapsDriver implements DapsDriver {
                 if (LOG.isWarnEnabled()) {
                     LOG.warn("Get DAPS error response: {}", json.getString("error"));
                 }
-                return invalidToken.getBytes();
+                return null;
             } else {
                 if (LOG.isWarnEnabled()) {
                     LOG.warn("Get unknown DAPS response format: {}", json.toString());
                 }
-                return invalidToken.getBytes();
+                return null;
             }
 
             //verify token once without security attr validation before providing it
-            if (verifyToken(token.getBytes(), null) > 0) {
+            long requested = System.currentTimeMillis();
+            long validity = verifyToken(token.getBytes(), null);
+            if (validity > 0) {
                 LOG.info("DAT is valid");
-                return token.getBytes();
+                long validityMillis = TimeUnit.SECONDS.toMillis(validity);
+                return new CachedToken(token.getBytes(), requested + (long) (validityMillis * renewalThreshold),
+                        requested + validityMillis);
             } else {
                 if (LOG.isWarnEnabled()) {
                     LOG.warn("DAT validation failed");
                 }
-                return invalidToken.getBytes();
+                return null;
             }
         } catch (IOException e) {
             LOG.error("Cannot acquire DAT from DAPS: ", e);
-            return invalidToken.getBytes();
+            return null;
         }
     }
 
@@ -192,56 +347,24 @@ public class DefaultDapsDriver implements DapsDriver {
 
         LOG.info("Verify dynamic attribute token ...");
 
-        // Get JsonWebKey JWK from JsonWebKeyStore JWKS using DAPS JWKS endpoint
-        HttpsJwks httpsJwks = new HttpsJwks(dapsUrl.concat("/.well-known/jwks.json"));
-        Get getInstance = new Get();
-        getInstance.setSslSocketFactory(sslSocketFactory);
-        httpsJwks.setSimpleHttpGet(getInstance);
-
-        // create new jwks key resolver, selects jwk based on key ID in jwt header
-        HttpsJwksVerificationKeyResolver jwksKeyResolver
-                = new HttpsJwksVerificationKeyResolver(httpsJwks);
-
-        //create validation requirements
-        JwtConsumer jwtConsumer =
-                new JwtConsumerBuilder()
-                        .setRequireExpirationTime()         // has expiration time
-                        .setAllowedClockSkewInSeconds(30)   // leeway in validation time
-                        .setRequireSubject()                // has subject
-                        .setExpectedAudience(targetAudience)
-                        .setExpectedIssuer(dapsUrl)         // e.g. https://daps.aisec.fraunhofer.de
-                        .setVerificationKeyResolver(jwksKeyResolver) //get decryption key from jwks
-                        .setJweAlgorithmConstraints(
-                                new AlgorithmConstraints(
-                                        ConstraintType.WHITELIST,
-                                        AlgorithmIdentifiers.RSA_USING_SHA256
-                                )
-                        )
-                        .build();
-
-        //verify dat
-        JwtClaims claims;
-        NumericDate expTime;
-
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Request JWKS from DAPS for validating DAT");
+        //a DAT that has already been verified is not verified again until it expires
+        String tokenHash = hashToken(dat);
+        VerifiedToken verifiedToken;
+        synchronized (verifiedTokens) {
+            verifiedToken = verifiedTokens.get(tokenHash);
         }
-
-        try {
-            claims = jwtConsumer.processToClaims(new String(dat));
-            expTime = claims.getExpirationTime();
-        } catch (InvalidJwtException e) {
-            if (LOG.isWarnEnabled()) {
-                LOG.warn("DAPS response is not a valid DAT format", e);
+        if (verifiedToken == null || verifiedToken.expirationTime <= NumericDate.now().getValue()) {
+            verifiedToken = verifySignature(dat);
+            if (verifiedToken == null) {
+                return -1;
             }
-            return -1;
-        } catch (MalformedClaimException e) {
-            if (LOG.isWarnEnabled()) {
-                LOG.warn("DAT does not contain expiration time", e);
+            synchronized (verifiedTokens) {
+                verifiedTokens.put(tokenHash, verifiedToken);
             }
-            return -1;
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("DAT has already been verified");
         }
-        long validityTime = expTime.getValue() - NumericDate.now().getValue();
+        long validityTime = verifiedToken.expirationTime - NumericDate.now().getValue();
 
         //check security requirements
         if (securityRequirements != null) {
@@ -251,8 +374,7 @@ public class DefaultDapsDriver implements DapsDriver {
 
             if (securityRequirements instanceof SecurityRequirements) {
                 SecurityRequirements secRequirements = (SecurityRequirements) securityRequirements;
-                SecurityRequirements providedSecurityProfile =
-                        parseSecurityRequirements(claims.toJson());
+                SecurityRequirements providedSecurityProfile = verifiedToken.getSecurityProfile();
 
                 if (providedSecurityProfile == null) {
                     return -1;
@@ -281,7 +403,42 @@ public class DefaultDapsDriver implements DapsDriver {
         }
     } //returns number of seconds dat is valid
 
-    private SecurityRequirements parseSecurityRequirements(String dynamicAttrToken) {
+    /*
+     * Verify the signature and the claims of a DAT using the cached JWKS of the DAPS
+     *
+     * return null if validation failed
+     */
+    private VerifiedToken verifySignature(byte[] dat) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Verify DAT with JWKS of DAPS");
+        }
+
+        try {
+            JwtClaims claims = jwtConsumer.processToClaims(new String(dat));
+            NumericDate expTime = claims.getExpirationTime();
+            return new VerifiedToken(expTime.getValue(), claims.toJson());
+        } catch (InvalidJwtException e) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("DAPS response is not a valid DAT format", e);
+            }
+            return null;
+        } catch (MalformedClaimException e) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("DAT does not contain expiration time", e);
+            }
+            return null;
+        }
+    }
+
+    private static String hashToken(byte[] dat) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(dat));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static SecurityRequirements parseSecurityRequirements(String dynamicAttrToken) {
         JSONObject asJson = new JSONObject(dynamicAttrToken);
 
         if (!asJson.has("ids_attributes")) {
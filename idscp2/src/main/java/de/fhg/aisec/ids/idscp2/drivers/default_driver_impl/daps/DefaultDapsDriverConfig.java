@@ -8,6 +8,9 @@ import org.checkerframework.checker.nullness.qual.NonNull;
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 public class DefaultDapsDriverConfig {
+    public static final double DEFAULT_DAT_RENEWAL_THRESHOLD = 0.75;
+    public static final long DEFAULT_JWKS_CACHE_TTL = 3600;
+    public static final int DEFAULT_VERIFIED_TOKEN_CACHE_SIZE = 1024;
 
     @NonNull
     private String dapsUrl = "https://daps.aisec.fraunhofer.de";
@@ -23,6 +26,9 @@ public class DefaultDapsDriverConfig {
     private String trustStorePassword = "password";
     @NonNull
     private String connectorUUID = "";
+    private double datRenewalThreshold = DEFAULT_DAT_RENEWAL_THRESHOLD;
+    private long jwksCacheTtl = DEFAULT_JWKS_CACHE_TTL;
+    private int verifiedTokenCacheSize = DEFAULT_VERIFIED_TOKEN_CACHE_SIZE;
 
     public static class Builder {
         @NonNull
@@ -70,6 +76,37 @@ public class DefaultDapsDriverConfig {
             return this;
         }
 
+        /*
+         * Fraction of the DAT validity after which a cached DAT is renewed in the background
+         */
+        @NonNull
+        public Builder setDatRenewalThreshold(double threshold) {
+            if (threshold <= 0 || threshold > 1) {
+                throw new IllegalArgumentException("DAT renewal threshold must be in (0, 1]");
+            }
+            this.config.datRenewalThreshold = threshold;
+            return this;
+        }
+
+        /*
+         * Seconds the JWKS of the DAPS is cached, unless the DAPS provides a cache duration.
+         * An unknown key ID always triggers a refresh.
+         */
+        @NonNull
+        public Builder setJwksCacheTtl(long seconds) {
+            this.config.jwksCacheTtl = seconds;
+            return this;
+        }
+
+        /*
+         * Maximum number of verified DATs whose verification result is cached until they expire
+         */
+        @NonNull
+        public Builder setVerifiedTokenCacheSize(int size) {
+            this.config.verifiedTokenCacheSize = size;
+            return this;
+        }
+
         @NonNull
         public DefaultDapsDriverConfig build() {
             return config;
@@ -110,4 +147,16 @@ public class DefaultDapsDriverConfig {
     public String getConnectorUUID() {
         return connectorUUID;
     }
+
+    public double getDatRenewalThreshold() {
+        return datRenewalThreshold;
+    }
+
+    public long getJwksCacheTtl() {
+        return jwksCacheTtl;
+    }
+
+    public int getVerifiedTokenCacheSize() {
+        return verifiedTokenCacheSize;
+    }
 }
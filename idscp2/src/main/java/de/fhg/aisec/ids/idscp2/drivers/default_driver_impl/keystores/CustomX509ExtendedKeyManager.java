@@ -10,7 +10,7 @@ import java.security.Principal;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A custom X590ExtendedKeyManager, that allows to choose a TrustStore entry by a given certificate alias and
@@ -29,8 +29,10 @@ public class CustomX509ExtendedKeyManager extends X509ExtendedKeyManager {
     // implementation. Therefore, getServerAliases() / getClientAliases() returns only uncached aliases since the
     // update on java 11. As we have to check in chooseClientAliases() and chooseServerAlias() if the alias exists in
     // the keystore and we cannot access the cached aliases without an overwritten X509KeyManagerImpl instance, we will
-    // also cache the aliases and its properties in the following HashMap.
-    private final HashMap<String, CachedAliasValue> cachedAliases = new HashMap<>();
+    // also cache the aliases and its properties in the following map, which is shared by concurrent handshakes.
+    // The map is keyed by the aliases without the lookup counter of SunJSSE, such that it does not grow with every
+    // lookup.
+    private final ConcurrentHashMap<String, CachedAliasValue> cachedAliases = new ConcurrentHashMap<>();
 
     CustomX509ExtendedKeyManager(String alias, String keyType, final X509ExtendedKeyManager delegate) {
         super();
@@ -42,8 +44,10 @@ public class CustomX509ExtendedKeyManager extends X509ExtendedKeyManager {
     @Override
     public String[] getClientAliases(String keyType, Principal[] issuers) {
         String[] clientAliases = delegate.getClientAliases(keyType, issuers);
-        for (String alias : clientAliases)
-            cachedAliases.putIfAbsent(alias, new CachedAliasValue(keyType, null)); //toDo get issuer
+        if (clientAliases != null) {
+            for (String alias : clientAliases)
+                cachedAliases.putIfAbsent(withoutLookupCounter(alias), new CachedAliasValue(keyType, null)); //toDo get issuer
+        }
         return clientAliases;
     }
 
@@ -52,9 +56,7 @@ public class CustomX509ExtendedKeyManager extends X509ExtendedKeyManager {
        called only by client in TLS handshake */
     public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket) {
         if (Arrays.asList(keyTypes).contains(this.keyType)) {
-            if ((cachedAliases.containsKey(this.certAlias) &&
-                    cachedAliases.get(this.certAlias).match(keyType, issuers))
-                    || Arrays.asList(getClientAliases(keyType, issuers)).contains(this.certAlias)) {
+            if (isCachedCertAlias(keyType, issuers) || containsCertAlias(getClientAliases(keyType, issuers))) {
                 LOG.debug("CertificateAlias is {}", this.certAlias);
                 return this.certAlias;
             } else {
@@ -70,8 +72,10 @@ public class CustomX509ExtendedKeyManager extends X509ExtendedKeyManager {
     @Override
     public String[] getServerAliases(String keyType, Principal[] issuers) {
         String[] serverAliases = delegate.getServerAliases(keyType, issuers);
-        for (String alias : serverAliases)
-            cachedAliases.putIfAbsent(alias, new CachedAliasValue(keyType, null)); //toDo get issuer
+        if (serverAliases != null) {
+            for (String alias : serverAliases)
+                cachedAliases.putIfAbsent(withoutLookupCounter(alias), new CachedAliasValue(keyType, null)); //toDo get issuer
+        }
         return serverAliases;
     }
 
@@ -80,8 +84,7 @@ public class CustomX509ExtendedKeyManager extends X509ExtendedKeyManager {
        called only by server in TLS handshake*/
     public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
         if (keyType.equals(this.keyType)) {
-            if ((cachedAliases.containsKey(certAlias) && cachedAliases.get(this.certAlias).match(keyType, issuers))
-                    || Arrays.asList(getServerAliases(keyType, issuers)).contains(this.certAlias)) {
+            if (isCachedCertAlias(keyType, issuers) || containsCertAlias(getServerAliases(keyType, issuers))) {
                 LOG.debug("CertificateAlias is {}", this.certAlias);
                 return this.certAlias;
             } else {
@@ -120,14 +123,42 @@ public class CustomX509ExtendedKeyManager extends X509ExtendedKeyManager {
         }
     }
 
+    /*
+     * SunJSSE aliases have the format 'lookupCounter.builderIndex.alias', where the counter is increased
+     * with every alias lookup of the key manager. As the key manager is shared by all connections of a
+     * TLS context, the counter is ignored when the certAlias is searched.
+     */
+    private boolean containsCertAlias(String[] aliases) {
+        if (aliases == null) {
+            return false;
+        }
+        String expected = withoutLookupCounter(this.certAlias);
+        return Arrays.stream(aliases).anyMatch(alias -> withoutLookupCounter(alias).equals(expected));
+    }
+
+    private boolean isCachedCertAlias(String keyType, Principal[] issuers) {
+        CachedAliasValue cached = cachedAliases.get(withoutLookupCounter(this.certAlias));
+        return cached != null && cached.match(keyType, issuers);
+    }
+
+    static String withoutLookupCounter(String alias) {
+        int first = alias.indexOf('.');
+        if (first >= 0 && alias.indexOf('.', first + 1) >= 0) {
+            return alias.substring(first + 1);
+        }
+        return alias;
+    }
+
     @Override
+    /* same alias selection as chooseClientAlias(), used by SSLEngine based clients */
     public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine sslEngine) {
-        return delegate.chooseEngineClientAlias(keyType, issuers, sslEngine);
+        return chooseClientAlias(keyType, issuers, null);
     }
 
     @Override
+    /* same alias selection as chooseServerAlias(), used by SSLEngine based servers */
     public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine sslEngine) {
-        return delegate.chooseEngineServerAlias(keyType, issuers, sslEngine);
+        return chooseServerAlias(keyType, issuers, null);
     }
 
 
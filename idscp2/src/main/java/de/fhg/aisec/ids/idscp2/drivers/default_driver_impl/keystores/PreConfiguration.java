@@ -3,22 +3,128 @@ package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores;
 import javax.net.ssl.*;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.security.*;
 import java.security.cert.*;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * A class for creating pre-configured TrustManagers and KeyManagers for TLS Server and TLS Client
+ * <p>
+ * Loaded key stores are cached until the key store file is modified
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 public class PreConfiguration {
 
+    private static final Map<List<String>, CachedKeyStore> KEY_STORES = new ConcurrentHashMap<>();
+
+    private static class CachedKeyStore {
+        private final KeyStoreVersion version;
+        private final KeyStore keyStore;
+
+        private CachedKeyStore(KeyStoreVersion version, KeyStore keyStore) {
+            this.version = version;
+            this.keyStore = keyStore;
+        }
+    }
+
+    /**
+     * The modification time and the size of a key store file, which change whenever the file is
+     * modified
+     */
+    public static final class KeyStoreVersion {
+        private final FileTime lastModified;
+        private final long size;
+
+        private KeyStoreVersion(FileTime lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            KeyStoreVersion that = (KeyStoreVersion) o;
+            return size == that.size && Objects.equals(lastModified, that.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lastModified, size);
+        }
+    }
+
+    /*
+     * Get the version of the key store file, or null if the file cannot be accessed
+     */
+    public static KeyStoreVersion getKeyStoreVersion(String keyStorePath) {
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(Paths.get(keyStorePath), BasicFileAttributes.class);
+            return new KeyStoreVersion(attributes.lastModifiedTime(), attributes.size());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /*
+     * A SHA-256 digest of the given passwords, such that caches do not hold them in plaintext
+     */
+    public static String passwordDigest(String... passwords) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String password : passwords) {
+                if (password == null) {
+                    digest.update((byte) 0);
+                } else {
+                    byte[] bytes = password.getBytes(StandardCharsets.UTF_8);
+                    // the length separates the passwords
+                    digest.update((byte) 1);
+                    digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+                    digest.update(bytes);
+                }
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /*
+     * Load a JKS key store, or get it from the cache if the file has not been modified since
+     */
+    private static KeyStore loadKeyStore(String keyStorePath, String keyStorePassword)
+            throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException {
+        List<String> cacheKey = Arrays.asList(keyStorePath, passwordDigest(keyStorePassword));
+        KeyStoreVersion version = getKeyStoreVersion(keyStorePath);
+        CachedKeyStore cached = KEY_STORES.get(cacheKey);
+        if (cached != null && version != null && version.equals(cached.version)) {
+            return cached.keyStore;
+        }
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream jksIn = Files.newInputStream(Paths.get(keyStorePath))) {
+            keyStore.load(jksIn, keyStorePassword.toCharArray());
+        }
+        KEY_STORES.put(cacheKey, new CachedKeyStore(version, keyStore));
+        return keyStore;
+    }
+
     /*
      * Get a secure X509ExtendedTrustManager for the SslContext
      *
@@ -29,13 +135,10 @@ public class PreConfiguration {
             String trustStorePath,
             String trustStorePassword
     ) {
-        try (
-                InputStream jksTrustStoreIn = Files.newInputStream(Paths.get(trustStorePath))
-        ) {
+        try {
             /* create TrustManager */
             final TrustManager[] myTrustManager;
-            KeyStore trustStore = KeyStore.getInstance("JKS");
-            trustStore.load(jksTrustStoreIn, trustStorePassword.toCharArray());
+            KeyStore trustStore = loadKeyStore(trustStorePath, trustStorePassword);
             final TrustManagerFactory trustManagerFactory =
                     TrustManagerFactory.getInstance("PKIX"); //PKIX from SunJSSE
 
@@ -68,13 +171,10 @@ public class PreConfiguration {
             String certAlias,
             String keyType
     ) {
-        try (
-                InputStream jksKeyStoreIn = Files.newInputStream(Paths.get(keyStorePath))
-        ) {
+        try {
             /* create KeyManager for remote authentication */
             final KeyManager[] myKeyManager;
-            KeyStore keystore = KeyStore.getInstance("JKS");
-            keystore.load(jksKeyStoreIn, keyStorePassword.toCharArray());
+            KeyStore keystore = loadKeyStore(keyStorePath, keyStorePassword);
             final KeyManagerFactory keyManagerFactory =
                     KeyManagerFactory.getInstance("PKIX"); //PKIX from SunJSSE
             keyManagerFactory.init(keystore, keyPassword.toCharArray());
@@ -108,14 +208,9 @@ public class PreConfiguration {
             String keyStorePassword,
             String keyAlias
     ) {
-        try (
-                InputStream jksKeyStoreIn = Files.newInputStream(Paths.get(keyStorePath))
-        ) {
-            /* create KeyManager for remote authentication */
-            KeyStore keystore = KeyStore.getInstance("JKS");
-
+        try {
             //load keystore
-            keystore.load(jksKeyStoreIn, keyStorePassword.toCharArray());
+            KeyStore keystore = loadKeyStore(keyStorePath, keyStorePassword);
 
             // get private key
             Key key = keystore.getKey(keyAlias, keyStorePassword.toCharArray());
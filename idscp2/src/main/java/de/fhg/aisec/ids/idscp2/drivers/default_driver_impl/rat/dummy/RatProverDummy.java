@@ -5,8 +5,7 @@ import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.InternalControlMe
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A RatProver dummy that exchanges rat messages with a remote RatVerifier
@@ -16,44 +15,46 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class RatProverDummy extends RatProverDriver {
     private static final Logger LOG = LoggerFactory.getLogger(RatProverDummy.class);
 
-    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private int countDown = 2;
+    private boolean attested = false;
 
     public RatProverDummy() {
         super();
     }
 
+    @Override
+    public void start() {
+        schedule(this::sendMessage, 1000, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void delegate(byte[] message) {
-        queue.add(message);
+        if (RatVerifierDummy.ATTESTED_MESSAGE.equals(new String(message))) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Prover has been attested recently");
+            }
+            attested = true;
+            fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_OK, null);
+            return;
+        }
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Delegated to prover");
+            LOG.debug("Prover receives, send something");
+        }
+        if (--countDown == 0) {
+            fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_OK, null);
+        } else {
+            schedule(this::sendMessage, 1000, TimeUnit.MILLISECONDS);
         }
     }
 
-    @Override
-    public void run() {
-        int countDown = 2;
-        while (running) {
-            try {
-                sleep(1000);
-                fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_MSG,
-                        "test".getBytes());
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Prover waits");
-                }
-                byte[] m = queue.take();
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Prover receives, send something");
-                }
-                if (--countDown == 0)
-                    break;
-            } catch (InterruptedException e) {
-                if (this.running) {
-                    fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED, null);
-                }
-                return;
-            }
+    private void sendMessage() {
+        if (attested) {
+            return;
+        }
+        fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_MSG,
+                "test".getBytes());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Prover waits");
         }
-        fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_OK, null);
     }
 }
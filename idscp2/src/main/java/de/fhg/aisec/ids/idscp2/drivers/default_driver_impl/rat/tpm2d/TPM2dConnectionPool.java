@@ -0,0 +1,308 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of persistent connections to tpm2d, shared by the TPM2d RAT drivers of IDSCP2 and the RAT
+ * handlers of the legacy IDSCP protocol
+ * <p>
+ * tpm2d answers the length-prefixed requests of a connection in order. A connection is therefore
+ * leased exclusively for one request and its response, which correlates every response with its
+ * request. Idle connections are kept for reuse, such that attestations do not pay for the
+ * connection setup. Connections that have been idle for too long, have been closed or have
+ * unexpected data pending are discarded before reuse. The number of connections per tpm2d
+ * instance is bounded, further requests wait for a free connection.
+ * <p>
+ * If tpm2d has closed a reused connection, which shows as a reset or the end of the stream before
+ * any byte of the response, the request is repeated once on a new connection. Other failures are
+ * not retried, in particular not a timeout, as tpm2d may still be processing the request.
+ * <p>
+ * Every request, including waiting for a free connection, connecting, a retry and reading the
+ * response, must complete within the timeout of the pool, such that an unresponsive tpm2d does not
+ * block the callers or the connections forever.
+ */
+public final class TPM2dConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(TPM2dConnectionPool.class);
+
+    public static final int DEFAULT_PORT = 9505;
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final long DEFAULT_MAX_IDLE_TIME = 60_000;
+    public static final int DEFAULT_TIMEOUT = 30_000;
+    public static final int MAX_RESPONSE_SIZE = 1024 * 1024;
+
+    private static final TPM2dConnectionPool SHARED =
+            new TPM2dConnectionPool(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_IDLE_TIME);
+
+    private final int maxConnections;
+    private final long maxIdleTime;
+    private final int timeout;
+    private final Map<InetSocketAddress, HostPool> pools = new ConcurrentHashMap<>();
+    private final AtomicLong openedConnections = new AtomicLong();
+
+    /**
+     * Creates a pool with the given number of connections per tpm2d instance
+     *
+     * @param maxConnections Maximum number of connections to one tpm2d instance
+     * @param maxIdleTime Time in milliseconds after which idle connections are not reused
+     */
+    public TPM2dConnectionPool(int maxConnections, long maxIdleTime) {
+        this(maxConnections, maxIdleTime, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a pool with the given number of connections per tpm2d instance
+     *
+     * @param maxConnections Maximum number of connections to one tpm2d instance
+     * @param maxIdleTime Time in milliseconds after which idle connections are not reused
+     * @param timeout Time in milliseconds within which a request must be answered
+     */
+    public TPM2dConnectionPool(int maxConnections, long maxIdleTime, int timeout) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxIdleTime = maxIdleTime;
+        this.timeout = Math.max(1, timeout);
+    }
+
+    /**
+     * Returns the pool that is shared by all RAT implementations of the connector
+     */
+    public static TPM2dConnectionPool getInstance() {
+        return SHARED;
+    }
+
+    /**
+     * Sends a serialized request to tpm2d and returns the serialized response
+     *
+     * @param host Host of tpm2d
+     * @param port Port of tpm2d
+     * @param request Serialized request message
+     * @return Serialized response message
+     * @throws IOException If tpm2d is not reachable or the connection fails
+     * @throws SocketTimeoutException If the request has not been answered within the timeout
+     */
+    public byte[] request(String host, int port, byte[] request) throws IOException {
+        HostPool pool = pools.computeIfAbsent(
+                InetSocketAddress.createUnresolved(host, port), a -> new HostPool(maxConnections));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            if (!pool.permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Timed out waiting for a free tpm2d connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a tpm2d connection");
+        }
+        try {
+            Connection connection = pool.poll(maxIdleTime);
+            if (connection != null) {
+                try {
+                    byte[] response = connection.exchange(request, deadline);
+                    pool.release(connection);
+                    return response;
+                } catch (IOException e) {
+                    connection.close();
+                    if (!connection.isStale(e)) {
+                        throw e;
+                    }
+                    // the pooled connection has been closed by tpm2d, retry on a new connection
+                    LOG.debug("Pooled tpm2d connection has been closed, reconnecting", e);
+                }
+            }
+            connection = connect(host, port, deadline);
+            openedConnections.incrementAndGet();
+            try {
+                byte[] response = connection.exchange(request, deadline);
+                pool.release(connection);
+                return response;
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        } finally {
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Opens a new connection, which must be established before the deadline of the request
+     */
+    private Connection connect(String host, int port, long deadline) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), remainingMillis(deadline));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new Connection(socket);
+    }
+
+    /**
+     * Returns the milliseconds until the deadline of a request, which must not have passed
+     */
+    private static int remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Timed out waiting for tpm2d");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of connections that have been opened by this pool
+     */
+    public long getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    /**
+     * Closes all idle connections, subsequent requests open new connections
+     */
+    public void clear() {
+        for (HostPool pool : pools.values()) {
+            Connection connection;
+            while ((connection = pool.poll(-1)) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * The idle connections and the permits for the connections to one tpm2d instance
+     */
+    private static class HostPool {
+        private final Semaphore permits;
+        private final Deque<Connection> idle = new ArrayDeque<>(); // guarded by this
+
+        private HostPool(int maxConnections) {
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        /*
+         * Returns the most recently used healthy connection and closes unhealthy ones. With a
+         * negative max idle time, any idle connection is returned.
+         */
+        private Connection poll(long maxIdleTime) {
+            while (true) {
+                Connection connection;
+                synchronized (this) {
+                    connection = idle.pollFirst();
+                }
+                if (connection == null || maxIdleTime < 0 || connection.isHealthy(maxIdleTime)) {
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+
+        private synchronized void release(Connection connection) {
+            idle.addFirst(connection);
+        }
+    }
+
+    /**
+     * A connection to tpm2d that exchanges length-prefixed messages
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final DataOutputStream out;
+        private long lastUsed;
+        // whether a byte of the response to the current request has been received
+        private boolean answered;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            try {
+                socket.setTcpNoDelay(true);
+                this.in = new BufferedInputStream(socket.getInputStream());
+                this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private byte[] exchange(byte[] request, long deadline) throws IOException {
+            answered = false;
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+            byte[] header = new byte[4];
+            readFully(header, deadline);
+            int length = ByteBuffer.wrap(header).getInt();
+            if (length < 0 || length > MAX_RESPONSE_SIZE) {
+                throw new IOException("Invalid tpm2d response size " + length);
+            }
+            byte[] response = new byte[length];
+            readFully(response, deadline);
+            lastUsed = System.nanoTime();
+            return response;
+        }
+
+        /*
+         * Every read waits at most until the deadline of the request
+         */
+        private void readFully(byte[] buffer, long deadline) throws IOException {
+            int offset = 0;
+            while (offset < buffer.length) {
+                socket.setSoTimeout(remainingMillis(deadline));
+                int read = in.read(buffer, offset, buffer.length - offset);
+                if (read < 0) {
+                    throw new EOFException("tpm2d has closed the connection");
+                }
+                answered = true;
+                offset += read;
+            }
+        }
+
+        /*
+         * Whether the failure of a request shows that tpm2d had closed this connection before it
+         * could answer, i.e. the connection was reset or ended without any byte of the response.
+         * A SocketTimeoutException is no SocketException, tpm2d may still be processing the request.
+         */
+        private boolean isStale(IOException e) {
+            return !answered && (e instanceof EOFException || e instanceof SocketException);
+        }
+
+        private boolean isHealthy(long maxIdleTime) {
+            try {
+                return !socket.isClosed()
+                        && !socket.isInputShutdown()
+                        && System.nanoTime() - lastUsed < TimeUnit.MILLISECONDS.toNanos(maxIdleTime)
+                        // data without a request belongs to no response
+                        && in.available() == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // connection is discarded anyway
+            }
+        }
+    }
+}
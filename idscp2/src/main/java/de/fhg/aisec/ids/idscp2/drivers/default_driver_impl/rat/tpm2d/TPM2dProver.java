@@ -7,10 +7,6 @@ import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-
 /**
  * A TPM2d RatProver Driver implementation that proves its identity to a remote peer using TPM2d
  *
@@ -53,7 +49,7 @@ public class TPM2dProver extends RatProverDriver {
      *
      */
 
-    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private boolean awaitingResult = false;
     private TPM2dProverConfig config = new TPM2dProverConfig.Builder().build();
 
     public TPM2dProver() {
@@ -76,40 +72,33 @@ public class TPM2dProver extends RatProverDriver {
 
     @Override
     public void delegate(byte[] message) {
-        queue.add(message);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Delegated to prover");
-        }
-    }
-
-    @Override
-    public void run() {
         //TPM2d Challenge-Response Protocol
-
-        // wait for RatChallenge from Verifier
-        byte[] msg;
-        try {
-            msg = queue.take();
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Prover receives new message");
-            }
-        } catch (InterruptedException e) {
-            if (this.running) {
-                fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED, null);
-            }
-            return;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Prover receives new message");
         }
 
         // parse body to expected tpm2d message wrapper
         Tpm2dMessageWrapper tpm2dMessageWrapper;
         try {
-            tpm2dMessageWrapper = Tpm2dMessageWrapper.parseFrom(msg);
+            tpm2dMessageWrapper = Tpm2dMessageWrapper.parseFrom(message);
         } catch (InvalidProtocolBufferException e) {
             LOG.error("Cannot parse IdscpRatVerifier body", e);
             fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED, null);
             return;
         }
 
+        // a verifier with a cached attestation of this prover sends the result without challenge
+        if (awaitingResult || tpm2dMessageWrapper.hasRatResult()) {
+            onRatResult(tpm2dMessageWrapper);
+        } else {
+            onRatChallenge(tpm2dMessageWrapper);
+        }
+    }
+
+    /*
+     * Answer the RatChallenge of the verifier with an attestation of the TPM
+     */
+    private void onRatChallenge(Tpm2dMessageWrapper tpm2dMessageWrapper) {
         // check if wrapper contains expected rat challenge
         if (!tpm2dMessageWrapper.hasRatChallenge()) {
             //unexpected message
@@ -140,17 +129,23 @@ public class TPM2dProver extends RatProverDriver {
                 challenge.hasPcrIndices() ? challenge.getPcrIndices() : 0
         );
 
-        // get TPM response
-        Tpm2dToRemote tpmResponse;
-        try {
-            TPM2dSocket tpmSocket = new TPM2dSocket(config.getTpm2dHost());
-            tpmResponse = tpmSocket.requestAttestation(tpmRequest);
-        } catch (IOException e) {
-            LOG.error("Cannot access TPM", e);
-            fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED, null);
-            return;
-        }
+        // get TPM response, the request to tpm2d must not block the shared RAT driver executor
+        TPM2dSocket tpmSocket = new TPM2dSocket(config.getTpm2dHost());
+        awaitingResult = true;
+        executeBlocking(() -> tpmSocket.requestAttestation(tpmRequest), (tpmResponse, error) -> {
+            if (error != null) {
+                LOG.error("Cannot access TPM", error);
+                fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED, null);
+            } else {
+                onTpmResponse(tpmResponse);
+            }
+        });
+    }
 
+    /*
+     * Send the attestation of the TPM to the verifier
+     */
+    private void onTpmResponse(Tpm2dToRemote tpmResponse) {
         // create Tpm2dResponse
         byte[] response = TPM2dMessageFactory.getAttestationResponseMessage(tpmResponse)
                 .toByteArray();
@@ -158,30 +153,14 @@ public class TPM2dProver extends RatProverDriver {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Send rat response to verifier");
         }
-        fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_MSG, response);
-
         // wait for result
-        try {
-            msg = queue.take();
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Prover receives new message");
-            }
-        } catch (InterruptedException e) {
-            if (this.running) {
-                fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED, null);
-            }
-            return;
-        }
-
-        // parse body to expected tpm2d message wrapper
-        try {
-            tpm2dMessageWrapper = Tpm2dMessageWrapper.parseFrom(msg);
-        } catch (InvalidProtocolBufferException e) {
-            LOG.error("Cannot parse IdscpRatVerifier body", e);
-            fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED, null);
-            return;
-        }
+        fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_MSG, response);
+    }
 
+    /*
+     * Notify the fsm about the RatResult of the verifier
+     */
+    private void onRatResult(Tpm2dMessageWrapper tpm2dMessageWrapper) {
         // check if wrapper contains expected rat result
         if (!tpm2dMessageWrapper.hasRatResult()) {
             //unexpected message
@@ -21,8 +21,6 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * A TPM2d RatVerifier driver that verifies the remote peer's identity using TPM2d
@@ -64,7 +62,7 @@ public class TPM2dVerifier extends RatVerifierDriver {
      *
      */
 
-    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private byte[] nonce = null;
     private TPM2dVerifierConfig config = new TPM2dVerifierConfig.Builder().build();
 
     public TPM2dVerifier() {
@@ -82,18 +80,21 @@ public class TPM2dVerifier extends RatVerifierDriver {
     }
 
     @Override
-    public void delegate(byte[] message) {
-        queue.add(message);
-        LOG.debug("Delegated to Verifier");
-    }
-
-    @Override
-    public void run() {
+    public void start() {
         //TPM2d Challenge-Response Protocol
 
+        if (peerAttested) {
+            // the peer has been attested recently, send the cached result instead of a challenge
+            LOG.debug("Send cached rat result to remote prover");
+            byte[] ratResult = TPM2dMessageFactory.getAttestationResultMessage(true).toByteArray();
+            fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_MSG, ratResult);
+            fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_OK, null);
+            return;
+        }
+
         // create rat challenge with fresh nonce
         LOG.debug("Generate and send rat challenge for rat prover");
-        byte[] nonce = TPM2dHelper.generateNonce(20);
+        nonce = TPM2dHelper.generateNonce(20);
 
         // send challenge as RAT Verifier Message
         byte[] ratChallenge = TPM2dMessageFactory.getAttestationChallengeMessage(
@@ -101,22 +102,22 @@ public class TPM2dVerifier extends RatVerifierDriver {
 
         fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_MSG, ratChallenge);
 
-        // wait for attestation response
-        byte[] msg;
-        try {
-            msg = queue.take();
-            LOG.debug("Verifier receives new message");
-        } catch (InterruptedException e) {
-            if (this.running) {
-                fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_FAILED, null);
-            }
+        // the attestation response is passed to delegate()
+    }
+
+    @Override
+    public void delegate(byte[] message) {
+        LOG.debug("Verifier receives new message");
+
+        if (peerAttested) {
+            LOG.warn("Unexpected message from RatProver: Peer has already been attested");
             return;
         }
 
         // parse body to expected tpm2d message wrapper
         Tpm2dMessageWrapper tpm2dMessageWrapper;
         try {
-            tpm2dMessageWrapper = Tpm2dMessageWrapper.parseFrom(msg);
+            tpm2dMessageWrapper = Tpm2dMessageWrapper.parseFrom(message);
         } catch (InvalidProtocolBufferException e) {
             LOG.error("Cannot parse IdscpRatProver body", e);
             fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_FAILED, null);
@@ -30,7 +30,7 @@ public class TPM2dVerifierConfig {
     }
 
     public static class Builder {
-        private static final TPM2dVerifierConfig config = new TPM2dVerifierConfig();
+        private final TPM2dVerifierConfig config = new TPM2dVerifierConfig();
 
         @NonNull
         public Builder setTtpUri(URI ttpUri) {
@@ -77,4 +77,14 @@ public class TPM2dVerifierConfig {
     public int getExpectedAttestationMask() {
         return expectedAttestationMask;
     }
+
+    /*
+     * Covers the requirements of the verifier, such that the RatResultCache only reuses
+     * attestations for verifiers with the same requirements
+     */
+    @Override
+    public String toString() {
+        return "TPM2dVerifierConfig{ttpUri=" + ttpUri + ", expectedAType=" + expectedAType
+                + ", expectedAttestationMask=" + expectedAttestationMask + '}';
+    }
 }
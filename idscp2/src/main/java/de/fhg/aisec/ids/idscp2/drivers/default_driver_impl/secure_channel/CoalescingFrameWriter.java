@@ -0,0 +1,299 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread-safe writer for length-prefixed frames that coalesces frames into a single write on the
+ * underlying TLS stream, such that many small messages share one TLS record.
+ * <p>
+ * While one thread writes to the stream, frames of other threads are collected and written by the
+ * same thread afterwards. With a max delay greater than zero, frames are additionally held back
+ * for up to max delay milliseconds, similar to Nagle's algorithm, unless max bytes are pending.
+ * Frames larger than max bytes are written without copying.
+ * <p>
+ * Delayed frames are written by a flusher thread of this writer, such that a blocked stream does
+ * not delay the frames of other connections. While a write is running, at most
+ * {@link #MAX_PENDING_RECORDS} times max bytes are collected, further writers block until the
+ * writing thread has taken the pending frames.
+ */
+public class CoalescingFrameWriter implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingFrameWriter.class);
+
+    // Limit of the pending frames during a running write, in multiples of max bytes
+    static final int MAX_PENDING_RECORDS = 64;
+
+    private final OutputStream out;
+    private final long maxDelay;
+    private final int maxBytes;
+    private final int maxPending;
+    private final ScheduledThreadPoolExecutor flusher;
+
+    private byte[] pending;
+    private byte[] spare;
+    private int pendingLength = 0;
+    private boolean writing = false;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+    private IOException error = null;
+    private long streamWrites = 0;
+
+    /*
+     * maxDelay in milliseconds, 0 only coalesces frames that queue up during a running write
+     */
+    public CoalescingFrameWriter(OutputStream out, long maxDelay, int maxBytes) {
+        this.out = out;
+        this.maxDelay = Math.max(0, maxDelay);
+        this.maxBytes = Math.max(4, maxBytes);
+        this.maxPending =
+                (int) Math.min(Integer.MAX_VALUE - 8, (long) this.maxBytes * MAX_PENDING_RECORDS);
+        this.pending = new byte[this.maxBytes];
+        this.spare = new byte[this.maxBytes];
+        if (this.maxDelay > 0) {
+            flusher = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "TLS Write Coalescing");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.setKeepAliveTime(60, TimeUnit.SECONDS);
+            flusher.allowCoreThreadTimeOut(true);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /*
+     * Write a frame consisting of the 4-byte length and the data
+     *
+     * An IOException of a preceding delayed write is thrown by the next call. The call blocks while
+     * a write is running and the pending frames have reached their limit.
+     */
+    public void write(byte[] data) throws IOException {
+        byte[] head = null;
+        int headLength = 0;
+        synchronized (this) {
+            checkError();
+            if (closed) {
+                throw new IOException("Frame writer has been closed");
+            }
+            if (4 + data.length > maxBytes) {
+                // large frame: wait for the running write, then write it directly
+                while (writing) {
+                    awaitWrite();
+                }
+                checkError();
+                writing = true;
+                // the length is written together with the pending frames, frames of other threads
+                // are appended to a new buffer and written after the data
+                ensureCapacity(4);
+                appendLength(data.length);
+                head = pending;
+                headLength = pendingLength;
+                pending = spare != null ? spare : new byte[maxBytes];
+                spare = null;
+                pendingLength = 0;
+            } else {
+                // the writing thread takes the pending frames, at least one frame can always be added
+                while (writing && pendingLength > 0 && pendingLength + 4 + data.length > maxPending) {
+                    awaitWrite();
+                    checkError();
+                    if (closed) {
+                        throw new IOException("Frame writer has been closed");
+                    }
+                }
+                append(data);
+                if (writing) {
+                    // the writing thread takes this frame with it
+                    return;
+                }
+                if (maxDelay > 0 && pendingLength < maxBytes) {
+                    scheduleFlush();
+                    return;
+                }
+                writing = true;
+            }
+        }
+
+        try {
+            if (head != null) {
+                out.write(head, 0, headLength);
+                out.write(data);
+                synchronized (this) {
+                    streamWrites += 2;
+                    spare = head;
+                }
+            }
+            writePending();
+            out.flush();
+        } catch (IOException e) {
+            synchronized (this) {
+                error = e;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+        }
+        // frames that have been appended during the flush
+        flushIfPending();
+    }
+
+    /*
+     * Number of write calls on the underlying stream, every call produces at least one TLS record
+     */
+    public synchronized long getStreamWrites() {
+        return streamWrites;
+    }
+
+    /*
+     * Wait for a running write, write all pending frames and close the stream
+     *
+     * An IOException of a preceding delayed write is thrown after the stream has been closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (this) {
+                while (writing) {
+                    awaitWrite();
+                }
+                closed = true;
+                checkError();
+                writing = true;
+            }
+            try {
+                writePending();
+                out.flush();
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        } finally {
+            if (flusher != null) {
+                flusher.shutdownNow();
+            }
+            out.close();
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("A previous write has failed", error);
+        }
+    }
+
+    private void awaitWrite() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for running write", e);
+        }
+    }
+
+    private void append(byte[] data) {
+        ensureCapacity(4 + data.length);
+        appendLength(data.length);
+        System.arraycopy(data, 0, pending, pendingLength, data.length);
+        pendingLength += data.length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (pendingLength + length > pending.length) {
+            byte[] larger = new byte[Math.max(pending.length * 2, pendingLength + length)];
+            System.arraycopy(pending, 0, larger, 0, pendingLength);
+            pending = larger;
+        }
+    }
+
+    private void appendLength(int length) {
+        pending[pendingLength++] = (byte) (length >>> 24);
+        pending[pendingLength++] = (byte) (length >>> 16);
+        pending[pendingLength++] = (byte) (length >>> 8);
+        pending[pendingLength++] = (byte) length;
+    }
+
+    /*
+     * Write the pending frames, must only be called by the thread that has set writing to true
+     */
+    private void writePending() throws IOException {
+        while (true) {
+            byte[] buffer;
+            int length;
+            synchronized (this) {
+                if (pendingLength == 0) {
+                    return;
+                }
+                buffer = pending;
+                length = pendingLength;
+                pending = spare != null ? spare : new byte[maxBytes];
+                spare = null;
+                pendingLength = 0;
+                // writers that wait for room in the pending frames
+                notifyAll();
+            }
+            out.write(buffer, 0, length);
+            synchronized (this) {
+                streamWrites++;
+                spare = buffer;
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(() -> {
+                synchronized (this) {
+                    flushScheduled = false;
+                }
+                try {
+                    flushIfPending();
+                } catch (IOException e) {
+                    // the error has been recorded and is thrown by the next write or close
+                    LOG.debug("Delayed write of coalesced frames has failed", e);
+                }
+            }, maxDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushIfPending() throws IOException {
+        while (true) {
+            synchronized (this) {
+                if (writing || closed || pendingLength == 0 || error != null) {
+                    return;
+                }
+                writing = true;
+            }
+            try {
+                writePending();
+                out.flush();
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A reader for length-prefixed frames from a TLS stream.
+ * <p>
+ * The frame length is checked against the maximum frame size before the frame is allocated.
+ * Small frames are read through a receive buffer that is reused for the whole connection, such that
+ * a single read on the stream can deliver many frames. Larger frames are read directly into the
+ * frame array. A read timeout does not lose data, the next call continues with the current frame.
+ */
+public class FrameReader implements Closeable {
+    public static final int RECEIVE_BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final int maxFrameSize;
+    private final byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    // frame that is currently read
+    private byte[] frame = null;
+    private int frameOffset = 0;
+
+    private long streamReads = 0;
+
+    public FrameReader(InputStream in, int maxFrameSize) {
+        this.in = in;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /*
+     * Read the next frame
+     *
+     * Throws an IOException if the frame exceeds the maximum frame size and an EOFException if
+     * the stream has been closed by the peer
+     */
+    public byte[] readFrame() throws IOException {
+        if (frame == null) {
+            while (limit - position < 4) {
+                fill();
+            }
+            int len = ((buffer[position] & 0xff) << 24) | ((buffer[position + 1] & 0xff) << 16)
+                    | ((buffer[position + 2] & 0xff) << 8) | (buffer[position + 3] & 0xff);
+            position += 4;
+            if (len < 0 || len > maxFrameSize) {
+                throw new IOException("Received frame size " + len + " exceeds the maximum frame size of "
+                        + maxFrameSize + " bytes");
+            }
+            frame = new byte[len];
+            frameOffset = 0;
+        }
+
+        while (true) {
+            int buffered = Math.min(limit - position, frame.length - frameOffset);
+            System.arraycopy(buffer, position, frame, frameOffset, buffered);
+            position += buffered;
+            frameOffset += buffered;
+
+            int remaining = frame.length - frameOffset;
+            if (remaining == 0) {
+                break;
+            } else if (remaining >= buffer.length) {
+                int read = in.read(frame, frameOffset, remaining);
+                streamReads++;
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                frameOffset += read;
+            } else {
+                fill();
+            }
+        }
+
+        byte[] result = frame;
+        frame = null;
+        return result;
+    }
+
+    /*
+     * Number of read calls on the underlying stream
+     */
+    long getStreamReads() {
+        return streamReads;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        streamReads++;
+        if (read < 0) {
+            throw new EOFException();
+        }
+        limit += read;
+    }
+}
@@ -0,0 +1,110 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel;
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration.KeyStoreVersion;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache for the TLS contexts of the TLS drivers.
+ * <p>
+ * All connections with the same key store, trust store and certificate alias share one SSLContext
+ * and therefore its TLS session cache, such that reconnects to the same peer resume the previous
+ * TLS session instead of running a full handshake. A context is recreated as soon as the key store
+ * or the trust store has been modified on disk.
+ */
+public final class TLSContextCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TLSContextCache.class);
+
+    private static final Map<List<String>, CachedContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private static class CachedContext {
+        private final KeyStoreVersion trustStoreVersion;
+        private final KeyStoreVersion keyStoreVersion;
+        private final SSLContext sslContext;
+
+        private CachedContext(KeyStoreVersion trustStoreVersion, KeyStoreVersion keyStoreVersion,
+                              SSLContext sslContext) {
+            this.trustStoreVersion = trustStoreVersion;
+            this.keyStoreVersion = keyStoreVersion;
+            this.sslContext = sslContext;
+        }
+    }
+
+    private TLSContextCache() {
+    }
+
+    /*
+     * Get the TLS context for the key store, trust store and certificate alias of the settings
+     *
+     * throws RuntimeException if the key store or the trust store cannot be loaded
+     */
+    public static SSLContext getSslContext(Idscp2Settings settings)
+            throws NoSuchAlgorithmException, KeyManagementException {
+        // the passwords are part of the key as a digest only
+        List<String> key = Arrays.asList(
+                settings.getTrustStorePath(),
+                settings.getKeyStorePath(),
+                settings.getCertificateAlias(),
+                settings.getKeyStoreKeyType(),
+                PreConfiguration.passwordDigest(settings.getTrustStorePassword(),
+                        settings.getKeyStorePassword(), settings.getKeyPassword())
+        );
+        KeyStoreVersion trustStoreVersion = PreConfiguration.getKeyStoreVersion(settings.getTrustStorePath());
+        KeyStoreVersion keyStoreVersion = PreConfiguration.getKeyStoreVersion(settings.getKeyStorePath());
+
+        CachedContext cached = CONTEXTS.get(key);
+        if (cached != null && trustStoreVersion != null && keyStoreVersion != null
+                && trustStoreVersion.equals(cached.trustStoreVersion)
+                && keyStoreVersion.equals(cached.keyStoreVersion)) {
+            return cached.sslContext;
+        }
+
+        LOG.debug("Creating TLS context for key store {}", settings.getKeyStorePath());
+        SSLContext sslContext = createSslContext(settings);
+        CONTEXTS.put(key, new CachedContext(trustStoreVersion, keyStoreVersion, sslContext));
+        return sslContext;
+    }
+
+    /*
+     * Remove all cached TLS contexts, subsequent connections run a full TLS handshake
+     */
+    public static void clear() {
+        CONTEXTS.clear();
+    }
+
+    private static SSLContext createSslContext(Idscp2Settings settings)
+            throws NoSuchAlgorithmException, KeyManagementException {
+        // get array of TrustManagers, that contains only one instance of X509ExtendedTrustManager, which enables
+        // hostVerification and algorithm constraints
+        TrustManager[] myTrustManager = PreConfiguration.getX509ExtTrustManager(
+                settings.getTrustStorePath(),
+                settings.getTrustStorePassword()
+        );
+
+        // get array of KeyManagers, that contains only one instance of X509ExtendedKeyManager, which enables
+        // connection specific key selection via key alias
+        KeyManager[] myKeyManager = PreConfiguration.getX509ExtKeyManager(
+                settings.getKeyPassword(),
+                settings.getKeyStorePath(),
+                settings.getKeyStorePassword(),
+                settings.getCertificateAlias(),
+                settings.getKeyStoreKeyType()
+        );
+
+        SSLContext sslContext = SSLContext.getInstance(TLSConstants.TLS_INSTANCE);
+        sslContext.init(myKeyManager, myTrustManager, null);
+        return sslContext;
+    }
+}
@@ -202,4 +202,17 @@ public class TLSSessionVerificationHelper {
         return false;
     }
 
+    /*
+     * Get the certificate of the peer of the ssl session
+     *
+     * return null if the peer has not been authenticated
+     */
+    public static X509Certificate getPeerCertificate(SSLSession sslSession) {
+        try {
+            Certificate[] certificates = sslSession.getPeerCertificates();
+            return certificates.length > 0 ? (X509Certificate) certificates[0] : null;
+        } catch (SSLPeerUnverifiedException e) {
+            return null;
+        }
+    }
 }
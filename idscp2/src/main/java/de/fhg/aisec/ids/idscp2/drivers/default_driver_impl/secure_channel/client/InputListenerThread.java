@@ -1,6 +1,7 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.client;
 
-import java.io.DataInputStream;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.FrameReader;
+
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -14,26 +15,22 @@ import java.net.SocketTimeoutException;
  */
 public class InputListenerThread extends Thread implements InputListener {
 
-    private final DataInputStream in;
+    private final FrameReader in;
     private DataAvailableListener listener = null; //no race conditions, could be empty list
     private volatile boolean running = true;
 
-    public InputListenerThread(InputStream in) {
-        this.in = new DataInputStream(in);
+    public InputListenerThread(InputStream in, int maxFrameSize) {
+        this.in = new FrameReader(in, maxFrameSize);
     }
 
     /*
      * Run the input listener thread that reads from wire and provides data to upper layer
      */
     public void run() {
-        byte[] buf;
         while (running) {
             try {
-                //first read the length
-                int len = in.readInt();
-                buf = new byte[len];
-                //then read the data
-                in.readFully(buf, 0, len);
+                //read the next frame, a frame that exceeds the maximum frame size results in an error
+                byte[] buf = in.readFrame();
                 //provide to listener
                 this.listener.onMessage(buf);
             } catch (SocketTimeoutException ignore) {
@@ -1,7 +1,8 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.client;
 
-import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.CoalescingFrameWriter;
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSContextCache;
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSSessionVerificationHelper;
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
 import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
@@ -14,12 +15,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.*;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -34,7 +35,7 @@ public class TLSClient implements HandshakeCompletedListener, DataAvailableListe
     private static final Logger LOG = LoggerFactory.getLogger(TLSClient.class);
 
     private final Socket clientSocket;
-    private DataOutputStream out;
+    private CoalescingFrameWriter out;
     private InputListenerThread inputListenerThread;
     private final CompletableFuture<SecureChannelListener> listenerPromise = new CompletableFuture<>();
     private final Idscp2Settings clientSettings;
@@ -51,25 +52,9 @@ public class TLSClient implements HandshakeCompletedListener, DataAvailableListe
 
         // init TLS Client
 
-        // get array of TrustManagers, that contains only one instance of X509ExtendedTrustManager, which enables
-        // hostVerification and algorithm constraints
-        TrustManager[] myTrustManager = PreConfiguration.getX509ExtTrustManager(
-                clientSettings.getTrustStorePath(),
-                clientSettings.getTrustStorePassword()
-        );
-
-        // get array of KeyManagers, that contains only one instance of X509ExtendedKeyManager, which enables
-        // connection specific key selection via key alias
-        KeyManager[] myKeyManager = PreConfiguration.getX509ExtKeyManager(
-                clientSettings.getKeyPassword(),
-                clientSettings.getKeyStorePath(),
-                clientSettings.getKeyStorePassword(),
-                clientSettings.getCertificateAlias(),
-                clientSettings.getKeyStoreKeyType()
-        );
-
-        SSLContext sslContext = SSLContext.getInstance(TLSConstants.TLS_INSTANCE);
-        sslContext.init(myKeyManager, myTrustManager, null);
+        // the TLS context is shared by all connections with the same key store, such that reconnects
+        // to a peer resume the TLS session
+        SSLContext sslContext = TLSContextCache.getSslContext(clientSettings);
 
         SSLSocketFactory socketFactory = sslContext.getSocketFactory();
 
@@ -106,10 +91,12 @@ public class TLSClient implements HandshakeCompletedListener, DataAvailableListe
             //set clientSocket timeout to allow safeStop()
             clientSocket.setSoTimeout(5000);
 
-            out = new DataOutputStream(clientSocket.getOutputStream());
+            out = new CoalescingFrameWriter(clientSocket.getOutputStream(),
+                    clientSettings.getWriteCoalescingDelay(), clientSettings.getWriteCoalescingMaxBytes());
 
             // Add inputListener but start it not before handshake is complete
-            inputListenerThread = new InputListenerThread(clientSocket.getInputStream());
+            inputListenerThread = new InputListenerThread(clientSocket.getInputStream(),
+                    clientSettings.getMaxFrameSize());
             inputListenerThread.register(this);
 
             sslSocket.addHandshakeCompletedListener(this);
@@ -134,6 +121,14 @@ public class TLSClient implements HandshakeCompletedListener, DataAvailableListe
         }
 
         if (clientSocket != null && !clientSocket.isClosed()) {
+            // write pending frames, e.g. IDSCP_CLOSE, before the socket is closed
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOG.warn("Cannot write pending frames before disconnecting", e);
+                }
+            }
             try {
                 clientSocket.close();
             } catch (IOException e) {
@@ -164,9 +159,7 @@ public class TLSClient implements HandshakeCompletedListener, DataAvailableListe
             return false;
         } else {
             try {
-                out.writeInt(data.length);
                 out.write(data);
-                out.flush();
                 LOG.debug("Send message");
                 return true;
             } catch (IOException e) {
@@ -180,6 +173,11 @@ public class TLSClient implements HandshakeCompletedListener, DataAvailableListe
         return clientSocket != null && clientSocket.isConnected();
     }
 
+    @Override
+    public X509Certificate getPeerCertificate() {
+        return TLSSessionVerificationHelper.getPeerCertificate(((SSLSocket) clientSocket).getSession());
+    }
+
     @Override
     public void handshakeCompleted(HandshakeCompletedEvent handshakeCompletedEvent) {
         //start receiving listener after TLS Handshake was successful
@@ -0,0 +1,127 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio;
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSContextCache;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureChannelDriver;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureServer;
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.idscp_server.ServerConnectionListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An implementation of SecureChannelDriver interface on TLSv1.3 that uses non-blocking socket
+ * channels and SSLEngines instead of blocking SSLSockets.
+ * <p>
+ * All connections share the threads of a SelectorLoopGroup, such that the number of threads stays
+ * constant with an increasing number of IDSCP2 peers.
+ */
+public class NioTLSDriver implements SecureChannelDriver {
+    private static final Logger LOG = LoggerFactory.getLogger(NioTLSDriver.class);
+
+    private final SelectorLoopGroup loopGroup;
+
+    public NioTLSDriver() {
+        this(SelectorLoopGroup.getDefault());
+    }
+
+    public NioTLSDriver(SelectorLoopGroup loopGroup) {
+        this.loopGroup = loopGroup;
+    }
+
+    /**
+     * Performs an asynchronous client connect to a TLS server.
+     */
+    @Override
+    public void connect(Idscp2Settings settings,
+                        DapsDriver dapsDriver,
+                        CompletableFuture<Idscp2Connection> connectionFuture) {
+        connectSecureChannel(settings).thenAccept(secureChannel -> {
+            final var connection = new Idscp2Connection(secureChannel, settings, dapsDriver);
+            // Try to complete, won't do anything if promise has been cancelled
+            connectionFuture.complete(connection);
+            if (connectionFuture.isCancelled()) {
+                connection.close();
+            }
+        }).exceptionally(t -> {
+            connectionFuture.completeExceptionally(new Idscp2Exception("Call to connect() has failed", t));
+            return null;
+        });
+    }
+
+    /**
+     * Establishes a TLS connection to the server given by the settings.
+     *
+     * @return A future for the secure channel, completed after the TLS session has been verified
+     */
+    public CompletableFuture<SecureChannel> connectSecureChannel(Idscp2Settings settings) {
+        SocketChannel channel = null;
+        try {
+            SSLEngine engine = TLSContextCache.getSslContext(settings)
+                    .createSSLEngine(settings.getHost(), settings.getServerPort());
+            configureEngine(engine, true);
+
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(new InetSocketAddress(settings.getHost(), settings.getServerPort()));
+
+            NioTLSEndpoint endpoint = new NioTLSEndpoint(channel, engine, loopGroup.next(),
+                    loopGroup.getDispatcher(), settings.getMaxFrameSize());
+            endpoint.start();
+            LOG.debug("Connecting NIO TLS client to {}:{}", settings.getHost(), settings.getServerPort());
+            return endpoint.getSecureChannelFuture();
+        } catch (IOException | NoSuchAlgorithmException | KeyManagementException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                }
+            }
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Creates and starts a new NIO TLS Server instance.
+     *
+     * @return The SecureServer instance
+     * @throws Idscp2Exception If any error occurred during server creation/start
+     */
+    @Override
+    public SecureServer listen(Idscp2Settings settings, SecureChannelInitListener channelInitListener,
+                               CompletableFuture<ServerConnectionListener> serverListenerPromise) {
+        try {
+            return new NioTLSServer(settings, TLSContextCache.getSslContext(settings), loopGroup, channelInitListener,
+                    serverListenerPromise);
+        } catch (IOException | NoSuchAlgorithmException | KeyManagementException e) {
+            throw new Idscp2Exception("Error while trying to to start SecureServer", e);
+        }
+    }
+
+    /*
+     * Apply the same TLS constraints as the blocking TLS client and server
+     */
+    static void configureEngine(SSLEngine engine, boolean clientMode) {
+        engine.setUseClientMode(clientMode);
+        SSLParameters sslParameters = engine.getSSLParameters();
+        sslParameters.setUseCipherSuitesOrder(!clientMode);  // server determines priority-order
+        sslParameters.setNeedClientAuth(true);  // client must authenticate
+        sslParameters.setProtocols(TLSConstants.TLS_ENABLED_PROTOCOLS);  // only TLSv1.3
+        sslParameters.setCipherSuites(TLSConstants.TLS_ENABLED_CIPHERS);  // only allow strong cipher
+        engine.setSSLParameters(sslParameters);
+    }
+}
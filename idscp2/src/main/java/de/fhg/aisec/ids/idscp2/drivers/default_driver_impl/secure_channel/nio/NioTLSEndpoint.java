@@ -0,0 +1,495 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio;
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSSessionVerificationHelper;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A non-blocking TLS endpoint on top of an SSLEngine and a SocketChannel, which is driven by a
+ * SelectorLoop instead of a dedicated reader thread.
+ * <p>
+ * Messages are framed like in the blocking TLS implementation (4 byte length, followed by the
+ * payload). Receive buffers are only held while partial records or frames are pending, encrypted
+ * output is queued and flushed with gathering writes whenever the socket is writable.
+ */
+public class NioTLSEndpoint implements SecureChannelEndpoint, SelectorLoop.Handler {
+    private static final Logger LOG = LoggerFactory.getLogger(NioTLSEndpoint.class);
+
+    // Number of queued encrypted bytes from which on send() waits for the loop to drain the queue
+    private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+    private static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+    private static final ThreadLocal<ByteBuffer> WRAP_SCRATCH =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+
+    private enum ConnectionState {
+        CONNECTING,
+        HANDSHAKING,
+        ESTABLISHED,
+        CLOSED
+    }
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final SelectorLoop loop;
+    private final SerialExecutor dispatcher;
+    private final int maxFrameSize;
+    private final CompletableFuture<SecureChannel> secureChannelFuture = new CompletableFuture<>();
+    private volatile ConnectionState state = ConnectionState.CONNECTING;
+    private volatile SelectionKey key;
+    private SecureChannel secureChannel;
+
+    // Receive buffers, only accessed by the loop thread and null while no partial data is pending
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+
+    // Send state, guarded by writeLock
+    private final Object writeLock = new Object();
+    private final ArrayDeque<ByteBuffer> outQueue = new ArrayDeque<>();
+    private long pendingBytes = 0;
+    private boolean writeInterest = false;
+
+    NioTLSEndpoint(SocketChannel channel, SSLEngine engine, SelectorLoop loop, Executor dispatcher,
+                   int maxFrameSize) {
+        this.channel = channel;
+        this.engine = engine;
+        this.loop = loop;
+        this.dispatcher = new SerialExecutor(dispatcher);
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /*
+     * Register the endpoint at its selector loop. The TLS handshake is started as soon as the
+     * underlying TCP connection is established.
+     */
+    void start() {
+        loop.register(channel, 0, this);
+    }
+
+    /*
+     * Future that is completed with the secure channel after a successful and verified TLS
+     * handshake, or completed exceptionally if the handshake fails.
+     *
+     * The future is completed on the dispatcher of this connection before any message is passed
+     * to the secure channel, so dependent actions can safely register the upper layers.
+     */
+    CompletableFuture<SecureChannel> getSecureChannelFuture() {
+        return secureChannelFuture;
+    }
+
+    @Override
+    public void onRegistered(SelectionKey key) throws IOException {
+        this.key = key;
+        if (channel.isConnectionPending()) {
+            key.interestOps(SelectionKey.OP_CONNECT);
+        } else {
+            beginHandshake();
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        if (key.isConnectable()) {
+            if (channel.finishConnect()) {
+                beginHandshake();
+            }
+            return;
+        }
+        if (key.isValid() && key.isWritable()) {
+            synchronized (writeLock) {
+                flushLocked();
+            }
+        }
+        if (key.isValid() && key.isReadable()) {
+            onReadable();
+        }
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+        fail(t);
+    }
+
+    private void beginHandshake() throws IOException {
+        state = ConnectionState.HANDSHAKING;
+        key.interestOps(SelectionKey.OP_READ);
+        engine.beginHandshake();
+        handleHandshakeStatus(engine.getHandshakeStatus());
+    }
+
+    /*
+     * Process handshake tasks and outgoing handshake messages until the engine needs input from
+     * the peer or the handshake is finished
+     */
+    private void handleHandshakeStatus(HandshakeStatus hs) throws IOException {
+        while (state != ConnectionState.CLOSED) {
+            switch (hs) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    hs = engine.getHandshakeStatus();
+                    break;
+                case NEED_WRAP:
+                    synchronized (writeLock) {
+                        hs = wrapLocked(EMPTY);
+                        flushLocked();
+                    }
+                    break;
+                case FINISHED:
+                    onHandshakeFinished();
+                    return;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void onHandshakeFinished() {
+        if (state != ConnectionState.HANDSHAKING) {
+            return;
+        }
+        // verify tls session on application layer: hostname verification, certificate validity
+        try {
+            TLSSessionVerificationHelper.verifyTlsSession(engine.getSession());
+            LOG.debug("TLS session is valid");
+        } catch (SSLPeerUnverifiedException e) {
+            LOG.warn("TLS session is not valid. Close TLS connection", e);
+            fail(e);
+            return;
+        }
+        state = ConnectionState.ESTABLISHED;
+        secureChannel = new SecureChannel(this);
+        final SecureChannel channel = secureChannel;
+        dispatcher.execute(() -> secureChannelFuture.complete(channel));
+    }
+
+    private void onReadable() throws IOException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        ByteBuffer in = netIn != null ? netIn : loop.netScratch(packetSize);
+        if (channel.read(in) < 0) {
+            onEof();
+            return;
+        }
+        in.flip();
+        try {
+            unwrapAll(in);
+        } finally {
+            // keep incomplete TLS records until the next read
+            if (state != ConnectionState.CLOSED && in.hasRemaining()) {
+                if (in == netIn) {
+                    netIn.compact();
+                    if (!netIn.hasRemaining()) {
+                        netIn = enlarge(netIn, packetSize);
+                    }
+                } else {
+                    netIn = ByteBuffer.allocate(Math.max(packetSize, in.remaining() + packetSize));
+                    netIn.put(in);
+                }
+            } else {
+                netIn = null;
+            }
+        }
+    }
+
+    private void unwrapAll(ByteBuffer in) throws IOException {
+        int room = engine.getSession().getApplicationBufferSize();
+        while (state != ConnectionState.CLOSED) {
+            ByteBuffer out = appBuffer(room);
+            SSLEngineResult result = engine.unwrap(in, out);
+            boolean progress = result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            extractFrames(out);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    room *= 2;
+                    continue;
+                case BUFFER_UNDERFLOW:
+                    return;
+                case CLOSED:
+                    onEof();
+                    return;
+                default:
+                    break;
+            }
+            HandshakeStatus hs = result.getHandshakeStatus();
+            if (hs == HandshakeStatus.NEED_TASK || hs == HandshakeStatus.NEED_WRAP
+                    || hs == HandshakeStatus.FINISHED) {
+                handleHandshakeStatus(hs);
+                progress = true;
+            }
+            if (!in.hasRemaining() || !progress) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Get a buffer for decrypted data with at least the given free space. The shared scratch
+     * buffer of the loop is used, unless there is already a partial frame pending.
+     */
+    private ByteBuffer appBuffer(int room) {
+        if (appIn == null) {
+            return loop.appScratch(room);
+        }
+        if (appIn.remaining() < room) {
+            appIn = enlarge(appIn, room);
+        }
+        return appIn;
+    }
+
+    /*
+     * Dispatch all complete frames from the given buffer and retain a partial frame, if any
+     */
+    private void extractFrames(ByteBuffer out) throws IOException {
+        out.flip();
+        int needed = 0;
+        while (out.remaining() >= 4) {
+            int len = out.getInt(out.position());
+            if (len < 0 || len > maxFrameSize) {
+                // checked before the buffer for the partial frame is allocated
+                throw new IOException("Received frame size " + len + " exceeds the maximum frame size of "
+                        + maxFrameSize + " bytes");
+            }
+            if (out.remaining() - 4 < len) {
+                needed = 4 + len;
+                break;
+            }
+            out.position(out.position() + 4);
+            byte[] frame = new byte[len];
+            out.get(frame);
+            dispatcher.execute(() -> onMessage(frame));
+        }
+
+        if (!out.hasRemaining()) {
+            appIn = null;
+        } else if (out == appIn) {
+            appIn.compact();
+            if (appIn.capacity() < needed) {
+                appIn = enlarge(appIn, needed - appIn.position());
+            }
+        } else {
+            ByteBuffer retained = ByteBuffer.allocate(Math.max(needed, out.remaining())
+                    + engine.getSession().getApplicationBufferSize());
+            retained.put(out);
+            appIn = retained;
+        }
+    }
+
+    /*
+     * Copy a buffer in write mode into a new buffer with the given additional free space
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int room) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.position() + room);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /*
+     * Encrypt the given data into TLS records and append them to the output queue
+     */
+    private HandshakeStatus wrapLocked(ByteBuffer[] srcs) throws SSLException {
+        ByteBuffer scratch = WRAP_SCRATCH.get();
+        int packetSize = engine.getSession().getPacketBufferSize();
+        while (true) {
+            if (scratch.capacity() < packetSize) {
+                scratch = ByteBuffer.allocate(packetSize);
+                WRAP_SCRATCH.set(scratch);
+            }
+            scratch.clear();
+            SSLEngineResult result = engine.wrap(srcs, scratch);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                packetSize = scratch.capacity() * 2;
+                continue;
+            }
+            scratch.flip();
+            if (scratch.hasRemaining()) {
+                ByteBuffer record = ByteBuffer.allocate(scratch.remaining());
+                record.put(scratch).flip();
+                outQueue.add(record);
+                pendingBytes += record.remaining();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED || !hasRemaining(srcs)) {
+                return result.getHandshakeStatus();
+            }
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Write as much of the output queue as the socket accepts without blocking, the rest is
+     * written by the loop when the socket becomes writable again
+     */
+    private void flushLocked() throws IOException {
+        if (!outQueue.isEmpty()) {
+            long written = channel.write(outQueue.toArray(new ByteBuffer[0]));
+            pendingBytes -= written;
+            while (!outQueue.isEmpty() && !outQueue.peek().hasRemaining()) {
+                outQueue.poll();
+            }
+        }
+        setWriteInterest(!outQueue.isEmpty());
+        writeLock.notifyAll();
+    }
+
+    private void setWriteInterest(boolean enabled) {
+        final SelectionKey k = key;
+        if (k == null || writeInterest == enabled) {
+            return;
+        }
+        writeInterest = enabled;
+        final int ops = enabled ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        loop.execute(() -> {
+            if (k.isValid()) {
+                k.interestOps(ops);
+            }
+        });
+    }
+
+    @Override
+    public boolean send(byte[] data) {
+        if (!isConnected()) {
+            LOG.error("Cannot send data because NIO TLS channel is not connected");
+            return false;
+        }
+        ByteBuffer[] frame = {ByteBuffer.allocate(4).putInt(0, data.length), ByteBuffer.wrap(data)};
+        try {
+            synchronized (writeLock) {
+                // apply backpressure to the sender, but never block the loop thread itself
+                while (pendingBytes > MAX_PENDING_BYTES && state == ConnectionState.ESTABLISHED
+                        && !loop.inLoop()) {
+                    try {
+                        writeLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (state != ConnectionState.ESTABLISHED) {
+                    return false;
+                }
+                wrapLocked(frame);
+                flushLocked();
+            }
+            LOG.trace("Sent message via NIO TLS channel");
+            return true;
+        } catch (IOException e) {
+            LOG.error("NIO TLS channel could not send data", e);
+            closeChannel();
+            return false;
+        }
+    }
+
+    @Override
+    public void onMessage(byte[] bytes) {
+        try {
+            secureChannel.onMessage(bytes);
+        } catch (Exception e) {
+            LOG.error("Error whilst passing message to secure channel", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (state == ConnectionState.CLOSED) {
+            return;
+        }
+        synchronized (writeLock) {
+            engine.closeOutbound();
+            try {
+                wrapLocked(EMPTY);
+                flushLocked();
+            } catch (IOException ignore) {
+                // close_notify is sent on a best effort basis
+            }
+        }
+        if (closeChannel()) {
+            // no-op if the handshake has already been completed before
+            dispatcher.execute(() -> secureChannelFuture.completeExceptionally(
+                    new SSLException("TLS channel has been closed during handshake")));
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return state == ConnectionState.ESTABLISHED && channel.isOpen();
+    }
+
+    @Override
+    public X509Certificate getPeerCertificate() {
+        return TLSSessionVerificationHelper.getPeerCertificate(engine.getSession());
+    }
+
+    private void onEof() {
+        if (state == ConnectionState.ESTABLISHED) {
+            if (closeChannel()) {
+                final SecureChannel channel = secureChannel;
+                dispatcher.execute(channel::onClose);
+            }
+        } else {
+            fail(new SSLException("Connection closed by peer during TLS handshake"));
+        }
+    }
+
+    private void fail(Throwable t) {
+        final boolean established = state == ConnectionState.ESTABLISHED;
+        if (!closeChannel()) {
+            return;
+        }
+        if (established) {
+            final SecureChannel channel = secureChannel;
+            dispatcher.execute(() -> channel.onError(t));
+        } else {
+            dispatcher.execute(() -> secureChannelFuture.completeExceptionally(t));
+        }
+    }
+
+    /*
+     * Close the socket channel, which also cancels its selection key
+     *
+     * return false if the endpoint has already been closed before
+     */
+    private boolean closeChannel() {
+        synchronized (this) {
+            if (state == ConnectionState.CLOSED) {
+                return false;
+            }
+            state = ConnectionState.CLOSED;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Cannot close NIO TLS channel", e);
+        }
+        synchronized (writeLock) {
+            outQueue.clear();
+            pendingBytes = 0;
+            writeLock.notifyAll();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio;
+
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureServer;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.idscp_server.ServerConnectionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A non-blocking TLS server that accepts connections on one selector loop of a SelectorLoopGroup
+ * and distributes the accepted connections over all loops of the group
+ */
+public class NioTLSServer implements SecureServer, SelectorLoop.Handler {
+    private static final Logger LOG = LoggerFactory.getLogger(NioTLSServer.class);
+
+    private volatile boolean isRunning = false;
+    private final ServerSocketChannel serverChannel;
+    private final SSLContext sslContext;
+    private final int maxFrameSize;
+    private final SelectorLoopGroup loopGroup;
+    private final SelectorLoop acceptLoop;
+    private final SecureChannelInitListener secureChannelInitListener;
+    private final CompletableFuture<ServerConnectionListener> serverListenerPromise;
+
+    public NioTLSServer(Idscp2Settings serverSettings, SSLContext sslContext, SelectorLoopGroup loopGroup,
+                        SecureChannelInitListener secureChannelInitListener,
+                        CompletableFuture<ServerConnectionListener> serverListenerPromise) throws IOException {
+        this.sslContext = sslContext;
+        this.maxFrameSize = serverSettings.getMaxFrameSize();
+        this.loopGroup = loopGroup;
+        this.secureChannelInitListener = secureChannelInitListener;
+        this.serverListenerPromise = serverListenerPromise;
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(serverSettings.getServerPort()), 1024);
+        serverChannel.configureBlocking(false);
+
+        LOG.debug("Starting NIO TLS server...");
+        isRunning = true;
+        acceptLoop = loopGroup.next();
+        acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT, this);
+    }
+
+    @Override
+    public void onRegistered(SelectionKey key) {
+        LOG.debug("NIO TLS server started, accepting connections on {}", serverChannel.socket().getLocalSocketAddress());
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                LOG.debug("New TLS client has connected. Creating new NIO TLS endpoint...");
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+                SSLEngine engine = sslContext.createSSLEngine(remote.getAddress().getHostAddress(), remote.getPort());
+                NioTLSDriver.configureEngine(engine, false);
+
+                NioTLSEndpoint endpoint = new NioTLSEndpoint(channel, engine, loopGroup.next(),
+                        loopGroup.getDispatcher(), maxFrameSize);
+                endpoint.getSecureChannelFuture()
+                        .thenAccept(secureChannel ->
+                                secureChannelInitListener.onSecureChannel(secureChannel, serverListenerPromise))
+                        .exceptionally(t -> {
+                            LOG.warn("TLS handshake with {} failed", remote, t);
+                            return null;
+                        });
+                endpoint.start();
+            } catch (Exception e) {
+                LOG.error("Error whilst creating NIO TLS endpoint", e);
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+        LOG.error("Error during NIO TLS server accept, notifying error handlers...");
+        secureChannelInitListener.onError(t);
+        safeStop();
+    }
+
+    @Override
+    public void safeStop() {
+        LOG.debug("Stopping NIO TLS server");
+        isRunning = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close NIO TLS server channel", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return isRunning;
+    }
+}
@@ -0,0 +1,167 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread that multiplexes the I/O of many non-blocking channels.
+ * <p>
+ * All channel registrations and interest changes are executed on the loop thread, other threads
+ * hand them over via execute(). Since reads only ever happen on the loop thread, the loop provides
+ * scratch buffers that are shared by all channels of the loop, such that idle connections do not
+ * have to keep their own receive buffers.
+ */
+public class SelectorLoop implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorLoop.class);
+
+    /*
+     * Callback interface for channels registered at the loop
+     */
+    interface Handler {
+        void onRegistered(SelectionKey key) throws IOException;
+
+        void onReady(SelectionKey key) throws IOException;
+
+        void onFailure(Throwable t);
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private ByteBuffer netScratch = ByteBuffer.allocate(0);
+    private ByteBuffer appScratch = ByteBuffer.allocate(0);
+
+    SelectorLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Handler handler = (Handler) key.attachment();
+                    try {
+                        if (key.isValid()) {
+                            handler.onReady(key);
+                        }
+                    } catch (Throwable t) {
+                        handler.onFailure(t);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                running = false;
+            } catch (Throwable t) {
+                LOG.error("Unexpected error in selector loop {}", thread.getName(), t);
+            }
+        }
+        closeSelector();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.error("Task in selector loop {} failed", thread.getName(), t);
+            }
+        }
+    }
+
+    private void closeSelector() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ignore) {
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("Cannot close selector of loop {}", thread.getName(), e);
+        }
+    }
+
+    /*
+     * Run a task on the loop thread. Tasks submitted from the loop thread itself are run directly.
+     */
+    void execute(Runnable task) {
+        if (inLoop()) {
+            task.run();
+        } else {
+            tasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    /*
+     * Register a channel with the given interest set at this loop
+     */
+    void register(SelectableChannel channel, int ops, Handler handler) {
+        execute(() -> {
+            try {
+                handler.onRegistered(channel.register(selector, ops, handler));
+            } catch (Exception e) {
+                handler.onFailure(e);
+            }
+        });
+    }
+
+    /*
+     * Check if the current thread is the loop thread
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /*
+     * Shared receive buffer for encrypted records, must only be used from the loop thread
+     */
+    ByteBuffer netScratch(int capacity) {
+        if (netScratch.capacity() < capacity) {
+            netScratch = ByteBuffer.allocate(capacity);
+        }
+        netScratch.clear();
+        return netScratch;
+    }
+
+    /*
+     * Shared receive buffer for decrypted data, must only be used from the loop thread
+     */
+    ByteBuffer appScratch(int capacity) {
+        if (appScratch.capacity() < capacity) {
+            appScratch = ByteBuffer.allocate(capacity);
+        }
+        appScratch.clear();
+        return appScratch;
+    }
+
+    /*
+     * Stop the loop and close all channels registered at it
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
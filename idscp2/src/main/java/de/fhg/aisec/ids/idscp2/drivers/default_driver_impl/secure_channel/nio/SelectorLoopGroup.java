@@ -0,0 +1,88 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio;
+
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed group of selector loops and message dispatcher threads that is shared by all connections
+ * of the NioTLSDriver, such that the number of threads does not depend on the number of
+ * connections.
+ * <p>
+ * Selector loops only perform non-blocking I/O and TLS processing, received messages are passed to
+ * the upper layers on the dispatcher threads, since FSM and message listeners may block.
+ */
+public class SelectorLoopGroup {
+    private static SelectorLoopGroup defaultGroup;
+
+    private final SelectorLoop[] loops;
+    private final ExecutorService dispatcher;
+    private final int dispatcherThreads;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public SelectorLoopGroup(int selectorThreads, int dispatcherThreads) {
+        if (selectorThreads < 1 || dispatcherThreads < 1) {
+            throw new IllegalArgumentException("SelectorLoopGroup requires at least one thread of each kind");
+        }
+        loops = new SelectorLoop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            try {
+                loops[i] = new SelectorLoop("IDSCP2 NIO Selector " + i);
+            } catch (IOException e) {
+                for (int j = 0; j < i; j++) {
+                    loops[j].shutdown();
+                }
+                throw new Idscp2Exception("Cannot open selector for NIO secure channel", e);
+            }
+        }
+        this.dispatcherThreads = dispatcherThreads;
+        AtomicInteger dispatcherCount = new AtomicInteger();
+        dispatcher = Executors.newFixedThreadPool(dispatcherThreads, r -> {
+            Thread t = new Thread(r, "IDSCP2 NIO Dispatcher " + dispatcherCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /*
+     * Get the process-wide default group, sized by the number of available processors
+     */
+    public static synchronized SelectorLoopGroup getDefault() {
+        if (defaultGroup == null) {
+            int cpus = Runtime.getRuntime().availableProcessors();
+            defaultGroup = new SelectorLoopGroup(Math.max(1, cpus / 2), Math.max(4, cpus * 2));
+        }
+        return defaultGroup;
+    }
+
+    /*
+     * Select the next loop in round-robin order for a new channel
+     */
+    SelectorLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    ExecutorService getDispatcher() {
+        return dispatcher;
+    }
+
+    /*
+     * Number of threads owned by this group
+     */
+    public int getThreadCount() {
+        return loops.length + dispatcherThreads;
+    }
+
+    /*
+     * Stop all selector loops and dispatcher threads, which closes all channels of this group
+     */
+    public void shutdown() {
+        for (SelectorLoop loop : loops) {
+            loop.shutdown();
+        }
+        dispatcher.shutdown();
+    }
+}
@@ -1,7 +1,7 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.server;
 
-import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration;
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSContextCache;
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureServer;
 import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
 import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener;
@@ -32,38 +32,20 @@ public class TLSServer implements Runnable, SecureServer {
     private final SecureChannelInitListener secureChannelInitListener;
     private final CompletableFuture<ServerConnectionListener> serverListenerPromise;
     private final Thread serverThread;
+    private final Idscp2Settings serverSettings;
 
     public TLSServer(Idscp2Settings serverSettings, SecureChannelInitListener secureChannelInitListener,
                      CompletableFuture<ServerConnectionListener> serverListenerPromise)
             throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        this.serverSettings = serverSettings;
         this.secureChannelInitListener = secureChannelInitListener;
         this.serverListenerPromise = serverListenerPromise;
 
         /* init server for TCP/TLS communication */
 
-        // Get array of TrustManagers, that contains only one instance of X509ExtendedTrustManager,
-        // which enables host verification and algorithm constraints
-        LOG.debug("Creating trust manager for TLS server...");
-        TrustManager[] myTrustManager = PreConfiguration.getX509ExtTrustManager(
-                serverSettings.getTrustStorePath(),
-                serverSettings.getTrustStorePassword()
-        );
-
-        // Get array of KeyManagers, that contains only one instance of X509ExtendedKeyManager,
-        // which enables connection specific key selection via key alias
-        LOG.debug("Creating key manager for TLS server...");
-        KeyManager[] myKeyManager = PreConfiguration.getX509ExtKeyManager(
-                serverSettings.getKeyPassword(),
-                serverSettings.getKeyStorePath(),
-                serverSettings.getKeyStorePassword(),
-                serverSettings.getCertificateAlias(),
-                serverSettings.getKeyStoreKeyType()
-        );
-
         LOG.debug("Setting TLS security attributes and creating TLS server socket...");
-        // Create TLS context based on keyManager and trustManager
-        SSLContext sslContext = SSLContext.getInstance(TLSConstants.TLS_INSTANCE);
-        sslContext.init(myKeyManager, myTrustManager, null);
+        // Get the shared TLS context, its session cache allows clients to resume their TLS sessions
+        SSLContext sslContext = TLSContextCache.getSslContext(serverSettings);
         SSLServerSocketFactory socketFactory = sslContext.getServerSocketFactory();
 
         serverSocket = socketFactory.createServerSocket(serverSettings.getServerPort());
@@ -102,7 +84,8 @@ public class TLSServer implements Runnable, SecureServer {
                 try {
                     // Start new server thread
                     LOG.debug("New TLS client has connected. Creating new server thread...");
-                    final var serverThread = new TLSServerThread(sslSocket, secureChannelInitListener, serverListenerPromise);
+                    final var serverThread = new TLSServerThread(sslSocket, serverSettings,
+                            secureChannelInitListener, serverListenerPromise);
                     sslSocket.addHandshakeCompletedListener(serverThread);
                     serverThread.start();
                 } catch (Exception serverThreadException) {
@@ -1,7 +1,10 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.server;
 
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.CoalescingFrameWriter;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.FrameReader;
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSSessionVerificationHelper;
 import de.fhg.aisec.ids.idscp2.idscp_core.FastLatch;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
 import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener;
 import de.fhg.aisec.ids.idscp2.idscp_core.idscp_server.ServerConnectionListener;
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
@@ -16,6 +19,7 @@ import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSocket;
 import java.io.*;
 import java.net.SocketTimeoutException;
+import java.security.cert.X509Certificate;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -30,23 +34,24 @@ public class TLSServerThread extends Thread implements HandshakeCompletedListene
     private static final Logger LOG = LoggerFactory.getLogger(TLSServerThread.class);
 
     private volatile boolean running = true;
-    private final DataInputStream in;
-    private final DataOutputStream out;
+    private final FrameReader in;
+    private final CoalescingFrameWriter out;
     private final SSLSocket sslSocket;
     private final SecureChannelInitListener configCallback;
     private final CompletableFuture<ServerConnectionListener> serverListenerPromise;
     private final CompletableFuture<SecureChannelListener> channelListenerPromise = new CompletableFuture<>();
     private final FastLatch tlsVerificationLatch = new FastLatch();
 
-    TLSServerThread(SSLSocket sslSocket, SecureChannelInitListener configCallback,
+    TLSServerThread(SSLSocket sslSocket, Idscp2Settings serverSettings, SecureChannelInitListener configCallback,
                     CompletableFuture<ServerConnectionListener> serverListenerPromise) throws IOException {
         this.sslSocket = sslSocket;
         this.configCallback = configCallback;
         this.serverListenerPromise = serverListenerPromise;
         // Set timeout for blocking read
         sslSocket.setSoTimeout(5000);
-        in = new DataInputStream(sslSocket.getInputStream());
-        out = new DataOutputStream(sslSocket.getOutputStream());
+        in = new FrameReader(sslSocket.getInputStream(), serverSettings.getMaxFrameSize());
+        out = new CoalescingFrameWriter(sslSocket.getOutputStream(),
+                serverSettings.getWriteCoalescingDelay(), serverSettings.getWriteCoalescingMaxBytes());
     }
 
     @Override
@@ -64,14 +69,10 @@ public class TLSServerThread extends Thread implements HandshakeCompletedListene
             running = false;
         }
 
-        //wait for new data while running
-        byte[] buf;
+        //wait for new data while running, a frame that exceeds the maximum frame size results in an error
         while (running) {
             try {
-                int len = in.readInt();
-                buf = new byte[len];
-                in.readFully(buf, 0, len);
-                onMessage(buf);
+                onMessage(in.readFrame());
             } catch (SocketTimeoutException ignore) {
                 // Timeout catches safeStop() call and allows to send server_goodbye
             } catch (EOFException e) {
@@ -102,9 +103,7 @@ public class TLSServerThread extends Thread implements HandshakeCompletedListene
             return false;
         } else {
             try {
-                out.writeInt(data.length);
                 out.write(data);
-                out.flush();
                 LOG.trace("Sent message: " + new String(data));
                 return true;
             } catch (IOException e) {
@@ -141,6 +140,11 @@ public class TLSServerThread extends Thread implements HandshakeCompletedListene
         return (sslSocket != null && sslSocket.isConnected());
     }
 
+    @Override
+    public X509Certificate getPeerCertificate() {
+        return TLSSessionVerificationHelper.getPeerCertificate(sslSocket.getSession());
+    }
+
     @Override
     public void handshakeCompleted(HandshakeCompletedEvent handshakeCompletedEvent) {
         if (LOG.isDebugEnabled()) {
@@ -0,0 +1,70 @@
+package de.fhg.aisec.ids.idscp2.drivers.interfaces;
+
+import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.FsmListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatDriverHandle;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * An abstract RatDriver class, the common base of the RatProverDriver and the RatVerifierDriver
+ * <p>
+ * A RAT driver does not own a thread. It is started and receives the messages of the peer as tasks
+ * on the shared RAT driver executor, where the tasks of one driver are executed one at a time.
+ * Drivers must therefore not block while waiting for the peer, but continue the protocol in
+ * delegate() or in a task that is scheduled via schedule(). Blocking I/O, e.g. a request to
+ * tpm2d, must be run via executeBlocking().
+ */
+public abstract class RatDriver {
+    protected volatile boolean running = true;
+    protected FsmListener fsmListener;
+    private RatDriverHandle handle;
+
+    /*
+     * Start the RAT driver, called once as the first task of the driver
+     */
+    public void start() {
+    }
+
+    /*
+     * Delegate an IDSCP2 message to the RAT driver
+     */
+    public void delegate(byte[] message) {
+    }
+
+    /*
+     * Terminate and cancel the RAT driver, pending tasks of the driver are not executed anymore
+     */
+    public void terminate() {
+        running = false;
+    }
+
+    public void setListener(FsmListener listener) {
+        fsmListener = listener;
+    }
+
+    public abstract void setConfig(Object config);
+
+    /*
+     * Set by the RAT driver registry when the driver is started
+     */
+    public void setHandle(RatDriverHandle handle) {
+        this.handle = handle;
+    }
+
+    /*
+     * Execute a task of this driver after the given delay, instead of sleeping in the driver
+     */
+    protected void schedule(Runnable task, long delay, TimeUnit unit) {
+        handle.schedule(task, delay, unit);
+    }
+
+    /*
+     * Run a blocking call outside of the shared RAT driver executor, the callback receives its
+     * result or its exception as a task of this driver
+     */
+    protected <T> void executeBlocking(Callable<T> call, BiConsumer<T, Exception> callback) {
+        handle.executeBlocking(call, callback);
+    }
+}
@@ -1,5 +1,7 @@
 package de.fhg.aisec.ids.idscp2.idscp_core;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
 import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
 import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.FSM;
@@ -8,6 +10,7 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
@@ -27,6 +30,7 @@ public class Idscp2Connection {
     private final Set<Idscp2MessageListener> genericMessageListeners = Collections.synchronizedSet(new HashSet<>());
     private final Map<String, Set<Idscp2MessageListener>> messageListeners = new HashMap<>();
     private final FastLatch messageLatch = new FastLatch();
+    private final Idscp2SendQueue sendQueue;
 
     public Idscp2Connection(SecureChannel secureChannel, Idscp2Settings settings, DapsDriver dapsDriver) {
         this.connectionId = UUID.randomUUID().toString();
@@ -36,7 +40,11 @@ public class Idscp2Connection {
                 dapsDriver,
                 settings.getSupportedAttestation().getRatMechanisms(),
                 settings.getExpectedAttestation().getRatMechanisms(),
-                settings.getRatTimeoutDelay());
+                settings.getRatTimeoutDelay(),
+                settings.getMaxCacheEntries(),
+                settings.getMaxTotalCacheSize(),
+                Math.min(settings.getRatResultCacheMaxAge(), settings.getRatTimeoutDelay()));
+        sendQueue = new Idscp2SendQueue(fsm::send, settings.getSendQueueHighWaterMark());
         secureChannel.setFsm(fsm);
         if (LOG.isDebugEnabled()) {
             LOG.debug("A new IDSCP2 connection with id {} was created, starting handshake...", connectionId);
@@ -67,11 +75,57 @@ public class Idscp2Connection {
      * Send data to the peer IDSCP2 connector
      */
     public void send(String type, byte[] msg) {
+        send(type, UnsafeByteOperations.unsafeWrap(msg));
+    }
+
+    /**
+     * Send data to the peer IDSCP2 connector without copying the payload.
+     * The remaining bytes of the buffer must not be modified until this method returns.
+     */
+    public void send(String type, ByteBuffer msg) {
+        send(type, UnsafeByteOperations.unsafeWrap(msg));
+    }
+
+    /**
+     * Send data to the peer IDSCP2 connector without copying the payload
+     */
+    public void send(String type, ByteString msg) {
         LOG.debug("Send data of type \"" + type + "\" via connection {}", connectionId);
         fsm.send(type, msg);
     }
 
+    /**
+     * Queue data for sending to the peer IDSCP2 connector without blocking the caller.
+     * The payload must not be modified until the returned future has been completed.
+     *
+     * @return A future that is completed when the data has been written to the secure channel, or
+     * fails with a RejectedExecutionException if the send queue has reached its high-water mark
+     */
+    public CompletableFuture<Void> sendAsync(String type, byte[] msg) {
+        return sendAsync(type, UnsafeByteOperations.unsafeWrap(msg));
+    }
+
+    public CompletableFuture<Void> sendAsync(String type, ByteString msg) {
+        return sendQueue.offer(type, msg);
+    }
+
+    /**
+     * Wait signal for producers whose sendAsync() calls have been rejected
+     *
+     * @return A future that is completed as soon as the send queue accepts data again
+     */
+    public CompletableFuture<Void> whenWritable() {
+        return sendQueue.whenWritable();
+    }
+
     public void onMessage(String type, byte[] msg) {
+        onMessage(type, UnsafeByteOperations.unsafeWrap(msg));
+    }
+
+    /*
+     * Pass the received payload to the listeners, the ByteString is handed over without copying
+     */
+    public void onMessage(String type, ByteString msg) {
         // When unlock is called, although not synchronized, this will eventually stop blocking.
         messageLatch.await();
         if (LOG.isTraceEnabled()) {
@@ -92,6 +146,7 @@ public class Idscp2Connection {
     }
 
     public void onClose() {
+        sendQueue.close();
         LOG.debug("Connection with id {} is closing, notify listeners...", connectionId);
         connectionListeners.forEach(l -> l.onClose(this));
     }
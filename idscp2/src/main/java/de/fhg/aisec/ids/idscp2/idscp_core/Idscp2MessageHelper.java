@@ -1,8 +1,12 @@
 package de.fhg.aisec.ids.idscp2.idscp_core;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
 import de.fhg.aisec.ids.idscp2.messages.IDSCP2.*;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -13,6 +17,11 @@ import java.util.Arrays;
 public class Idscp2MessageHelper {
 
     public static IdscpMessage createIdscpHelloMessage(byte[] dat, String[] supportedRatSuite, String[] expectedRatSuite) {
+        return createIdscpHelloMessage(dat, supportedRatSuite, expectedRatSuite, 0, 0);
+    }
+
+    public static IdscpMessage createIdscpHelloMessage(byte[] dat, String[] supportedRatSuite, String[] expectedRatSuite,
+                                                       int maxCacheEntries, int maxTotalCacheSize) {
         IdscpDat idscpDat = IdscpDat.newBuilder()
                 .setToken(ByteString.copyFrom(dat))
                 .build();
@@ -22,6 +31,8 @@ public class Idscp2MessageHelper {
                 .setDynamicAttributeToken(idscpDat)
                 .addAllExpectedRatSuite(Arrays.asList(expectedRatSuite))
                 .addAllSupportedRatSuite(Arrays.asList(supportedRatSuite))
+                .setMaxCacheEntries(maxCacheEntries)
+                .setMaxTotalCacheSize(maxTotalCacheSize)
                 .build();
 
         return IdscpMessage.newBuilder()
@@ -66,9 +77,20 @@ public class Idscp2MessageHelper {
                 .build();
     }
 
+    /*
+     * The payload is wrapped without copying, it must not be modified until the message has been serialized
+     */
     public static IdscpMessage createIdscpDataMessage(String type, Integer typeTag, byte[] data) {
+        return createIdscpDataMessage(type, typeTag, UnsafeByteOperations.unsafeWrap(data));
+    }
+
+    public static IdscpMessage createIdscpDataMessage(String type, Integer typeTag, ByteBuffer data) {
+        return createIdscpDataMessage(type, typeTag, UnsafeByteOperations.unsafeWrap(data));
+    }
+
+    public static IdscpMessage createIdscpDataMessage(String type, Integer typeTag, ByteString data) {
         IdscpData.Builder idscpData = IdscpData.newBuilder()
-                .setData(ByteString.copyFrom(data));
+                .setData(data);
         if (type != null) {
             idscpData.setType(type);
         }
@@ -109,4 +131,14 @@ public class Idscp2MessageHelper {
                 .build();
     }
 
+    /*
+     * Parse a received IDSCP2 message. The bytes fields of the message are aliasing the given
+     * array instead of copying it, so the array must not be reused by the caller.
+     */
+    public static IdscpMessage parseIdscpMessage(byte[] data) throws InvalidProtocolBufferException {
+        // only a stream over an immutable buffer aliases, a plain array stream copies nevertheless
+        CodedInputStream input = UnsafeByteOperations.unsafeWrap(data).newCodedInput();
+        input.enableAliasing(true);
+        return IdscpMessage.parseFrom(input);
+    }
 }
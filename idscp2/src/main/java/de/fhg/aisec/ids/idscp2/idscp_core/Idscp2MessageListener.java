@@ -1,5 +1,7 @@
 package de.fhg.aisec.ids.idscp2.idscp_core;
 
+import com.google.protobuf.ByteString;
+
 /**
  * An interface for an IDSCP message listener
  */
@@ -9,4 +11,12 @@ public interface Idscp2MessageListener {
      * notify the listener about new data
      */
     void onMessage(Idscp2Connection connection, String type, byte[] data);
+
+    /*
+     * notify the listener about new data without copying the payload, listeners that can process
+     * ByteStrings or read-only ByteBuffers should override this method
+     */
+    default void onMessage(Idscp2Connection connection, String type, ByteString data) {
+        onMessage(connection, type, data.toByteArray());
+    }
 }
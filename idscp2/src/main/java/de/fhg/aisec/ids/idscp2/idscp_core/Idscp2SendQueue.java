@@ -0,0 +1,307 @@
+package de.fhg.aisec.ids.idscp2.idscp_core;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded outbound queue of an IDSCP2 connection for asynchronous sends.
+ * <p>
+ * The queue is drained by a thread of a shared, bounded sender pool, so producers never block on
+ * the socket. A thread sends a limited batch of messages of one queue before it continues with
+ * the queues of other connections. A send that blocks longer than {@link #SLOW_SEND_MILLIS} is
+ * compensated by an additional pool thread, and the queue of that slow connection is drained by
+ * its own thread afterwards, so stalled peers cannot occupy the shared pool.
+ * <p>
+ * If the queued payload would exceed the high-water mark, new messages are rejected until the
+ * queue has been drained to half of the high-water mark.
+ */
+final class Idscp2SendQueue {
+
+    /*
+     * Sends a single message, returns false if the message could not be sent
+     */
+    @FunctionalInterface
+    interface Sender {
+        boolean send(String type, ByteString data);
+    }
+
+    static final int SENDER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Number of messages that are sent before the sender thread is yielded to other queues
+    private static final int DRAIN_BATCH = 64;
+    // Duration of a single send after which the connection is considered slow
+    static final long SLOW_SEND_MILLIS = 1000;
+
+    /*
+     * The shared sender pool, its task queue holds at most one drain task per connection
+     */
+    private static final ThreadPoolExecutor SENDER_POOL = new ThreadPoolExecutor(SENDER_THREADS,
+            SENDER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "IDSCP2 Sender " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /*
+     * The queues whose drain task is currently blocked in a send on the shared pool
+     */
+    private static final Set<Idscp2SendQueue> SENDING = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "IDSCP2 Sender Watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        SENDER_POOL.allowCoreThreadTimeOut(true);
+        WATCHDOG.scheduleWithFixedDelay(Idscp2SendQueue::compensateSlowSends,
+                SLOW_SEND_MILLIS / 2, SLOW_SEND_MILLIS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    private static class PendingMessage {
+        private final String type;
+        private final ByteString data;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(String type, ByteString data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private final Sender sender;
+    private final long highWaterMark;
+    private final ArrayDeque<PendingMessage> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private boolean draining = false;
+    private boolean rejecting = false;
+    private boolean closed = false;
+    // start of the send that currently blocks a pool thread, 0 if there is none
+    private long sendStarted = 0;
+    // whether the pool has been given an additional thread for the send that is blocked
+    private boolean compensated = false;
+    // the own sender thread of a slow connection, null as long as it uses the shared pool
+    private ThreadPoolExecutor ownSender = null;
+    private CompletableFuture<Void> writable = null;
+
+    Idscp2SendQueue(Sender sender, long highWaterMark) {
+        this.sender = sender;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /*
+     * Queue a message, the returned future is completed when the message has been written to the
+     * secure channel. It fails with a RejectedExecutionException while the queue is full.
+     */
+    CompletableFuture<Void> offer(String type, ByteString data) {
+        PendingMessage message = new PendingMessage(type, data);
+        synchronized (this) {
+            if (closed) {
+                message.future.completeExceptionally(new Idscp2Exception("Connection is closed"));
+                return message.future;
+            }
+            // a single message larger than the high-water mark is accepted by an empty queue
+            if (queuedBytes > 0 && queuedBytes + data.size() > highWaterMark) {
+                rejecting = true;
+            }
+            if (rejecting) {
+                message.future.completeExceptionally(new RejectedExecutionException(
+                        "Send queue is full, " + queuedBytes + " bytes are pending"));
+                return message.future;
+            }
+            queue.add(message);
+            queuedBytes += data.size();
+            if (!draining) {
+                draining = true;
+                executor().execute(this::drain);
+            }
+        }
+        return message.future;
+    }
+
+    /*
+     * A future that is completed as soon as the queue accepts messages again
+     */
+    synchronized CompletableFuture<Void> whenWritable() {
+        if (closed || queuedBytes <= highWaterMark / 2) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (writable == null) {
+            writable = new CompletableFuture<>();
+        }
+        return writable;
+    }
+
+    synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /*
+     * Reject all pending and future messages
+     */
+    void close() {
+        List<PendingMessage> pending;
+        CompletableFuture<Void> writableFuture;
+        synchronized (this) {
+            closed = true;
+            pending = new ArrayList<>(queue);
+            queue.clear();
+            queuedBytes = 0;
+            writableFuture = writable;
+            writable = null;
+            if (ownSender != null) {
+                ownSender.shutdown();
+            }
+        }
+        pending.forEach(m -> m.future.completeExceptionally(
+                new Idscp2Exception("Connection is closed")));
+        if (writableFuture != null) {
+            writableFuture.complete(null);
+        }
+    }
+
+    private void drain() {
+        for (int i = 0; i < DRAIN_BATCH; i++) {
+            PendingMessage message;
+            synchronized (this) {
+                message = queue.poll();
+                if (message == null) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            boolean onPool = executor() == SENDER_POOL;
+            if (onPool) {
+                synchronized (this) {
+                    sendStarted = System.nanoTime();
+                }
+                SENDING.add(this);
+            }
+            boolean sent;
+            try {
+                sent = sender.send(message.type, message.data);
+            } catch (Exception e) {
+                sent = false;
+            }
+            boolean wasSlow = false;
+            if (onPool) {
+                SENDING.remove(this);
+                synchronized (this) {
+                    sendStarted = 0;
+                    wasSlow = compensated;
+                    compensated = false;
+                }
+            }
+
+            CompletableFuture<Void> writableFuture = null;
+            synchronized (this) {
+                if (!closed) {
+                    queuedBytes -= message.data.size();
+                }
+                if (queuedBytes <= highWaterMark / 2) {
+                    rejecting = false;
+                    if (writable != null) {
+                        writableFuture = writable;
+                        writable = null;
+                    }
+                }
+            }
+            if (writableFuture != null) {
+                writableFuture.complete(null);
+            }
+            if (sent) {
+                message.future.complete(null);
+            } else {
+                message.future.completeExceptionally(
+                        new Idscp2Exception("Cannot send IDSCP_DATA via secure channel"));
+            }
+            if (wasSlow) {
+                // the connection gets its own thread, the additional pool thread is released
+                resizeSenderPool(-1);
+                useOwnSender();
+                continueDrain();
+                return;
+            }
+        }
+        // more messages are pending, yield the thread to the queues of other connections
+        continueDrain();
+    }
+
+    private synchronized void continueDrain() {
+        if (closed) {
+            draining = false;
+            return;
+        }
+        executor().execute(this::drain);
+    }
+
+    private synchronized Executor executor() {
+        return ownSender != null ? ownSender : SENDER_POOL;
+    }
+
+    private synchronized void useOwnSender() {
+        if (ownSender == null) {
+            ownSender = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "IDSCP2 Slow Connection Sender");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /*
+     * Give the pool an additional thread for each send that blocks a pool thread for too long
+     */
+    private static void compensateSlowSends() {
+        long now = System.nanoTime();
+        long slow = TimeUnit.MILLISECONDS.toNanos(SLOW_SEND_MILLIS);
+        for (Idscp2SendQueue sendQueue : SENDING) {
+            boolean compensate = false;
+            synchronized (sendQueue) {
+                if (sendQueue.sendStarted != 0 && !sendQueue.compensated
+                        && now - sendQueue.sendStarted >= slow) {
+                    sendQueue.compensated = true;
+                    compensate = true;
+                }
+            }
+            if (compensate) {
+                resizeSenderPool(1);
+            }
+        }
+    }
+
+    private static synchronized void resizeSenderPool(int delta) {
+        int size = SENDER_POOL.getCorePoolSize() + delta;
+        // the maximum pool size must never be below the core pool size
+        if (delta > 0) {
+            SENDER_POOL.setMaximumPoolSize(size);
+            SENDER_POOL.setCorePoolSize(size);
+        } else {
+            SENDER_POOL.setCorePoolSize(size);
+            SENDER_POOL.setMaximumPoolSize(size);
+        }
+    }
+}
@@ -13,6 +13,11 @@ import java.util.Objects;
 public class Idscp2Settings {
     public static final int DEFAULT_SERVER_PORT = 29292;
     public static final String DEFAULT_RAT_TIMEOUT_DELAY = "600";
+    public static final int DEFAULT_MAX_CACHE_ENTRIES = 128;
+    public static final int DEFAULT_MAX_TOTAL_CACHE_SIZE = 16384;
+    public static final int DEFAULT_SEND_QUEUE_HIGH_WATER_MARK = 4 * 1024 * 1024;
+    public static final int DEFAULT_WRITE_COALESCING_MAX_BYTES = 16 * 1024;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 32 * 1024 * 1024;
 
     private int serverPort = DEFAULT_SERVER_PORT;
     private String host = "localhost";
@@ -27,6 +32,13 @@ public class Idscp2Settings {
     private AttestationConfig supportedAttestation = new AttestationConfig();
     private AttestationConfig expectedAttestation = new AttestationConfig();
     private long ratTimeoutDelay = Integer.parseInt(DEFAULT_RAT_TIMEOUT_DELAY);
+    private int maxCacheEntries = DEFAULT_MAX_CACHE_ENTRIES;
+    private int maxTotalCacheSize = DEFAULT_MAX_TOTAL_CACHE_SIZE;
+    private int sendQueueHighWaterMark = DEFAULT_SEND_QUEUE_HIGH_WATER_MARK;
+    private long writeCoalescingDelay = 0;
+    private int writeCoalescingMaxBytes = DEFAULT_WRITE_COALESCING_MAX_BYTES;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private long ratResultCacheMaxAge = 0;
 
     @SuppressWarnings("unused")
     public static class Builder {
@@ -109,6 +121,72 @@ public class Idscp2Settings {
             return this;
         }
 
+        /*
+         * Maximum number of message types the peer may cache on this side, 0 disables type caching
+         */
+        @NonNull
+        public Builder setMaxCacheEntries(int maxCacheEntries) {
+            this.settings.maxCacheEntries = maxCacheEntries;
+            return this;
+        }
+
+        /*
+         * Maximum total UTF-8 length of the message types the peer may cache on this side
+         */
+        @NonNull
+        public Builder setMaxTotalCacheSize(int maxTotalCacheSize) {
+            this.settings.maxTotalCacheSize = maxTotalCacheSize;
+            return this;
+        }
+
+        /*
+         * Maximum number of payload bytes that may be queued by sendAsync() per connection
+         */
+        @NonNull
+        public Builder setSendQueueHighWaterMark(int bytes) {
+            this.settings.sendQueueHighWaterMark = bytes;
+            return this;
+        }
+
+        /*
+         * Time in milliseconds that the TLS channel may hold back small messages to write them
+         * together with the following ones, 0 only coalesces messages that are already waiting
+         */
+        @NonNull
+        public Builder setWriteCoalescingDelay(long delay) {
+            this.settings.writeCoalescingDelay = delay;
+            return this;
+        }
+
+        /*
+         * Number of bytes after which coalesced messages are written without further delay
+         */
+        @NonNull
+        public Builder setWriteCoalescingMaxBytes(int bytes) {
+            this.settings.writeCoalescingMaxBytes = bytes;
+            return this;
+        }
+
+        /*
+         * Maximum size of a received frame in bytes, larger frames are rejected before they are
+         * allocated and the connection is closed
+         */
+        @NonNull
+        public Builder setMaxFrameSize(int bytes) {
+            this.settings.maxFrameSize = bytes;
+            return this;
+        }
+
+        /*
+         * Time in seconds for which a successful remote attestation of a peer certificate is reused
+         * by new connections to the same peer, bounded by the RAT timeout delay, 0 disables the cache
+         */
+        @NonNull
+        public Builder setRatResultCacheMaxAge(long maxAge) {
+            this.settings.ratResultCacheMaxAge = maxAge;
+            return this;
+        }
+
         @NonNull
         public Idscp2Settings build() {
             return this.settings;
@@ -168,6 +246,34 @@ public class Idscp2Settings {
         return ratTimeoutDelay;
     }
 
+    public int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+
+    public int getMaxTotalCacheSize() {
+        return maxTotalCacheSize;
+    }
+
+    public int getSendQueueHighWaterMark() {
+        return sendQueueHighWaterMark;
+    }
+
+    public long getWriteCoalescingDelay() {
+        return writeCoalescingDelay;
+    }
+
+    public int getWriteCoalescingMaxBytes() {
+        return writeCoalescingMaxBytes;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public long getRatResultCacheMaxAge() {
+        return ratResultCacheMaxAge;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -175,6 +281,13 @@ public class Idscp2Settings {
         Idscp2Settings that = (Idscp2Settings) o;
         return serverPort == that.serverPort &&
                 ratTimeoutDelay == that.ratTimeoutDelay &&
+                maxCacheEntries == that.maxCacheEntries &&
+                maxTotalCacheSize == that.maxTotalCacheSize &&
+                sendQueueHighWaterMark == that.sendQueueHighWaterMark &&
+                writeCoalescingDelay == that.writeCoalescingDelay &&
+                writeCoalescingMaxBytes == that.writeCoalescingMaxBytes &&
+                maxFrameSize == that.maxFrameSize &&
+                ratResultCacheMaxAge == that.ratResultCacheMaxAge &&
                 Objects.equals(host, that.host) &&
                 Objects.equals(trustStorePath, that.trustStorePath) &&
                 Objects.equals(trustStorePassword, that.trustStorePassword) &&
@@ -191,6 +304,8 @@ public class Idscp2Settings {
     public int hashCode() {
         return Objects.hash(serverPort, host, trustStorePath, trustStorePassword, keyStorePath,
                 keyStorePassword, certificateAlias, dapsKeyAlias, keyStoreKeyType, supportedAttestation,
-                expectedAttestation, ratTimeoutDelay);
+                expectedAttestation, ratTimeoutDelay, maxCacheEntries, maxTotalCacheSize,
+                sendQueueHighWaterMark, writeCoalescingDelay, writeCoalescingMaxBytes,
+                maxFrameSize, ratResultCacheMaxAge);
     }
 }
@@ -18,6 +18,7 @@ public class Event {
     private final EventType type;
     private final IdscpMessage idscpMessage;
     private final InternalControlMessage controlMessage;
+    private final String dataType;
 
     /*
      * Create an Event with an Internal Control Message
@@ -27,16 +28,26 @@ public class Event {
         this.type = EventType.INTERNAL_CONTROL_MESSAGE;
         this.controlMessage = controlMessage;
         this.idscpMessage = null;
+        this.dataType = null;
     }
 
     /*
      * Create an Event with an Idscpv2 Message
      */
     public Event(IdscpMessage idscpMessage) {
+        this(idscpMessage, null);
+    }
+
+    /*
+     * Create an Event with an IDSCP_DATA message, whose type has already been resolved by the
+     * incoming type cache of the fsm, or null if the type tag is invalid
+     */
+    public Event(IdscpMessage idscpMessage, String dataType) {
         this.key = idscpMessage.getMessageCase().getNumber();
         this.type = EventType.IDSCP_MESSAGE;
         this.idscpMessage = idscpMessage;
         this.controlMessage = null;
+        this.dataType = dataType;
     }
 
     /*
@@ -51,6 +62,7 @@ public class Event {
             this.type = EventType.INTERNAL_CONTROL_MESSAGE;
             this.idscpMessage = idscpMessage;
             this.controlMessage = controlMessage;
+            this.dataType = null;
         } else {
             throw new IllegalStateException("This constructor must only be used by RAT_PROVER and " +
                     "RAT_VERIFIER for message passing");
@@ -86,4 +98,8 @@ public class Event {
     public InternalControlMessage getControlMessage() {
         return controlMessage;
     }
+
+    public String getDataType() {
+        return dataType;
+    }
 }
@@ -1,13 +1,14 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
-import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatProverDriver;
-import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver;
 import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatDriverHandle;
 import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatResultCache;
 import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry;
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
 import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
@@ -15,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -52,17 +54,14 @@ public class FSM implements FsmListener {
     private final Idscp2Connection connection;
     private final SecureChannel secureChannel;
 
-    private RatProverDriver ratProverDriver;
-    private RatVerifierDriver ratVerifierDriver;
-
     /*
-     * RAT Driver Thread ID to identify the driver threads and check if messages are provided by
-     * the current active driver or by any old driver, whose lifetime is already over
+     * RAT Driver handles to identify the drivers and check if messages are provided by the current
+     * active driver or by any old driver, whose lifetime is already over
      *
      * Only one driver can be valid at a time
      */
-    private String currentRatProverId; //avoid messages from old prover drivers
-    private String currentRatVerifierId; //avoid messages from old verifier drivers
+    private RatDriverHandle ratProverHandle; //avoid messages from old prover drivers
+    private RatDriverHandle ratVerifierHandle; //avoid messages from old verifier drivers
 
     /*
      * RAT Mechanisms, calculated during handshake in WAIT_FOR_HELLO_STATE
@@ -70,11 +69,31 @@ public class FSM implements FsmListener {
     private String proverMechanism = null; //RAT prover mechanism
     private String verifierMechanism = null; //RAT Verifier mechanism
 
+    /*
+     * Max age in seconds of cached remote attestations of the peer, 0 if the cache is disabled
+     */
+    private final long ratResultCacheMaxAge;
+    private String peerFingerprint = null;
+    private boolean ratVerifierPeerAttested = false; //current verifier uses a cached result
+
+    /*
+     * IDSCP_DATA type caches, the outgoing cache is created with the limits of the peer's IDSCP_HELLO
+     */
+    private final IncomingTypeCache incomingTypeCache;
+    private volatile OutgoingTypeCache outgoingTypeCache = new OutgoingTypeCache(0, 0);
+
     /*
      * A FIFO-fair synchronization lock for the finite state machine
      */
     private final ReentrantLock fsmIsBusy = new ReentrantLock(true);
 
+    /*
+     * A lock that keeps the order of IDSCP_DATA messages, which are encoded by the type cache and
+     * written to the secure channel outside of the fsm lock. State changes are made under this
+     * lock as well, see feedEvent().
+     */
+    private final ReentrantLock sendLock = new ReentrantLock();
+
     /*
      * A condition to ensure no idscp messages can be provided by the secure channel to the fsm
      * before the handshake was started
@@ -102,8 +121,12 @@ public class FSM implements FsmListener {
     /*  ----------------   end of Timer   --------------- */
 
     public FSM(Idscp2Connection connection, SecureChannel secureChannel, DapsDriver dapsDriver,
-               String[] localSupportedRatSuite, String[] localExpectedRatSuite, long ratTimeout) {
+               String[] localSupportedRatSuite, String[] localExpectedRatSuite, long ratTimeout,
+               int maxCacheEntries, int maxTotalCacheSize, long ratResultCacheMaxAge) {
+
 
+        this.ratResultCacheMaxAge = ratResultCacheMaxAge;
+        this.incomingTypeCache = new IncomingTypeCache(maxCacheEntries, maxTotalCacheSize);
 
         /* ------------- Timeout Handler Routines ------------*/
         Runnable handshakeTimeoutHandler = () -> {
@@ -216,13 +239,12 @@ public class FSM implements FsmListener {
         // update new state
         IdscpMessage message;
         try {
-            message = IdscpMessage.parseFrom(data);
+            message = Idscp2MessageHelper.parseIdscpMessage(data);
         } catch (InvalidProtocolBufferException e) {
             LOG.warn("Cannot parse raw data into IdscpMessage {}", data);
             return;
         }
 
-        Event event = new Event(message);
         //must wait when fsm is in state STATE_CLOSED --> wait() will be notified when fsm is
         // leaving STATE_CLOSED
         fsmIsBusy.lock();
@@ -239,6 +261,12 @@ public class FSM implements FsmListener {
                     Thread.currentThread().interrupt();
                 }
             }
+            // Type registrations of the peer are applied in every state, such that the incoming
+            // type cache stays in step with the outgoing type cache of the peer, even if the data
+            // itself is dropped, e.g. during a repeated remote attestation
+            Event event = message.hasIdscpData()
+                    ? new Event(message, incomingTypeCache.resolveType(message.getIdscpData()))
+                    : new Event(message);
             feedEvent(event);
         } finally {
             fsmIsBusy.unlock();
@@ -248,7 +276,7 @@ public class FSM implements FsmListener {
     /*
      * An internal control message (ICM) occurred, provide it to the fsm as an event
      */
-    private void onControlMessage(InternalControlMessage controlMessage) {
+    void onControlMessage(InternalControlMessage controlMessage) {
         //create Internal Control Message Event and pass it to current state and update new state
         Event e = new Event(controlMessage);
 
@@ -268,7 +296,7 @@ public class FSM implements FsmListener {
      *
      * Afterwards the event for the fsm is created and the fsm lock is requested
      *
-     * When the RatProverThread does not match the active prover tread id, the event will be
+     * When the calling RatProverDriver is not the active prover driver, the event will be
      * ignored, else the event is provided to the fsm
      */
     @Override
@@ -277,7 +305,7 @@ public class FSM implements FsmListener {
         //check for incorrect usage
         checkForFsmCircles();
 
-        //only allow rat prover messages from current thread
+        //only allow rat prover messages from current driver
         Event e;
         if (ratMessage == null) {
             e = new Event(controlMessage);
@@ -288,7 +316,7 @@ public class FSM implements FsmListener {
 
         fsmIsBusy.lock();
         try {
-            if (Long.toString(Thread.currentThread().getId()).equals(currentRatProverId)) {
+            if (ratProverHandle != null && ratProverHandle.isCurrent()) {
                 feedEvent(e);
             } else {
                 LOG.warn("An old or unknown identity calls onRatProverMessage()");
@@ -306,7 +334,7 @@ public class FSM implements FsmListener {
      *
      * Afterwards the event for the fsm is created and the fsm lock is requested
      *
-     * When the RatVerifierDriver does not match the active verifier tread id, the event will be
+     * When the calling RatVerifierDriver is not the active verifier driver, the event will be
      * ignored, else the event is provided to the fsm
      */
     @Override
@@ -315,7 +343,7 @@ public class FSM implements FsmListener {
         //check for incorrect usage
         checkForFsmCircles();
 
-        //only allow rat verifier messages from current thread
+        //only allow rat verifier messages from current driver
         Event e;
         if (ratMessage == null) {
             e = new Event(controlMessage);
@@ -326,7 +354,8 @@ public class FSM implements FsmListener {
 
         fsmIsBusy.lock();
         try {
-            if (Long.toString(Thread.currentThread().getId()).equals(currentRatVerifierId)) {
+            if (ratVerifierHandle != null && ratVerifierHandle.isCurrent()) {
+                updateRatResultCache(controlMessage);
                 feedEvent(e);
             } else {
                 LOG.warn("An old or unknown identity calls onRatVerifierMessage()");
@@ -336,12 +365,44 @@ public class FSM implements FsmListener {
         }
     }
 
+    /*
+     * Store the result of a full remote attestation of the peer in the RatResultCache
+     */
+    private void updateRatResultCache(InternalControlMessage controlMessage) {
+        if (ratResultCacheMaxAge <= 0 || ratVerifierPeerAttested) {
+            return;
+        }
+        if (controlMessage == InternalControlMessage.RAT_VERIFIER_OK) {
+            RatResultCache.put(getPeerFingerprint(), verifierMechanism,
+                    RatVerifierDriverRegistry.getDriverConfig(verifierMechanism),
+                    TimeUnit.SECONDS.toMillis(ratResultCacheMaxAge));
+        } else if (controlMessage == InternalControlMessage.RAT_VERIFIER_FAILED) {
+            RatResultCache.invalidate(getPeerFingerprint(), verifierMechanism,
+                    RatVerifierDriverRegistry.getDriverConfig(verifierMechanism));
+        }
+    }
+
     /*
      * Feed the event to the current state and execute the runEntry method if the state has changed
      */
     private void feedEvent(Event event) {
+        // The state is changed under the send lock, such that send() cannot pass IDSCP_DATA to the
+        // secure channel once a transition has left STATE_ESTABLISHED. Only IDSCP_DATA with a known
+        // type is delivered to the listeners in STATE_ESTABLISHED without the send lock, such that
+        // they may send responses meanwhile. This never changes the state nor sends IDSCP_CLOSE.
+        boolean lockSend = !(event.getIdscpMessage() != null && event.getIdscpMessage().hasIdscpData()
+                && event.getDataType() != null && isConnected());
+        if (lockSend) {
+            sendLock.lock();
+        }
         State prevState = currentState;
-        currentState = currentState.feedEvent(event);
+        try {
+            currentState = currentState.feedEvent(event);
+        } finally {
+            if (lockSend) {
+                sendLock.unlock();
+            }
+        }
 
         if (!prevState.equals(currentState)) {
             currentState.runEntryCode(this);
@@ -443,23 +504,33 @@ public class FSM implements FsmListener {
 
     /*
      * Send idscp message from the User via the secure channel
+     *
+     * The message is encoded and written under the send lock only, such that a slow peer does not
+     * block the fsm. Transitions change the state under the send lock as well, so the state is
+     * checked and the message is written atomically. The send lock must never be held while
+     * acquiring the fsm lock.
+     *
+     * Returns true if the message has been passed to the secure channel
      */
-    public void send(String type, byte[] msg) {
-        //send messages from user only when idscp connection is established
-        fsmIsBusy.lock();
+    public boolean send(String type, ByteString msg) {
+        boolean sent;
+        sendLock.lock();
         try {
-            if (isConnected()) {
-                IdscpMessage idscpMessage = Idscp2MessageHelper.createIdscpDataMessage(type, msg);
-                if (!secureChannel.send(idscpMessage.toByteArray())) {
-                    LOG.error("Cannot send IDSCP_DATA via secure channel");
-                    onControlMessage(InternalControlMessage.ERROR);
-                }
-            } else {
+            //send messages from user only when idscp connection is established
+            if (!isConnected()) {
                 LOG.error("Cannot send IDSCP_DATA because connection is not established");
+                return false;
             }
+            IdscpMessage idscpMessage = outgoingTypeCache.createIdscpDataMessage(type, msg);
+            sent = secureChannel.send(idscpMessage.toByteArray());
         } finally {
-            fsmIsBusy.unlock();
+            sendLock.unlock();
         }
+        if (!sent) {
+            LOG.error("Cannot send IDSCP_DATA via secure channel");
+            onControlMessage(InternalControlMessage.ERROR);
+        }
+        return sent;
     }
 
     /*
@@ -506,20 +577,28 @@ public class FSM implements FsmListener {
      * Stop current RatVerifier if active and start the RatVerifier from the
      * RatVerifierDriver Registry that matches the verifier mechanism
      *
+     * The first verifier of a connection reuses a cached attestation of the peer, if available.
+     * Repeated attestations of the connection always request a new attestation from the peer.
+     *
      * return false if no match was found
      */
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     boolean restartRatVerifierDriver() {
         //assume verifier mechanism is set
+        boolean peerAttested = ratVerifierHandle == null && ratResultCacheMaxAge > 0
+                && RatResultCache.isAttested(getPeerFingerprint(), verifierMechanism,
+                RatVerifierDriverRegistry.getDriverConfig(verifierMechanism));
         stopRatVerifierDriver();
-        ratVerifierDriver = RatVerifierDriverRegistry.startRatVerifierDriver(verifierMechanism, this);
-        if (ratVerifierDriver == null) {
+        if (peerAttested) {
+            LOG.debug("Peer has been attested recently, skip remote attestation");
+        }
+        ratVerifierPeerAttested = peerAttested;
+        ratVerifierHandle = RatVerifierDriverRegistry.startRatVerifierDriver(verifierMechanism, this,
+                peerAttested);
+        if (ratVerifierHandle == null) {
             LOG.error("Cannot create instance of RAT_VERIFIER_DRIVER");
-            currentRatVerifierId = "";
             return false;
         } else {
-            //safe the thread ID
-            currentRatVerifierId = Long.toString(ratVerifierDriver.getId());
             LOG.debug("Start verifier_handshake timeout");
             this.verifierHandshakeTimer.resetTimeout(5);
             return true;
@@ -531,9 +610,8 @@ public class FSM implements FsmListener {
      */
     void stopRatVerifierDriver() {
         verifierHandshakeTimer.cancelTimeout();
-        if (ratVerifierDriver != null && ratVerifierDriver.isAlive()) {
-            ratVerifierDriver.interrupt();
-            ratVerifierDriver.terminate();
+        if (ratVerifierHandle != null) {
+            ratVerifierHandle.terminate();
         }
     }
 
@@ -547,14 +625,11 @@ public class FSM implements FsmListener {
     boolean restartRatProverDriver() {
         //assume prover mechanism is set
         stopRatProverDriver();
-        ratProverDriver = RatProverDriverRegistry.startRatProverDriver(proverMechanism, this);
-        if (ratProverDriver == null) {
+        ratProverHandle = RatProverDriverRegistry.startRatProverDriver(proverMechanism, this);
+        if (ratProverHandle == null) {
             LOG.error("Cannot create instance of RAT_PROVER_DRIVER");
-            currentRatProverId = "";
             return false;
         } else {
-            //safe the thread ID
-            currentRatProverId = Long.toString(ratProverDriver.getId());
             LOG.debug("Start prover_handshake timeout");
             this.proverHandshakeTimer.resetTimeout(5);
             return true;
@@ -566,9 +641,8 @@ public class FSM implements FsmListener {
      */
     void stopRatProverDriver() {
         proverHandshakeTimer.cancelTimeout();
-        if (ratProverDriver != null && ratProverDriver.isAlive()) {
-            ratProverDriver.interrupt();
-            ratProverDriver.terminate();
+        if (ratProverHandle != null) {
+            ratProverHandle.terminate();
         }
     }
 
@@ -617,7 +691,7 @@ public class FSM implements FsmListener {
     /*
      * Provide IDSCP2 message to the message listener
      */
-    void notifyIdscpMsgListener(String type, byte[] data) {
+    void notifyIdscpMsgListener(String type, ByteString data) {
         this.connection.onMessage(type, data);
         if (LOG.isTraceEnabled()) {
             LOG.trace("Idscp data of type \"{}\" has been passed to connection listener", type);
@@ -628,12 +702,23 @@ public class FSM implements FsmListener {
     // Getter
     //
 
-    RatVerifierDriver getRatVerifierDriver() {
-        return ratVerifierDriver;
+    IncomingTypeCache getIncomingTypeCache() {
+        return incomingTypeCache;
+    }
+
+    RatDriverHandle getRatVerifierHandle() {
+        return ratVerifierHandle;
+    }
+
+    RatDriverHandle getRatProverHandle() {
+        return ratProverHandle;
     }
 
-    RatProverDriver getRatProverDriver() {
-        return ratProverDriver;
+    private String getPeerFingerprint() {
+        if (peerFingerprint == null) {
+            peerFingerprint = RatResultCache.fingerprint(secureChannel.getPeerCertificate());
+        }
+        return peerFingerprint;
     }
 
     State getState(FSM_STATE state) {
@@ -648,6 +733,13 @@ public class FSM implements FsmListener {
     // Setter
     //
 
+    /*
+     * Apply the type cache limits of the peer's IDSCP_HELLO to the outgoing type cache
+     */
+    void setPeerTypeCacheLimits(int maxCacheEntries, int maxTotalCacheSize) {
+        this.outgoingTypeCache = new OutgoingTypeCache(maxCacheEntries, maxTotalCacheSize);
+    }
+
     void setRatMechanisms(String proverMechanism, String verifierMechanism) {
         this.proverMechanism = proverMechanism;
         this.verifierMechanism = verifierMechanism;
@@ -0,0 +1,65 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * The receiver side of the IDSCP_DATA type cache, limited by the maxCacheEntries and
+ * maxTotalCacheSize that are announced to the peer in IDSCP_HELLO.
+ * <p>
+ * IDSCP_DATA messages with type and type tag (re-)register the type under the tag, messages with
+ * only a type tag refer to a registered type. Registrations are applied in every state of the fsm,
+ * before the message is dispatched. Must only be used while holding the fsm lock.
+ */
+class IncomingTypeCache {
+
+    private final int maxEntries;
+    private final int maxTotalSize;
+    private final HashMap<Integer, String> types = new HashMap<>();
+    private int totalSize = 0;
+
+    IncomingTypeCache(int maxEntries, int maxTotalSize) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxTotalSize = Math.max(0, maxTotalSize);
+    }
+
+    int getMaxEntries() {
+        return maxEntries;
+    }
+
+    int getMaxTotalSize() {
+        return maxTotalSize;
+    }
+
+    /*
+     * Resolve the type of an IDSCP_DATA message and register it, if requested by the peer.
+     *
+     * Returns null if the type tag is unknown or the registration exceeds the announced limits
+     */
+    String resolveType(IdscpData data) {
+        int tag = data.getTypeTag();
+        if (tag == 0) {
+            return data.getType();
+        }
+        if (tag < 0 || tag > maxEntries) {
+            return null;
+        }
+
+        String type = data.getType();
+        if (type.isEmpty()) {
+            return types.get(tag);
+        }
+
+        String old = types.get(tag);
+        int newTotalSize = totalSize + type.getBytes(StandardCharsets.UTF_8).length
+                - (old == null ? 0 : old.getBytes(StandardCharsets.UTF_8).length);
+        if (newTotalSize > maxTotalSize) {
+            return null;
+        }
+        types.put(tag, type);
+        totalSize = newTotalSize;
+        return type;
+    }
+}
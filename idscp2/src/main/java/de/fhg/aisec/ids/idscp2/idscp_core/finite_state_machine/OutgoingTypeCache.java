@@ -0,0 +1,82 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The sender side of the IDSCP_DATA type cache. It mirrors the type cache of the peer, which is
+ * limited by the maxCacheEntries and maxTotalCacheSize of the peer's IDSCP_HELLO.
+ * <p>
+ * The first message of a type registers the type under a new type tag, later messages only
+ * carry the tag. If the peer's limits are reached, the least recently used type tag is
+ * re-registered for the new type. Types that do not fit at all are sent uncached.
+ * Must only be used while holding the send lock of the fsm.
+ */
+class OutgoingTypeCache {
+
+    private static class Entry {
+        private final int tag;
+        private final int size;
+
+        private Entry(int tag, int size) {
+            this.tag = tag;
+            this.size = size;
+        }
+    }
+
+    private final int maxEntries;
+    private final int maxTotalSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int totalSize = 0;
+    private int nextTag = 1;
+
+    OutgoingTypeCache(int maxEntries, int maxTotalSize) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxTotalSize = Math.max(0, maxTotalSize);
+    }
+
+    /*
+     * Create an IDSCP_DATA message that uses the type cache of the peer
+     */
+    IdscpMessage createIdscpDataMessage(String type, ByteString data) {
+        if (type == null || type.isEmpty() || maxEntries == 0) {
+            return Idscp2MessageHelper.createIdscpDataMessage(type, null, data);
+        }
+
+        Entry entry = entries.get(type);
+        if (entry != null) {
+            return Idscp2MessageHelper.createIdscpDataMessage(null, entry.tag, data);
+        }
+
+        int size = type.getBytes(StandardCharsets.UTF_8).length;
+        int tag = 0;
+        if (entries.size() < maxEntries && totalSize + size <= maxTotalSize) {
+            tag = nextTag++;
+        } else {
+            // re-register the least recently used tag that leaves enough space for the new type
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry victim = it.next().getValue();
+                if (totalSize - victim.size + size <= maxTotalSize) {
+                    it.remove();
+                    totalSize -= victim.size;
+                    tag = victim.tag;
+                    break;
+                }
+            }
+        }
+
+        if (tag == 0) {
+            return Idscp2MessageHelper.createIdscpDataMessage(type, null, data);
+        }
+        entries.put(type, new Entry(tag, size));
+        totalSize += size;
+        return Idscp2MessageHelper.createIdscpDataMessage(type, tag, data);
+    }
+}
@@ -46,8 +46,10 @@ class StateClosed extends State {
                     byte[] dat = dapsDriver.getToken();
 
                     LOG.debug("Send IDSCP_HELLO");
+                    IncomingTypeCache typeCache = fsm.getIncomingTypeCache();
                     IDSCP2.IdscpMessage idscpHello = Idscp2MessageHelper.
-                            createIdscpHelloMessage(dat, localSupportedRatSuite, localExpectedRatSuite);
+                            createIdscpHelloMessage(dat, localSupportedRatSuite, localExpectedRatSuite,
+                                    typeCache.getMaxEntries(), typeCache.getMaxTotalSize());
 
                     if (!fsm.sendFromFSM(idscpHello)) {
                         LOG.error("Cannot send IdscpHello. Close connection");
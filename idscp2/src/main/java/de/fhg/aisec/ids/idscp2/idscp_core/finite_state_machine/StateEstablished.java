@@ -31,6 +31,7 @@ public class StateEstablished extends State {
          * //onICM: send_data ---> {send IDS_DATA} ---> STATE_ESTABLISHED
          * onICM: dat_timeout ---> {send IDSCP_DAT_EXPIRED} ---> STATE_WAIT_FOR_DAT_AND_RAT_VERIFIER
          * onMessage: IDSCP_DATA ---> {delegate to connection} ---> STATE_ESTABLISHED
+         * onMessage: IDSCP_DATA with invalid type tag ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
          * onMessage: IDSCP_RERAT ---> {start RAT_PROVER} ---> STATE_WAIT_FOR_RAT_PROVER
          * onMessage: IDSCP_DAT_EXPIRED ---> {send IDSCP_DAT, start RAT_PROVER} ---> STATE_WAIT_FOR_RAT_PROVER
          * onMessage: IDSCP_CLOSE ---> {timeouts.cancel()} ---> STATE_CLOSED
@@ -121,7 +122,14 @@ public class StateEstablished extends State {
         this.addTransition(IDSCP2.IdscpMessage.IDSCPDATA_FIELD_NUMBER, new Transition(
                 event -> {
                     IDSCP2.IdscpData data = event.getIdscpMessage().getIdscpData();
-                    fsm.notifyIdscpMsgListener(data.getType(), data.getData().toByteArray());
+                    String type = event.getDataType();
+                    if (type == null) {
+                        LOG.error("Received IDSCP_DATA with invalid type tag {}. Send IDSCP_CLOSE", data.getTypeTag());
+                        fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("Invalid type tag",
+                                IDSCP2.IdscpClose.CloseCause.ERROR));
+                        return fsm.getState(FSM.FSM_STATE.STATE_CLOSED);
+                    }
+                    fsm.notifyIdscpMsgListener(type, data.getData());
                     return this;
                 }
         ));
@@ -118,6 +118,7 @@ public class StateWaitForHello extends State {
                     datTimer.resetTimeout(datValidityPeriod);
 
                     fsm.setRatMechanisms(proverMechanism, verifierMechanism);
+                    fsm.setPeerTypeCacheLimits(idscpHello.getMaxCacheEntries(), idscpHello.getMaxTotalCacheSize());
 
                     LOG.debug("Start RAT Prover and Verifier");
 
@@ -154,7 +154,7 @@ public class StateWaitForRat extends State {
                 event -> {
                     LOG.debug("Delegate received IDSCP_RAT_VERIFIER to RAT_PROVER");
                     assert event.getIdscpMessage().hasIdscpRatVerifier();
-                    fsm.getRatProverDriver().delegate(event.getIdscpMessage().getIdscpRatVerifier()
+                    fsm.getRatProverHandle().delegate(event.getIdscpMessage().getIdscpRatVerifier()
                             .getData().toByteArray());
 
                     return this;
@@ -165,7 +165,7 @@ public class StateWaitForRat extends State {
                 event -> {
                     LOG.debug("Delegate received IDSCP_RAT_PROVER to RAT_VERIFIER");
                     assert event.getIdscpMessage().hasIdscpRatProver();
-                    fsm.getRatVerifierDriver().delegate(event.getIdscpMessage().getIdscpRatProver()
+                    fsm.getRatVerifierHandle().delegate(event.getIdscpMessage().getIdscpRatProver()
                             .getData().toByteArray());
 
                     return this;
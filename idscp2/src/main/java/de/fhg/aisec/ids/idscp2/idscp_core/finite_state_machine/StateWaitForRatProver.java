@@ -161,7 +161,7 @@ public class StateWaitForRatProver extends State {
                 event -> {
                     LOG.debug("Delegate received IDSCP_RAT_VERIFIER to RAT_PROVER");
                     assert event.getIdscpMessage().hasIdscpRatVerifier();
-                    fsm.getRatProverDriver().delegate(event.getIdscpMessage().getIdscpRatVerifier()
+                    fsm.getRatProverHandle().delegate(event.getIdscpMessage().getIdscpRatVerifier()
                             .getData().toByteArray());
 
                     return this;
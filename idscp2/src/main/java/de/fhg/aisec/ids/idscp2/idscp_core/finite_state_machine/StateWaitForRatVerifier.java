@@ -142,7 +142,7 @@ public class StateWaitForRatVerifier extends State {
                 event -> {
                     LOG.debug("Delegate received IDSCP_RAT_PROVER to RAT_VERIFIER");
                     assert event.getIdscpMessage().hasIdscpRatProver();
-                    fsm.getRatVerifierDriver().delegate(event.getIdscpMessage().getIdscpRatProver()
+                    fsm.getRatVerifierHandle().delegate(event.getIdscpMessage().getIdscpRatProver()
                             .getData().toByteArray());
                     return this;
                 }
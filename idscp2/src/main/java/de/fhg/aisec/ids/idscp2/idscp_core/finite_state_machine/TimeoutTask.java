@@ -0,0 +1,80 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A Timeout Task that triggers timeouts in the fsm
+ * The task will only trigger the fsm if it has the fsm lock and the timeout
+ * was not canceled before
+ */
+public class TimeoutTask implements Runnable {
+
+    private volatile boolean canceled = false;
+    private final Runnable timeoutHandler; //timeout handler routine
+    private final ReentrantLock fsmIsBusy; //lock for the fsm
+    private volatile ScheduledFuture<?> future = null;
+
+    TimeoutTask(Runnable timeoutHandler, ReentrantLock fsmIsBusy) {
+        this.timeoutHandler = timeoutHandler;
+        this.fsmIsBusy = fsmIsBusy;
+    }
+
+    /*
+     * Schedule the task at the shared timer scheduler
+     */
+    void schedule(long delay, TimeUnit unit) {
+        future = TimerScheduler.schedule(this, delay, unit);
+    }
+
+    /*
+     * Called by the scheduler when the timeout delay has passed.
+     * If the timeout was not canceled so far, the expiry is handed over to the
+     * timeout handler thread pool, such that a blocking fsm does not delay the
+     * scheduler and thus the timeouts of other fsm instances
+     */
+    @Override
+    public void run() {
+        if (!canceled) {
+            TimerScheduler.expire(this::fire);
+        }
+    }
+
+    /*
+     * Request the fsm lock and check once again, if the timeout was canceled
+     * by another transition during this process to avoid triggering timeout
+     * transitions for canceled timers.
+     * If the fsm is busy, the expiry is scheduled again instead of waiting for
+     * the lock on a timeout handler thread.
+     * If the timout was not canceled so far, call the timeout handler
+     * routine, that triggers the timeout transition in the fsm
+     */
+    private void fire() {
+        if (canceled) {
+            return;
+        }
+
+        if (!fsmIsBusy.tryLock()) {
+            schedule(TimerScheduler.BUSY_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        try {
+            if (!canceled) {
+                timeoutHandler.run();
+            }
+        } finally {
+            fsmIsBusy.unlock();
+        }
+    }
+
+    /*
+     * A method to cancel the timeout and remove the task from the scheduler
+     */
+    public void safeStop() {
+        canceled = true;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
@@ -1,16 +1,17 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * A Timer class that provides an API to the FSN to start and cancel timeout threads
+ * A Timer class that provides an API to the FSN to start and cancel timeouts
  * The timer ensures that no canceled timer is able to trigger a timeout transitions
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 public class Timer {
 
-    private TimerThread thread = null;
+    private TimeoutTask task = null;
     private final ReentrantLock fsmIsBusy;
     private final ReentrantLock mutex = new ReentrantLock(true);
     private final Runnable timeoutHandler;
@@ -20,31 +21,50 @@ public class Timer {
         this.timeoutHandler = timeoutHandler;
     }
 
+    /*
+     * Restart the timer with a timeout delay in seconds
+     */
     void resetTimeout(long delay) {
+        resetTimeout(delay, TimeUnit.SECONDS);
+    }
+
+    void resetTimeout(long delay, TimeUnit unit) {
         cancelTimeout();
-        start(delay);
+        start(delay, unit);
     }
 
     /*
-     * Start a timer thread that triggers the timeout handler routine after a given timout delay
+     * Start a timeout that triggers the timeout handler routine after a given timeout delay in seconds
      */
     public void start(long delay) {
+        start(delay, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Start a timeout that triggers the timeout handler routine after a given timeout delay
+     */
+    public void start(long delay, TimeUnit unit) {
         mutex.lock();
-        thread = new TimerThread(delay, timeoutHandler, fsmIsBusy);
-        thread.start();
-        mutex.unlock();
+        try {
+            task = new TimeoutTask(timeoutHandler, fsmIsBusy);
+            task.schedule(delay, unit);
+        } finally {
+            mutex.unlock();
+        }
     }
 
     /*
-     * Cancel the current timer thread
+     * Cancel the current timeout
      */
     void cancelTimeout() {
         mutex.lock();
-        if (thread != null) {
-            thread.safeStop();
-            thread = null;
+        try {
+            if (task != null) {
+                task.safeStop();
+                task = null;
+            }
+        } finally {
+            mutex.unlock();
         }
-        mutex.unlock();
     }
 }
-
@@ -0,0 +1,66 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The process-wide scheduler for the timeouts of all FSM instances.
+ * <p>
+ * Timeouts are scheduled with millisecond resolution on a single scheduler thread, canceled
+ * timeouts are removed from the queue immediately. Expired timeouts are handled on a bounded pool
+ * of reused threads, such that timeout handlers do not delay the scheduler. A handler does not
+ * wait for the lock of a busy fsm, but is scheduled again after BUSY_RETRY_MILLIS, so that busy
+ * fsm instances cannot occupy the handler threads and delay the timeouts of all other instances.
+ */
+final class TimerScheduler {
+    static final String EXPIRY_THREAD_NAME = "IDSCP2 Timeout Handler";
+    static final int EXPIRY_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    static final long BUSY_RETRY_MILLIS = 10;
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER;
+    private static final ExecutorService EXPIRY_EXECUTOR;
+
+    static {
+        SCHEDULER = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("IDSCP2 Timer"));
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+        SCHEDULER.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        ThreadPoolExecutor expiryExecutor = new ThreadPoolExecutor(
+                EXPIRY_THREADS, EXPIRY_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                daemonThreadFactory(EXPIRY_THREAD_NAME));
+        expiryExecutor.allowCoreThreadTimeOut(true);
+        EXPIRY_EXECUTOR = expiryExecutor;
+    }
+
+    private TimerScheduler() {
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + " " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return SCHEDULER.schedule(task, delay, unit);
+    }
+
+    static void expire(Runnable handler) {
+        EXPIRY_EXECUTOR.execute(handler);
+    }
+
+    /*
+     * Number of timeouts that are currently scheduled
+     */
+    static int pendingTimeouts() {
+        return SCHEDULER.getQueue().size();
+    }
+}
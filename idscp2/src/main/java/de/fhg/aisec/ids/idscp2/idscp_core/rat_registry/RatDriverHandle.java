@@ -0,0 +1,185 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.rat_registry;
+
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A handle of a started RAT driver, which identifies the driver within the finite state machine
+ * <p>
+ * All RAT drivers share one executor with a bounded number of threads. The tasks of a driver, i.e.
+ * its start, the delegated messages and its scheduled tasks, are queued in its handle and executed
+ * one at a time, such that a driver never runs concurrently with itself. Pending tasks of a
+ * terminated driver are dropped. Blocking I/O of the drivers, e.g. requests to tpm2d, runs on a
+ * separate bounded executor, such that it does not hold up the tasks of other drivers.
+ */
+public final class RatDriverHandle {
+    private static final Logger LOG = LoggerFactory.getLogger(RatDriverHandle.class);
+
+    public static final String THREAD_NAME = "RAT Driver";
+    public static final String BLOCKING_THREAD_NAME = "RAT Blocking I/O";
+    public static final int EXECUTOR_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int BLOCKING_THREADS = EXECUTOR_THREADS;
+
+    private static final ScheduledExecutorService EXECUTOR;
+    private static final ThreadPoolExecutor BLOCKING_EXECUTOR;
+    private static final ThreadLocal<RatDriverHandle> CURRENT = new ThreadLocal<>();
+
+    static {
+        ScheduledThreadPoolExecutor executor =
+                new ScheduledThreadPoolExecutor(EXECUTOR_THREADS, daemonThreadFactory(THREAD_NAME));
+        executor.setRemoveOnCancelPolicy(true);
+        EXECUTOR = executor;
+        BLOCKING_EXECUTOR = new ThreadPoolExecutor(BLOCKING_THREADS, BLOCKING_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                daemonThreadFactory(BLOCKING_THREAD_NAME));
+        BLOCKING_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + " " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private final RatDriver driver;
+    private final Queue<Runnable> tasks = new ArrayDeque<>(); //guarded by this
+    private boolean executing = false; //guarded by this
+    private volatile boolean terminated = false;
+
+    private RatDriverHandle(RatDriver driver) {
+        this.driver = driver;
+    }
+
+    /*
+     * Create the handle of an initialized driver and start the driver on the executor
+     */
+    static RatDriverHandle start(RatDriver driver) {
+        RatDriverHandle handle = new RatDriverHandle(driver);
+        driver.setHandle(handle);
+        handle.execute(driver::start);
+        return handle;
+    }
+
+    /*
+     * Delegate an IDSCP2 message to the driver
+     */
+    public void delegate(byte[] message) {
+        execute(() -> driver.delegate(message));
+    }
+
+    /*
+     * Queue a task of the driver, the task is dropped if the driver has been terminated
+     */
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            tasks.add(task);
+            if (executing) {
+                return;
+            }
+            executing = true;
+        }
+        EXECUTOR.execute(this::runTasks);
+    }
+
+    /*
+     * Queue a task of the driver after the given delay
+     */
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!terminated) {
+            EXECUTOR.schedule(() -> execute(task), delay, unit);
+        }
+    }
+
+    /*
+     * Run a blocking call on the blocking I/O executor and pass its result or its exception to the
+     * callback, which is queued as a task of the driver. The callback is dropped if the driver has
+     * been terminated in the meantime.
+     */
+    public <T> void executeBlocking(Callable<T> call, BiConsumer<T, Exception> callback) {
+        if (terminated) {
+            return;
+        }
+        BLOCKING_EXECUTOR.execute(() -> {
+            T result = null;
+            Exception error = null;
+            try {
+                result = call.call();
+            } catch (Exception e) {
+                error = e;
+            }
+            T finalResult = result;
+            Exception finalError = error;
+            execute(() -> callback.accept(finalResult, finalError));
+        });
+    }
+
+    /*
+     * Terminate the driver and drop its pending tasks
+     */
+    public void terminate() {
+        terminated = true;
+        driver.terminate();
+        synchronized (this) {
+            tasks.clear();
+        }
+    }
+
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /*
+     * Check if the calling thread is currently executing a task of this driver, which has not been
+     * terminated
+     */
+    public boolean isCurrent() {
+        return CURRENT.get() == this && !terminated;
+    }
+
+    public RatDriver getDriver() {
+        return driver;
+    }
+
+    private void runTasks() {
+        CURRENT.set(this);
+        try {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = terminated ? null : tasks.poll();
+                    if (task == null) {
+                        tasks.clear();
+                        executing = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("RAT driver task has failed", e);
+                }
+            }
+        } finally {
+            CURRENT.remove();
+        }
+    }
+}
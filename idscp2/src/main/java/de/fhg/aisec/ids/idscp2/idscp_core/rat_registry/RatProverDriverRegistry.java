@@ -3,6 +3,7 @@ package de.fhg.aisec.ids.idscp2.idscp_core.rat_registry;
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatProverDriver;
 import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.FsmListener;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -34,28 +35,27 @@ public class RatProverDriverRegistry {
      * To start a Rat Prover from the finite state machine
      *
      * First we check if the registry contains the RatProver instance, then we create a new
-     * RatProverDriver from the driver wrapper that holds the corresponding RatProverDriver class.
+     * RatProverDriver with the cached constructor of the driver wrapper.
      *
      * The finite state machine is registered as the communication partner for the RatProver.
-     * The RatProver will be initialized with a configuration, if present. Then it is started.
+     * The RatProver will be initialized with a configuration, if present. Then it is started on
+     * the shared RAT driver executor and the handle of the driver is returned.
      */
-    public static RatProverDriver startRatProverDriver(String instance, FsmListener listener) {
+    public static RatDriverHandle startRatProverDriver(String instance, FsmListener listener) {
         DriverWrapper driverWrapper = drivers.get(instance);
         if (driverWrapper == null) {
             return null;
         }
 
         try {
-            RatProverDriver driver = driverWrapper.driverClass.getDeclaredConstructor().newInstance();
+            RatProverDriver driver = driverWrapper.driverConstructor.newInstance();
             driver.setListener(listener);
             if (driverWrapper.driverConfig != null) {
                 driver.setConfig(driverWrapper.driverConfig);
             }
-            driver.start();
-            return driver;
+            return RatDriverHandle.start(driver);
 
-        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
-                InvocationTargetException e) {
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
             return null;
         }
     }
@@ -69,7 +69,12 @@ public class RatProverDriverRegistry {
             Class<? extends RatProverDriver> driverClass,
             Object driverConfig
     ) {
-        drivers.put(instance, new DriverWrapper(driverClass, driverConfig));
+        try {
+            drivers.put(instance, new DriverWrapper(driverClass.getDeclaredConstructor(), driverConfig));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("RatProverDriver " + driverClass.getName()
+                    + " has no default constructor", e);
+        }
     }
 
     /*
@@ -80,17 +85,17 @@ public class RatProverDriverRegistry {
     }
 
     /*
-     * An inner static wrapper class, that wraps driver config and driver class
+     * An inner static wrapper class, that wraps driver config and the cached driver constructor
      */
     private static class DriverWrapper {
-        private final Class<? extends RatProverDriver> driverClass;
+        private final Constructor<? extends RatProverDriver> driverConstructor;
         private final Object driverConfig;
 
         private DriverWrapper(
-                Class<? extends RatProverDriver> driverClass,
+                Constructor<? extends RatProverDriver> driverConstructor,
                 Object driverConfig
         ) {
-            this.driverClass = driverClass;
+            this.driverConstructor = driverConstructor;
             this.driverConfig = driverConfig;
         }
     }
@@ -0,0 +1,121 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.rat_registry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache for successful remote attestations of peer connectors
+ * <p>
+ * An entry is identified by the fingerprint of the peer certificate, the RAT mechanism and the
+ * configuration of the RAT verifier, and expires after its max age. The configuration is compared
+ * by its string representation, such that an attestation is only reused by verifiers with the same
+ * requirements, e.g. the expected attestation type and PCR mask. Configurations without a
+ * value-based string representation are only equal to themselves.
+ * <p>
+ * While an entry is valid, the RAT verifier of a new connection to the same peer does not request
+ * a new attestation, but only tells the peer's RAT prover that it has already been attested.
+ * Failed attestations remove the entry. The number of entries is bounded, the least recently
+ * stored entries are removed first.
+ */
+public final class RatResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RatResultCache.class);
+
+    static final int MAX_ENTRIES = 1024;
+
+    // entries in the order in which they have been stored, guarded by itself
+    private static final Map<String, Long> RESULTS = Collections.synchronizedMap(
+            new LinkedHashMap<String, Long>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private RatResultCache() {
+    }
+
+    /*
+     * Store the successful attestation of a peer for the given max age in milliseconds
+     */
+    public static void put(String peerFingerprint, String mechanism, Object verifierConfig,
+                           long maxAge) {
+        if (peerFingerprint == null || maxAge <= 0) {
+            return;
+        }
+        String key = key(peerFingerprint, mechanism, verifierConfig);
+        long expiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxAge);
+        synchronized (RESULTS) {
+            // a renewed entry is the most recently stored one
+            RESULTS.remove(key);
+            RESULTS.put(key, expiry);
+        }
+    }
+
+    /*
+     * Check if the peer has been attested successfully with the given mechanism and verifier
+     * configuration within the max age
+     */
+    public static boolean isAttested(String peerFingerprint, String mechanism,
+                                     Object verifierConfig) {
+        if (peerFingerprint == null) {
+            return false;
+        }
+        String key = key(peerFingerprint, mechanism, verifierConfig);
+        Long expiry = RESULTS.get(key);
+        if (expiry == null) {
+            return false;
+        } else if (expiry - System.nanoTime() <= 0) {
+            RESULTS.remove(key, expiry);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Remove the attestation of a peer, e.g. after a failed attestation
+     */
+    public static void invalidate(String peerFingerprint, String mechanism, Object verifierConfig) {
+        if (peerFingerprint != null) {
+            RESULTS.remove(key(peerFingerprint, mechanism, verifierConfig));
+        }
+    }
+
+    /*
+     * Remove all cached attestations, subsequent connections run a full remote attestation
+     */
+    public static void clear() {
+        RESULTS.clear();
+    }
+
+    /*
+     * Calculate the SHA-256 fingerprint of a peer certificate
+     *
+     * return null if the certificate is not available or cannot be encoded
+     */
+    public static String fingerprint(X509Certificate certificate) {
+        if (certificate == null) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            LOG.warn("Cannot calculate fingerprint of peer certificate", e);
+            return null;
+        }
+    }
+
+    private static String key(String peerFingerprint, String mechanism, Object verifierConfig) {
+        return peerFingerprint + '\n' + mechanism + '\n' + verifierConfig;
+    }
+}
@@ -4,6 +4,7 @@ package de.fhg.aisec.ids.idscp2.idscp_core.rat_registry;
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver;
 import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.FsmListener;
 
+import java.lang.reflect.Constructor;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -34,29 +35,46 @@ public class RatVerifierDriverRegistry {
      * To start a Rat Verifier from the finite state machine
      *
      * First we check if the registry contains the RatVerifier instance, then we create a new
-     * RatVerifierDriver from the driver wrapper that holds the corresponding
-     * RatVerifierDriver class.
+     * RatVerifierDriver with the cached constructor of the driver wrapper.
      *
      * The finite state machine is registered as the communication partner for the RatVerifier.
-     * The RatVerifier will be initialized with a configuration, if present. Then it is started.
+     * The RatVerifier will be initialized with a configuration, if present. Then it is started on
+     * the shared RAT driver executor and the handle of the driver is returned.
      */
-    public static RatVerifierDriver startRatVerifierDriver(String mechanism, FsmListener listener) {
+    public static RatDriverHandle startRatVerifierDriver(String mechanism, FsmListener listener) {
+        return startRatVerifierDriver(mechanism, listener, false);
+    }
+
+    /*
+     * To start a Rat Verifier for a peer, whose attestation with this mechanism is still cached
+     * in the RatResultCache if peerAttested is true
+     */
+    public static RatDriverHandle startRatVerifierDriver(String mechanism, FsmListener listener,
+                                                         boolean peerAttested) {
         DriverWrapper driverWrapper = drivers.get(mechanism);
 
         try {
-            RatVerifierDriver driver = driverWrapper.driverClass.getDeclaredConstructor().newInstance();
+            RatVerifierDriver driver = driverWrapper.driverConstructor.newInstance();
             driver.setListener(listener);
+            driver.setPeerAttested(peerAttested);
             if (driverWrapper.driverConfig != null) {
                 driver.setConfig(driverWrapper.driverConfig);
             }
-            driver.start();
-            return driver;
+            return RatDriverHandle.start(driver);
 
         } catch (Exception e) {
             return null;
         }
     }
 
+    /*
+     * Get the configuration of the Rat Verifier driver of the given mechanism, null if there is none
+     */
+    public static Object getDriverConfig(String mechanism) {
+        DriverWrapper driverWrapper = drivers.get(mechanism);
+        return driverWrapper == null ? null : driverWrapper.driverConfig;
+    }
+
     /*
      * Register Rat Verifier driver and an optional configuration in the registry
      */
@@ -65,7 +83,12 @@ public class RatVerifierDriverRegistry {
             Class<? extends RatVerifierDriver> driverClass,
             Object driverConfig
     ) {
-        drivers.put(mechanism, new DriverWrapper(driverClass, driverConfig));
+        try {
+            drivers.put(mechanism, new DriverWrapper(driverClass.getDeclaredConstructor(), driverConfig));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("RatVerifierDriver " + driverClass.getName()
+                    + " has no default constructor", e);
+        }
     }
 
     /*
@@ -76,17 +99,17 @@ public class RatVerifierDriverRegistry {
     }
 
     /*
-     * An inner static wrapper class, that wraps driver config and driver class
+     * An inner static wrapper class, that wraps driver config and the cached driver constructor
      */
     private static class DriverWrapper {
-        private final Class<? extends RatVerifierDriver> driverClass;
+        private final Constructor<? extends RatVerifierDriver> driverConstructor;
         private final Object driverConfig;
 
         private DriverWrapper(
-                Class<? extends RatVerifierDriver> driver,
+                Constructor<? extends RatVerifierDriver> driverConstructor,
                 Object driverConfig
         ) {
-            this.driverClass = driver;
+            this.driverConstructor = driverConstructor;
             this.driverConfig = driverConfig;
         }
     }
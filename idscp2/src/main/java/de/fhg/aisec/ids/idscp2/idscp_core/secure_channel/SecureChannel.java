@@ -4,6 +4,7 @@ import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.FsmListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.security.cert.X509Certificate;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -65,6 +66,13 @@ public class SecureChannel implements SecureChannelListener {
         return endpoint.isConnected();
     }
 
+    /*
+     * Get the certificate of the peer connector, null if the peer has not been authenticated
+     */
+    public X509Certificate getPeerCertificate() {
+        return endpoint.getPeerCertificate();
+    }
+
     /*
      * set the corresponding finite state machine
      */
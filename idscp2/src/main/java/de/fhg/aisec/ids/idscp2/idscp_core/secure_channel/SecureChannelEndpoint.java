@@ -1,5 +1,7 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.secure_channel;
 
+import java.security.cert.X509Certificate;
+
 /**
  * An interface for a secureChannelEndpoint e.g. TLS Client and TLS Server Thread
  * Used to delegate functions and messages between secure channel and its endpoints
@@ -29,4 +31,13 @@ public interface SecureChannelEndpoint {
      * check if the endpoint is connected
      */
     boolean isConnected();
+
+    /*
+     * Get the certificate of the peer connector
+     *
+     * return null if the peer has not been authenticated
+     */
+    default X509Certificate getPeerCertificate() {
+        return null;
+    }
 }
@@ -2,14 +2,151 @@ import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DefaultDapsDrive
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DefaultDapsDriverConfig;
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.SecurityRequirements;
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
+import de.fhg.aisec.ids.idscp2.testutil.MockDaps;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
-@Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
 public class DapsDriverTest {
 
+  private static final String CONNECTOR_UUID = "edc5d7b3-a398-48f0-abb0-3751530c4fed";
+  private static final int VERIFICATIONS = 10;
+
+  private MockDaps mockDaps;
+
+  @Before
+  public void startMockDaps() throws Exception {
+    mockDaps = new MockDaps(CONNECTOR_UUID, null);
+    // a DAPS request takes a while, such that concurrent handshakes would overlap
+    mockDaps.setResponseDelay(200);
+  }
+
+  @After
+  public void stopMockDaps() {
+    mockDaps.close();
+  }
+
+  private DapsDriver mockDapsDriver(double renewalThreshold) {
+    DefaultDapsDriverConfig config =
+        new DefaultDapsDriverConfig.Builder()
+            .setConnectorUUID(CONNECTOR_UUID)
+            .setKeyStorePath(DapsDriverTest.class.getClassLoader().
+                getResource("ssl/aisecconnector1-keystore.jks").getPath())
+            .setTrustStorePath(DapsDriverTest.class.getClassLoader().
+                getResource("ssl/client-truststore_new.jks").getPath())
+            .setKeyStorePassword("password")
+            .setTrustStorePassword("password")
+            .setKeyAlias("1")
+            .setDapsUrl(mockDaps.getUrl())
+            .setDatRenewalThreshold(renewalThreshold)
+            .build();
+    return new DefaultDapsDriver(config);
+  }
+
+  @Test
+  public void testConcurrentHandshakesShareOneDapsRequest() throws Exception {
+    DapsDriver dapsDriver = mockDapsDriver(DefaultDapsDriverConfig.DEFAULT_DAT_RENEWAL_THRESHOLD);
+
+    int handshakes = 16;
+    ExecutorService executor = Executors.newFixedThreadPool(handshakes);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<byte[]>> tokens = new ArrayList<>();
+    for (int i = 0; i < handshakes; i++) {
+      tokens.add(executor.submit(() -> {
+        start.await();
+        return dapsDriver.getToken();
+      }));
+    }
+    start.countDown();
+
+    byte[] token = tokens.get(0).get(30, TimeUnit.SECONDS);
+    assertNotEquals("INVALID_TOKEN", new String(token));
+    for (Future<byte[]> other : tokens) {
+      assertArrayEquals(token, other.get(30, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    assertEquals(1, mockDaps.getTokenRequests());
+
+    // the cached DAT is used until the renewal threshold has been reached
+    for (int i = 0; i < 100; i++) {
+      assertArrayEquals(token, dapsDriver.getToken());
+    }
+    assertEquals(1, mockDaps.getTokenRequests());
+  }
+
+  @Test
+  public void testDatIsRenewedInBackground() throws Exception {
+    mockDaps.setDatValidity(4);
+    DapsDriver dapsDriver = mockDapsDriver(0.25);
+    byte[] first = dapsDriver.getToken();
+    assertNotEquals("INVALID_TOKEN", new String(first));
+    assertEquals(1, mockDaps.getTokenRequests());
+
+    // renewal threshold has been reached, the DAPS holds back the renewal, but the DAT is still
+    // valid and returned without waiting for it
+    mockDaps.holdBackTokens();
+    Thread.sleep(1500);
+    assertArrayEquals(first, dapsDriver.getToken());
+    mockDaps.releaseTokens();
+
+    long deadline = System.currentTimeMillis() + 10000;
+    byte[] renewed = first;
+    while (Arrays.equals(first, renewed) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+      renewed = dapsDriver.getToken();
+    }
+    assertFalse(Arrays.equals(first, renewed));
+    assertNotEquals("INVALID_TOKEN", new String(renewed));
+    assertEquals(2, mockDaps.getTokenRequests());
+  }
+
+  @Test
+  public void testJwksIsFetchedOnceForAllVerifications() throws Exception {
+    DapsDriver dapsDriver = mockDapsDriver(DefaultDapsDriverConfig.DEFAULT_DAT_RENEWAL_THRESHOLD);
+    SecurityRequirements requirements = new SecurityRequirements.Builder()
+        .setAuditLogging(2)
+        .build();
+    SecurityRequirements tooStrict = new SecurityRequirements.Builder()
+        .setAuditLogging(3)
+        .build();
+
+    // re-presented DATs are not verified again
+    byte[] dat = mockDaps.dat("re-presented").getBytes();
+    for (int i = 0; i < VERIFICATIONS; i++) {
+      assertTrue(dapsDriver.verifyToken(dat, requirements) > 0);
+    }
+    assertTrue(dapsDriver.verifyToken(dat, tooStrict) < 0);
+    assertEquals(1, mockDaps.getJwksFetches());
+
+    // distinct DATs are verified with the cached JWKS
+    for (int i = 0; i < VERIFICATIONS; i++) {
+      assertTrue(dapsDriver.verifyToken(mockDaps.dat(Integer.toString(i)).getBytes(), requirements) > 0);
+    }
+    assertEquals(1, mockDaps.getJwksFetches());
+
+    // a DAT with an invalid signature is rejected
+    assertTrue(dapsDriver.verifyToken(mockDaps.forgedDat("forged").getBytes(), null) < 0);
+
+    // a rotated DAPS key with an unknown key ID triggers a refresh of the JWKS
+    mockDaps.rotateKey("rotated");
+    int fetches = mockDaps.getJwksFetches();
+    assertTrue(dapsDriver.verifyToken(mockDaps.dat("rotated").getBytes(), requirements) > 0);
+    assertEquals(fetches + 1, mockDaps.getJwksFetches());
+  }
+
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test
   public void testValidToken() {
     DefaultDapsDriverConfig config =
@@ -41,6 +178,7 @@ public class DapsDriverTest {
     assertTrue(dapsDriver.verifyToken(token.getBytes(), requirements2) >= 0);
   }
 
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test
   public void testInvalidClient() {
     DefaultDapsDriverConfig config =
@@ -61,6 +199,7 @@ public class DapsDriverTest {
     assertEquals(token, "INVALID_TOKEN");
   }
 
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test
   public void testInvalidUrlNonSecure() {
     DefaultDapsDriverConfig config =
@@ -81,6 +220,7 @@ public class DapsDriverTest {
     assertEquals(token, "INVALID_TOKEN");
   }
 
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test
   public void testInvalidUrl404() {
     DefaultDapsDriverConfig config =
@@ -101,6 +241,7 @@ public class DapsDriverTest {
     assertEquals(token, "INVALID_TOKEN");
   }
 
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test (expected = RuntimeException.class)
   public void testInvalidPassword1() {
     DefaultDapsDriverConfig config =
@@ -119,6 +260,7 @@ public class DapsDriverTest {
     new DefaultDapsDriver(config);
   }
 
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test (expected = RuntimeException.class)
   public void testInvalidPassword2() {
     DefaultDapsDriverConfig config =
@@ -137,6 +279,7 @@ public class DapsDriverTest {
     new DefaultDapsDriver(config);
   }
 
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test (expected = RuntimeException.class)
   public void testInvalidKeyAlias() {
     DefaultDapsDriverConfig config =
@@ -155,6 +298,7 @@ public class DapsDriverTest {
     new DefaultDapsDriver(config);
   }
 
+  @Ignore("Some test rely on external server resources and are somewhat unreliable right now.")
   @Test
   public void testInvalidAuditLogging() {
     DefaultDapsDriverConfig config =
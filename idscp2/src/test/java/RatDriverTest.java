@@ -1,11 +1,98 @@
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatProverDummy;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatVerifierDummy;
+import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.FsmListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.InternalControlMessage;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatDriverHandle;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry;
+import org.junit.Before;
 import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
 
 public class RatDriverTest {
 
+  /*
+   * Counts the messages of the RAT drivers
+   */
+  private static class CountingListener implements FsmListener {
+    private final AtomicInteger messages = new AtomicInteger();
+
+    @Override
+    public void onRatProverMessage(InternalControlMessage controlMessage, byte[] ratMessage) {
+      messages.incrementAndGet();
+    }
+
+    @Override
+    public void onRatVerifierMessage(InternalControlMessage controlMessage, byte[] ratMessage) {
+      messages.incrementAndGet();
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+    }
+
+    @Override
+    public void onError(Throwable t) {
+    }
+
+    @Override
+    public void onClose() {
+    }
+  }
+
+  @Before
+  public void registerDummyDrivers() {
+    RatProverDriverRegistry.getInstance().registerDriver("Dummy", RatProverDummy.class, null);
+    RatVerifierDriverRegistry.getInstance().registerDriver("Dummy", RatVerifierDummy.class, null);
+  }
+
   @Test
   public void basisTest() {
     System.out.println("Basis Test");
     assertTrue(true);
   }
+
+  @Test
+  public void testTerminatedDriverIsNotExecuted() throws Exception {
+    CountingListener listener = new CountingListener();
+    RatDriverHandle prover = RatProverDriverRegistry.startRatProverDriver("Dummy", listener);
+    assertNotNull(prover);
+    prover.terminate();
+    assertFalse(prover.isCurrent());
+    prover.delegate("test".getBytes());
+
+    // the dummy prover would send its first message after one second
+    Thread.sleep(1500);
+    assertEquals(0, listener.messages.get());
+  }
+
+  @Test
+  public void testBlockingCallRunsOutsideOfDriverExecutor() throws Exception {
+    RatDriverHandle verifier =
+        RatVerifierDriverRegistry.startRatVerifierDriver("Dummy", new CountingListener());
+    assertNotNull(verifier);
+    try {
+      CompletableFuture<String> callThread = new CompletableFuture<>();
+      CompletableFuture<Boolean> callbackOfDriver = new CompletableFuture<>();
+      verifier.executeBlocking(
+          () -> {
+            callThread.complete(Thread.currentThread().getName());
+            return "response";
+          },
+          (response, error) ->
+              callbackOfDriver.complete(verifier.isCurrent() && "response".equals(response)));
+
+      assertTrue(callThread.get(10, TimeUnit.SECONDS)
+          .startsWith(RatDriverHandle.BLOCKING_THREAD_NAME));
+      // the result is passed back as a task of the driver
+      assertTrue(callbackOfDriver.get(10, TimeUnit.SECONDS));
+    } finally {
+      verifier.terminate();
+    }
+  }
 }
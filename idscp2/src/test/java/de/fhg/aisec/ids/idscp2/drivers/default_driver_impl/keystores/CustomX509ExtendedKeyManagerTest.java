@@ -0,0 +1,52 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores;
+
+import org.junit.Test;
+
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.security.Principal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class CustomX509ExtendedKeyManagerTest {
+
+  private static final String CERT_ALIAS = "1.0.1";
+
+  @Test
+  public void testCachedAliasIgnoresLookupCounter() {
+    // SunJSSE increases the lookup counter of the aliases with every lookup
+    AtomicInteger lookups = new AtomicInteger();
+    X509ExtendedKeyManager delegate = mock(X509ExtendedKeyManager.class);
+    when(delegate.getServerAliases(eq("RSA"), any()))
+        .thenAnswer(invocation -> new String[] {lookups.incrementAndGet() + ".0.1"});
+    when(delegate.getClientAliases(eq("RSA"), any()))
+        .thenAnswer(invocation -> new String[] {lookups.incrementAndGet() + ".0.1"});
+    CustomX509ExtendedKeyManager keyManager = new CustomX509ExtendedKeyManager(CERT_ALIAS, "RSA", delegate);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(CERT_ALIAS, keyManager.chooseServerAlias("RSA", null, null));
+      assertEquals(CERT_ALIAS, keyManager.chooseClientAlias(new String[] {"RSA"}, null, null));
+    }
+    // only the first handshake looks up the aliases
+    verify(delegate, times(1)).getServerAliases(eq("RSA"), any());
+    verify(delegate, never()).getClientAliases(eq("RSA"), any());
+  }
+
+  @Test
+  public void testUnknownAliasIsNotChosen() {
+    X509ExtendedKeyManager delegate = mock(X509ExtendedKeyManager.class);
+    when(delegate.getServerAliases(eq("RSA"), any())).thenReturn(new String[] {"1.0.2"});
+    CustomX509ExtendedKeyManager keyManager = new CustomX509ExtendedKeyManager(CERT_ALIAS, "RSA", delegate);
+    assertNull(keyManager.chooseServerAlias("RSA", new Principal[0], null));
+    assertNull(keyManager.chooseServerAlias("EC", null, null));
+  }
+
+  @Test
+  public void testLookupCounterIsRemoved() {
+    assertEquals("0.1", CustomX509ExtendedKeyManager.withoutLookupCounter("42.0.1"));
+    assertEquals("1", CustomX509ExtendedKeyManager.withoutLookupCounter("1"));
+  }
+}
@@ -0,0 +1,218 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation.RemoteToTpm2d;
+import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation.Tpm2dToRemote;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TPM2dConnectionPoolTest {
+
+  private static final int THREADS = 8;
+  private static final int REQUESTS = 2000;
+
+  /*
+   * A fake tpm2d that answers every request with the qualifying data as quote, unless it is silent
+   */
+  private static class FakeTpm2d implements Runnable {
+    private final ServerSocket serverSocket;
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean silent = false;
+
+    FakeTpm2d() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      new Thread(this, "Fake tpm2d").start();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Socket socket = serverSocket.accept();
+          accepted.incrementAndGet();
+          sockets.add(socket);
+          new Thread(() -> serve(socket)).start();
+        }
+      } catch (IOException ignored) {
+        // server socket has been closed
+      }
+    }
+
+    private void serve(Socket socket) {
+      try (socket) {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        while (true) {
+          byte[] requestBytes = new byte[in.readInt()];
+          in.readFully(requestBytes);
+          requests.incrementAndGet();
+          if (silent) {
+            continue;
+          }
+          RemoteToTpm2d request = RemoteToTpm2d.parseFrom(requestBytes);
+          byte[] response = Tpm2dToRemote.newBuilder()
+              .setCode(Tpm2dToRemote.Code.ATTESTATION_RES)
+              .setQuoted(request.getQualifyingData())
+              .build()
+              .toByteArray();
+          out.writeInt(response.length);
+          out.write(response);
+          out.flush();
+        }
+      } catch (EOFException ignored) {
+        // client has closed the connection
+      } catch (IOException ignored) {
+        // connection has been closed by the test
+      }
+    }
+
+    /*
+     * Simulates a restart of tpm2d, which closes all open connections
+     */
+    void closeConnections() throws IOException {
+      synchronized (sockets) {
+        for (Socket socket : sockets) {
+          socket.close();
+        }
+        sockets.clear();
+      }
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+  }
+
+  private FakeTpm2d tpm2d;
+  private TPM2dConnectionPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    tpm2d = new FakeTpm2d();
+    pool = new TPM2dConnectionPool(THREADS, TPM2dConnectionPool.DEFAULT_MAX_IDLE_TIME);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    pool.clear();
+    tpm2d.serverSocket.close();
+    tpm2d.closeConnections();
+  }
+
+  private static byte[] nonce(int i) {
+    return ByteBuffer.allocate(8).putLong(i).array();
+  }
+
+  private byte[] attest(TPM2dConnectionPool pool, int i) throws IOException {
+    RemoteToTpm2d request = RemoteToTpm2d.newBuilder()
+        .setCode(RemoteToTpm2d.Code.ATTESTATION_REQ)
+        .setQualifyingData(ByteString.copyFrom(nonce(i)))
+        .build();
+    byte[] response = pool.request("localhost", tpm2d.getPort(), request.toByteArray());
+    return Tpm2dToRemote.parseFrom(response).getQuoted().toByteArray();
+  }
+
+  @Test
+  public void testBurstReusesBoundedConnections() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        final int id = i;
+        results.add(executor.submit(() -> {
+          // every response must belong to its own request
+          assertArrayEquals(nonce(id), attest(pool, id));
+          return null;
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(pool.getOpenedConnections() <= THREADS);
+    assertEquals(pool.getOpenedConnections(), tpm2d.accepted.get());
+  }
+
+  @Test
+  public void testUnresponsiveTpm2dTimesOut() throws Exception {
+    // accepts connections in its backlog, but never answers
+    try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      TPM2dConnectionPool timingOut =
+          new TPM2dConnectionPool(1, TPM2dConnectionPool.DEFAULT_MAX_IDLE_TIME, 100);
+      byte[] request = RemoteToTpm2d.getDefaultInstance().toByteArray();
+      for (int i = 0; i < 2; i++) {
+        try {
+          timingOut.request("localhost", silent.getLocalPort(), request);
+          fail("Request without a response has not timed out");
+        } catch (SocketTimeoutException expected) {
+          // the failed connection is closed and its permit is available to the next request
+        }
+      }
+      assertEquals(2, timingOut.getOpenedConnections());
+      timingOut.clear();
+    }
+  }
+
+  @Test
+  public void testTimeoutOfPooledConnectionIsNotRetried() throws Exception {
+    TPM2dConnectionPool timingOut =
+        new TPM2dConnectionPool(1, TPM2dConnectionPool.DEFAULT_MAX_IDLE_TIME, 200);
+    try {
+      assertArrayEquals(nonce(1), attest(timingOut, 1));
+      tpm2d.silent = true;
+      try {
+        attest(timingOut, 2);
+        fail("Request without a response has not timed out");
+      } catch (SocketTimeoutException expected) {
+        // tpm2d may still be processing the request, it must not be sent again
+      }
+      // the request has not been repeated on a new connection
+      Thread.sleep(100);
+      assertEquals(2, tpm2d.requests.get());
+      assertEquals(1, timingOut.getOpenedConnections());
+    } finally {
+      timingOut.clear();
+    }
+  }
+
+  @Test
+  public void testClosedConnectionsAreReplaced() throws Exception {
+    assertArrayEquals(nonce(1), attest(pool, 1));
+    assertEquals(1, pool.getOpenedConnections());
+    assertArrayEquals(nonce(2), attest(pool, 2));
+    assertEquals(1, pool.getOpenedConnections());
+
+    tpm2d.closeConnections();
+    // wait until the closed connection is visible to the client
+    Thread.sleep(100);
+    assertArrayEquals(nonce(3), attest(pool, 3));
+    assertEquals(2, pool.getOpenedConnections());
+  }
+}
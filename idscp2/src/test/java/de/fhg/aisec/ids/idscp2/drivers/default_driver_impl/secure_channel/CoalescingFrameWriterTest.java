@@ -0,0 +1,327 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalescingFrameWriterTest {
+
+  private static final int MESSAGES = 10_000;
+  private static final int MESSAGE_SIZE = 100;
+  private static final int MAX_RECORD_SIZE = 16 * 1024;
+
+  /*
+   * Counts the TLS records an SSLSocket would produce, every write call is split into records of
+   * at most 16 KB of plaintext
+   */
+  private static class RecordCountingStream extends OutputStream {
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    private long records = 0;
+
+    @Override
+    public synchronized void write(int b) {
+      data.write(b);
+      records++;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      data.write(b, off, len);
+      records += Math.max(1, (len + MAX_RECORD_SIZE - 1) / MAX_RECORD_SIZE);
+    }
+
+    synchronized long getRecords() {
+      return records;
+    }
+
+    synchronized List<byte[]> getFrames() throws IOException {
+      List<byte[]> frames = new ArrayList<>();
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.toByteArray()));
+      while (in.available() > 0) {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        frames.add(frame);
+      }
+      return frames;
+    }
+  }
+
+  /*
+   * Blocks the first write until it is released, and fails writes after close
+   */
+  private static class BlockingStream extends RecordCountingStream {
+    private final CountDownLatch writeStarted = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean closed = false;
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (closed) {
+        throw new IllegalStateException("Stream is closed");
+      }
+      super.write(b, off, len);
+      if (writeStarted.getCount() > 0) {
+        writeStarted.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static void write(CoalescingFrameWriter writer, byte[] data) {
+    try {
+      writer.write(data);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static byte[] message(int i) {
+    byte[] message = new byte[MESSAGE_SIZE];
+    message[0] = (byte) (i >>> 8);
+    message[1] = (byte) i;
+    return message;
+  }
+
+  private static void assertFrames(List<byte[]> frames) {
+    assertEquals(MESSAGES, frames.size());
+    for (int i = 0; i < MESSAGES; i++) {
+      assertArrayEquals(message(i), frames.get(i));
+    }
+  }
+
+  @Test
+  public void testFrameIsWrittenAtOnce() throws IOException {
+    RecordCountingStream stream = new RecordCountingStream();
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(stream, 0, MAX_RECORD_SIZE);
+    for (int i = 0; i < MESSAGES; i++) {
+      writer.write(message(i));
+    }
+    assertFrames(stream.getFrames());
+    // the length and the data of a frame share one TLS record
+    assertEquals(MESSAGES, stream.getRecords());
+    assertEquals(MESSAGES, writer.getStreamWrites());
+  }
+
+  @Test
+  public void testDelayCoalescesMessages() throws Exception {
+    RecordCountingStream stream = new RecordCountingStream();
+    // the delayed flush does not run during the test
+    CoalescingFrameWriter writer =
+        new CoalescingFrameWriter(stream, TimeUnit.HOURS.toMillis(1), MAX_RECORD_SIZE);
+    for (int i = 0; i < MESSAGES; i++) {
+      writer.write(message(i));
+    }
+    // frames are held back until max bytes are pending
+    int framesPerWrite = (MAX_RECORD_SIZE + 4 + MESSAGE_SIZE - 1) / (4 + MESSAGE_SIZE);
+    assertEquals(MESSAGES / framesPerWrite, writer.getStreamWrites());
+    // the remaining frames are written by close()
+    writer.close();
+    assertEquals(MESSAGES / framesPerWrite + 1, writer.getStreamWrites());
+    assertFrames(stream.getFrames());
+  }
+
+  @Test
+  public void testDelayedFlushWritesPendingFrames() throws Exception {
+    RecordCountingStream stream = new RecordCountingStream();
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(stream, 5, MAX_RECORD_SIZE);
+    writer.write(message(0));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (writer.getStreamWrites() == 0) {
+      assertTrue("Pending frame has not been flushed in time", System.nanoTime() < deadline);
+      Thread.sleep(5);
+    }
+    assertEquals(1, stream.getFrames().size());
+  }
+
+  @Test
+  public void testFramesAreCoalescedDuringRunningWrite() throws Exception {
+    BlockingStream stream = new BlockingStream();
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(stream, 0, MAX_RECORD_SIZE);
+    Thread first = new Thread(() -> write(writer, message(0)));
+    first.start();
+    assertTrue(stream.writeStarted.await(10, TimeUnit.SECONDS));
+
+    // the frames of other threads are taken by the writing thread
+    for (int i = 1; i < MESSAGES; i++) {
+      writer.write(message(i));
+    }
+    assertEquals(0, writer.getStreamWrites());
+    stream.release.countDown();
+    first.join();
+
+    assertFrames(stream.getFrames());
+    assertEquals(2, writer.getStreamWrites());
+  }
+
+  @Test
+  public void testCloseWaitsForRunningWrite() throws Exception {
+    BlockingStream stream = new BlockingStream();
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(stream, 0, MAX_RECORD_SIZE);
+    Thread first = new Thread(() -> write(writer, message(0)));
+    first.start();
+    assertTrue(stream.writeStarted.await(10, TimeUnit.SECONDS));
+    writer.write(message(1));
+
+    List<IOException> closeErrors = Collections.synchronizedList(new ArrayList<>());
+    Thread closer = new Thread(() -> {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        closeErrors.add(e);
+      }
+    });
+    closer.start();
+    closer.join(100);
+    assertTrue(closer.isAlive());
+
+    stream.release.countDown();
+    first.join();
+    closer.join();
+    assertTrue(closeErrors.isEmpty());
+    assertTrue(stream.closed);
+    List<byte[]> frames = stream.getFrames();
+    assertEquals(2, frames.size());
+    assertArrayEquals(message(1), frames.get(1));
+
+    try {
+      writer.write(message(2));
+      fail("Closed writer has accepted a frame");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCloseThrowsWriteError() {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    };
+    CoalescingFrameWriter writer =
+        new CoalescingFrameWriter(failing, TimeUnit.HOURS.toMillis(1), MAX_RECORD_SIZE);
+    try {
+      writer.write(message(0));
+      writer.close();
+      fail("Pending frame has been lost silently");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLargeFramesKeepOrder() throws IOException {
+    RecordCountingStream stream = new RecordCountingStream();
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(stream, 5, MAX_RECORD_SIZE);
+    byte[] large = new byte[100_000];
+    large[0] = 42;
+    writer.write(message(0));
+    writer.write(large);
+    writer.write(message(1));
+    writer.close();
+    List<byte[]> frames = stream.getFrames();
+    assertEquals(3, frames.size());
+    assertArrayEquals(message(0), frames.get(0));
+    assertArrayEquals(large, frames.get(1));
+    assertArrayEquals(message(1), frames.get(2));
+  }
+
+  @Test
+  public void testPendingFramesAreBounded() throws Exception {
+    BlockingStream stream = new BlockingStream();
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(stream, 0, MAX_RECORD_SIZE);
+    Thread first = new Thread(() -> write(writer, message(0)));
+    first.start();
+    assertTrue(stream.writeStarted.await(10, TimeUnit.SECONDS));
+
+    // the producer blocks once the pending frames have reached their limit
+    int messages = 2 * CoalescingFrameWriter.MAX_PENDING_RECORDS * MAX_RECORD_SIZE / (4 + MESSAGE_SIZE);
+    AtomicInteger written = new AtomicInteger();
+    Thread producer = new Thread(() -> {
+      for (int i = 1; i < messages; i++) {
+        write(writer, new byte[MESSAGE_SIZE]);
+        written.incrementAndGet();
+      }
+    });
+    producer.start();
+    producer.join(500);
+    assertTrue(producer.isAlive());
+    assertTrue((long) written.get() * (4 + MESSAGE_SIZE)
+        <= (long) CoalescingFrameWriter.MAX_PENDING_RECORDS * MAX_RECORD_SIZE);
+
+    stream.release.countDown();
+    first.join();
+    producer.join(10_000);
+    assertFalse(producer.isAlive());
+    assertEquals(messages, stream.getFrames().size());
+  }
+
+  @Test
+  public void testBlockedStreamDoesNotDelayOtherWriters() throws Exception {
+    BlockingStream blocked = new BlockingStream();
+    CoalescingFrameWriter blockedWriter = new CoalescingFrameWriter(blocked, 5, MAX_RECORD_SIZE);
+    blockedWriter.write(message(0));
+    // the delayed flush of the first writer blocks in the stream
+    assertTrue(blocked.writeStarted.await(10, TimeUnit.SECONDS));
+
+    RecordCountingStream stream = new RecordCountingStream();
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(stream, 5, MAX_RECORD_SIZE);
+    writer.write(message(1));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (writer.getStreamWrites() == 0) {
+      assertTrue("Pending frame has not been flushed in time", System.nanoTime() < deadline);
+      Thread.sleep(5);
+    }
+    blocked.release.countDown();
+  }
+
+  @Test
+  public void testDelayedWriteErrorIsThrownByNextWrite() throws Exception {
+    CountDownLatch failed = new CountDownLatch(1);
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        failed.countDown();
+        throw new IOException("Broken pipe");
+      }
+    };
+    CoalescingFrameWriter writer = new CoalescingFrameWriter(failing, 5, MAX_RECORD_SIZE);
+    writer.write(message(0));
+    assertTrue(failed.await(10, TimeUnit.SECONDS));
+    // the delayed write fails on the flusher thread, the writer reports it to the next caller
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (true) {
+      try {
+        writer.write(message(1));
+      } catch (IOException expected) {
+        assertEquals("Broken pipe", expected.getCause().getMessage());
+        break;
+      }
+      assertTrue("Delayed write error has not been reported", System.nanoTime() < deadline);
+      Thread.sleep(5);
+    }
+  }
+}
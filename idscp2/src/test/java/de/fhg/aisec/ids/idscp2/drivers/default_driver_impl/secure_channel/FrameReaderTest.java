@@ -0,0 +1,164 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FrameReaderTest {
+
+  private static final int FRAMES = 10000;
+  private static final int FRAME_SIZE = 100;
+
+  /*
+   * A stream that returns at most the given number of bytes per read, like a TLS record,
+   * and counts the read calls
+   */
+  private static class RecordInputStream extends InputStream {
+    private final byte[] data;
+    private final int recordSize;
+    private int position = 0;
+    private int reads = 0;
+    private int timeoutEvery = 0;
+    private int calls = 0;
+    private final byte[] single = new byte[1];
+    // the arrays the reads have been done into
+    private final Set<byte[]> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    RecordInputStream(byte[] data, int recordSize) {
+      this.data = data;
+      this.recordSize = recordSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (timeoutEvery > 0 && ++calls % timeoutEvery == 0) {
+        throw new SocketTimeoutException();
+      }
+      reads++;
+      targets.add(b);
+      if (position == data.length) {
+        return -1;
+      }
+      int n = Math.min(Math.min(len, recordSize), data.length - position);
+      System.arraycopy(data, position, b, off, n);
+      position += n;
+      return n;
+    }
+  }
+
+  private static byte[] frames(int count, int size) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (int i = 0; i < count; i++) {
+      byte[] frame = new byte[size];
+      frame[0] = (byte) i;
+      out.writeInt(size);
+      out.write(frame);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testOversizedFrameIsRejectedBeforeAllocation() throws IOException {
+    byte[] data = new byte[4 + 1024];
+    data[0] = 0x7f;
+    data[1] = data[2] = data[3] = (byte) 0xff;
+    RecordInputStream in = new RecordInputStream(data, data.length);
+    FrameReader reader = new FrameReader(in, 1024 * 1024);
+
+    try {
+      reader.readFrame();
+      fail("Frame of 2 GB must be rejected");
+    } catch (EOFException e) {
+      fail("Oversized frame must not be read");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("exceeds the maximum frame size"));
+    }
+    // the frame of 2 GB is neither allocated nor read, only the receive buffer has been filled
+    assertEquals(1, in.reads);
+    assertEquals(FrameReader.RECEIVE_BUFFER_SIZE, in.targets.iterator().next().length);
+  }
+
+  @Test
+  public void testNegativeFrameSizeIsRejected() {
+    byte[] header = {(byte) 0xff, 0, 0, 0};
+    FrameReader reader = new FrameReader(new ByteArrayInputStream(header), 1024 * 1024);
+    try {
+      reader.readFrame();
+      fail("Negative frame size must be rejected");
+    } catch (IOException e) {
+      assertFalse(e instanceof EOFException);
+    }
+  }
+
+  @Test
+  public void testFramesAreReadAcrossRecordsAndTimeouts() throws IOException {
+    byte[] small = frames(3, 10);
+    byte[] large = frames(1, 100000);
+    byte[] data = new byte[small.length + large.length];
+    System.arraycopy(small, 0, data, 0, small.length);
+    System.arraycopy(large, 0, data, small.length, large.length);
+
+    RecordInputStream in = new RecordInputStream(data, 7);
+    in.timeoutEvery = 3;
+    FrameReader reader = new FrameReader(in, 1024 * 1024);
+    int count = 0;
+    while (count < 4) {
+      try {
+        byte[] frame = reader.readFrame();
+        assertEquals(count < 3 ? 10 : 100000, frame.length);
+        assertEquals(count < 3 ? count : 0, frame[0]);
+        count++;
+      } catch (SocketTimeoutException ignore) {
+        // the partial frame is kept and continued by the next call
+      }
+    }
+    in.timeoutEvery = 0;
+    try {
+      reader.readFrame();
+      fail("End of stream must be reported");
+    } catch (EOFException ignore) {
+    }
+  }
+
+  @Test
+  public void testReadsComparedToDataInputStream() throws IOException {
+    byte[] data = frames(FRAMES, FRAME_SIZE);
+
+    // previous approach: readInt and readFully for each frame
+    RecordInputStream dataIn = new RecordInputStream(data, 16 * 1024);
+    DataInputStream in = new DataInputStream(dataIn);
+    for (int i = 0; i < FRAMES; i++) {
+      byte[] frame = new byte[in.readInt()];
+      in.readFully(frame);
+    }
+
+    RecordInputStream frameIn = new RecordInputStream(data, 16 * 1024);
+    FrameReader reader = new FrameReader(frameIn, 1024 * 1024);
+    for (int i = 0; i < FRAMES; i++) {
+      byte[] frame = reader.readFrame();
+      assertEquals(FRAME_SIZE, frame.length);
+      assertEquals((byte) i, frame[0]);
+    }
+
+    // all small frames are read through the same receive buffer
+    assertEquals(1, frameIn.targets.size());
+    assertEquals(FrameReader.RECEIVE_BUFFER_SIZE, frameIn.targets.iterator().next().length);
+    // one read per TLS record instead of two per frame
+    assertEquals(reader.getStreamReads(), frameIn.reads);
+    // a partial frame is kept at the start of the buffer, so a read may take less than a record
+    assertTrue(frameIn.reads <= data.length / (16 * 1024 - 4 - FRAME_SIZE) + 2);
+    assertTrue(frameIn.reads * 100 < dataIn.reads);
+  }
+}
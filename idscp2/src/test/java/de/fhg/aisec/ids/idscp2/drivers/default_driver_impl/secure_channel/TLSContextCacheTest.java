@@ -0,0 +1,158 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel;
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration.KeyStoreVersion;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.testutil.TestKeyStores;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.*;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TLSContextCacheTest {
+
+  private static final int RECONNECTS = 20;
+
+  @ClassRule
+  public static TemporaryFolder tmp = new TemporaryFolder();
+
+  private Idscp2Settings settings;
+  private File keyStore;
+  private SSLServerSocket serverSocket;
+  private Thread acceptor;
+
+  @Before
+  public void setUp() throws Exception {
+    TestKeyStores.createLocalhost(tmp.getRoot());
+    keyStore = new File(tmp.getRoot(), TestKeyStores.KEY_STORE);
+    File trustStore = new File(tmp.getRoot(), TestKeyStores.TRUST_STORE);
+    settings = new Idscp2Settings.Builder()
+        .setHost("localhost")
+        .setKeyStorePath(keyStore.getPath())
+        .setTrustStorePath(trustStore.getPath())
+        .setCertificateAlias("1.0.1")
+        .build();
+    TLSContextCache.clear();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (serverSocket != null) {
+      serverSocket.close();
+      acceptor.join(5000);
+    }
+  }
+
+  /*
+   * A TLS server with the same constraints as the TLSServer, using the cached context
+   */
+  private void startServer() throws Exception {
+    serverSocket = (SSLServerSocket) TLSContextCache.getSslContext(settings).getServerSocketFactory()
+        .createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    SSLParameters sslParameters = serverSocket.getSSLParameters();
+    sslParameters.setNeedClientAuth(true);
+    sslParameters.setProtocols(TLSConstants.TLS_ENABLED_PROTOCOLS);
+    sslParameters.setCipherSuites(TLSConstants.TLS_ENABLED_CIPHERS);
+    serverSocket.setSSLParameters(sslParameters);
+    acceptor = new Thread(() -> {
+      try {
+        while (true) {
+          try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+            socket.getOutputStream().write(1);
+            socket.getOutputStream().flush();
+            socket.getInputStream().read();
+          }
+        }
+      } catch (IOException ignore) {
+        // server socket has been closed
+      }
+    });
+    acceptor.start();
+  }
+
+  /*
+   * Connect like the TLSClient and return the established TLS session
+   */
+  private SSLSession connect() throws Exception {
+    try (SSLSocket socket = (SSLSocket) TLSContextCache.getSslContext(settings).getSocketFactory().createSocket()) {
+      SSLParameters sslParameters = socket.getSSLParameters();
+      sslParameters.setProtocols(TLSConstants.TLS_ENABLED_PROTOCOLS);
+      sslParameters.setCipherSuites(TLSConstants.TLS_ENABLED_CIPHERS);
+      socket.setSSLParameters(sslParameters);
+      socket.connect(new InetSocketAddress("localhost", serverSocket.getLocalPort()));
+      socket.startHandshake();
+      // wait for the post-handshake session ticket of the server
+      assertEquals(1, socket.getInputStream().read());
+      SSLSession session = socket.getSession();
+      assertEquals(1, session.getPeerCertificates().length);
+      socket.getOutputStream().write(1);
+      return session;
+    }
+  }
+
+  @Test
+  public void testContextIsSharedUntilKeyStoreIsModified() throws Exception {
+    SSLContext context = TLSContextCache.getSslContext(settings);
+    assertSame(context, TLSContextCache.getSslContext(settings));
+
+    Files.setLastModifiedTime(keyStore.toPath(),
+        FileTime.fromMillis(keyStore.lastModified() + TimeUnit.SECONDS.toMillis(10)));
+    SSLContext reloaded = TLSContextCache.getSslContext(settings);
+    assertNotSame(context, reloaded);
+    assertSame(reloaded, TLSContextCache.getSslContext(settings));
+  }
+
+  @Test
+  public void testReconnectsResumeTlsSession() throws Exception {
+    startServer();
+
+    SSLSession fullSession = connect();
+    for (int i = 0; i < RECONNECTS; i++) {
+      // a resumed session keeps the creation time of the full handshake
+      assertEquals(fullSession.getCreationTime(), connect().getCreationTime());
+    }
+
+    // without the cache, every connection runs a full handshake
+    TLSContextCache.clear();
+    Thread.sleep(5);
+    assertNotEquals(fullSession.getCreationTime(), connect().getCreationTime());
+  }
+
+  @Test
+  public void testKeyStoreVersionComparesModificationTimeAndSize() throws Exception {
+    File file = tmp.newFile();
+    Files.write(file.toPath(), new byte[100]);
+    long modified = file.lastModified();
+    KeyStoreVersion version = PreConfiguration.getKeyStoreVersion(file.getPath());
+    assertEquals(version, PreConfiguration.getKeyStoreVersion(file.getPath()));
+
+    // 31 bytes more and one millisecond earlier, which a combined version number cannot tell apart
+    Files.write(file.toPath(), new byte[131]);
+    Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified - 1));
+    assertNotEquals(version, PreConfiguration.getKeyStoreVersion(file.getPath()));
+    assertNull(PreConfiguration.getKeyStoreVersion(new File(tmp.getRoot(), "missing").getPath()));
+  }
+
+  @Test
+  public void testPasswordDigestSeparatesPasswords() {
+    assertEquals(PreConfiguration.passwordDigest("password", "secret"),
+        PreConfiguration.passwordDigest("password", "secret"));
+    assertNotEquals(PreConfiguration.passwordDigest("passwords", "ecret"),
+        PreConfiguration.passwordDigest("password", "secret"));
+    assertNotEquals(PreConfiguration.passwordDigest(null, "secret"),
+        PreConfiguration.passwordDigest("", "secret"));
+    assertFalse(PreConfiguration.passwordDigest("password").contains("password"));
+  }
+}
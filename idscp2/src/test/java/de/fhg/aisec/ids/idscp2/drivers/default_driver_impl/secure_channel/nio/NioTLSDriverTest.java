@@ -0,0 +1,168 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio;
+
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureServer;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.FsmListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine.InternalControlMessage;
+import de.fhg.aisec.ids.idscp2.idscp_core.idscp_server.ServerConnectionListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.testutil.TestKeyStores;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioTLSDriverTest {
+
+  private static final int CONNECTIONS = 2000;
+  private static final int PORT = 29292;
+
+  @ClassRule
+  public static TemporaryFolder tmp = new TemporaryFolder();
+
+  private SelectorLoopGroup loopGroup;
+  private NioTLSDriver driver;
+  private SecureServer server;
+  private Idscp2Settings settings;
+  private final List<SecureChannel> serverChannels = Collections.synchronizedList(new ArrayList<>());
+  // threads that existed before the loop group has been created
+  private int threadsBefore;
+
+  @Before
+  public void setUp() throws Exception {
+    TestKeyStores.createLocalhost(tmp.getRoot());
+    File keyStore = new File(tmp.getRoot(), TestKeyStores.KEY_STORE);
+    File trustStore = new File(tmp.getRoot(), TestKeyStores.TRUST_STORE);
+
+    settings = new Idscp2Settings.Builder()
+        .setHost("localhost")
+        .setServerPort(PORT)
+        .setKeyStorePath(keyStore.getPath())
+        .setTrustStorePath(trustStore.getPath())
+        .setCertificateAlias("1.0.1")
+        .build();
+
+    threadsBefore = Thread.activeCount();
+    loopGroup = new SelectorLoopGroup(2, 4);
+    driver = new NioTLSDriver(loopGroup);
+    server = driver.listen(settings, new SecureChannelInitListener() {
+      @Override
+      public void onSecureChannel(SecureChannel secureChannel,
+                                  CompletableFuture<ServerConnectionListener> serverListenerPromise) {
+        serverChannels.add(secureChannel);
+        secureChannel.setFsm(new TestListener(secureChannel, true));
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        fail(t.getMessage());
+      }
+    }, new CompletableFuture<>());
+  }
+
+  @After
+  public void tearDown() {
+    server.safeStop();
+    loopGroup.shutdown();
+  }
+
+  @Test
+  public void testThreadsStayBounded() throws Exception {
+    List<SecureChannel> clients = new ArrayList<>();
+    connect(CONNECTIONS / 2, clients);
+    int threadsOfHalf = Thread.activeCount();
+    connect(CONNECTIONS - CONNECTIONS / 2, clients);
+
+    // threads of the loop group are the only ones that may have been created, and they do not grow
+    // with the number of connections
+    assertTrue(threadsOfHalf - threadsBefore <= loopGroup.getThreadCount());
+    assertTrue(Thread.activeCount() - threadsBefore <= loopGroup.getThreadCount());
+
+    for (SecureChannel client : clients) {
+      client.close();
+    }
+  }
+
+  private void connect(int connections, List<SecureChannel> clients) throws Exception {
+    List<CompletableFuture<SecureChannel>> futures = new ArrayList<>();
+    for (int i = 0; i < connections; i++) {
+      futures.add(driver.connectSecureChannel(settings));
+    }
+    for (CompletableFuture<SecureChannel> future : futures) {
+      clients.add(future.get(120, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testEcho() throws Exception {
+    SecureChannel client = driver.connectSecureChannel(settings).get(30, TimeUnit.SECONDS);
+    TestListener listener = new TestListener(client, false);
+    client.setFsm(listener);
+
+    for (int size : new int[]{0, 1, 16000, 17000, 100000, 5000000}) {
+      byte[] msg = new byte[size];
+      new Random(size).nextBytes(msg);
+      assertTrue(client.send(msg));
+      assertArrayEquals(msg, listener.messages.poll(30, TimeUnit.SECONDS));
+    }
+
+    // message order must be kept
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(client.send(Integer.toString(i).getBytes()));
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertArrayEquals(Integer.toString(i).getBytes(), listener.messages.poll(30, TimeUnit.SECONDS));
+    }
+    client.close();
+  }
+
+  private static class TestListener implements FsmListener {
+    private final SecureChannel secureChannel;
+    private final boolean echo;
+    private final BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+
+    TestListener(SecureChannel secureChannel, boolean echo) {
+      this.secureChannel = secureChannel;
+      this.echo = echo;
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+      if (echo) {
+        secureChannel.send(data);
+      } else {
+        messages.add(data);
+      }
+    }
+
+    @Override
+    public void onRatProverMessage(InternalControlMessage controlMessage, byte[] ratMessage) {
+    }
+
+    @Override
+    public void onRatVerifierMessage(InternalControlMessage controlMessage, byte[] ratMessage) {
+    }
+
+    @Override
+    public void onError(Throwable t) {
+    }
+
+    @Override
+    public void onClose() {
+    }
+  }
+}
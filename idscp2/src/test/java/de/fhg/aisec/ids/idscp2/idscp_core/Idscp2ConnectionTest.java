@@ -0,0 +1,169 @@
+package de.fhg.aisec.ids.idscp2.idscp_core;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatProverDummy;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatVerifierDummy;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class Idscp2ConnectionTest {
+
+  private static final DapsDriver DUMMY_DAPS = new DapsDriver() {
+    @Override
+    public byte[] getToken() {
+      return "token".getBytes();
+    }
+
+    @Override
+    public long verifyToken(byte[] dat, Object securityRequirements) {
+      return 3600;
+    }
+  };
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final List<Idscp2Connection> connections = new ArrayList<>();
+  private final List<Link> links = new ArrayList<>();
+
+  /*
+   * An in-memory endpoint that delivers to the secure channel of the other side on its own thread,
+   * a stalled link blocks IDSCP_DATA like a peer that does not read anymore
+   */
+  private class Link implements SecureChannelEndpoint {
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "Idscp2ConnectionTest-Link");
+      thread.setDaemon(true);
+      return thread;
+    });
+    private final CountDownLatch stalledSends;
+    private volatile SecureChannel receiver;
+    private volatile boolean connected = true;
+
+    Link(CountDownLatch stalledSends) {
+      this.stalledSends = stalledSends;
+    }
+
+    @Override
+    public void close() {
+      connected = false;
+    }
+
+    @Override
+    public void onMessage(byte[] bytes) {
+    }
+
+    @Override
+    public boolean send(byte[] bytes) {
+      if (!connected) {
+        return false;
+      }
+      try {
+        if (stalledSends != null && IdscpMessage.parseFrom(bytes).hasIdscpData()) {
+          stalledSends.countDown();
+          release.await();
+        }
+      } catch (InvalidProtocolBufferException | InterruptedException e) {
+        return false;
+      }
+      reader.execute(() -> receiver.onMessage(bytes));
+      return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+      return connected;
+    }
+
+    @Override
+    public X509Certificate getPeerCertificate() {
+      return null;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    RatProverDriverRegistry.getInstance().registerDriver("Dummy", RatProverDummy.class, null);
+    RatVerifierDriverRegistry.getInstance().registerDriver("Dummy", RatVerifierDummy.class, null);
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    connections.forEach(Idscp2Connection::close);
+    links.forEach(link -> link.reader.shutdownNow());
+  }
+
+  /*
+   * Create an established pair of connections and return the side whose sends may be stalled
+   */
+  private Idscp2Connection connect(CountDownLatch stalledSends) throws InterruptedException {
+    Idscp2Settings settings = new Idscp2Settings.Builder().build();
+    Link toPeer = new Link(stalledSends);
+    Link fromPeer = new Link(null);
+    SecureChannel channel = new SecureChannel(toPeer);
+    SecureChannel peerChannel = new SecureChannel(fromPeer);
+    toPeer.receiver = peerChannel;
+    fromPeer.receiver = channel;
+    Idscp2Connection connection = new Idscp2Connection(channel, settings, DUMMY_DAPS);
+    Idscp2Connection peer = new Idscp2Connection(peerChannel, settings, DUMMY_DAPS);
+    peer.unlockMessaging();
+    connections.add(connection);
+    connections.add(peer);
+    links.add(toPeer);
+    links.add(fromPeer);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (!connection.isConnected() || !peer.isConnected()) {
+      assertTrue("Connection has not been established in time", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+    return connection;
+  }
+
+  @Test
+  public void testStalledPeersDoNotBlockOtherConnections() throws Exception {
+    // as many stalled peers as the shared pool has sender threads
+    CountDownLatch stalledSends = new CountDownLatch(Idscp2SendQueue.SENDER_THREADS);
+    List<Idscp2Connection> stalled = new ArrayList<>();
+    for (int i = 0; i < Idscp2SendQueue.SENDER_THREADS; i++) {
+      stalled.add(connect(stalledSends));
+    }
+    Idscp2Connection healthy = connect(null);
+
+    List<CompletableFuture<Void>> stalledFutures = new ArrayList<>();
+    for (Idscp2Connection connection : stalled) {
+      stalledFutures.add(connection.sendAsync("type", "stalled".getBytes()));
+    }
+    assertTrue(stalledSends.await(10, TimeUnit.SECONDS));
+
+    // every sender thread of the pool is blocked, the healthy connection is sent anyway
+    healthy.sendAsync("type", "healthy".getBytes())
+        .get(10 * Idscp2SendQueue.SLOW_SEND_MILLIS, TimeUnit.MILLISECONDS);
+    assertTrue(stalledFutures.stream().noneMatch(CompletableFuture::isDone));
+
+    // the messages queued behind the stalled sends are sent once the peers read again
+    for (Idscp2Connection connection : stalled) {
+      stalledFutures.add(connection.sendAsync("type", "queued".getBytes()));
+    }
+    release.countDown();
+    CompletableFuture.allOf(stalledFutures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+  }
+}
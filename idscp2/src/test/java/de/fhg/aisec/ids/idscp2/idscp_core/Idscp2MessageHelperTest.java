@@ -0,0 +1,56 @@
+package de.fhg.aisec.ids.idscp2.idscp_core;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpData;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Idscp2MessageHelperTest {
+
+  private static final int PAYLOAD_SIZE = 64 * 1024;
+
+  private static byte[] payload() {
+    byte[] payload = new byte[PAYLOAD_SIZE];
+    new Random(1).nextBytes(payload);
+    return payload;
+  }
+
+  @Test
+  public void testZeroCopyRoundTrip() throws Exception {
+    byte[] payload = payload();
+    byte[] frame = Idscp2MessageHelper.createIdscpDataMessage("type", payload).toByteArray();
+    IdscpData data = Idscp2MessageHelper.parseIdscpMessage(frame).getIdscpData();
+    assertEquals("type", data.getType());
+    assertArrayEquals(payload, data.getData().toByteArray());
+  }
+
+  @Test
+  public void testCreatedMessageWrapsPayload() {
+    byte[] payload = payload();
+    IdscpMessage message = Idscp2MessageHelper.createIdscpDataMessage("type", payload);
+    // the message is backed by the payload array instead of a copy of it
+    payload[0] ^= 1;
+    payload[PAYLOAD_SIZE - 1] ^= 1;
+    ByteString data = message.getIdscpData().getData();
+    assertEquals(payload[0], data.byteAt(0));
+    assertEquals(payload[PAYLOAD_SIZE - 1], data.byteAt(PAYLOAD_SIZE - 1));
+  }
+
+  @Test
+  public void testParsedMessageAliasesFrame() throws Exception {
+    byte[] payload = payload();
+    byte[] frame = Idscp2MessageHelper.createIdscpDataMessage("type", payload).toByteArray();
+    ByteString data = Idscp2MessageHelper.parseIdscpMessage(frame).getIdscpData().getData();
+    // the parsed payload is backed by the received frame instead of a copy of it
+    for (int i = 0; i < frame.length; i++) {
+      frame[i] = (byte) ~frame[i];
+    }
+    for (int i = 0; i < PAYLOAD_SIZE; i++) {
+      assertEquals((byte) ~payload[i], data.byteAt(i));
+    }
+  }
+}
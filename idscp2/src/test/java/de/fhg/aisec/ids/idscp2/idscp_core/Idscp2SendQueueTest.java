@@ -0,0 +1,197 @@
+package de.fhg.aisec.ids.idscp2.idscp_core;
+
+import com.google.protobuf.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class Idscp2SendQueueTest {
+
+  private static final int HIGH_WATER_MARK = 1024 * 1024;
+  private static final int MESSAGE_SIZE = 64 * 1024;
+
+  private ServerSocket serverSocket;
+  private Socket clientSocket;
+  private DataOutputStream out;
+  private Thread reader;
+  private final List<Integer> received = new ArrayList<>();
+  private final CountDownLatch peerReads = new CountDownLatch(1);
+
+  /*
+   * A loopback connection whose reader does not consume anything until peerReads is released
+   */
+  @Before
+  public void setUp() throws Exception {
+    serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    serverSocket.setReceiveBufferSize(MESSAGE_SIZE);
+    clientSocket = new Socket();
+    clientSocket.setSendBufferSize(MESSAGE_SIZE);
+    clientSocket.connect(serverSocket.getLocalSocketAddress());
+    Socket peer = serverSocket.accept();
+    out = new DataOutputStream(clientSocket.getOutputStream());
+
+    reader = new Thread(() -> {
+      try (DataInputStream in = new DataInputStream(peer.getInputStream())) {
+        peerReads.await();
+        while (true) {
+          byte[] message = new byte[in.readInt()];
+          in.readFully(message);
+          synchronized (received) {
+            received.add((int) message[0]);
+          }
+        }
+      } catch (IOException | InterruptedException ignore) {
+      }
+    });
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    reader.interrupt();
+    clientSocket.close();
+    serverSocket.close();
+  }
+
+  private boolean slowSend(String type, ByteString data) {
+    try {
+      out.writeInt(data.size());
+      data.writeTo(out);
+      out.flush();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static ByteString message(int id) {
+    byte[] data = new byte[MESSAGE_SIZE];
+    data[0] = (byte) id;
+    return ByteString.copyFrom(data);
+  }
+
+  @Test
+  public void testProducerIsNotBlockedBySlowPeer() throws Exception {
+    Idscp2SendQueue queue = new Idscp2SendQueue(this::slowSend, HIGH_WATER_MARK);
+    List<CompletableFuture<Void>> accepted = new ArrayList<>();
+    List<Integer> acceptedIds = new ArrayList<>();
+    AtomicInteger rejected = new AtomicInteger();
+
+    for (int i = 0; i < 100; i++) {
+      CompletableFuture<Void> future = queue.offer("type", message(i));
+      if (future.isCompletedExceptionally()) {
+        try {
+          future.join();
+        } catch (CompletionException e) {
+          assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        rejected.incrementAndGet();
+      } else {
+        accepted.add(future);
+        acceptedIds.add(i);
+      }
+      assertTrue(queue.getQueuedBytes() <= HIGH_WATER_MARK);
+    }
+    // the peer does not read at all, but offering returned and rejected the messages beyond the
+    // high-water mark
+    assertTrue(rejected.get() > 0);
+    peerReads.countDown();
+
+    // the wait signal arrives once the queue has been drained below half of the high-water mark
+    queue.whenWritable().get(30, TimeUnit.SECONDS);
+    assertTrue(queue.getQueuedBytes() <= HIGH_WATER_MARK / 2);
+
+    CompletableFuture.allOf(accepted.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline) {
+      synchronized (received) {
+        if (received.size() == acceptedIds.size()) {
+          break;
+        }
+      }
+      Thread.sleep(50);
+    }
+    synchronized (received) {
+      assertEquals(acceptedIds.size(), received.size());
+      for (int i = 0; i < acceptedIds.size(); i++) {
+        assertEquals((long) acceptedIds.get(i), (long) received.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testCloseFailsPendingMessages() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Idscp2SendQueue queue = new Idscp2SendQueue((type, data) -> {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return true;
+    }, HIGH_WATER_MARK);
+
+    CompletableFuture<Void> first = queue.offer("type", message(0));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    CompletableFuture<Void> second = queue.offer("type", message(1));
+    queue.close();
+    release.countDown();
+
+    first.get(5, TimeUnit.SECONDS);
+    assertTrue(second.isCompletedExceptionally());
+    assertTrue(queue.offer("type", message(2)).isCompletedExceptionally());
+  }
+
+  @Test
+  public void testRejectsUntilHalfDrained() throws Exception {
+    Semaphore sends = new Semaphore(0);
+    Idscp2SendQueue queue = new Idscp2SendQueue((type, data) -> {
+      sends.acquireUninterruptibly();
+      return true;
+    }, 4 * MESSAGE_SIZE);
+
+    for (int i = 0; i < 4; i++) {
+      assertFalse(queue.offer("type", message(i)).isCompletedExceptionally());
+    }
+    assertTrue(queue.offer("type", message(4)).isCompletedExceptionally());
+
+    // there is room for another message, but the queue has not been drained to half yet
+    sends.release();
+    awaitQueuedBytes(queue, 3 * MESSAGE_SIZE);
+    assertTrue(queue.offer("type", message(5)).isCompletedExceptionally());
+
+    sends.release();
+    queue.whenWritable().get(5, TimeUnit.SECONDS);
+    assertFalse(queue.offer("type", message(6)).isCompletedExceptionally());
+    sends.release(3);
+  }
+
+  private static void awaitQueuedBytes(Idscp2SendQueue queue, long bytes) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (queue.getQueuedBytes() != bytes) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatProverDummy;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatVerifierDummy;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/*
+ * Two FSMs with dummy DAPS and dummy RAT drivers, connected by an in-memory secure channel
+ */
+class FsmPair implements AutoCloseable {
+
+  static final String[] RAT_SUITE = {"Dummy"};
+  private static final long RAT_TIMEOUT = 3600;
+  private static final int MAX_CACHE_ENTRIES = 128;
+  private static final int MAX_TOTAL_CACHE_SIZE = 16384;
+
+  private static final DapsDriver DUMMY_DAPS = new DapsDriver() {
+    @Override
+    public byte[] getToken() {
+      return "token".getBytes();
+    }
+
+    @Override
+    public long verifyToken(byte[] dat, Object securityRequirements) {
+      return RAT_TIMEOUT;
+    }
+  };
+
+  /*
+   * The endpoint of one side, which delivers its messages to the secure channel of the other side
+   * in order and on its own thread, like the reader thread of a real secure channel
+   */
+  static class Link implements SecureChannelEndpoint {
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "FsmPair-Link");
+      thread.setDaemon(true);
+      return thread;
+    });
+    private final X509Certificate peerCertificate;
+    final AtomicInteger ratProverMessages = new AtomicInteger();
+    // the types of all messages passed to this link, including those after it has been closed
+    final List<IdscpMessage.MessageCase> sentMessages = new CopyOnWriteArrayList<>();
+    private volatile SecureChannel receiver;
+    private volatile boolean connected = true;
+
+    /*
+     * @param peerCertificate The certificate of the receiving side
+     */
+    Link(X509Certificate peerCertificate) {
+      this.peerCertificate = peerCertificate;
+    }
+
+    @Override
+    public void close() {
+      connected = false;
+    }
+
+    @Override
+    public void onMessage(byte[] bytes) {
+    }
+
+    @Override
+    public boolean send(byte[] bytes) {
+      IdscpMessage message;
+      try {
+        message = IdscpMessage.parseFrom(bytes);
+      } catch (InvalidProtocolBufferException e) {
+        throw new IllegalArgumentException(e);
+      }
+      sentMessages.add(message.getMessageCase());
+      if (!connected) {
+        return false;
+      }
+      if (message.hasIdscpRatProver()) {
+        ratProverMessages.incrementAndGet();
+      }
+      reader.execute(() -> receiver.onMessage(bytes));
+      return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+      return connected;
+    }
+
+    @Override
+    public X509Certificate getPeerCertificate() {
+      return peerCertificate;
+    }
+
+    /*
+     * Wait until all messages that have been sent so far have been processed by the receiver
+     */
+    void flush() throws Exception {
+      reader.submit(() -> {
+      }).get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  final Idscp2Connection connectionA = mock(Idscp2Connection.class);
+  final Idscp2Connection connectionB = mock(Idscp2Connection.class);
+  // messages sent by B to A and vice versa
+  final Link toA;
+  final Link toB;
+  final FSM fsmA;
+  final FSM fsmB;
+
+  FsmPair() {
+    this(0, null, null);
+  }
+
+  /*
+   * @param certificateA The certificate that B sees as peer certificate
+   * @param certificateB The certificate that A sees as peer certificate
+   */
+  FsmPair(long ratResultCacheMaxAge, X509Certificate certificateA, X509Certificate certificateB) {
+    RatProverDriverRegistry.getInstance().registerDriver("Dummy", RatProverDummy.class, null);
+    RatVerifierDriverRegistry.getInstance().registerDriver("Dummy", RatVerifierDummy.class, null);
+
+    toA = new Link(certificateA);
+    toB = new Link(certificateB);
+    // each FSM sends via the link to its peer
+    SecureChannel channelA = new SecureChannel(toB);
+    SecureChannel channelB = new SecureChannel(toA);
+    toA.receiver = channelA;
+    toB.receiver = channelB;
+    fsmA = new FSM(connectionA, channelA, DUMMY_DAPS, RAT_SUITE, RAT_SUITE, RAT_TIMEOUT,
+        MAX_CACHE_ENTRIES, MAX_TOTAL_CACHE_SIZE, ratResultCacheMaxAge);
+    fsmB = new FSM(connectionB, channelB, DUMMY_DAPS, RAT_SUITE, RAT_SUITE, RAT_TIMEOUT,
+        MAX_CACHE_ENTRIES, MAX_TOTAL_CACHE_SIZE, ratResultCacheMaxAge);
+    channelA.setFsm(fsmA);
+    channelB.setFsm(fsmB);
+  }
+
+  /*
+   * Run the IDSCP2 handshake on both sides
+   */
+  void handshake() throws Exception {
+    CompletableFuture.allOf(
+        CompletableFuture.runAsync(fsmA::startIdscpHandshake),
+        CompletableFuture.runAsync(fsmB::startIdscpHandshake)
+    ).get(30, TimeUnit.SECONDS);
+    assertTrue(fsmA.isConnected());
+    assertTrue(fsmB.isConnected());
+  }
+
+  /*
+   * Pass a message to A as if it had been sent by B, and wait until A has processed it
+   */
+  void deliverToA(IdscpMessage message) throws Exception {
+    toA.send(message.toByteArray());
+    toA.flush();
+  }
+
+  static void awaitConnected(FSM fsm) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!fsm.isConnected()) {
+      assertTrue("FSM has not been connected in time", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  @Override
+  public void close() {
+    fsmA.closeConnection();
+    fsmB.closeConnection();
+    toA.reader.shutdownNow();
+    toB.reader.shutdownNow();
+  }
+}
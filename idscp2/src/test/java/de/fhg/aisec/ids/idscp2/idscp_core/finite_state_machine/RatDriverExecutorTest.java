@@ -0,0 +1,59 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatDriverHandle;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class RatDriverExecutorTest {
+
+  private static final int PAIRS = 50;
+
+  @Test
+  public void testParallelHandshakesShareBoundedExecutor() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    int threadsBefore = threads.getThreadCount();
+    threads.resetPeakThreadCount();
+
+    List<FsmPair> pairs = new ArrayList<>();
+    // the handshakes block their calling threads until the FSMs are connected
+    ExecutorService handshakes = Executors.newFixedThreadPool(2 * PAIRS);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < PAIRS; i++) {
+        FsmPair pair = new FsmPair();
+        pairs.add(pair);
+        results.add(handshakes.submit(pair.fsmA::startIdscpHandshake));
+        results.add(handshakes.submit(pair.fsmB::startIdscpHandshake));
+      }
+      for (Future<?> result : results) {
+        result.get(60, TimeUnit.SECONDS);
+      }
+      for (FsmPair pair : pairs) {
+        assertTrue(pair.fsmA.isConnected());
+        assertTrue(pair.fsmB.isConnected());
+      }
+
+      long driverThreads = Thread.getAllStackTraces().keySet().stream()
+          .filter(t -> t.getName().startsWith(RatDriverHandle.THREAD_NAME))
+          .count();
+      assertTrue(driverThreads <= RatDriverHandle.EXECUTOR_THREADS);
+      // every pair uses two handshake threads and two link threads, previously the RAT drivers of
+      // a pair started four more threads
+      assertTrue(threads.getPeakThreadCount()
+          <= threadsBefore + 4 * PAIRS + RatDriverHandle.EXECUTOR_THREADS + 20);
+    } finally {
+      handshakes.shutdownNow();
+      pairs.forEach(FsmPair::close);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatResultCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RatResultCacheFsmTest {
+
+  private static final long MAX_AGE = 3600;
+  private static final String MECHANISM = FsmPair.RAT_SUITE[0];
+
+  private X509Certificate certificateA;
+  private X509Certificate certificateB;
+
+  private static X509Certificate certificate(String encoded) throws Exception {
+    X509Certificate certificate = mock(X509Certificate.class);
+    when(certificate.getEncoded()).thenReturn(encoded.getBytes());
+    return certificate;
+  }
+
+  /*
+   * Whether the peer is attested for the dummy RAT verifier, which has no configuration
+   */
+  private static boolean isAttested(X509Certificate certificate) {
+    return RatResultCache.isAttested(RatResultCache.fingerprint(certificate), MECHANISM, null);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    RatResultCache.clear();
+    certificateA = certificate("A");
+    certificateB = certificate("B");
+  }
+
+  /*
+   * Run a full remote attestation between A and B, which stores the results in the cache
+   */
+  private void attestFully() throws Exception {
+    try (FsmPair pair = new FsmPair(MAX_AGE, certificateA, certificateB)) {
+      pair.handshake();
+      assertTrue(pair.toA.ratProverMessages.get() > 0);
+      assertTrue(pair.toB.ratProverMessages.get() > 0);
+    }
+  }
+
+  @Test
+  public void testAttestationIsCachedPerPeerCertificate() throws Exception {
+    attestFully();
+    assertTrue(isAttested(certificateA));
+    assertTrue(isAttested(certificateB));
+    assertFalse(isAttested(certificate("other")));
+  }
+
+  @Test
+  public void testDisabledCacheStoresNothing() throws Exception {
+    try (FsmPair pair = new FsmPair(0, certificateA, certificateB)) {
+      pair.handshake();
+    }
+    assertFalse(isAttested(certificateA));
+    assertFalse(isAttested(certificateB));
+  }
+
+  @Test
+  public void testCachedAttestationSkipsRemoteAttestation() throws Exception {
+    attestFully();
+    try (FsmPair pair = new FsmPair(MAX_AGE, certificateA, certificateB)) {
+      pair.handshake();
+      assertEquals(0, pair.toA.ratProverMessages.get());
+      assertEquals(0, pair.toB.ratProverMessages.get());
+    }
+  }
+
+  @Test
+  public void testReRatRunsFullAttestation() throws Exception {
+    attestFully();
+    try (FsmPair pair = new FsmPair(MAX_AGE, certificateA, certificateB)) {
+      pair.handshake();
+      assertEquals(0, pair.toA.ratProverMessages.get());
+
+      // only the first verifier of a connection accepts the cached attestation
+      pair.fsmA.onControlMessage(InternalControlMessage.REPEAT_RAT);
+      assertFalse(pair.fsmA.isConnected());
+      FsmPair.awaitConnected(pair.fsmA);
+      assertTrue(pair.toA.ratProverMessages.get() > 0);
+    }
+  }
+
+  @Test
+  public void testFailedAttestationInvalidatesCache() throws Exception {
+    attestFully();
+    try (FsmPair pair = new FsmPair(MAX_AGE, certificateA, certificateB)) {
+      pair.handshake();
+      pair.fsmA.onControlMessage(InternalControlMessage.REPEAT_RAT);
+
+      // the verifier of A rejects B before the prover of B sends its first message
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      pair.fsmA.getRatVerifierHandle().execute(() -> {
+        pair.fsmA.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_FAILED, null);
+        failed.complete(null);
+      });
+      failed.get(10, TimeUnit.SECONDS);
+
+      assertFalse(isAttested(certificateB));
+      assertTrue(isAttested(certificateA));
+    }
+  }
+}
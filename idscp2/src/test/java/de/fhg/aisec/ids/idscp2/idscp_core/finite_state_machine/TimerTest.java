@@ -0,0 +1,92 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+public class TimerTest {
+
+  private static final int TIMERS = 100_000;
+
+  @Test
+  public void testStartAndCancelDoesNotCreateThreads() throws Exception {
+    ReentrantLock fsmIsBusy = new ReentrantLock(true);
+    AtomicInteger fired = new AtomicInteger();
+    // load the scheduler before counting threads
+    new Timer(fsmIsBusy, fired::incrementAndGet).cancelTimeout();
+    int threadsBefore = Thread.activeCount();
+
+    for (int i = 0; i < TIMERS; i++) {
+      Timer timer = new Timer(fsmIsBusy, fired::incrementAndGet);
+      timer.start(50 + i % 1000, TimeUnit.MILLISECONDS);
+      timer.cancelTimeout();
+      assertTrue(Thread.activeCount() - threadsBefore <= 1);
+    }
+
+    assertEquals(0, TimerScheduler.pendingTimeouts());
+    Thread.sleep(1500);
+    assertEquals(0, fired.get());
+    assertTrue(Thread.activeCount() - threadsBefore <= 1);
+  }
+
+  @Test
+  public void testMillisecondTimeouts() throws Exception {
+    ReentrantLock fsmIsBusy = new ReentrantLock(true);
+    CountDownLatch latch = new CountDownLatch(1000);
+    long start = System.nanoTime();
+
+    for (int i = 0; i < 1000; i++) {
+      new Timer(fsmIsBusy, latch::countDown).start(20, TimeUnit.MILLISECONDS);
+    }
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  public void testResetTimeoutOnlyFiresLatest() throws Exception {
+    ReentrantLock fsmIsBusy = new ReentrantLock(true);
+    AtomicInteger fired = new AtomicInteger();
+    Timer timer = new Timer(fsmIsBusy, fired::incrementAndGet);
+
+    for (int i = 0; i < 100; i++) {
+      timer.resetTimeout(30, TimeUnit.MILLISECONDS);
+    }
+
+    Thread.sleep(500);
+    assertEquals(1, fired.get());
+  }
+
+  @Test
+  public void testBusyFsmDoesNotDelayOtherTimeouts() throws Exception {
+    ReentrantLock busyFsm = new ReentrantLock(true);
+    int timeouts = 10 * TimerScheduler.EXPIRY_THREADS;
+    CountDownLatch busyLatch = new CountDownLatch(timeouts);
+    CountDownLatch idleLatch = new CountDownLatch(1);
+    // the expired timeouts of the busy fsm do not get its lock
+    busyFsm.lock();
+    try {
+      for (int i = 0; i < timeouts; i++) {
+        new Timer(busyFsm, busyLatch::countDown).start(1, TimeUnit.MILLISECONDS);
+      }
+      new Timer(new ReentrantLock(true), idleLatch::countDown).start(50, TimeUnit.MILLISECONDS);
+
+      // the timeout of another fsm is not queued behind the handlers of the busy one
+      assertTrue(idleLatch.await(10, TimeUnit.SECONDS));
+      assertEquals(timeouts, busyLatch.getCount());
+      long handlerThreads = Thread.getAllStackTraces().keySet().stream()
+          .filter(t -> t.getName().startsWith(TimerScheduler.EXPIRY_THREAD_NAME))
+          .count();
+      assertTrue(handlerThreads <= TimerScheduler.EXPIRY_THREADS);
+    } finally {
+      busyFsm.unlock();
+    }
+    // the expired timeouts of the busy fsm fire once its lock is available
+    assertTrue(busyLatch.await(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,160 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.finite_state_machine;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpData;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TypeCacheTest {
+
+  private static final String TYPE_A = "https://w3id.org/idsa/core/ArtifactRequestMessage";
+  private static final String TYPE_B = "https://w3id.org/idsa/core/ArtifactResponseMessage";
+  private static final String TYPE_C = "https://w3id.org/idsa/core/RejectionMessage";
+
+  private static IdscpData send(OutgoingTypeCache cache, String type) {
+    return cache.createIdscpDataMessage(type, ByteString.EMPTY).getIdscpData();
+  }
+
+  @Test
+  public void testTypeIsOnlySentOnce() {
+    OutgoingTypeCache outgoing = new OutgoingTypeCache(8, 1024);
+    IncomingTypeCache incoming = new IncomingTypeCache(8, 1024);
+
+    IdscpData first = send(outgoing, TYPE_A);
+    assertEquals(TYPE_A, first.getType());
+    assertNotEquals(0, first.getTypeTag());
+    assertEquals(TYPE_A, incoming.resolveType(first));
+
+    IdscpData second = send(outgoing, TYPE_A);
+    assertEquals("", second.getType());
+    assertEquals(first.getTypeTag(), second.getTypeTag());
+    assertEquals(TYPE_A, incoming.resolveType(second));
+  }
+
+  @Test
+  public void testNoCachingWithoutPeerSupport() {
+    OutgoingTypeCache outgoing = new OutgoingTypeCache(0, 0);
+    IncomingTypeCache incoming = new IncomingTypeCache(8, 1024);
+    for (int i = 0; i < 3; i++) {
+      IdscpData data = send(outgoing, TYPE_A);
+      assertEquals(TYPE_A, data.getType());
+      assertEquals(0, data.getTypeTag());
+      assertEquals(TYPE_A, incoming.resolveType(data));
+    }
+  }
+
+  @Test
+  public void testEvictionRespectsPeerLimits() {
+    // room for two entries
+    OutgoingTypeCache outgoing = new OutgoingTypeCache(2, 1024);
+    IncomingTypeCache incoming = new IncomingTypeCache(2, 1024);
+
+    assertEquals(TYPE_A, incoming.resolveType(send(outgoing, TYPE_A)));
+    assertEquals(TYPE_B, incoming.resolveType(send(outgoing, TYPE_B)));
+    assertEquals(TYPE_A, incoming.resolveType(send(outgoing, TYPE_A)));
+
+    // evicts TYPE_B, the least recently used type
+    IdscpData c = send(outgoing, TYPE_C);
+    assertEquals(TYPE_C, c.getType());
+    assertTrue(c.getTypeTag() >= 1 && c.getTypeTag() <= 2);
+    assertEquals(TYPE_C, incoming.resolveType(c));
+
+    assertEquals("", send(outgoing, TYPE_A).getType());
+    IdscpData b = send(outgoing, TYPE_B);
+    assertEquals(TYPE_B, b.getType());
+    assertEquals(TYPE_B, incoming.resolveType(b));
+  }
+
+  @Test
+  public void testTotalSizeLimit() {
+    int size = TYPE_B.length() + TYPE_C.length();
+    OutgoingTypeCache outgoing = new OutgoingTypeCache(8, size);
+    IncomingTypeCache incoming = new IncomingTypeCache(8, size);
+
+    assertEquals(TYPE_A, incoming.resolveType(send(outgoing, TYPE_A)));
+    assertEquals(TYPE_C, incoming.resolveType(send(outgoing, TYPE_C)));
+    // TYPE_B is longer than TYPE_C, so it can only replace TYPE_A
+    assertEquals(TYPE_B, incoming.resolveType(send(outgoing, TYPE_B)));
+    assertEquals("", send(outgoing, TYPE_C).getType());
+    assertEquals(TYPE_A, send(outgoing, TYPE_A).getType());
+
+    // a type larger than the whole cache is sent uncached
+    String huge = new String(new char[size + 1]).replace('\0', 'x');
+    IdscpData data = send(outgoing, huge);
+    assertEquals(0, data.getTypeTag());
+    assertEquals(huge, incoming.resolveType(data));
+  }
+
+  @Test
+  public void testInvalidTagsAreRejected() {
+    IncomingTypeCache incoming = new IncomingTypeCache(2, 16);
+    assertNull(incoming.resolveType(IdscpData.newBuilder().setTypeTag(1).build()));
+    assertNull(incoming.resolveType(IdscpData.newBuilder().setTypeTag(3).setType("a").build()));
+    assertNull(incoming.resolveType(IdscpData.newBuilder().setTypeTag(1).setType(TYPE_A).build()));
+  }
+
+  @Test
+  public void testTypeIsRegisteredDuringReRat() throws Exception {
+    try (FsmPair pair = new FsmPair()) {
+      pair.handshake();
+
+      // B requests a repeated attestation of A, A is not established until its prover is done
+      pair.deliverToA(Idscp2MessageHelper.createIdscpReRatMessage(""));
+      assertFalse(pair.fsmA.isConnected());
+
+      // B registers the type, A drops the data but keeps the registration
+      assertTrue(pair.fsmB.send(TYPE_A, ByteString.copyFromUtf8("dropped")));
+      pair.toA.flush();
+      verify(pair.connectionA, never()).onMessage(anyString(), any(ByteString.class));
+
+      // the dummy prover of A finishes immediately if its attestation is accepted
+      pair.deliverToA(Idscp2MessageHelper.createIdscpRatVerifierMessage("attested".getBytes()));
+      FsmPair.awaitConnected(pair.fsmA);
+
+      // B refers to the type by its tag only
+      assertTrue(pair.fsmB.send(TYPE_A, ByteString.copyFromUtf8("cached")));
+      pair.toA.flush();
+      verify(pair.connectionA).onMessage(TYPE_A, ByteString.copyFromUtf8("cached"));
+      assertTrue(pair.fsmA.isConnected());
+    }
+  }
+
+  @Test
+  public void testNoDataIsSentAfterCloseForInvalidTag() throws Exception {
+    try (FsmPair pair = new FsmPair()) {
+      pair.handshake();
+
+      // A keeps sending while it receives a tag that B has never registered
+      AtomicBoolean sending = new AtomicBoolean(true);
+      Thread sender = new Thread(() -> {
+        while (sending.get() && pair.fsmA.send(TYPE_A, ByteString.copyFromUtf8("data"))) {
+          Thread.yield();
+        }
+      });
+      sender.start();
+      IdscpMessage invalid = IdscpMessage.newBuilder()
+          .setIdscpData(IdscpData.newBuilder().setTypeTag(1).setData(ByteString.copyFromUtf8("?")))
+          .build();
+      pair.deliverToA(invalid);
+      sending.set(false);
+      sender.join(10_000);
+
+      // A closes the connection and does not send IDSCP_DATA after IDSCP_CLOSE
+      assertFalse(pair.fsmA.isConnected());
+      List<IdscpMessage.MessageCase> sent = pair.toB.sentMessages;
+      int close = sent.indexOf(IdscpMessage.MessageCase.IDSCPCLOSE);
+      assertTrue(close >= 0);
+      assertFalse(sent.subList(close, sent.size()).contains(IdscpMessage.MessageCase.IDSCPDATA));
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.rat_registry;
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d.TPM2dVerifierConfig;
+import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation.IdsAttestationType;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RatResultCacheTest {
+
+  private static final String PEER = "peer-fingerprint";
+
+  @Before
+  public void setUp() {
+    RatResultCache.clear();
+  }
+
+  @Test
+  public void testResultExpiresAfterMaxAge() throws Exception {
+    assertFalse(RatResultCache.isAttested(PEER, "Dummy", null));
+    RatResultCache.put(PEER, "Dummy", null, 200);
+    assertTrue(RatResultCache.isAttested(PEER, "Dummy", null));
+    // the result is bound to the mechanism and the peer
+    assertFalse(RatResultCache.isAttested(PEER, "TPM2d", null));
+    assertFalse(RatResultCache.isAttested("other-peer", "Dummy", null));
+    assertFalse(RatResultCache.isAttested(null, "Dummy", null));
+
+    Thread.sleep(300);
+    assertFalse(RatResultCache.isAttested(PEER, "Dummy", null));
+  }
+
+  @Test
+  public void testFailedAttestationInvalidatesResult() {
+    RatResultCache.put(PEER, "Dummy", null, 60000);
+    RatResultCache.invalidate(PEER, "Dummy", null);
+    assertFalse(RatResultCache.isAttested(PEER, "Dummy", null));
+
+    // without a certificate or with a disabled cache nothing is stored
+    RatResultCache.put(null, "Dummy", null, 60000);
+    RatResultCache.put(PEER, "Dummy", null, 0);
+    assertFalse(RatResultCache.isAttested(PEER, "Dummy", null));
+    assertNull(RatResultCache.fingerprint(null));
+  }
+
+  @Test
+  public void testLeastRecentlyStoredResultIsRemoved() {
+    RatResultCache.put(PEER, "Dummy", null, 60000);
+    for (int i = 1; i < RatResultCache.MAX_ENTRIES; i++) {
+      RatResultCache.put(PEER + i, "Dummy", null, 60000);
+    }
+    // a renewed result becomes the most recently stored one
+    RatResultCache.put(PEER, "Dummy", null, 60000);
+    RatResultCache.put("other-peer", "Dummy", null, 60000);
+
+    assertTrue(RatResultCache.isAttested(PEER, "Dummy", null));
+    assertTrue(RatResultCache.isAttested("other-peer", "Dummy", null));
+    assertFalse(RatResultCache.isAttested(PEER + 1, "Dummy", null));
+    assertTrue(RatResultCache.isAttested(PEER + 2, "Dummy", null));
+  }
+
+  @Test
+  public void testResultIsBoundToVerifierConfig() {
+    TPM2dVerifierConfig lax = new TPM2dVerifierConfig.Builder()
+        .setExpectedAttestationType(IdsAttestationType.BASIC)
+        .build();
+    TPM2dVerifierConfig strict = new TPM2dVerifierConfig.Builder()
+        .setExpectedAttestationType(IdsAttestationType.ADVANCED)
+        .setExpectedAttestationMask(0x0603ff)
+        .build();
+    RatResultCache.put(PEER, "TPM2d", lax, 60000);
+    assertTrue(RatResultCache.isAttested(PEER, "TPM2d", lax));
+    // an attestation accepted by a lax verifier is not reused by a stricter one
+    assertFalse(RatResultCache.isAttested(PEER, "TPM2d", strict));
+    assertFalse(RatResultCache.isAttested(PEER, "TPM2d", null));
+
+    // verifiers with the same requirements share the result
+    TPM2dVerifierConfig sameAsLax = new TPM2dVerifierConfig.Builder()
+        .setExpectedAttestationType(IdsAttestationType.BASIC)
+        .build();
+    assertTrue(RatResultCache.isAttested(PEER, "TPM2d", sameAsLax));
+  }
+}
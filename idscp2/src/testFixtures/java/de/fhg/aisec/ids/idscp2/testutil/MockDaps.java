@@ -0,0 +1,208 @@
+package de.fhg.aisec.ids.idscp2.testutil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local DAPS for tests, which issues DATs signed by its own key and provides the key via its JWKS
+ * endpoint. Token requests and JWKS fetches are counted.
+ */
+public class MockDaps implements AutoCloseable {
+
+  public static final int AUDIT_LOGGING = 2;
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final String url;
+  private final String issuer;
+  private final String subject;
+  private final AtomicInteger tokenRequests = new AtomicInteger();
+  private final AtomicInteger jwksFetches = new AtomicInteger();
+  private volatile KeyPair key;
+  private volatile String keyId = "mock";
+  private volatile long datValidity = 3600;
+  private volatile long responseDelay = 0;
+  private volatile CountDownLatch release = new CountDownLatch(0);
+  private volatile boolean failing = false;
+
+  /*
+   * Start a DAPS that issues DATs for the given subject, the issuer is the URL of the DAPS if null
+   */
+  public MockDaps(String subject, String issuer) throws IOException {
+    this.subject = subject;
+    key = generateKey();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    url = "http://127.0.0.1:" + server.getAddress().getPort();
+    this.issuer = issuer != null ? issuer : url;
+    server.createContext("/token", this::token);
+    server.createContext("/.well-known/jwks.json", this::jwks);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  private void token(HttpExchange exchange) throws IOException {
+    int request = tokenRequests.incrementAndGet();
+    try (InputStream in = exchange.getRequestBody()) {
+      in.readAllBytes();
+      Thread.sleep(responseDelay);
+      release.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (failing) {
+      respond(exchange, 500, "{\"error\":\"server_error\"}");
+    } else {
+      respond(exchange, 200, "{\"access_token\":\"" + dat(Integer.toString(request)) + "\"}");
+    }
+  }
+
+  private void jwks(HttpExchange exchange) throws IOException {
+    jwksFetches.incrementAndGet();
+    RSAPublicKey publicKey = (RSAPublicKey) key.getPublic();
+    respond(exchange, 200, "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"" + keyId + "\",\"use\":\"sig\","
+        + "\"alg\":\"RS256\",\"n\":\"" + base64Url(publicKey.getModulus()) + "\",\"e\":\""
+        + base64Url(publicKey.getPublicExponent()) + "\"}]}");
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static String base64Url(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    if (bytes[0] == 0) {
+      bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  private static KeyPair generateKey() {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+      generator.initialize(2048);
+      return generator.generateKeyPair();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private String dat(String id, KeyPair signingKey) {
+    long now = System.currentTimeMillis();
+    Map<String, Object> securityProfile = new HashMap<>();
+    securityProfile.put("audit_logging", AUDIT_LOGGING);
+    return Jwts.builder()
+        .setHeaderParam("kid", keyId)
+        .setId(id)
+        .setIssuer(issuer)
+        .setSubject(subject)
+        .setAudience("IDS_Connector")
+        .setIssuedAt(new Date(now))
+        .setExpiration(new Date(now + TimeUnit.SECONDS.toMillis(datValidity)))
+        .claim("ids_attributes", Collections.singletonMap("security_profile", securityProfile))
+        .signWith(signingKey.getPrivate(), SignatureAlgorithm.RS256)
+        .compact();
+  }
+
+  /*
+   * A DAT as issued by this DAPS with the given token ID
+   */
+  public String dat(String id) {
+    return dat(id, key);
+  }
+
+  /*
+   * A DAT with the key ID of this DAPS, but signed by another key
+   */
+  public String forgedDat(String id) {
+    return dat(id, generateKey());
+  }
+
+  /*
+   * Sign all further DATs with a new key that has the given key ID
+   */
+  public void rotateKey(String keyId) {
+    key = generateKey();
+    this.keyId = keyId;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public int getTokenRequests() {
+    return tokenRequests.get();
+  }
+
+  public int getJwksFetches() {
+    return jwksFetches.get();
+  }
+
+  /*
+   * Validity of further DATs in seconds
+   */
+  public void setDatValidity(long seconds) {
+    datValidity = seconds;
+  }
+
+  /*
+   * Delay of every token response in milliseconds
+   */
+  public void setResponseDelay(long millis) {
+    responseDelay = millis;
+  }
+
+  /*
+   * Answer token requests with an error instead of a DAT
+   */
+  public void setFailing(boolean failing) {
+    this.failing = failing;
+  }
+
+  /*
+   * Hold back the responses to token requests until releaseTokens() is called
+   */
+  public void holdBackTokens() {
+    release = new CountDownLatch(1);
+  }
+
+  public void releaseTokens() {
+    release.countDown();
+  }
+
+  @Override
+  public void close() {
+    release.countDown();
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,68 @@
+package de.fhg.aisec.ids.idscp2.testutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates a key store with a fresh self-signed certificate and a trust store that trusts it, since
+ * the bundled test certificates have expired
+ */
+public final class TestKeyStores {
+
+  public static final String KEY_STORE = "keystore.jks";
+  public static final String TRUST_STORE = "truststore.jks";
+  public static final String KEY_ALIAS = "1";
+  public static final String PASSWORD = "password";
+
+  private TestKeyStores() {
+  }
+
+  private static void keytool(String... args) throws IOException, InterruptedException {
+    List<String> cmd = new ArrayList<>();
+    cmd.add(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString());
+    cmd.addAll(Arrays.asList(args));
+    Process p = new ProcessBuilder(cmd).inheritIO().start();
+    if (p.waitFor() != 0) {
+      throw new IOException("keytool " + args[0] + " failed with exit code " + p.exitValue());
+    }
+  }
+
+  /**
+   * Creates KEY_STORE and TRUST_STORE in the given directory, unless the key store exists already
+   *
+   * @param dir Directory of the stores
+   * @param dname Distinguished name of the certificate
+   * @param san Subject alternative names of the certificate, or null
+   * @param trustAlias Alias of the certificate in the trust store
+   */
+  public static void create(File dir, String dname, String san, String trustAlias)
+      throws IOException, InterruptedException {
+    File keyStore = new File(dir, KEY_STORE);
+    if (keyStore.exists()) {
+      return;
+    }
+    File cert = new File(dir, "cert.pem");
+    List<String> genKeyPair = new ArrayList<>(Arrays.asList("-genkeypair", "-keyalg", "RSA",
+        "-keysize", "2048", "-alias", KEY_ALIAS, "-dname", dname, "-validity", "2", "-keystore",
+        keyStore.getPath(), "-storetype", "JKS", "-storepass", PASSWORD, "-keypass", PASSWORD));
+    if (san != null) {
+      genKeyPair.addAll(Arrays.asList("-ext", "SAN=" + san));
+    }
+    keytool(genKeyPair.toArray(new String[0]));
+    keytool("-exportcert", "-rfc", "-alias", KEY_ALIAS, "-file", cert.getPath(), "-keystore",
+        keyStore.getPath(), "-storepass", PASSWORD);
+    keytool("-importcert", "-noprompt", "-alias", trustAlias, "-file", cert.getPath(), "-keystore",
+        new File(dir, TRUST_STORE).getPath(), "-storetype", "JKS", "-storepass", PASSWORD);
+  }
+
+  /**
+   * Creates the stores of a certificate for localhost, which is trusted under KEY_ALIAS
+   */
+  public static void createLocalhost(File dir) throws IOException, InterruptedException {
+    create(dir, "CN=localhost", "dns:localhost,ip:127.0.0.1", KEY_ALIAS);
+  }
+}
@@ -25,6 +25,7 @@ import de.fhg.aisec.ids.messages.Idscp.ConnectorMessage;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import org.slf4j.Logger;
@@ -37,6 +38,9 @@ public class Database {
   private static final int PCRS_BASIC = 11;
   private static final int PCRS_ADVANCED = 17;
   private static final int PCRS_ALL = 24;
+  private static final String DEFAULT_URL = "jdbc:sqlite:configuration.db";
+  // number of PCR rows that are sent to the database at once
+  private static final int BATCH_SIZE = 10000;
   private static final ByteString ZERO;
   private static final ByteString FFFF;
 
@@ -50,12 +54,37 @@ public class Database {
   }
 
   private Connection connection;
+  // answers the configuration requests without SQL queries
+  private final PcrIndex index = new PcrIndex();
 
   public Database() {
+    this(DEFAULT_URL);
+  }
+
+  public Database(String url) {
+    this(url, false);
+  }
+
+  /**
+   * Opens the configuration database.
+   *
+   * @param url JDBC URL of the SQLite database
+   * @param persistent Keep the stored configurations instead of recreating the tables, the
+   *     database is then operated in WAL journal mode
+   */
+  public Database(String url, boolean persistent) {
     try {
-      makeJDBCConnection();
+      makeJDBCConnection(url);
+      if (persistent) {
+        enableWriteAheadLog();
+      } else {
+        dropTables();
+      }
       createTables();
-      insertDefaultConfiguration();
+      loadIndex();
+      if (isEmpty()) {
+        insertDefaultConfiguration();
+      }
     } catch (SQLException e) {
       throw new IllegalStateException(e);
     }
@@ -82,7 +111,7 @@ public class Database {
     this.insertConfiguration("default_all", "ALL", all);
   }
 
-  private void makeJDBCConnection() {
+  private void makeJDBCConnection(String url) {
     try {
       Class.forName("org.sqlite.JDBC");
     } catch (ClassNotFoundException e) {
@@ -92,7 +121,7 @@ public class Database {
       return;
     }
     try {
-      connection = DriverManager.getConnection("jdbc:sqlite:configuration.db");
+      connection = DriverManager.getConnection(url);
       LOG.trace("connection to sqlite db successful!");
     } catch (SQLException e) {
       LOG.error("Failed to make connection to mysql db!", e);
@@ -103,10 +132,29 @@ public class Database {
     return connection;
   }
 
+  private void enableWriteAheadLog() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      try (ResultSet rs = statement.executeQuery("PRAGMA journal_mode=WAL")) {
+        if (rs.next()) {
+          LOG.debug("Journal mode of the configuration database: {}", rs.getString(1));
+        }
+      }
+      // with WAL, commits remain durable across application crashes without a sync
+      statement.executeUpdate("PRAGMA synchronous=NORMAL");
+    }
+  }
+
+  private void dropTables() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("DROP TABLE IF EXISTS PCR");
+      statement.executeUpdate("DROP TABLE IF EXISTS CONFIG");
+    }
+  }
+
   public void createTables() throws SQLException {
     try (Statement statement = connection.createStatement()) {
       String sql =
-          "DROP TABLE IF EXISTS CONFIG; CREATE TABLE CONFIG ("
+          "CREATE TABLE IF NOT EXISTS CONFIG ("
               + "'ID' INTEGER PRIMARY KEY AUTOINCREMENT,"
               + "'NAME' VARCHAR(255) NULL DEFAULT 'Configuration Name',"
               + "'TYPE' VARCHAR(255) NULL DEFAULT 'BASIC');";
@@ -115,7 +163,7 @@ public class Database {
 
     try (Statement statement = connection.createStatement()) {
       String sql =
-          "DROP TABLE IF EXISTS PCR; CREATE TABLE PCR ("
+          "CREATE TABLE IF NOT EXISTS PCR ("
               + "'ID' INTEGER PRIMARY KEY AUTOINCREMENT,"
               + "'SEQ' INTEGER DEFAULT '0',"
               + "'VALUE' BLOB NOT NULL,"
@@ -123,108 +171,171 @@ public class Database {
               + "FOREIGN KEY (CID) REFERENCES 'CONFIG' ('ID'));";
       statement.executeUpdate(sql);
     }
-  }
 
-  public long insertConfiguration(String name, String type, Pcr[] values) throws SQLException {
-    String sql = "INSERT INTO CONFIG (NAME, TYPE) VALUES (?,?)";
-    try (PreparedStatement pStatement =
-        connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-      pStatement.setString(1, name);
-      pStatement.setString(2, type);
-      pStatement.executeUpdate();
-      try (ResultSet keySet = pStatement.getGeneratedKeys()) {
-        long key = keySet.getLong(1);
-        this.insertPcrs(values, key);
-        return key;
-      }
+    try (Statement statement = connection.createStatement()) {
+      // PCR values are read and deleted by configuration
+      statement.executeUpdate("CREATE INDEX IF NOT EXISTS PCR_CID ON PCR (CID, ID)");
     }
   }
 
-  private void insertPcrs(Pcr[] values, long key) throws SQLException {
-    String sql = "INSERT INTO PCR (SEQ, VALUE, CID) VALUES  (?,?,?)";
-    try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
-      for (Pcr value : values) {
-        LOG.debug("INSERT PCR order: {} value {}", value.getNumber(), value.getValue());
-        pStatement.setInt(1, value.getNumber());
-        pStatement.setBytes(2, value.getValue().toByteArray());
-        pStatement.setLong(3, key);
-        pStatement.executeUpdate();
-      }
+  private boolean isEmpty() throws SQLException {
+    try (Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM CONFIG")) {
+      return !rs.next() || rs.getLong(1) == 0;
     }
   }
 
-  private List<Long> getConfigurationIdSingle(Pcr value) throws SQLException {
-    String sql =
-        "SELECT * FROM CONFIG INNER JOIN PCR ON PCR.CID = CONFIG.ID "
-            + "WHERE PCR.SEQ = ? AND PCR.VALUE = ? ORDER BY CONFIG.ID";
-    try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
-      pStatement.setInt(1, value.getNumber());
-      pStatement.setBytes(2, value.getValue().toByteArray());
-      List<Long> result = new ArrayList<>();
-      try (ResultSet rs = pStatement.executeQuery()) {
-        while (rs.next()) {
-          result.add(rs.getLong("ID"));
-        }
+  /** Rebuilds the in-memory index from the stored PCR values. */
+  private void loadIndex() throws SQLException {
+    index.clear();
+    try (Statement stmt = connection.createStatement();
+        ResultSet rs =
+            stmt.executeQuery(
+                "SELECT PCR.CID, PCR.SEQ, PCR.VALUE FROM PCR "
+                    + "INNER JOIN CONFIG ON CONFIG.ID = PCR.CID ORDER BY PCR.CID, PCR.ID")) {
+      boolean hasRow = rs.next();
+      while (hasRow) {
+        long id = rs.getLong(1);
+        List<Pcr> values = new ArrayList<>();
+        do {
+          values.add(
+              Pcr.newBuilder()
+                  .setNumber(rs.getInt(2))
+                  .setValue(ByteString.copyFrom(rs.getBytes(3)))
+                  .build());
+          hasRow = rs.next();
+        } while (hasRow && rs.getLong(1) == id);
+        index.add(id, values);
       }
-      return result;
     }
+    LOG.debug("Indexed {} configurations", index.size());
   }
 
-  public List<Long> getConfigurationId(List<Pcr> values) throws SQLException {
-    List<Long> start = this.getConfigurationIdSingle(values.get(0));
-    values = values.subList(1, values.size());
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(
-          "\n#################################\nstart:{}\n#################################\n",
-          Arrays.toString(start.toArray()));
-    }
-    for (Pcr value : values) {
-      List<Long> now = this.getConfigurationIdSingle(value);
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(
-            "\n#################################\nnow:{}\n#################################\n",
-            Arrays.toString(now.toArray()));
+  public long insertConfiguration(String name, String type, Pcr[] values) throws SQLException {
+    return this.insertConfigurations(
+            Collections.singletonList(new Configuration(0, name, type, values)))
+        .get(0);
+  }
+
+  /**
+   * Inserts the configurations in a single transaction, their PCR values are written in batches.
+   *
+   * @return The ids of the inserted configurations
+   */
+  public synchronized List<Long> insertConfigurations(List<Configuration> configurations)
+      throws SQLException {
+    List<Long> keys = new ArrayList<>(configurations.size());
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try (PreparedStatement configStatement =
+            connection.prepareStatement(
+                "INSERT INTO CONFIG (NAME, TYPE) VALUES (?,?)", Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement pcrStatement =
+            connection.prepareStatement("INSERT INTO PCR (SEQ, VALUE, CID) VALUES (?,?,?)")) {
+      int batched = 0;
+      for (Configuration config : configurations) {
+        configStatement.setString(1, config.getName());
+        configStatement.setString(2, config.getType());
+        configStatement.executeUpdate();
+        long key;
+        try (ResultSet keySet = configStatement.getGeneratedKeys()) {
+          key = keySet.getLong(1);
+        }
+        for (Pcr value : config.getValues()) {
+          pcrStatement.setInt(1, value.getNumber());
+          pcrStatement.setBytes(2, value.getValue().toByteArray());
+          pcrStatement.setLong(3, key);
+          pcrStatement.addBatch();
+          if (++batched == BATCH_SIZE) {
+            pcrStatement.executeBatch();
+            batched = 0;
+          }
+        }
+        keys.add(key);
       }
-      start = intersection(start, now);
+      pcrStatement.executeBatch();
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
     }
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(
-          "\n#################################\nfinal:{}\n#################################\n",
-          Arrays.toString(start.toArray()));
+    for (int i = 0; i < keys.size(); i++) {
+      index.add(keys.get(i), Arrays.asList(configurations.get(i).getValues()));
     }
-    return start;
+    LOG.debug("Inserted {} configurations", keys.size());
+    return keys;
   }
 
-  private List<Long> intersection(List<Long> a, List<Long> b) {
-    ArrayList<Long> result = new ArrayList<>(a);
-    result.retainAll(b);
-    return result;
+  public List<Long> getConfigurationId(List<Pcr> values) {
+    List<Long> ids = index.find(values);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Configurations matching the PCR values: {}", Arrays.toString(ids.toArray()));
+    }
+    return ids;
   }
 
-  public boolean deleteConfigurationById(long id) throws SQLException {
-    String sql = "DELETE FROM CONFIG WHERE ID = ?";
+  public synchronized boolean deleteConfigurationById(long id) throws SQLException {
     int rowCount;
-    try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
-      pStatement.setLong(1, id);
-      rowCount = pStatement.executeUpdate();
-    }
-    if (rowCount == 1) {
-      sql = "DELETE FROM PCR WHERE CID = ?";
-      try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try {
+      try (PreparedStatement pStatement =
+          connection.prepareStatement("DELETE FROM CONFIG WHERE ID = ?")) {
         pStatement.setLong(1, id);
-        pStatement.executeUpdate();
+        rowCount = pStatement.executeUpdate();
+      }
+      if (rowCount == 1) {
+        try (PreparedStatement pStatement =
+            connection.prepareStatement("DELETE FROM PCR WHERE CID = ?")) {
+          pStatement.setLong(1, id);
+          pStatement.executeUpdate();
+        }
       }
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+    if (rowCount == 1) {
+      index.remove(id);
     }
     return rowCount == 1;
   }
 
   public List<Configuration> getConfigurationList() throws SQLException {
     List<Configuration> ll = new LinkedList<>();
+    // a single query for all configurations and their PCR values
+    String sql =
+        "SELECT CONFIG.ID, CONFIG.NAME, CONFIG.TYPE, PCR.SEQ, PCR.VALUE FROM CONFIG "
+            + "LEFT JOIN PCR ON PCR.CID = CONFIG.ID ORDER BY CONFIG.ID, PCR.ID";
     try (Statement stmt = connection.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT * FROM CONFIG")) {
-      while (rs.next()) {
-        long id = rs.getLong("ID");
-        ll.add(this.getConfiguration(id));
+        ResultSet rs = stmt.executeQuery(sql)) {
+      boolean hasRow = rs.next();
+      while (hasRow) {
+        long id = rs.getLong(1);
+        String name = rs.getString(2);
+        String type = rs.getString(3);
+        List<Pcr> values = new ArrayList<>();
+        do {
+          byte[] value = rs.getBytes(5);
+          if (value != null) {
+            values.add(
+                Pcr.newBuilder()
+                    .setNumber(rs.getInt(4))
+                    .setValue(ByteString.copyFrom(value))
+                    .build());
+          }
+          hasRow = rs.next();
+        } while (hasRow && rs.getLong(1) == id);
+        if (!values.isEmpty()) {
+          ll.add(new Configuration(id, name, type, values.toArray(new Pcr[0])));
+        } else {
+          ll.add(new Configuration(id, name, type));
+        }
       }
     }
     return ll;
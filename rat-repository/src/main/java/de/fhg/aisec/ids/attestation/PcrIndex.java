@@ -0,0 +1,140 @@
+/*-
+ * ========================LICENSE_START=================================
+ * rat-repository
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.attestation;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.messages.AttestationProtos.Pcr;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the PCR values of all configurations, such that requests are matched without
+ * SQL queries.
+ *
+ * <p>A request matches a configuration if the configuration contains all PCR values of the
+ * request. Every prefix of the PCR vector of a configuration, ordered by PCR number, is indexed by
+ * its hash. A request for the PCRs 0 to n-1, as sent by the verifiers, therefore finds its
+ * configurations with a single lookup. Other requests are matched against all indexed
+ * configurations.
+ */
+class PcrIndex {
+  // PCR values of the configurations by configuration id
+  private final Map<Long, SortedMap<Integer, ByteString>> configurations =
+      new ConcurrentHashMap<>();
+  // configuration ids by hash of the PCR vector prefixes, many configurations share a prefix
+  private final Map<Long, Set<Long>> prefixes = new ConcurrentHashMap<>();
+
+  synchronized void add(long id, Collection<Pcr> values) {
+    remove(id);
+    SortedMap<Integer, ByteString> pcrs = new TreeMap<>();
+    for (Pcr value : values) {
+      pcrs.put(value.getNumber(), value.getValue());
+    }
+    configurations.put(id, Collections.unmodifiableSortedMap(pcrs));
+    long hash = 0;
+    for (Map.Entry<Integer, ByteString> pcr : pcrs.entrySet()) {
+      hash = hash(hash, pcr.getKey(), pcr.getValue());
+      prefixes.computeIfAbsent(hash, h -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+  }
+
+  synchronized void remove(long id) {
+    SortedMap<Integer, ByteString> pcrs = configurations.remove(id);
+    if (pcrs == null) {
+      return;
+    }
+    long hash = 0;
+    for (Map.Entry<Integer, ByteString> pcr : pcrs.entrySet()) {
+      hash = hash(hash, pcr.getKey(), pcr.getValue());
+      prefixes.computeIfPresent(
+          hash,
+          (h, ids) -> {
+            ids.remove(id);
+            // remove the prefix if no configuration is left
+            return ids.isEmpty() ? null : ids;
+          });
+    }
+  }
+
+  synchronized void clear() {
+    configurations.clear();
+    prefixes.clear();
+  }
+
+  int size() {
+    return configurations.size();
+  }
+
+  /** Returns the ids of the configurations that contain all given PCR values, ascending. */
+  List<Long> find(List<Pcr> values) {
+    if (values.isEmpty()) {
+      return Collections.emptyList();
+    }
+    SortedMap<Integer, ByteString> request = new TreeMap<>();
+    for (Pcr value : values) {
+      request.put(value.getNumber(), value.getValue());
+    }
+    List<Long> result = new ArrayList<>();
+    if (request.size() == values.size()
+        && request.firstKey() == 0
+        && request.lastKey() == request.size() - 1) {
+      // the request is a prefix of every matching configuration
+      long hash = 0;
+      for (Map.Entry<Integer, ByteString> pcr : request.entrySet()) {
+        hash = hash(hash, pcr.getKey(), pcr.getValue());
+      }
+      for (long id : prefixes.getOrDefault(hash, Collections.emptySet())) {
+        // the hash may collide, or the configuration may just have been removed
+        SortedMap<Integer, ByteString> pcrs = configurations.get(id);
+        if (pcrs != null && contains(pcrs, values)) {
+          result.add(id);
+        }
+      }
+    } else {
+      for (Map.Entry<Long, SortedMap<Integer, ByteString>> config : configurations.entrySet()) {
+        if (contains(config.getValue(), values)) {
+          result.add(config.getKey());
+        }
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private static boolean contains(SortedMap<Integer, ByteString> pcrs, List<Pcr> values) {
+    for (Pcr value : values) {
+      if (!value.getValue().equals(pcrs.get(value.getNumber()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long hash(long hash, int number, ByteString value) {
+    return (hash * 31 + number) * 1_000_003 + value.hashCode();
+  }
+}
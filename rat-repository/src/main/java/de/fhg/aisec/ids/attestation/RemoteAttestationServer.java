@@ -39,7 +39,11 @@ public class RemoteAttestationServer {
   private static final Logger LOG = LoggerFactory.getLogger(Database.class);
 
   public RemoteAttestationServer(String host, String path, int port) {
-    this.database = new Database();
+    this(host, path, port, new Database());
+  }
+
+  public RemoteAttestationServer(String host, String path, int port, Database database) {
+    this.database = database;
     try {
       this.uri = new URI(String.format("https://%s:%d/%s", host, port, path));
       LOG.debug("Remote Attestation Repository starting on : " + this.uri.toURL().toString());
@@ -25,55 +25,47 @@ public class Start {
 
   private static String host = "127.0.0.1";
   private static int port = 31337;
+  private static String databaseFile = null;
 
   public static void main(String[] args) {
     switch (args.length) {
       case 2:
-        firstArg(args);
-        run();
-        break;
       case 4:
-        firstArg(args);
-        secondArg(args);
+      case 6:
+        for (int i = 0; i < args.length; i += 2) {
+          parseArg(args, i);
+        }
         run();
         break;
       default:
         System.out.println("IDS: Remote Attestation Repository v" + VERSION);
         System.out.println("-----------------------------------------");
         System.out.println(
-            "usage:\n\tjava -jar rat-repository-" + VERSION + ".jar [-p Port] [-h Host]");
+            "usage:\n\tjava -jar rat-repository-"
+                + VERSION
+                + ".jar [-p Port] [-h Host] [-d Database file]");
         System.out.println(
             "example:\n\tjava -jar rat-repository-" + VERSION + ".jar -p 31337 -h 127.0.0.1");
+        System.out.println(
+            "\tConfigurations are kept across restarts only if a database file is given.");
         System.out.println();
         break;
     }
   }
 
-  private static void firstArg(String[] args) {
-    if (args[0].equals("-p")) {
-      if (isInteger(args[1])) {
-        port = Integer.parseInt(args[1]);
-      } else {
-        System.out.println("error: " + args[1] + " is not a port number!");
-      }
-    } else if (args[0].equals("-h")) {
-      host = args[1];
-    } else {
-      System.out.println("error: " + args[1] + " is not a valid option!");
-    }
-  }
-
-  private static void secondArg(String[] args) {
-    if (args[2].equals("-p")) {
-      if (isInteger(args[3])) {
-        port = Integer.parseInt(args[3]);
+  private static void parseArg(String[] args, int i) {
+    if (args[i].equals("-p")) {
+      if (isInteger(args[i + 1])) {
+        port = Integer.parseInt(args[i + 1]);
       } else {
-        System.out.println("error: " + args[3] + " is not a port number!");
+        System.out.println("error: " + args[i + 1] + " is not a port number!");
       }
-    } else if (args[2].equals("-h")) {
-      host = args[3];
+    } else if (args[i].equals("-h")) {
+      host = args[i + 1];
+    } else if (args[i].equals("-d")) {
+      databaseFile = args[i + 1];
     } else {
-      System.out.println("error: " + args[3] + " is not a valid option!");
+      System.out.println("error: " + args[i] + " is not a valid option!");
     }
   }
 
@@ -87,7 +79,11 @@ public class Start {
   }
 
   private static void run() {
-    RemoteAttestationServer ratServer = new RemoteAttestationServer(host, URL, port);
+    Database database =
+        databaseFile != null
+            ? new Database("jdbc:sqlite:" + databaseFile, true)
+            : new Database();
+    RemoteAttestationServer ratServer = new RemoteAttestationServer(host, URL, port, database);
     try {
       ratServer.start();
       ratServer.join();
@@ -0,0 +1,262 @@
+/*-
+ * ========================LICENSE_START=================================
+ * rat-repository
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.attestation;
+
+import static org.junit.Assert.*;
+
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.messages.AttestationProtos.Pcr;
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatabaseTest {
+
+  private static final int CONFIGURATIONS = 10000;
+  private static final int PCRS = 24;
+  private static final int SQL_LOOKUPS = 20;
+  private static final int FIRMWARE_PCRS = 8;
+  private static final int SHARED_PREFIX_CONFIGURATIONS = 10000;
+  private static final int IMPORTED_CONFIGURATIONS = 50000;
+
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  private static Database db;
+  private static final List<Pcr[]> stored = new ArrayList<>();
+  private static final List<Long> ids = new ArrayList<>();
+
+  private static Pcr[] randomPcrs(Random random) {
+    Pcr[] values = new Pcr[PCRS];
+    for (int i = 0; i < PCRS; i++) {
+      byte[] value = new byte[32];
+      random.nextBytes(value);
+      values[i] = Pcr.newBuilder().setNumber(i).setValue(ByteString.copyFrom(value)).build();
+    }
+    return values;
+  }
+
+  @BeforeClass
+  public static void initDatabase() throws SQLException {
+    db = new Database("jdbc:sqlite::memory:");
+    Random random = new Random(42);
+    List<Configuration> configurations = new ArrayList<>();
+    for (int i = 0; i < CONFIGURATIONS; i++) {
+      Pcr[] values = randomPcrs(random);
+      stored.add(values);
+      configurations.add(new Configuration(0, "config" + i, "ALL", values));
+    }
+    ids.addAll(db.insertConfigurations(configurations));
+  }
+
+  /** The previous lookup: one query per PCR value and an intersection of the results. */
+  private static List<Long> sqlConfigurationId(List<Pcr> values) throws SQLException {
+    String sql =
+        "SELECT * FROM CONFIG INNER JOIN PCR ON PCR.CID = CONFIG.ID "
+            + "WHERE PCR.SEQ = ? AND PCR.VALUE = ? ORDER BY CONFIG.ID";
+    List<Long> result = null;
+    try (PreparedStatement pStatement = db.getConnection().prepareStatement(sql)) {
+      for (Pcr value : values) {
+        pStatement.setInt(1, value.getNumber());
+        pStatement.setBytes(2, value.getValue().toByteArray());
+        List<Long> now = new ArrayList<>();
+        try (ResultSet rs = pStatement.executeQuery()) {
+          while (rs.next()) {
+            now.add(rs.getLong("ID"));
+          }
+        }
+        if (result == null) {
+          result = now;
+        } else {
+          result.retainAll(now);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testIndexMatchesPreviousLookupOfRandomConfigurations() throws SQLException {
+    Random random = new Random(7);
+    for (int i = 0; i < SQL_LOOKUPS; i++) {
+      int n = random.nextInt(CONFIGURATIONS);
+      List<Pcr> request = Arrays.asList(stored.get(n));
+      assertEquals(Collections.singletonList(ids.get(n)), db.getConfigurationId(request));
+      assertEquals(sqlConfigurationId(request), db.getConfigurationId(request));
+    }
+  }
+
+  @Test
+  public void testIndexOfConfigurationsWithSharedPrefix() {
+    // machines with identical firmware share the values of the PCRs 0 to 7
+    Random random = new Random(5);
+    Pcr[] firmware = randomPcrs(random);
+    List<Pcr> prefix = Arrays.asList(firmware).subList(0, FIRMWARE_PCRS);
+    PcrIndex index = new PcrIndex();
+    List<Pcr[]> configurations = new ArrayList<>();
+    for (int id = 0; id < SHARED_PREFIX_CONFIGURATIONS; id++) {
+      Pcr[] values = randomPcrs(random);
+      System.arraycopy(firmware, 0, values, 0, FIRMWARE_PCRS);
+      configurations.add(values);
+      index.add(id, Arrays.asList(values));
+    }
+    assertEquals(SHARED_PREFIX_CONFIGURATIONS, index.find(prefix).size());
+    assertEquals(
+        Collections.singletonList(42L), index.find(Arrays.asList(configurations.get(42))));
+
+    // a configuration is only indexed once, also if it is added again
+    index.add(42, Arrays.asList(configurations.get(42)));
+    assertEquals(SHARED_PREFIX_CONFIGURATIONS, index.find(prefix).size());
+
+    index.remove(42);
+    List<Long> remaining = index.find(prefix);
+    assertEquals(SHARED_PREFIX_CONFIGURATIONS - 1, remaining.size());
+    assertFalse(remaining.contains(42L));
+    assertTrue(index.find(Arrays.asList(configurations.get(42))).isEmpty());
+  }
+
+  @Test
+  public void testIndexMatchesPreviousLookup() throws SQLException {
+    Pcr[] values = stored.get(CONFIGURATIONS / 2);
+    // a prefix of the PCR vector, PCRs in arbitrary order and a subset of the PCRs
+    List<List<Pcr>> requests = new ArrayList<>();
+    requests.add(Arrays.asList(values).subList(0, 12));
+    List<Pcr> reversed = new ArrayList<>(Arrays.asList(values));
+    Collections.reverse(reversed);
+    requests.add(reversed);
+    requests.add(Arrays.asList(values[3], values[7], values[20]));
+    // PCR values of the default configurations
+    requests.add(Arrays.asList(db.getConfiguration(1).getValues()));
+    for (List<Pcr> request : requests) {
+      assertEquals(sqlConfigurationId(request), db.getConfigurationId(request));
+    }
+
+    Pcr[] modified = values.clone();
+    modified[PCRS - 1] = values[0].toBuilder().setNumber(PCRS - 1).build();
+    assertTrue(db.getConfigurationId(Arrays.asList(modified)).isEmpty());
+  }
+
+  @Test
+  public void testIndexIsMaintainedOnInsertAndDelete() throws SQLException {
+    Pcr[] values = randomPcrs(new Random(1));
+    assertTrue(db.getConfigurationId(Arrays.asList(values)).isEmpty());
+    long id = db.insertConfiguration("inserted", "ALL", values);
+    assertEquals(Collections.singletonList(id), db.getConfigurationId(Arrays.asList(values)));
+    assertTrue(db.deleteConfigurationById(id));
+    assertTrue(db.getConfigurationId(Arrays.asList(values)).isEmpty());
+  }
+
+  @Test
+  public void testConfigurationList() throws SQLException {
+    List<Configuration> configurations = db.getConfigurationList();
+    // the default configurations and the inserted ones
+    assertEquals(CONFIGURATIONS + 3, configurations.size());
+    for (Configuration configuration : configurations.subList(0, 10)) {
+      assertEquals(db.getConfiguration(configuration.getId()), configuration);
+    }
+  }
+
+  @Test
+  public void testBulkImport() throws Exception {
+    // PCR values are shared between the configurations to bound the memory of the test
+    Random random = new Random(3);
+    ByteString[] pool = new ByteString[4096];
+    for (int i = 0; i < pool.length; i++) {
+      byte[] value = new byte[32];
+      random.nextBytes(value);
+      pool[i] = ByteString.copyFrom(value);
+    }
+    List<Configuration> configurations = new ArrayList<>(IMPORTED_CONFIGURATIONS);
+    for (int i = 0; i < IMPORTED_CONFIGURATIONS; i++) {
+      Pcr[] values = new Pcr[PCRS];
+      for (int j = 0; j < PCRS; j++) {
+        values[j] =
+            Pcr.newBuilder().setNumber(j).setValue(pool[random.nextInt(pool.length)]).build();
+      }
+      configurations.add(new Configuration(0, "imported" + i, "ALL", values));
+    }
+
+    File file = tmp.newFile("import.db");
+    Database imported = new Database("jdbc:sqlite:" + file.getPath(), true);
+    try {
+      List<Long> keys = imported.insertConfigurations(configurations);
+      assertEquals(IMPORTED_CONFIGURATIONS, keys.size());
+      int last = IMPORTED_CONFIGURATIONS - 1;
+      assertEquals(
+          Collections.singletonList(keys.get(last)),
+          imported.getConfigurationId(Arrays.asList(configurations.get(last).getValues())));
+      try (Statement stmt = imported.getConnection().createStatement();
+          ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM PCR")) {
+        assertTrue(rs.next());
+        // the PCRs of the default configurations and of the imported ones
+        assertEquals(11 + 17 + 24 + IMPORTED_CONFIGURATIONS * PCRS, rs.getLong(1));
+      }
+    } finally {
+      imported.getConnection().close();
+    }
+  }
+
+  @Test
+  public void testPersistentConfigurations() throws Exception {
+    String url = "jdbc:sqlite:" + tmp.newFile("persistent.db").getPath();
+    Pcr[] values = randomPcrs(new Random(2));
+    Database persistent = new Database(url, true);
+    long id;
+    try {
+      id = persistent.insertConfiguration("persistent", "ALL", values);
+      try (Statement stmt = persistent.getConnection().createStatement();
+          ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+        assertTrue(rs.next());
+        assertEquals("wal", rs.getString(1).toLowerCase());
+      }
+    } finally {
+      persistent.getConnection().close();
+    }
+
+    // the configuration is indexed again after a restart, the defaults are not duplicated
+    Database restarted = new Database(url, true);
+    try {
+      assertEquals(
+          Collections.singletonList(id), restarted.getConfigurationId(Arrays.asList(values)));
+      assertEquals(4, restarted.getConfigurationList().size());
+    } finally {
+      restarted.getConnection().close();
+    }
+
+    // without persistence, the tables are recreated
+    Database recreated = new Database(url);
+    try {
+      assertTrue(recreated.getConfigurationId(Arrays.asList(values)).isEmpty());
+      assertEquals(3, recreated.getConfigurationList().size());
+    } finally {
+      recreated.getConnection().close();
+    }
+  }
+}